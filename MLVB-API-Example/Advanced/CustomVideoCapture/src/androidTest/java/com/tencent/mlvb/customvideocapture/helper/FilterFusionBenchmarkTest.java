@@ -0,0 +1,93 @@
+package com.tencent.mlvb.customvideocapture.helper;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferRing;
+import com.tencent.mlvb.customvideocapture.helper.basic.PipelineTracer;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.LookupTableFilter;
+import com.tencent.mlvb.customvideocapture.helper.source.TestPatternFrameSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The GPU time of the capture filters with and without fusion, on the device: the camera input, the copy and a
+ * {@link LookupTableFilter} are all pointwise, so fused they are one pass instead of three. Frames come from a
+ * {@link TestPatternFrameSource}, the times are the {@link PipelineTracer.Stage#FILTER_GPU} statistics, written to
+ * logcat under the tag of this class. Skipped where the GPU time cannot be measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FilterFusionBenchmarkTest {
+    private static final String TAG = "FilterFusionBenchmark";
+
+    private static final int  FRAME_RATE = 30;
+    private static final long WARM_UP_MS = 1000;
+    private static final long MEASURE_MS = 5000;
+
+    @Test
+    public void filterGpuTime720p() throws InterruptedException {
+        compare(1280, 720);
+    }
+
+    @Test
+    public void filterGpuTime1080p() throws InterruptedException {
+        compare(1920, 1080);
+    }
+
+    private void compare(int width, int height) throws InterruptedException {
+        PipelineTracer.Snapshot fused = measure(width, height, true);
+        PipelineTracer.Snapshot unfused = measure(width, height, false);
+        Log.i(TAG, width + "x" + height + " fused: " + fused);
+        Log.i(TAG, width + "x" + height + " unfused: " + unfused);
+    }
+
+    private PipelineTracer.Snapshot measure(int width, int height, boolean fusion) throws InterruptedException {
+        CustomCameraCapture capture = new CustomCameraCapture(new TestPatternFrameSource(width, height, FRAME_RATE));
+        capture.addFilter(new LookupTableFilter(createIdentityTable()));
+        capture.setFilterFusionEnabled(fusion);
+        // Draw every frame as it comes, the governor and the pacer would only add their own timing.
+        capture.setMinFrameRate(FRAME_RATE);
+        capture.setTargetFrameRate(0);
+        PipelineTracer tracer = new PipelineTracer();
+        capture.setPipelineTracer(tracer);
+
+        capture.start(new CustomCameraCapture.VideoFrameReadListener() {
+            @Override
+            public void onFrameAvailable(FrameBufferRing.Slot frame) {
+                frame.release();
+            }
+        });
+        PipelineTracer.Snapshot snapshot = new PipelineTracer.Snapshot();
+        try {
+            Thread.sleep(WARM_UP_MS);
+            tracer.reset();
+            Thread.sleep(MEASURE_MS);
+            tracer.getSnapshot(PipelineTracer.Stage.FILTER_GPU, snapshot);
+        } finally {
+            capture.stop();
+        }
+        assumeTrue("the gpu time cannot be measured on this device", snapshot.count > 0);
+        return snapshot;
+    }
+
+    /**
+     * A table that maps every color to itself, it costs the same to sample as a real one.
+     */
+    private static Bitmap createIdentityTable() {
+        int size = LookupTableFilter.TABLE_SIZE;
+        int[] pixels = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int blue = (y / 64) * 8 + x / 64;
+                pixels[y * size + x] = Color.rgb((x % 64) * 255 / 63, (y % 64) * 255 / 63, blue * 255 / 63);
+            }
+        }
+        return Bitmap.createBitmap(pixels, size, size, Bitmap.Config.ARGB_8888);
+    }
+}
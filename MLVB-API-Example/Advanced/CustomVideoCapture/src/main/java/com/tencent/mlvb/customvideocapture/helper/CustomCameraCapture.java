@@ -2,9 +2,7 @@ package com.tencent.mlvb.customvideocapture.helper;
 
 
 import android.graphics.SurfaceTexture;
-import android.hardware.Camera;
 import android.opengl.EGLContext;
-import android.opengl.GLES20;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -17,20 +15,33 @@ import android.widget.ImageView;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
-import com.tencent.mlvb.customvideocapture.helper.basic.FrameBuffer;
-import com.tencent.mlvb.customvideocapture.helper.basic.TextureFrame;
+import com.tencent.mlvb.customvideocapture.helper.basic.FpsGovernor;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferPool;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferRing;
+import com.tencent.mlvb.customvideocapture.helper.basic.FramePacer;
+import com.tencent.mlvb.customvideocapture.helper.basic.PipelineTracer;
+import com.tencent.mlvb.customvideocapture.helper.basic.QualityScaler;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFramePool;
+import com.tencent.mlvb.customvideocapture.helper.record.VideoRecorder;
 import com.tencent.mlvb.customvideocapture.helper.render.EglCore;
+import com.tencent.mlvb.customvideocapture.helper.render.GpuTimer;
+import com.tencent.mlvb.customvideocapture.helper.render.PboYuvReader;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.GPUImageFilter;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.GPUImageFilterGroup;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.OesInputFilter;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.QuadGeometry;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.RgbaToYuvFilter;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.Rotation;
+import com.tencent.mlvb.customvideocapture.helper.source.Camera1FrameSource;
+import com.tencent.mlvb.customvideocapture.helper.source.VideoFrameSource;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils.NO_TEXTURE;
 
@@ -38,52 +49,96 @@ public class CustomCameraCapture implements SurfaceTexture.OnFrameAvailableListe
 
     private static final String TAG = "CameraVideoFrameReader";
 
-    private static final int WIDTH       = 1280;
-    private static final int HEIGHT      = 720;
-    private static final int WHAT_START  = 0;
-    private static final int WHAT_UPDATE = 1;
-    public static final  int VIDEO_FPS   = 15;
-
-    private Camera              mCamera;
-    private SurfaceTexture      mSurfaceTexture;
-    private EglCore             mEglCore;
-    private FrameBuffer         mFrameBuffer;
-    private OesInputFilter      mOesInputFilter;
-    private GPUImageFilterGroup mGpuImageFilterGroup;
-
-    private final    FloatBuffer            mGLCubeBuffer;
-    private final    FloatBuffer            mGLTextureBuffer;
+    public static final  int DEFAULT_WIDTH    = 1280;
+    public static final  int DEFAULT_HEIGHT   = 720;
+    private static final int WHAT_START       = 0;
+    private static final int WHAT_UPDATE      = 1;
+    private static final int WHAT_TICK        = 2;
+    private static final int WHAT_RECORD      = 3;
+    private static final int WHAT_STOP_RECORD = 4;
+    private static final int WHAT_STOP        = 5;
+    public static final  int VIDEO_FPS        = 15;
+
+    private SurfaceTexture       mSurfaceTexture;
+    private EglCore              mEglCore;
+    private FrameBufferRing      mFrameBufferRing;
+    private FrameBufferPool      mFrameBufferPool;
+    private OesInputFilter       mOesInputFilter;
+    private GPUImageFilterGroup  mGpuImageFilterGroup;
+    private FramePacer           mFramePacer;
+    private FpsGovernor          mFpsGovernor;
+    private PboYuvReader         mPboYuvReader;
+    private YuvFramePool         mYuvFramePool;
+    private VideoRecorder        mVideoRecorder;
+    private QualityScaler        mQualityScaler;
+    // Null when the GPU time cannot be measured, the scaler is then fed the CPU time of the draw calls.
+    private GpuTimer             mGpuTimer;
+    // The newest frame not sent yet, and the last frame sent, kept to be sent again when no new frame comes in time.
+    private FrameBufferRing.Slot mPendingFrame;
+    private FrameBufferRing.Slot mLastSentFrame;
+
+    private final    VideoFrameSource       mVideoFrameSource;
+    private final    int                    mWidth;
+    private final    int                    mHeight;
+    private final    QuadGeometry           mGeometry;
+    private final    List<GPUImageFilter>   mFilters          = new ArrayList<>();
     private final    float[]                mTextureTransform = new float[16]; // OES texture converted to 2D texture
     private          int                    mSurfaceTextureId = NO_TEXTURE;
     private          boolean                mFrameUpdated;
+    private          int                    mTargetFrameRate;
+    private          int                    mMinFrameRate;
+    private          boolean                mAdaptiveRenderScale;
+    private          boolean                mFilterFusion     = true;
+    private final    AtomicInteger          mQueuedFrames     = new AtomicInteger();
     private          VideoFrameReadListener mVideoFrameReadListener;
+    private          YuvFormat              mYuvFormat;
+    private          PboYuvReader.Listener  mYuvFrameListener;
     private          HandlerThread          mRenderHandlerThread;
     private volatile RenderHandler          mRenderHandler;
+    private volatile PipelineTracer         mPipelineTracer;
 
 
     public interface VideoFrameReadListener {
-        void onFrameAvailable(EGLContext eglContext, int textureId, int width, int height);
+        /**
+         * A processed frame is available. It is handed over without waiting for the GPU, so a consumer on another
+         * context must wait on {@link FrameBufferRing.Slot#getFence()} before reading the texture. The capture does
+         * not draw into the texture again until the listener calls {@link FrameBufferRing.Slot#release()}, which may
+         * be done later and on any thread. Frames are dropped while the listener holds every slot of the ring.
+         * <p>
+         * When pacing, the same frame may be passed again, with a reference of its own.
+         */
+        void onFrameAvailable(FrameBufferRing.Slot frame);
     }
 
+    /**
+     * Capture from the front camera through the legacy camera API, at 1280x720 and {@link #VIDEO_FPS}.
+     */
     public CustomCameraCapture() {
+        this(new Camera1FrameSource(DEFAULT_WIDTH, DEFAULT_HEIGHT, VIDEO_FPS));
+    }
+
+    /**
+     * Capture from any source, the output has the size of the source.
+     */
+    public CustomCameraCapture(VideoFrameSource videoFrameSource) {
         mFrameUpdated = false;
+        mVideoFrameSource = videoFrameSource;
+        mWidth = videoFrameSource.getWidth();
+        mHeight = videoFrameSource.getHeight();
+        mTargetFrameRate = videoFrameSource.getFrameRate();
+        mMinFrameRate = Math.max(1, videoFrameSource.getFrameRate() / 2);
 
         Pair<float[], float[]> cubeAndTextureBuffer = OpenGlUtils
-                .calcCubeAndTextureBuffer(ImageView.ScaleType.CENTER, Rotation.NORMAL, false, WIDTH, HEIGHT, WIDTH,
-                        HEIGHT);
-
-        mGLCubeBuffer =
-                ByteBuffer.allocateDirect(OpenGlUtils.CUBE.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mGLCubeBuffer.put(cubeAndTextureBuffer.first);
-        mGLTextureBuffer = ByteBuffer.allocateDirect(OpenGlUtils.TEXTURE.length * 4).order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        mGLTextureBuffer.put(cubeAndTextureBuffer.second);
+                .calcCubeAndTextureBuffer(ImageView.ScaleType.CENTER, Rotation.NORMAL, false, mWidth, mHeight, mWidth,
+                        mHeight);
+        mGeometry = new QuadGeometry(cubeAndTextureBuffer.first, cubeAndTextureBuffer.second);
     }
 
 
     @Override
     public void onFrameAvailable(SurfaceTexture surfaceTexture) {
         mFrameUpdated = true;
+        mQueuedFrames.incrementAndGet();
         mRenderHandler.sendEmptyMessage(WHAT_UPDATE);
     }
 
@@ -101,25 +156,188 @@ public class CustomCameraCapture implements SurfaceTexture.OnFrameAvailableListe
     }
 
     /**
-     * Stop video custom rendering.
+     * Add a filter drawn on every frame after the camera image is converted to RGBA, for example a
+     * {@link com.tencent.mlvb.customvideocapture.helper.render.opengl.BeautyFilter} or a
+     * {@link com.tencent.mlvb.customvideocapture.helper.render.opengl.LookupTableFilter}. Filters are drawn in the
+     * order they are added, consecutive pointwise filters in a single pass. Must be called before {@link #start}.
+     */
+    public void addFilter(GPUImageFilter filter) {
+        mFilters.add(filter);
+    }
+
+    /**
+     * Set the tracer that records the latency of capturing, drawing and sending each frame, null to disable it. Where
+     * the GPU time can be measured, the time of the filters is also recorded as
+     * {@link PipelineTracer.Stage#FILTER_GPU}.
+     */
+    public void setPipelineTracer(PipelineTracer tracer) {
+        mPipelineTracer = tracer;
+    }
+
+    /**
+     * Set the rate at which frames are handed to the listener, which should be the frame rate the pusher encodes at.
+     * Frames are then sent at a steady cadence: frames coming faster are dropped, and the last frame is sent again
+     * when no new one comes in time. 0 sends every frame as soon as it is drawn. Defaults to the rate of the source,
+     * must be called before {@link #start}.
+     */
+    public void setTargetFrameRate(int frameRate) {
+        mTargetFrameRate = frameRate;
+    }
+
+    /**
+     * Set the lowest rate frames are processed at when drawing or the listener cannot keep up with the source, the
+     * frames in excess are skipped before drawing. The rate of the source turns this off. Defaults to half the rate
+     * of the source, must be called before {@link #start}.
+     */
+    public void setMinFrameRate(int frameRate) {
+        mMinFrameRate = frameRate;
+    }
+
+    /**
+     * Draw consecutive pointwise filters in a single pass, true by default. Turning it off draws every filter in a
+     * pass of its own, to compare the {@link PipelineTracer.Stage#FILTER_GPU} time of both. Must be called before
+     * {@link #start}.
+     */
+    public void setFilterFusionEnabled(boolean enabled) {
+        mFilterFusion = enabled;
+    }
+
+    /**
+     * Draw the filter passes before the last one at a lower resolution when the GPU cannot keep up, the last pass
+     * upscales to the output size. The GPU time of the filters is measured on every frame, and the scale steps between
+     * {@link QualityScaler#SCALES} to keep it within half the frame interval. Must be called before {@link #start}.
+     */
+    public void setAdaptiveRenderScale(boolean enabled) {
+        mAdaptiveRenderScale = enabled;
+    }
+
+    /**
+     * The scaler that picks the render scale of the filters, null when turned off or not started. Its statistics can
+     * be read on any thread.
+     */
+    public QualityScaler getQualityScaler() {
+        return mQualityScaler;
+    }
+
+    /**
+     * The governor that adapts the processed frame rate to the load, null when turned off or not started.
+     */
+    public FpsGovernor getFpsGovernor() {
+        return mFpsGovernor;
+    }
+
+    /**
+     * Also read every processed frame back to the CPU as YUV, for snapshots, local recording or analytics. The frames
+     * are read asynchronously and delivered a frame or two later on the capture thread. Requires OpenGL ES 3 and a
+     * width that is a multiple of 8 and a height that is a multiple of 4, otherwise nothing is delivered. Must be
+     * called before {@link #start}.
+     */
+    public void setYuvFrameListener(YuvFormat format, PboYuvReader.Listener listener) {
+        mYuvFormat = format;
+        mYuvFrameListener = listener;
+    }
+
+    /**
+     * Start recording the processed frames into an H.264 MP4 file, at the size of the source. The frames are encoded
+     * from the textures on the GPU and written on threads of their own, frames are skipped rather than slowing the
+     * capture down when the encoder or the disk cannot keep up. Must be called after {@link #start}, recording stops
+     * with {@link #stopRecording} or {@link #stop}.
+     *
+     * @param bitRate In bits per second.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public void startRecording(String path, int bitRate) {
+        mRenderHandler.obtainMessage(WHAT_RECORD, new VideoRecorder(path, mWidth, mHeight,
+                mVideoFrameSource.getFrameRate(), bitRate)).sendToTarget();
+    }
+
+    /**
+     * Finish the file started by {@link #startRecording}.
+     */
+    public void stopRecording() {
+        mRenderHandler.sendEmptyMessage(WHAT_STOP_RECORD);
+    }
+
+    /**
+     * The pacer that schedules the frames handed to the listener, null when not pacing or not started.
+     */
+    public FramePacer getFramePacer() {
+        return mFramePacer;
+    }
+
+    /**
+     * Stop video custom rendering. Everything is released on the render thread, after the frame it may be drawing,
+     * and this blocks until it is done.
      */
     public void stop() {
-        if (mRenderHandlerThread != null) {
-            mRenderHandlerThread.quit();
+        if (mRenderHandlerThread == null) {
+            return;
         }
+        mRenderHandler.sendEmptyMessage(WHAT_STOP);
+        mRenderHandlerThread.quitSafely();
+        try {
+            mRenderHandlerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mRenderHandlerThread = null;
+    }
 
-        if (mCamera != null) {
-            mCamera.stopPreview();
+    private void stopInternal() {
+        mVideoFrameSource.stop();
+        if (mFpsGovernor != null) {
+            Log.i(TAG, "processed at " + mFpsGovernor.getFrameRate() + " of " + mFpsGovernor.getMaxFrameRate()
+                    + " fps, skipped frames: " + mFpsGovernor.getSkippedFrames() + ", rate changes: "
+                    + mFpsGovernor.getRateChanges());
+        }
+        if (mFramePacer != null) {
+            FramePacer.Snapshot snapshot = new FramePacer.Snapshot();
+            mFramePacer.getSnapshot(snapshot);
+            Log.i(TAG, "pacing at " + mFramePacer.getFrameRate() + " fps, " + snapshot);
+            // Ticks already due still run before the thread quits, they find no pacer.
+            mFramePacer = null;
+        }
+        if (mQualityScaler != null) {
+            Log.i(TAG, "render scale " + mQualityScaler.getScale() + ", gpu time: "
+                    + mQualityScaler.getMeanFrameTimeNs() / 1000 + "us, scale changes: "
+                    + mQualityScaler.getScaleChanges());
+        }
+        if (mPendingFrame != null) {
+            mPendingFrame.release();
+            mPendingFrame = null;
+        }
+        if (mLastSentFrame != null) {
+            mLastSentFrame.release();
+            mLastSentFrame = null;
+        }
+        stopRecordingInternal();
+        // The queries are deleted with the filters they measure, on this thread, while the context is current.
+        if (mGpuTimer != null) {
+            mGpuTimer.destroy();
+            mGpuTimer = null;
         }
         if (mGpuImageFilterGroup != null) {
             mGpuImageFilterGroup.destroy();
             mGpuImageFilterGroup = null;
         }
 
-        if (mFrameBuffer != null) {
-            mFrameBuffer.uninitialize();
-            mFrameBuffer = null;
+        if (mPboYuvReader != null) {
+            mPboYuvReader.destroy();
+            mPboYuvReader = null;
+        }
+        if (mYuvFramePool != null) {
+            mYuvFramePool.clear();
+            mYuvFramePool = null;
+        }
+        if (mFrameBufferRing != null) {
+            mFrameBufferRing.destroy();
+            mFrameBufferRing = null;
         }
+        if (mFrameBufferPool != null) {
+            mFrameBufferPool.clear();
+            mFrameBufferPool = null;
+        }
+        mGeometry.release();
 
         if (mSurfaceTextureId != NO_TEXTURE) {
             OpenGlUtils.deleteTexture(mSurfaceTextureId);
@@ -139,42 +357,167 @@ public class CustomCameraCapture implements SurfaceTexture.OnFrameAvailableListe
     }
 
     private void startInternal() {
-        mEglCore = new EglCore(WIDTH, HEIGHT);
+        mEglCore = new EglCore(mWidth, mHeight);
         mEglCore.makeCurrent();
 
-        mSurfaceTextureId = OpenGlUtils.generateTextureOES();
-        mSurfaceTexture = new SurfaceTexture(mSurfaceTextureId);
-
-        mFrameBuffer = new FrameBuffer(WIDTH, HEIGHT);
-        mFrameBuffer.initialize();
+        if (mAdaptiveRenderScale) {
+            // Room for the idle intermediate frame buffers of every scale, so that switching scales does not allocate.
+            long warmUpBytes = 0;
+            for (float scale : QualityScaler.SCALES) {
+                warmUpBytes += 2L * GPUImageFilterGroup.getScaledSize(mWidth, scale)
+                        * GPUImageFilterGroup.getScaledSize(mHeight, scale) * 4;
+            }
+            mFrameBufferPool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_IDLE_BYTES + warmUpBytes);
+        } else {
+            mFrameBufferPool = new FrameBufferPool();
+        }
+        // The pacer holds up to two slots, the pending frame and the last frame sent.
+        int ringSize = mTargetFrameRate > 0 ? FrameBufferRing.DEFAULT_SIZE + 1 : FrameBufferRing.DEFAULT_SIZE;
+        mFrameBufferRing = new FrameBufferRing(mFrameBufferPool, mWidth, mHeight, ringSize);
 
         mGpuImageFilterGroup = new GPUImageFilterGroup();
+        mGpuImageFilterGroup.setFrameBufferPool(mFrameBufferPool);
+        mGpuImageFilterGroup.setFusionEnabled(mFilterFusion);
         mOesInputFilter = new OesInputFilter();
         mGpuImageFilterGroup.addFilter(mOesInputFilter);
         mGpuImageFilterGroup.addFilter(new GPUImageFilter(true));
+        for (int i = 0; i < mFilters.size(); i++) {
+            mGpuImageFilterGroup.addFilter(mFilters.get(i));
+        }
         mGpuImageFilterGroup.init();
-        mGpuImageFilterGroup.onOutputSizeChanged(WIDTH, HEIGHT);
-
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    mSurfaceTextureId = OpenGlUtils.generateTextureOES();
-                    mSurfaceTexture = new SurfaceTexture(mSurfaceTextureId);
-                    mSurfaceTexture.setOnFrameAvailableListener(CustomCameraCapture.this);
-                    mCamera = Camera.open(Camera.CameraInfo.CAMERA_FACING_FRONT);
-                    mCamera.setPreviewTexture(mSurfaceTexture);
-                    mCamera.setDisplayOrientation(90);
-                    Camera.Parameters parameters = mCamera.getParameters();
-                    parameters.setPreviewSize(WIDTH, HEIGHT);
-                    parameters.setPreviewFrameRate(VIDEO_FPS);
-                    mCamera.setParameters(parameters);
-                    mCamera.startPreview();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        mGpuImageFilterGroup.onOutputSizeChanged(mWidth, mHeight);
+        if (GpuTimer.isSupported()) {
+            mGpuTimer = new GpuTimer();
+            mGpuTimer.init();
+        }
+        if (mAdaptiveRenderScale) {
+            mGpuImageFilterGroup.warmUpRenderScales(QualityScaler.SCALES);
+            if (mGpuTimer == null) {
+                Log.w(TAG, "cannot measure gpu time, scaling by the cpu time of the filters");
+            }
+            mQualityScaler = new QualityScaler(1000000000L / mVideoFrameSource.getFrameRate() / 2);
+        }
+
+        if (mYuvFrameListener != null) {
+            if (!PboYuvReader.isSupported() || !RgbaToYuvFilter.isSizeSupported(mWidth, mHeight)) {
+                Log.w(TAG, "cannot read back " + mWidth + "x" + mHeight + " frames as yuv");
+            } else {
+                mYuvFramePool = new YuvFramePool();
+                mPboYuvReader = new PboYuvReader(mYuvFormat, mWidth, mHeight, PboYuvReader.DEFAULT_BUFFER_COUNT,
+                        mYuvFramePool);
+                mPboYuvReader.init(mFrameBufferPool);
+            }
+        }
+
+        mSurfaceTextureId = OpenGlUtils.generateTextureOES();
+        mSurfaceTexture = new SurfaceTexture(mSurfaceTextureId);
+        mSurfaceTexture.setOnFrameAvailableListener(this);
+        mVideoFrameSource.start(mSurfaceTexture);
+
+        int sourceFrameRate = mVideoFrameSource.getFrameRate();
+        if (mMinFrameRate > 0 && mMinFrameRate < sourceFrameRate) {
+            mFpsGovernor = new FpsGovernor(sourceFrameRate, mMinFrameRate);
+        }
+        if (mTargetFrameRate > 0) {
+            mFramePacer = new FramePacer(mTargetFrameRate);
+            mFramePacer.start(System.nanoTime());
+            scheduleTick(mFramePacer.getNextTickNs());
+        }
+    }
+
+    private void drawFilters(FrameBufferRing.Slot slot, PipelineTracer tracer) {
+        QualityScaler scaler = mQualityScaler;
+        long frameTimeNs = -1;
+        if (mGpuTimer != null) {
+            mGpuTimer.begin();
+            mGpuImageFilterGroup.draw(mSurfaceTextureId, slot.getFrameBuffer().getFrameBufferId(), mGeometry);
+            mGpuTimer.end();
+            // The result of a frame or two ago, the queries are not waited for.
+            frameTimeNs = mGpuTimer.poll();
+            if (frameTimeNs >= 0 && tracer != null) {
+                tracer.record(PipelineTracer.Stage.FILTER_GPU, frameTimeNs);
+            }
+        } else if (scaler != null) {
+            long startNs = System.nanoTime();
+            mGpuImageFilterGroup.draw(mSurfaceTextureId, slot.getFrameBuffer().getFrameBufferId(), mGeometry);
+            frameTimeNs = System.nanoTime() - startNs;
+        } else {
+            mGpuImageFilterGroup.draw(mSurfaceTextureId, slot.getFrameBuffer().getFrameBufferId(), mGeometry);
+        }
+        if (scaler != null && frameTimeNs >= 0 && scaler.onFrameTime(frameTimeNs)) {
+            mGpuImageFilterGroup.setRenderScale(scaler.getScale());
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private void startRecordingInternal(VideoRecorder recorder) {
+        if (mEglCore == null) {
+            return;
+        }
+        stopRecordingInternal();
+        try {
+            recorder.start(mEglCore);
+            mVideoRecorder = recorder;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "start recording failed", e);
+        }
+    }
+
+    private void stopRecordingInternal() {
+        if (mVideoRecorder != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mVideoRecorder.stop(mEglCore);
+        }
+        mVideoRecorder = null;
+    }
+
+    private void scheduleTick(long tickNs) {
+        // Handler delays have a resolution of 1 ms, round to the nearest one.
+        long delayMs = Math.max(0, (tickNs - System.nanoTime() + 500000) / 1000000);
+        mRenderHandler.sendEmptyMessageDelayed(WHAT_TICK, delayMs);
+    }
+
+    /**
+     * Send the newest frame, or the last one again if no new frame came since the previous tick.
+     */
+    private void tick() {
+        FramePacer pacer = mFramePacer;
+        if (pacer == null) {
+            return;
+        }
+        long nowNs = System.nanoTime();
+        FrameBufferRing.Slot frame = null;
+        boolean duplicate = false;
+        if (mPendingFrame != null) {
+            if (mLastSentFrame != null) {
+                mLastSentFrame.release();
             }
-        });
+            mLastSentFrame = mPendingFrame;
+            mPendingFrame = null;
+            frame = mLastSentFrame;
+        } else if (mLastSentFrame != null) {
+            frame = mLastSentFrame;
+            duplicate = true;
+        }
+        if (frame != null) {
+            pacer.onFrameSent(nowNs, duplicate);
+            sendFrame(frame.retain(), mPipelineTracer);
+        }
+        scheduleTick(pacer.onTick(nowNs));
+    }
+
+    private void sendFrame(FrameBufferRing.Slot frame, PipelineTracer tracer) {
+        if (mVideoFrameReadListener == null) {
+            frame.release();
+            return;
+        }
+        long timestampNs = frame.getTimestampNs();
+        if (tracer != null) {
+            tracer.begin(PipelineTracer.Stage.SEND, timestampNs);
+        }
+        mVideoFrameReadListener.onFrameAvailable(frame);
+        if (tracer != null) {
+            tracer.end(PipelineTracer.Stage.SEND, timestampNs);
+        }
     }
 
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
@@ -186,23 +529,67 @@ public class CustomCameraCapture implements SurfaceTexture.OnFrameAvailableListe
             try {
                 if (mSurfaceTexture != null) {
 
+                    PipelineTracer tracer = mPipelineTracer;
+                    int queuedFrames = Math.max(0, mQueuedFrames.decrementAndGet());
                     mSurfaceTexture.updateTexImage();
-                    mSurfaceTexture.getTransformMatrix(mTextureTransform);
-                    mOesInputFilter.setTexutreTransform(mTextureTransform);
-                    mGpuImageFilterGroup
-                            .draw(mSurfaceTextureId, mFrameBuffer.getFrameBufferId(), mGLCubeBuffer, mGLTextureBuffer);
-
-                    GLES20.glFinish();
-
-                    if (mVideoFrameReadListener != null) {
-                        TextureFrame textureFrame = new TextureFrame();
-                        textureFrame.eglContext = (EGLContext) mEglCore.getEglContext();
-                        textureFrame.textureId = mFrameBuffer.getTextureId();
-                        textureFrame.width = HEIGHT;
-                        textureFrame.height = WIDTH;
-                        mVideoFrameReadListener
-                                .onFrameAvailable(textureFrame.eglContext, textureFrame.textureId, textureFrame.width,
-                                        textureFrame.height);
+                    long timestampNs = mSurfaceTexture.getTimestamp();
+                    if (tracer != null) {
+                        tracer.recordSince(PipelineTracer.Stage.SENSOR_TO_CAPTURE, timestampNs);
+                    }
+                    FpsGovernor governor = mFpsGovernor;
+                    // Some sources leave the timestamp at 0, fall back to the time the frame is taken.
+                    long frameTimeNs = timestampNs != 0 ? timestampNs : System.nanoTime();
+                    if (governor != null && !governor.shouldProcess(frameTimeNs)) {
+                        // The image is consumed by updateTexImage, the source is not held back.
+                        return;
+                    }
+
+                    // Idle frame buffers can only be deleted on this thread, so trims requested by the system wait here.
+                    mFrameBufferPool.applyPendingTrim();
+                    FrameBufferRing.Slot slot = mFrameBufferRing.acquire();
+                    if (slot == null) {
+                        // The listener still holds every output texture, drop the frame instead of waiting.
+                        if (governor != null) {
+                            governor.onBackPressure();
+                        }
+                        if (tracer != null) {
+                            tracer.countDrop(PipelineTracer.Stage.CAPTURE_DRAW, 1);
+                        }
+                        return;
+                    }
+
+                    long drawStartNs = System.nanoTime();
+                    try {
+                        mSurfaceTexture.getTransformMatrix(mTextureTransform);
+                        mOesInputFilter.setTexutreTransform(mTextureTransform);
+                        drawFilters(slot, tracer);
+                        if (mPboYuvReader != null) {
+                            mPboYuvReader.read(slot.getTextureId(), timestampNs, mYuvFrameListener);
+                        }
+                    } catch (RuntimeException e) {
+                        mFrameBufferRing.cancel(slot);
+                        throw e;
+                    }
+                    mFrameBufferRing.publish(slot, (EGLContext) mEglCore.getEglContext(), mHeight, mWidth, timestampNs);
+                    if (mVideoRecorder != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                        mVideoRecorder.encodeFrame(mEglCore, slot.getTextureId(), frameTimeNs);
+                    }
+                    if (tracer != null) {
+                        tracer.record(PipelineTracer.Stage.CAPTURE_DRAW, System.nanoTime() - drawStartNs);
+                    }
+
+                    if (mFramePacer != null) {
+                        // Sent on the next tick, unless a newer frame replaces it before.
+                        if (mPendingFrame != null) {
+                            mPendingFrame.release();
+                            mFramePacer.onFrameDropped();
+                        }
+                        mPendingFrame = slot;
+                    } else {
+                        sendFrame(slot, tracer);
+                    }
+                    if (governor != null) {
+                        governor.onFrameProcessed(System.nanoTime() - drawStartNs, queuedFrames);
                     }
                 }
             } catch (Exception e) {
@@ -230,6 +617,14 @@ public class CustomCameraCapture implements SurfaceTexture.OnFrameAvailableListe
                     cameraVideoFrameReader.startInternal();
                 } else if (WHAT_UPDATE == msg.what) {
                     cameraVideoFrameReader.updateTexture();
+                } else if (WHAT_TICK == msg.what) {
+                    cameraVideoFrameReader.tick();
+                } else if (WHAT_RECORD == msg.what && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    cameraVideoFrameReader.startRecordingInternal((VideoRecorder) msg.obj);
+                } else if (WHAT_STOP_RECORD == msg.what) {
+                    cameraVideoFrameReader.stopRecordingInternal();
+                } else if (WHAT_STOP == msg.what) {
+                    cameraVideoFrameReader.stopInternal();
                 }
             }
         }
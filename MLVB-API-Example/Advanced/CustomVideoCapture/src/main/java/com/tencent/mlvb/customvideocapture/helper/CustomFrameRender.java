@@ -2,31 +2,38 @@ package com.tencent.mlvb.customvideocapture.helper;
 
 import android.annotation.SuppressLint;
 import android.graphics.SurfaceTexture;
-import android.media.AudioTrack;
-import android.opengl.GLES20;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
-import android.util.Pair;
 import android.view.Surface;
 import android.view.TextureView;
 import android.widget.ImageView.ScaleType;
 
 import com.tencent.live2.V2TXLiveDef;
 import com.tencent.live2.V2TXLivePusherObserver;
-import com.tencent.mlvb.customvideocapture.helper.basic.Size;
+import com.tencent.mlvb.customvideocapture.helper.audio.PcmPlayer;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameMailbox;
+import com.tencent.mlvb.customvideocapture.helper.basic.PipelineTracer;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
 import com.tencent.mlvb.customvideocapture.helper.render.EglCore;
+import com.tencent.mlvb.customvideocapture.helper.render.GlesSyncBackend;
+import com.tencent.mlvb.customvideocapture.helper.render.GpuFence;
+import com.tencent.mlvb.customvideocapture.helper.render.GpuSyncBackend;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.GPUImageFilter;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.GeometryCache;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.GpuImageI420Filter;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.RenderProgramRegistry;
 import com.tencent.mlvb.customvideocapture.helper.render.opengl.Rotation;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -34,41 +41,121 @@ import java.util.concurrent.CountDownLatch;
  * which can help developers quickly implement TRTC custom rendering related functions
  * Mainly includes:
  * - Customized rendering of local preview video frames/remote user video frames;
- * - Mixed playback of local audio/remote audio;
+ * - Drawing the same frames to several views or surfaces from one GL thread, see {@link #addRenderTarget};
+ * - Low-latency playback of local audio/remote audio pushed with {@link #writeAudioFrame};
  */
 public class CustomFrameRender extends V2TXLivePusherObserver implements Handler.Callback {
     public static final String TAG = "CustomFrameRender";
 
     private static final int MSG_RENDER              = 2;
     private static final int MSG_DESTROY             = 3;
-    private static final int RENDER_TYPE_TEXTURE     = 0;
-    private static final int RENDER_TYPE_I420        = 1;
-
-    private       int                mRenderType     = RENDER_TYPE_TEXTURE;
-    private       Size               mSurfaceSize    = new Size();
-    private       Size               mLastInputSize  = new Size();
-    private       Size               mLastOutputSize = new Size();
-    private final HandlerThread      mGLThread;
-    private final GLHandler          mGLHandler;
-    private final FloatBuffer        mGLCubeBuffer;
-    private final FloatBuffer        mGLTextureBuffer;
-    private       EglCore            mEglCore;
-    private       SurfaceTexture     mSurfaceTexture;
-    private       TextureView        mRenderView;
-    private       GPUImageFilter     mNormalFilter;
-    private       GpuImageI420Filter mYUVFilter;
-    private       AudioTrack         mAudioTrack;
+
+    private final    HandlerThread         mGLThread;
+    private final    GLHandler             mGLHandler;
+    private final    Object                mRenderTargetsLock = new Object();
+    private          EglCore               mEglCore;
+    private volatile RenderTarget[]        mRenderTargets     = new RenderTarget[0];
+    private          RenderProgramRegistry mProgramRegistry;
+    private final    GeometryCache         mGeometryCache     = new GeometryCache();
+    private          PcmPlayer             mAudioPlayer;
+    private          byte[]                mWrappedAudioData;
+    private          ByteBuffer            mWrappedAudioBuffer;
+    private          GpuSyncBackend        mRenderSyncBackend;
+    private volatile GpuFence              mProcessFence;
+    private volatile long                  mRenderedFrameCount;
+    private volatile PipelineTracer        mPipelineTracer;
+    private          long                  mTracedDroppedCount;
+    // Numbers the frames for the tracer, the SDK may pass the same frame object every time.
+    private          long                  mNextSequence;
+
+    private final FrameMailbox<QueuedFrame> mFrameMailbox;
+    // Descriptors not in the mailbox nor being drawn, guarded by itself.
+    private final ArrayDeque<QueuedFrame>   mFreeFrames = new ArrayDeque<>();
+
+    /**
+     * What the GL thread needs of a frame of the SDK, copied in {@link #onProcessVideoFrame}: the SDK reuses its frame
+     * objects and buffers once the callback returns. The pixels of a texture frame stay in the SDK's texture, which is
+     * guarded by the fence, the bytes of a buffer frame are copied into a buffer of the descriptor.
+     * <p>
+     * That copy is one memcpy of the whole frame on the SDK's thread, about 3 MB for 1080p I420. It cannot be avoided
+     * here: the GL thread uploads the frame after the callback has returned, when the SDK may already be writing the
+     * next frame into the same buffer, and for a buffer frame the SDK's thread has no GL context that shares textures
+     * with the GL thread to upload it earlier.
+     * The upload itself then reads the planes straight from the copy.
+     */
+    private static final class QueuedFrame {
+        long                            sequence;
+        V2TXLiveDef.V2TXLiveBufferType  bufferType;
+        V2TXLiveDef.V2TXLivePixelFormat pixelFormat;
+        int                             width;
+        int                             height;
+        int                             textureId = OpenGlUtils.NO_TEXTURE;
+        // The context of the texture, to share with when the GL thread creates its own.
+        Object                          eglContext;
+        // Grows to the largest frame, reused for the following ones.
+        ByteBuffer                      data;
+
+        void set(V2TXLiveDef.V2TXLiveVideoFrame frame, long sequence) {
+            this.sequence = sequence;
+            bufferType = frame.bufferType;
+            pixelFormat = frame.pixelFormat;
+            width = frame.width;
+            height = frame.height;
+            textureId = OpenGlUtils.NO_TEXTURE;
+            eglContext = null;
+            if (frame.texture != null) {
+                textureId = frame.texture.textureId;
+                eglContext = frame.texture.eglContext10 != null ? frame.texture.eglContext10
+                                                                : frame.texture.eglContext14;
+            }
+            if (bufferType == V2TXLiveDef.V2TXLiveBufferType.V2TXLiveBufferTypeByteBuffer && frame.buffer != null) {
+                ByteBuffer source = frame.buffer;
+                int position = source.position();
+                prepareData(source.remaining()).put(source);
+                source.position(position);
+                data.flip();
+            } else if (bufferType == V2TXLiveDef.V2TXLiveBufferType.V2TXLiveBufferTypeByteArray && frame.data != null) {
+                prepareData(frame.data.length).put(frame.data);
+                data.flip();
+            } else if (data != null) {
+                data.clear().limit(0);
+            }
+        }
+
+        private ByteBuffer prepareData(int size) {
+            if (data == null || data.capacity() < size) {
+                data = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            }
+            data.clear();
+            return data;
+        }
+    }
 
     @Override
     public void onCaptureFirstVideoFrame() {
         Log.d(TAG, "onCaptureFirstVideoFrame");
     }
 
+    @Override
+    public void onGLContextDestroyed() {
+        // The fence belongs to the SDK's GL context, release it on the SDK's GL thread.
+        GpuFence fence = mProcessFence;
+        mProcessFence = null;
+        if (fence != null) {
+            fence.release();
+        }
+    }
+
     @Override
     public int onProcessVideoFrame(V2TXLiveDef.V2TXLiveVideoFrame srcFrame, V2TXLiveDef.V2TXLiveVideoFrame dstFrame) {
 
         if (srcFrame.texture != null) {
-            GLES20.glFinish();
+            // Instead of glFinish, which blocks the SDK's GL thread until the GPU is idle, insert a fence that the
+            // render thread waits for on the GPU side.
+            if (mProcessFence == null) {
+                mProcessFence = new GpuFence(new GlesSyncBackend());
+            }
+            mProcessFence.insert();
         }
         dstFrame.pixelFormat = srcFrame.pixelFormat;
         dstFrame.bufferType = srcFrame.bufferType;
@@ -79,19 +166,63 @@ public class CustomFrameRender extends V2TXLivePusherObserver implements Handler
         dstFrame.height = srcFrame.height;
         dstFrame.rotation = srcFrame.rotation;
 
-        mGLHandler.obtainMessage(MSG_RENDER, srcFrame).sendToTarget();
+        QueuedFrame queuedFrame = obtainQueuedFrame();
+        queuedFrame.set(srcFrame, mNextSequence++);
+        PipelineTracer tracer = mPipelineTracer;
+        if (tracer != null) {
+            tracer.begin(PipelineTracer.Stage.PROCESS_QUEUE, queuedFrame.sequence);
+        }
+        // Only wake up the GL thread when the mailbox was empty, otherwise it is still going to take a frame.
+        if (mFrameMailbox.offer(queuedFrame)) {
+            mGLHandler.sendEmptyMessage(MSG_RENDER);
+        }
+        if (tracer != null) {
+            long droppedCount = mFrameMailbox.getDroppedCount();
+            if (droppedCount != mTracedDroppedCount) {
+                tracer.countDrop(PipelineTracer.Stage.PROCESS_QUEUE, droppedCount - mTracedDroppedCount);
+                mTracedDroppedCount = droppedCount;
+            }
+        }
         return 0;
     }
 
-    public CustomFrameRender() {
-        mGLCubeBuffer = ByteBuffer.allocateDirect(OpenGlUtils.CUBE.length * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mGLCubeBuffer.put(OpenGlUtils.CUBE).position(0);
+    private QueuedFrame obtainQueuedFrame() {
+        synchronized (mFreeFrames) {
+            QueuedFrame frame = mFreeFrames.poll();
+            // The pool holds the frames in the mailbox, the one being drawn and the one being queued, created once.
+            return frame != null ? frame : new QueuedFrame();
+        }
+    }
+
+    private void recycleQueuedFrame(QueuedFrame frame) {
+        synchronized (mFreeFrames) {
+            mFreeFrames.push(frame);
+        }
+    }
 
-        mGLTextureBuffer = ByteBuffer.allocateDirect(OpenGlUtils.TEXTURE.length * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mGLTextureBuffer.put(OpenGlUtils.TEXTURE).position(0);
+    /**
+     * Create a renderer which only keeps the latest frame, so the preview is at most one frame behind.
+     */
+    public CustomFrameRender() {
+        this(1, FrameMailbox.Policy.DROP_OLDEST, 0);
+    }
 
+    /**
+     * Create a renderer with a custom queue between {@link #onProcessVideoFrame} and the GL thread.
+     *
+     * @param queueCapacity The maximum number of frames waiting to be rendered.
+     * @param queuePolicy What to do when a frame arrives while the queue is full.
+     * @param queueTimeoutMs How long {@link #onProcessVideoFrame} may wait for a free slot,
+     *                       only used by {@link FrameMailbox.Policy#BLOCK_WITH_TIMEOUT}.
+     */
+    public CustomFrameRender(int queueCapacity, FrameMailbox.Policy queuePolicy, long queueTimeoutMs) {
+        mFrameMailbox = new FrameMailbox<>(queueCapacity, queuePolicy, queueTimeoutMs);
+        mFrameMailbox.setDropListener(new FrameMailbox.DropListener<QueuedFrame>() {
+            @Override
+            public void onFrameDropped(QueuedFrame frame) {
+                recycleQueuedFrame(frame);
+            }
+        });
         mGLThread = new HandlerThread(TAG);
         mGLThread.start();
         mGLHandler = new GLHandler(mGLThread.getLooper(), this);
@@ -109,38 +240,55 @@ public class CustomFrameRender extends V2TXLivePusherObserver implements Handler
             return;
         }
         Log.i(TAG, "start render");
+        addRenderTarget(videoView, ScaleType.CENTER, Rotation.NORMAL, 0);
+    }
 
-        // Set the SurfaceTexture life cycle callback of TextureView to manage the creation and destruction of GLThread
-        mRenderView = videoView;
-        mSurfaceTexture = mRenderView.getSurfaceTexture();
+    /**
+     * Also draw the frames to a view. All views are drawn on the same GL thread from the same uploaded frame.
+     *
+     * @param videoView The view used to display the screen.
+     * @param scaleType {@link ScaleType#CENTER} to fit the frame in the view, or {@link ScaleType#CENTER_CROP}.
+     * @param rotation Clockwise rotation applied on top of the orientation used by {@link #start}.
+     * @param maxFps The maximum frame rate of this view, 0 to draw every frame.
+     * @return The target to pass to {@link #removeRenderTarget}.
+     */
+    public RenderTarget addRenderTarget(TextureView videoView, ScaleType scaleType, Rotation rotation, int maxFps) {
+        final RenderTarget target = new RenderTarget(videoView, scaleType, rotation, maxFps);
+        if (videoView.isAvailable()) {
+            target.setSurface(new Surface(videoView.getSurfaceTexture()), videoView.getWidth(),
+                    videoView.getHeight());
+        }
 
-        mRenderView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+        // Set the SurfaceTexture life cycle callback of TextureView to manage the window surface on the GL thread
+        videoView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
             @Override
             public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
-                // Save surfaceTexture for creating OpenGL thread
-                mSurfaceTexture = surface;
-                mSurfaceSize = new Size(width, height);
+                target.setSurface(new Surface(surface), width, height);
                 Log.i(TAG, String.format("onSurfaceTextureAvailable width: %d, height: %d", width, height));
             }
 
             @Override
             public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
-                mSurfaceSize = new Size(width, height);
+                target.setSurfaceSize(width, height);
                 Log.i(TAG, String.format("onSurfaceTextureSizeChanged width: %d, height: %d", width, height));
             }
 
             @Override
             public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-                // The surface is released and rendering needs to be stopped.
-                mSurfaceTexture = null;
+                // The surface is released and rendering to it needs to be stopped.
+                Surface windowSurface = target.getSurface();
+                target.setSurface(null, 0, 0);
                 // Wait for the Runnable to finish executing before returning,
                 // otherwise the GL thread will use an invalid SurfaceTexture
                 mGLHandler.runAndWaitDone(new Runnable() {
                     @Override
                     public void run() {
-                        uninitGlComponent();
+                        releaseRenderTarget(target);
                     }
                 });
+                if (windowSurface != null) {
+                    windowSurface.release();
+                }
                 return false;
             }
 
@@ -148,32 +296,197 @@ public class CustomFrameRender extends V2TXLivePusherObserver implements Handler
             public void onSurfaceTextureUpdated(SurfaceTexture surface) {
             }
         });
+        addRenderTarget(target);
+        return target;
     }
 
-    public void stop() {
-        if (mRenderView != null) {
-            mRenderView.setSurfaceTextureListener(null);
+    /**
+     * Also draw the frames to a surface, for example the one of a SurfaceView or a picture-in-picture window.
+     * The caller keeps the ownership of the surface and must call {@link #removeRenderTarget} before releasing it.
+     *
+     * @param width The width of the surface, call {@link RenderTarget#setSurfaceSize} when it changes.
+     * @param height The height of the surface.
+     * @see #addRenderTarget(TextureView, ScaleType, Rotation, int)
+     */
+    public RenderTarget addRenderTarget(Surface surface, int width, int height, ScaleType scaleType,
+            Rotation rotation, int maxFps) {
+        RenderTarget target = new RenderTarget(null, scaleType, rotation, maxFps);
+        target.setSurface(surface, width, height);
+        addRenderTarget(target);
+        return target;
+    }
+
+    /**
+     * Stop drawing to a target returned by {@link #addRenderTarget}.
+     */
+    public void removeRenderTarget(final RenderTarget target) {
+        synchronized (mRenderTargetsLock) {
+            int index = Arrays.asList(mRenderTargets).indexOf(target);
+            if (index < 0) {
+                return;
+            }
+            RenderTarget[] targets = new RenderTarget[mRenderTargets.length - 1];
+            System.arraycopy(mRenderTargets, 0, targets, 0, index);
+            System.arraycopy(mRenderTargets, index + 1, targets, index, targets.length - index);
+            mRenderTargets = targets;
+        }
+
+        if (target.getTextureView() != null) {
+            target.getTextureView().setSurfaceTextureListener(null);
+        }
+        mGLHandler.runAndWaitDone(new Runnable() {
+            @Override
+            public void run() {
+                releaseRenderTarget(target);
+            }
+        });
+        releaseTextureViewSurface(target);
+    }
+
+    /**
+     * Release the Surface created for a TextureView target, once its window surface is destroyed. The Surface of a
+     * target added with a Surface belongs to the caller.
+     */
+    private static void releaseTextureViewSurface(RenderTarget target) {
+        if (target.getTextureView() != null && target.getSurface() != null) {
+            target.getSurface().release();
+        }
+        target.setSurface(null, 0, 0);
+    }
+
+    private void addRenderTarget(RenderTarget target) {
+        // The GL thread reads the array without locking on every frame, so it is replaced instead of modified.
+        synchronized (mRenderTargetsLock) {
+            RenderTarget[] targets = new RenderTarget[mRenderTargets.length + 1];
+            System.arraycopy(mRenderTargets, 0, targets, 0, mRenderTargets.length);
+            targets[mRenderTargets.length] = target;
+            mRenderTargets = targets;
+        }
+    }
+
+    /**
+     * Destroy the window surface of a target on the GL thread, and the whole GL environment once no target is left.
+     */
+    private void releaseRenderTarget(RenderTarget target) {
+        target.releaseEglSurface(mEglCore);
+        if (!hasRenderableTarget()) {
+            uninitGlComponent();
+        }
+    }
+
+    private boolean hasRenderableTarget() {
+        for (RenderTarget target : mRenderTargets) {
+            if (target.hasSurface()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Set the tracer that records the queueing and rendering latency of each frame, null to disable it.
+     */
+    public void setPipelineTracer(PipelineTracer tracer) {
+        mPipelineTracer = tracer;
+    }
+
+    /**
+     * The number of frames drawn to at least one render target.
+     */
+    public long getRenderedFrameCount() {
+        return mRenderedFrameCount;
+    }
+
+    /**
+     * The number of frames discarded because the GL thread could not keep up.
+     */
+    public long getDroppedFrameCount() {
+        return mFrameMailbox.getDroppedCount();
+    }
+
+    /**
+     * Start playing the audio passed to {@link #writeAudioFrame}.
+     *
+     * @param sampleRate The sample rate of the PCM, for example 48000.
+     * @param channelCount 1 or 2.
+     * @param targetLatencyMs The depth of the jitter buffer, 20 to 40 ms keeps the playback both smooth and close to
+     *                        real time. See {@link PcmPlayer}.
+     */
+    public synchronized void startAudioPlayback(int sampleRate, int channelCount, int targetLatencyMs) {
+        stopAudioPlayback();
+        mAudioPlayer = new PcmPlayer(sampleRate, channelCount, targetLatencyMs);
+        if (!mAudioPlayer.start()) {
+            mAudioPlayer = null;
+        }
+    }
+
+    public synchronized void stopAudioPlayback() {
+        if (mAudioPlayer != null) {
+            mAudioPlayer.stop();
+            mAudioPlayer = null;
+        }
+    }
+
+    /**
+     * Queue 16-bit little-endian PCM for playback, for example {@code V2TXLiveAudioFrame.data}. Samples that do not
+     * fit in the jitter buffer are dropped instead of waiting. Must always be called on the same thread.
+     *
+     * @return The number of samples queued, 0 if playback was not started.
+     */
+    public synchronized int writeAudioFrame(byte[] pcm) {
+        if (mAudioPlayer == null) {
+            return 0;
+        }
+        if (mWrappedAudioData != pcm) {
+            mWrappedAudioData = pcm;
+            mWrappedAudioBuffer = ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mWrappedAudioBuffer.clear();
+        return mAudioPlayer.write(mWrappedAudioBuffer);
+    }
+
+    /**
+     * Queue 16-bit PCM for playback, samples of the channels are interleaved.
+     *
+     * @see #writeAudioFrame(byte[])
+     */
+    public synchronized int writeAudioFrame(short[] pcm, int offset, int length) {
+        if (mAudioPlayer == null) {
+            return 0;
         }
-        if (mAudioTrack != null) {
-            mAudioTrack.stop();
-            mAudioTrack.release();
-            mAudioTrack = null;
+        return mAudioPlayer.write(pcm, offset, length);
+    }
+
+    /**
+     * The audio playback engine, null if playback was not started. Exposes the latency and underrun statistics.
+     */
+    public synchronized PcmPlayer getAudioPlayer() {
+        return mAudioPlayer;
+    }
+
+    public void stop() {
+        for (RenderTarget target : mRenderTargets) {
+            if (target.getTextureView() != null) {
+                target.getTextureView().setSurfaceTextureListener(null);
+            }
         }
+        stopAudioPlayback();
+        mFrameMailbox.clear();
         mGLHandler.obtainMessage(MSG_DESTROY).sendToTarget();
     }
 
     @SuppressLint("NewApi")
     private void initGlComponent(Object eglContext) {
-        if (mSurfaceTexture == null) {
+        if (!hasRenderableTarget()) {
             return;
         }
 
+        // The context lives on a tiny off-screen surface, every target binds it to its own window surface.
         try {
             if (eglContext instanceof javax.microedition.khronos.egl.EGLContext) {
-                mEglCore = new EglCore((javax.microedition.khronos.egl.EGLContext) eglContext,
-                        new Surface(mSurfaceTexture));
+                mEglCore = new EglCore((javax.microedition.khronos.egl.EGLContext) eglContext, 1, 1);
             } else {
-                mEglCore = new EglCore((android.opengl.EGLContext) eglContext, new Surface(mSurfaceTexture));
+                mEglCore = new EglCore((android.opengl.EGLContext) eglContext, 1, 1);
             }
         } catch (Exception e) {
             Log.e(TAG, "create EglCore failed.", e);
@@ -181,76 +494,120 @@ public class CustomFrameRender extends V2TXLivePusherObserver implements Handler
         }
 
         mEglCore.makeCurrent();
-        if (mRenderType == RENDER_TYPE_TEXTURE) {
-            mNormalFilter = new GPUImageFilter();
-            mNormalFilter.init();
-        } else if (mRenderType == RENDER_TYPE_I420) {
-            mYUVFilter = new GpuImageI420Filter();
-            mYUVFilter.init();
-        }
-    }
-
-    private void renderInternal(V2TXLiveDef.V2TXLiveVideoFrame frame) {
-        mRenderType = RENDER_TYPE_I420;
-        if (frame.bufferType == V2TXLiveDef.V2TXLiveBufferType.V2TXLiveBufferTypeTexture) {
-            mRenderType = RENDER_TYPE_TEXTURE;
-        } else if (frame.pixelFormat == V2TXLiveDef.V2TXLivePixelFormat.V2TXLivePixelFormatI420
-                && frame.bufferType == V2TXLiveDef.V2TXLiveBufferType.V2TXLiveBufferTypeByteArray) {
-            mRenderType = RENDER_TYPE_I420;
-        } else {
+        mRenderSyncBackend = new GlesSyncBackend();
+        // Build the programs of all frame types up front, the SDK may switch between them in the middle of a stream.
+        mProgramRegistry = new RenderProgramRegistry(YuvColorSpace.BT601_FULL_RANGE);
+        mProgramRegistry.prewarm();
+    }
+
+    private boolean renderInternal(QueuedFrame frame) {
+        RenderProgramRegistry.ProgramType programType = getProgramType(frame.bufferType, frame.pixelFormat);
+        if (programType == null) {
             Log.w(TAG, "error video frame type");
-            return;
+            return false;
         }
 
-        if (mEglCore == null && mSurfaceTexture != null) {
-            Object eglContext = null;
-            if (frame.texture != null) {
-                eglContext =
-                        frame.texture.eglContext10 != null ? frame.texture.eglContext10 : frame.texture.eglContext14;
-            }
-            initGlComponent(eglContext);
+        if (mEglCore == null && hasRenderableTarget()) {
+            initGlComponent(frame.eglContext);
         }
 
         if (mEglCore == null) {
-            return;
+            return false;
         }
 
-        if (mLastInputSize.width != frame.width || mLastInputSize.height != frame.height
-                || mLastOutputSize.width != mSurfaceSize.width || mLastOutputSize.height != mSurfaceSize.height) {
-            Pair<float[], float[]> cubeAndTextureBuffer = OpenGlUtils.calcCubeAndTextureBuffer(ScaleType.CENTER,
-                    Rotation.ROTATION_180, true, frame.width, frame.height, mSurfaceSize.width, mSurfaceSize.height);
-            mGLCubeBuffer.clear();
-            mGLCubeBuffer.put(cubeAndTextureBuffer.first);
-            mGLTextureBuffer.clear();
-            mGLTextureBuffer.put(cubeAndTextureBuffer.second);
+        GPUImageFilter filter = mProgramRegistry.get(programType);
+        int textureId = OpenGlUtils.NO_TEXTURE;
+        boolean uploaded = false;
+        boolean drawn = false;
+        long nowNs = System.nanoTime();
+        RenderTarget[] targets = mRenderTargets;
+        for (RenderTarget target : targets) {
+            if (!target.shouldDraw(nowNs) || !target.makeCurrent(mEglCore)) {
+                continue;
+            }
+            // Upload the frame once, with the first target's surface current, then every target only draws it.
+            if (!uploaded) {
+                textureId = uploadFrame(frame, programType, filter);
+                uploaded = true;
+            }
+            target.draw(mEglCore, mGeometryCache, filter, textureId, frame.width, frame.height, nowNs);
+            drawn = true;
+        }
+        return drawn;
+    }
 
-            mLastInputSize = new Size(frame.width, frame.height);
-            mLastOutputSize = new Size(mSurfaceSize.width, mSurfaceSize.height);
+    /**
+     * Make the frame readable by the filter.
+     *
+     * @return The texture to pass to the filter.
+     */
+    private int uploadFrame(QueuedFrame frame, RenderProgramRegistry.ProgramType programType,
+            GPUImageFilter filter) {
+        if (programType == RenderProgramRegistry.ProgramType.TEXTURE_2D) {
+            GpuFence fence = mProcessFence;
+            if (fence != null) {
+                fence.waitOnGpu(mRenderSyncBackend);
+            }
+            return frame.textureId;
         }
 
-        mEglCore.makeCurrent();
-        GLES20.glViewport(0, 0, mSurfaceSize.width, mSurfaceSize.height);
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (frame.data != null) {
+            ((GpuImageI420Filter) filter).loadYuvDataToTexture(frame.data, frame.width, frame.height);
+        }
+        return OpenGlUtils.NO_TEXTURE;
+    }
 
-        GLES20.glClearColor(0, 0, 0, 1.0f);
-        GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
-        if (mRenderType == RENDER_TYPE_TEXTURE) {
-            mNormalFilter.onDraw(frame.texture.textureId, mGLCubeBuffer, mGLTextureBuffer);
-        } else {
-            mYUVFilter.loadYuvDataToTexture(frame.data, frame.width, frame.height);
-            mYUVFilter.onDraw(OpenGlUtils.NO_TEXTURE, mGLCubeBuffer, mGLTextureBuffer);
+    /**
+     * Pick the program that draws frames of the given buffer type and pixel format.
+     *
+     * @return null if the frame cannot be rendered.
+     */
+    private static RenderProgramRegistry.ProgramType getProgramType(V2TXLiveDef.V2TXLiveBufferType bufferType,
+            V2TXLiveDef.V2TXLivePixelFormat pixelFormat) {
+        if (bufferType == V2TXLiveDef.V2TXLiveBufferType.V2TXLiveBufferTypeTexture) {
+            return RenderProgramRegistry.ProgramType.TEXTURE_2D;
+        }
+        YuvFormat yuvFormat = getYuvFormat(pixelFormat);
+        if (yuvFormat != null && (bufferType == V2TXLiveDef.V2TXLiveBufferType.V2TXLiveBufferTypeByteArray
+                || bufferType == V2TXLiveDef.V2TXLiveBufferType.V2TXLiveBufferTypeByteBuffer)) {
+            return RenderProgramRegistry.ProgramType.fromYuvFormat(yuvFormat);
+        }
+        return null;
+    }
+
+    /**
+     * Map the pixel format of the SDK to the layout understood by {@link GpuImageI420Filter}.
+     * NV12/NV21 are only declared by some SDK versions, so they are matched by name to build against all of them.
+     *
+     * @return null if the format is not a YUV format.
+     */
+    private static YuvFormat getYuvFormat(V2TXLiveDef.V2TXLivePixelFormat pixelFormat) {
+        if (pixelFormat == null) {
+            return null;
+        }
+        if (pixelFormat == V2TXLiveDef.V2TXLivePixelFormat.V2TXLivePixelFormatI420) {
+            return YuvFormat.I420;
+        }
+        String name = pixelFormat.name();
+        if (name.endsWith("NV12")) {
+            return YuvFormat.NV12;
+        } else if (name.endsWith("NV21")) {
+            return YuvFormat.NV21;
         }
-        mEglCore.swapBuffer();
+        return null;
     }
 
     private void uninitGlComponent() {
-        if (mNormalFilter != null) {
-            mNormalFilter.destroy();
-            mNormalFilter = null;
+        if (mEglCore != null) {
+            for (RenderTarget target : mRenderTargets) {
+                target.releaseEglSurface(mEglCore);
+            }
+            mEglCore.makeCurrent();
         }
-        if (mYUVFilter != null) {
-            mYUVFilter.destroy();
-            mYUVFilter = null;
+        mGeometryCache.clear();
+        if (mProgramRegistry != null) {
+            mProgramRegistry.destroy();
+            mProgramRegistry = null;
         }
         if (mEglCore != null) {
             mEglCore.unmakeCurrent();
@@ -262,6 +619,15 @@ public class CustomFrameRender extends V2TXLivePusherObserver implements Handler
     private void destroyInternal() {
         uninitGlComponent();
 
+        RenderTarget[] targets;
+        synchronized (mRenderTargetsLock) {
+            targets = mRenderTargets;
+            mRenderTargets = new RenderTarget[0];
+        }
+        for (RenderTarget target : targets) {
+            releaseTextureViewSurface(target);
+        }
+
         if (Build.VERSION.SDK_INT >= 18) {
             mGLHandler.getLooper().quitSafely();
         } else {
@@ -273,7 +639,27 @@ public class CustomFrameRender extends V2TXLivePusherObserver implements Handler
     public boolean handleMessage(Message msg) {
         switch (msg.what) {
             case MSG_RENDER:
-                renderInternal((V2TXLiveDef.V2TXLiveVideoFrame) msg.obj);
+                QueuedFrame frame = mFrameMailbox.poll();
+                if (frame != null) {
+                    PipelineTracer tracer = mPipelineTracer;
+                    if (tracer != null) {
+                        tracer.end(PipelineTracer.Stage.PROCESS_QUEUE, frame.sequence);
+                    }
+                    long renderStartNs = System.nanoTime();
+                    try {
+                        if (renderInternal(frame)) {
+                            mRenderedFrameCount++;
+                            if (tracer != null) {
+                                tracer.record(PipelineTracer.Stage.RENDER, System.nanoTime() - renderStartNs);
+                            }
+                        }
+                    } finally {
+                        recycleQueuedFrame(frame);
+                    }
+                }
+                if (!mFrameMailbox.isEmpty()) {
+                    mGLHandler.sendEmptyMessage(MSG_RENDER);
+                }
                 break;
             case MSG_DESTROY:
                 destroyInternal();
@@ -0,0 +1,90 @@
+package com.tencent.mlvb.customvideocapture.helper;
+
+import android.opengl.EGLContext;
+import android.util.Log;
+
+import com.tencent.live2.V2TXLiveCode;
+import com.tencent.live2.V2TXLiveDef.V2TXLiveBufferType;
+import com.tencent.live2.V2TXLiveDef.V2TXLivePixelFormat;
+import com.tencent.live2.V2TXLiveDef.V2TXLiveTexture;
+import com.tencent.live2.V2TXLiveDef.V2TXLiveVideoFrame;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferRing;
+import com.tencent.mlvb.customvideocapture.helper.render.GpuFence;
+
+/**
+ * Sends the frames of {@link CustomCameraCapture} to the pusher as 2D textures, without allocating per frame.
+ * <p>
+ * Frames are sent one at a time from the capture thread and the SDK does not keep the frame object after
+ * sendCustomVideoFrame returns, so a single frame and texture are refilled for every frame.
+ */
+public class CustomFrameSender implements CustomCameraCapture.VideoFrameReadListener {
+    private static final String TAG = "CustomFrameSender";
+
+    private static final long FENCE_TIMEOUT_NS = 100000000L;
+
+    /**
+     * Where the frames go, {@code V2TXLivePusher} in the app.
+     */
+    public interface FrameSink {
+        /**
+         * Whether frames are accepted now, e.g. the pusher is pushing.
+         */
+        boolean isReady();
+
+        /**
+         * @return {@link V2TXLiveCode#V2TXLIVE_OK} or an error code of the SDK.
+         */
+        int sendCustomVideoFrame(V2TXLiveVideoFrame frame);
+    }
+
+    private final FrameSink          mSink;
+    private final V2TXLiveTexture    mTexture = new V2TXLiveTexture();
+    private final V2TXLiveVideoFrame mFrame   = new V2TXLiveVideoFrame();
+
+    public CustomFrameSender(FrameSink sink) {
+        mSink = sink;
+        mFrame.pixelFormat = V2TXLivePixelFormat.V2TXLivePixelFormatTexture2D;
+        mFrame.bufferType = V2TXLiveBufferType.V2TXLiveBufferTypeTexture;
+        mFrame.texture = mTexture;
+    }
+
+    @Override
+    public void onFrameAvailable(FrameBufferRing.Slot frame) {
+        try {
+            send(frame.getFence(), frame.getTextureId(), frame.getEglContext(), frame.getWidth(), frame.getHeight());
+        } finally {
+            // sendCustomVideoFrame has consumed the texture once it returns, the slot can be drawn into again.
+            frame.release();
+        }
+    }
+
+    /**
+     * Send a texture once the commands that draw it have completed.
+     *
+     * @return Whether the frame was sent.
+     */
+    boolean send(GpuFence fence, int textureId, EGLContext eglContext, int width, int height) {
+        if (!mSink.isReady()) {
+            return false;
+        }
+        // The SDK reads the texture on its own GL thread and cannot wait on our fence on the GPU, so wait for the
+        // commands of this frame here before handing it over.
+        if (!fence.waitOnCpu(FENCE_TIMEOUT_NS)) {
+            // The texture may not be drawn yet, drop the frame rather than push a partial one.
+            Log.w(TAG, "frame not drawn after " + FENCE_TIMEOUT_NS / 1000000 + " ms, dropped");
+            return false;
+        }
+        mTexture.textureId = textureId;
+        mTexture.eglContext14 = eglContext;
+        mFrame.width = width;
+        mFrame.height = height;
+
+        int ret = mSink.sendCustomVideoFrame(mFrame);
+        // Only failures are logged, building the message for every frame would allocate on each one.
+        if (ret != V2TXLiveCode.V2TXLIVE_OK) {
+            Log.w(TAG, "sendCustomVideoFrame failed: " + ret);
+            return false;
+        }
+        return true;
+    }
+}
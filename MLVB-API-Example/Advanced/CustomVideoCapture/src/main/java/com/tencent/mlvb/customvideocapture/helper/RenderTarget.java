@@ -0,0 +1,137 @@
+package com.tencent.mlvb.customvideocapture.helper;
+
+import android.opengl.GLES20;
+import android.util.Log;
+import android.view.Surface;
+import android.view.TextureView;
+import android.widget.ImageView.ScaleType;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.Size;
+import com.tencent.mlvb.customvideocapture.helper.render.EglCore;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.GPUImageFilter;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.GeometryCache;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.QuadGeometry;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.Rotation;
+
+/**
+ * One output of {@link CustomFrameRender}: a window with its own scale type, rotation and frame rate cap.
+ * All targets of a renderer are drawn from the same uploaded frame on the same EGLContext, each through its own
+ * EGLSurface, so an extra target costs one draw call and one swap per frame.
+ * Created by {@link CustomFrameRender#addRenderTarget}, the GL methods are only called on the render thread.
+ */
+public class RenderTarget {
+    private static final String TAG = "RenderTarget";
+
+    // The texture is upside down compared to the window, the same correction as the single-view renderer used.
+    private static final Rotation BASE_ROTATION = Rotation.ROTATION_180;
+
+    private final    ScaleType   mScaleType;
+    private final    Rotation    mRotation;
+    private final    long        mMinFrameIntervalNs;
+    private final    TextureView mTextureView;
+    private volatile Surface     mSurface;
+    private volatile Size        mSurfaceSize = new Size();
+    private          Object      mEglSurface;
+    private          long        mLastDrawTimeNs;
+
+    RenderTarget(TextureView textureView, ScaleType scaleType, Rotation rotation, int maxFps) {
+        mTextureView = textureView;
+        mScaleType = scaleType;
+        mRotation = Rotation.fromInt((BASE_ROTATION.asInt() + rotation.asInt()) % 360);
+        // Accept frames that come up to 10% early, so that jitter does not halve the rate when the cap equals the
+        // input frame rate.
+        mMinFrameIntervalNs = maxFps > 0 ? 900000000L / maxFps : 0;
+    }
+
+    /**
+     * The view this target draws to, null if it was created from a {@link Surface}.
+     */
+    public TextureView getTextureView() {
+        return mTextureView;
+    }
+
+    public ScaleType getScaleType() {
+        return mScaleType;
+    }
+
+    /**
+     * Update the size of the window, must be called by the owner of a {@link Surface} target when it changes.
+     */
+    public void setSurfaceSize(int width, int height) {
+        mSurfaceSize = new Size(width, height);
+    }
+
+    void setSurface(Surface surface, int width, int height) {
+        mSurfaceSize = new Size(width, height);
+        mSurface = surface;
+    }
+
+    Surface getSurface() {
+        return mSurface;
+    }
+
+    boolean hasSurface() {
+        return mSurface != null;
+    }
+
+    /**
+     * Whether enough time has passed since the last draw to respect the frame rate cap.
+     */
+    boolean shouldDraw(long nowNs) {
+        return mMinFrameIntervalNs == 0 || mLastDrawTimeNs == 0 || nowNs - mLastDrawTimeNs >= mMinFrameIntervalNs;
+    }
+
+    /**
+     * Create the EGLSurface of the window if needed and bind it.
+     *
+     * @return false if the window is not available.
+     */
+    boolean makeCurrent(EglCore eglCore) {
+        Surface surface = mSurface;
+        Size surfaceSize = mSurfaceSize;
+        if (surface == null || surfaceSize.width <= 0 || surfaceSize.height <= 0) {
+            return false;
+        }
+        if (mEglSurface == null) {
+            mEglSurface = eglCore.createWindowSurface(surface);
+            if (mEglSurface == null) {
+                Log.w(TAG, "create window surface failed");
+                return false;
+            }
+        }
+        eglCore.makeCurrent(mEglSurface);
+        return true;
+    }
+
+    /**
+     * Draw the frame with the filter and present it. {@link #makeCurrent} must have returned true before.
+     *
+     * @param geometryCache Shared by all targets, targets of the same size and orientation use the same geometry.
+     */
+    void draw(EglCore eglCore, GeometryCache geometryCache, GPUImageFilter filter, int textureId, int frameWidth,
+            int frameHeight, long nowNs) {
+        Size surfaceSize = mSurfaceSize;
+        QuadGeometry geometry = geometryCache.get(mScaleType, mRotation, true, true, frameWidth, frameHeight,
+                surfaceSize.width, surfaceSize.height);
+
+        GLES20.glViewport(0, 0, surfaceSize.width, surfaceSize.height);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glClearColor(0, 0, 0, 1.0f);
+        GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+        filter.onDraw(textureId, geometry);
+        eglCore.swapBuffer(mEglSurface);
+        mLastDrawTimeNs = nowNs;
+    }
+
+    /**
+     * Destroy the EGLSurface of the window, it is created again on the next draw if the window is still available.
+     */
+    void releaseEglSurface(EglCore eglCore) {
+        if (mEglSurface != null) {
+            if (eglCore != null) {
+                eglCore.destroyWindowSurface(mEglSurface);
+            }
+            mEglSurface = null;
+        }
+    }
+}
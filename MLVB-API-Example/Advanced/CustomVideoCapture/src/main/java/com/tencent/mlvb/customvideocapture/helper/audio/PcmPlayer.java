@@ -0,0 +1,301 @@
+package com.tencent.mlvb.customvideocapture.helper.audio;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays 16-bit PCM pushed by one producer thread with a small and steady latency.
+ * <p>
+ * The producer writes into a {@link PcmRingBuffer} and never blocks. A dedicated writer thread moves the samples into
+ * an {@link AudioTrack} in small bursts, with {@code WRITE_NON_BLOCKING} and the low-latency performance mode where
+ * available. The ring acts as a jitter buffer:
+ * - playback starts, and restarts after an underrun, only once the target latency has been buffered;
+ * - when the producer bursts and the buffered audio grows beyond the target plus {@link #JITTER_WINDOW_MS}, the oldest
+ *   samples are dropped to come back to the target, so the latency cannot creep up over time.
+ */
+public class PcmPlayer {
+    private static final String TAG = "PcmPlayer";
+
+    public static final  int DEFAULT_TARGET_LATENCY_MS = 20;
+    // How far above the target the buffered audio may grow before it is trimmed.
+    private static final int JITTER_WINDOW_MS          = 20;
+    private static final int BURST_MS                  = 5;
+    // The ring holds much more than the jitter window, so that the producer only overruns if playback is stalled.
+    private static final int RING_CAPACITY_MS          = 500;
+    private static final int WRITER_JOIN_TIMEOUT_MS    = 1000;
+
+    private final    int           mSampleRate;
+    private final    int           mChannelCount;
+    private final    int           mBurstSamples;
+    private final    PcmRingBuffer mRingBuffer;
+    private final    AtomicLong    mUnderrunCount      = new AtomicLong();
+    private final    AtomicLong    mOverrunSampleCount = new AtomicLong();
+    private final    AtomicLong    mTrimmedSampleCount = new AtomicLong();
+    private volatile int           mTargetDepthSamples;
+    private volatile int           mMaxDepthSamples;
+    private volatile boolean       mRunning;
+    // The writer owns the AudioTrack and releases it when it exits.
+    private          Thread        mWriterThread;
+
+    /**
+     * @param sampleRate The sample rate of the PCM, for example 48000.
+     * @param channelCount 1 or 2, samples of the channels are interleaved.
+     * @param targetLatencyMs How much audio is buffered before playing, see {@link #setTargetLatency}.
+     */
+    public PcmPlayer(int sampleRate, int channelCount, int targetLatencyMs) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBurstSamples = msToSamples(BURST_MS);
+        mRingBuffer = new PcmRingBuffer(msToSamples(RING_CAPACITY_MS), channelCount);
+        setTargetLatency(targetLatencyMs);
+    }
+
+    /**
+     * Change the jitter buffer depth, takes effect on the next burst.
+     */
+    public void setTargetLatency(int targetLatencyMs) {
+        mTargetDepthSamples = msToSamples(Math.max(targetLatencyMs, BURST_MS));
+        mMaxDepthSamples = mTargetDepthSamples + msToSamples(JITTER_WINDOW_MS);
+    }
+
+    /**
+     * Create the AudioTrack and start the writer thread.
+     *
+     * @return false if the AudioTrack cannot be created, or the writer of the previous start has not exited yet.
+     */
+    public synchronized boolean start() {
+        if (mRunning) {
+            return true;
+        }
+        if (!awaitWriterExit()) {
+            return false;
+        }
+        final AudioTrack audioTrack = createAudioTrack();
+        if (audioTrack == null) {
+            return false;
+        }
+        if (audioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            Log.e(TAG, "create AudioTrack failed, state: " + audioTrack.getState());
+            releaseAudioTrack(audioTrack);
+            return false;
+        }
+
+        mRunning = true;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop(audioTrack);
+            }
+        }, TAG);
+        mWriterThread.start();
+        return true;
+    }
+
+    /**
+     * Stop the writer thread, which releases the AudioTrack as it exits. Buffered audio is discarded.
+     */
+    public synchronized void stop() {
+        mRunning = false;
+        awaitWriterExit();
+    }
+
+    /**
+     * Queue samples for playback, called by the producer. Never blocks.
+     *
+     * @return The number of samples queued, the rest is dropped and counted in {@link #getOverrunSampleCount()}.
+     */
+    public int write(short[] pcm, int offset, int length) {
+        int written = mRingBuffer.write(pcm, offset, length);
+        if (written < length) {
+            mOverrunSampleCount.addAndGet(length - written);
+        }
+        return written;
+    }
+
+    /**
+     * Queue the samples between the position and the limit of a buffer, decoded with the byte order of the buffer.
+     * The position is only advanced past the samples queued, the ones that did not fit are left in the buffer and
+     * counted in {@link #getOverrunSampleCount()}.
+     *
+     * @see #write(short[], int, int)
+     */
+    public int write(ByteBuffer pcm) {
+        int length = pcm.remaining() / 2;
+        int written = mRingBuffer.write(pcm);
+        if (written < length) {
+            mOverrunSampleCount.addAndGet(length - written);
+        }
+        return written;
+    }
+
+    /**
+     * The audio waiting in the jitter buffer, not including what the AudioTrack has buffered.
+     */
+    public int getBufferedMs() {
+        return (int) (mRingBuffer.available() / mChannelCount * 1000L / mSampleRate);
+    }
+
+    /**
+     * The number of times the jitter buffer ran dry while playing.
+     */
+    public long getUnderrunCount() {
+        return mUnderrunCount.get();
+    }
+
+    /**
+     * The number of samples dropped because the jitter buffer was full when they were written.
+     */
+    public long getOverrunSampleCount() {
+        return mOverrunSampleCount.get();
+    }
+
+    /**
+     * The number of samples dropped to bring the latency back to the target.
+     */
+    public long getTrimmedSampleCount() {
+        return mTrimmedSampleCount.get();
+    }
+
+    /**
+     * Wait for the writer thread to exit.
+     *
+     * @return false if it is still running after {@link #WRITER_JOIN_TIMEOUT_MS}.
+     */
+    private boolean awaitWriterExit() {
+        if (mWriterThread == null) {
+            return true;
+        }
+        try {
+            mWriterThread.join(WRITER_JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mWriterThread.isAlive()) {
+            Log.w(TAG, "writer thread has not exited yet");
+            return false;
+        }
+        mWriterThread = null;
+        return true;
+    }
+
+    private void writeLoop(AudioTrack audioTrack) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        try {
+            audioTrack.play();
+            writeBursts(audioTrack);
+            audioTrack.pause();
+            audioTrack.flush();
+        } finally {
+            releaseAudioTrack(audioTrack);
+            mRingBuffer.clear();
+        }
+    }
+
+    private void writeBursts(AudioTrack audioTrack) {
+
+        short[] burst = new short[mBurstSamples];
+        long burstDurationNs = TimeUnit.MILLISECONDS.toNanos(BURST_MS);
+        int pendingOffset = 0;
+        int pendingLength = 0;
+        boolean buffering = true;
+        while (mRunning) {
+            if (pendingLength == 0) {
+                int depth = mRingBuffer.available();
+                if (buffering) {
+                    if (depth < mTargetDepthSamples) {
+                        LockSupport.parkNanos(burstDurationNs / 2);
+                        continue;
+                    }
+                    buffering = false;
+                } else if (depth == 0) {
+                    mUnderrunCount.incrementAndGet();
+                    buffering = true;
+                    continue;
+                }
+
+                if (depth > mMaxDepthSamples) {
+                    mTrimmedSampleCount.addAndGet(mRingBuffer.skip(depth - mTargetDepthSamples));
+                }
+                pendingLength = mRingBuffer.read(burst, 0, burst.length);
+                pendingOffset = 0;
+            }
+
+            int written = writeToTrack(audioTrack, burst, pendingOffset, pendingLength);
+            if (written < 0) {
+                Log.e(TAG, "AudioTrack write failed: " + written);
+                break;
+            }
+            pendingOffset += written;
+            pendingLength -= written;
+            if (pendingLength > 0) {
+                // The AudioTrack is full, wait until it has played part of a burst.
+                LockSupport.parkNanos(burstDurationNs / 2);
+            }
+        }
+    }
+
+    private static int writeToTrack(AudioTrack audioTrack, short[] pcm, int offset, int length) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return audioTrack.write(pcm, offset, length, AudioTrack.WRITE_NON_BLOCKING);
+        }
+        // Blocking is fine on the writer thread, it only delays the next burst.
+        return audioTrack.write(pcm, offset, length);
+    }
+
+    private AudioTrack createAudioTrack() {
+        int channelMask = mChannelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBufferSize = AudioTrack.getMinBufferSize(mSampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) {
+            Log.e(TAG, "unsupported format, sampleRate: " + mSampleRate + ", channelCount: " + mChannelCount);
+            return null;
+        }
+
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                AudioTrack.Builder builder = new AudioTrack.Builder()
+                        .setAudioAttributes(new AudioAttributes.Builder()
+                                .setUsage(AudioAttributes.USAGE_MEDIA)
+                                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                                .build())
+                        .setAudioFormat(new AudioFormat.Builder()
+                                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                                .setSampleRate(mSampleRate)
+                                .setChannelMask(channelMask)
+                                .build())
+                        .setBufferSizeInBytes(minBufferSize)
+                        .setTransferMode(AudioTrack.MODE_STREAM);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+                }
+                return builder.build();
+            }
+            return new AudioTrack(AudioManager.STREAM_MUSIC, mSampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT,
+                    minBufferSize, AudioTrack.MODE_STREAM);
+        } catch (Exception e) {
+            Log.e(TAG, "create AudioTrack failed.", e);
+            return null;
+        }
+    }
+
+    private static void releaseAudioTrack(AudioTrack audioTrack) {
+        // stop() throws on a track that failed to initialize.
+        if (audioTrack.getState() == AudioTrack.STATE_INITIALIZED) {
+            audioTrack.stop();
+        }
+        audioTrack.release();
+    }
+
+    private int msToSamples(int ms) {
+        return (int) ((long) mSampleRate * ms / 1000) * mChannelCount;
+    }
+}
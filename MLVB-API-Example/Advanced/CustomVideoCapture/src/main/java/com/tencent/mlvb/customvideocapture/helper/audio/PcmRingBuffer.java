@@ -0,0 +1,137 @@
+package com.tencent.mlvb.customvideocapture.helper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free ring buffer of 16-bit PCM samples between exactly one producer thread and one consumer thread.
+ * <p>
+ * Each side only writes its own position and reads the other one, so neither side ever blocks or allocates.
+ * Samples are always moved in whole frames, one sample per channel, so the channels cannot get out of step when the
+ * buffer is full.
+ */
+public class PcmRingBuffer {
+    private final short[]    mBuffer;
+    private final int        mMask;
+    private final int        mChannelCount;
+    private final AtomicLong mWritePosition = new AtomicLong();
+    private final AtomicLong mReadPosition  = new AtomicLong();
+
+    /**
+     * @param minCapacity The minimum number of samples the buffer holds, rounded up to a power of two.
+     * @param channelCount The number of interleaved channels.
+     */
+    public PcmRingBuffer(int minCapacity, int channelCount) {
+        if (minCapacity <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("capacity: " + minCapacity + ", channelCount: " + channelCount);
+        }
+        int capacity = Integer.highestOneBit(minCapacity);
+        if (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        mBuffer = new short[capacity];
+        mMask = capacity - 1;
+        mChannelCount = channelCount;
+    }
+
+    /**
+     * The number of samples the buffer holds.
+     */
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * The number of samples waiting to be read, may be called on any thread.
+     */
+    public int available() {
+        return (int) (mWritePosition.get() - mReadPosition.get());
+    }
+
+    /**
+     * Copy samples into the buffer, called by the producer.
+     *
+     * @return The number of samples written, less than length if the buffer is full.
+     */
+    public int write(short[] src, int offset, int length) {
+        long write = mWritePosition.get();
+        int count = alignToFrame(Math.min(length, mBuffer.length - (int) (write - mReadPosition.get())));
+        if (count <= 0) {
+            return 0;
+        }
+        int index = (int) (write & mMask);
+        int firstPart = Math.min(count, mBuffer.length - index);
+        System.arraycopy(src, offset, mBuffer, index, firstPart);
+        System.arraycopy(src, offset + firstPart, mBuffer, 0, count - firstPart);
+        // Publish the samples only after they have been copied.
+        mWritePosition.lazySet(write + count);
+        return count;
+    }
+
+    /**
+     * Copy samples between the position and the limit of a buffer into the ring, called by the producer.
+     * The samples are decoded with the byte order of the buffer, and the position is advanced past the samples written.
+     *
+     * @return The number of samples written, less than the remaining samples if the ring is full.
+     */
+    public int write(ByteBuffer src) {
+        long write = mWritePosition.get();
+        int count = alignToFrame(Math.min(src.remaining() / 2, mBuffer.length - (int) (write - mReadPosition.get())));
+        if (count <= 0) {
+            return 0;
+        }
+        int position = src.position();
+        for (int i = 0; i < count; i++) {
+            mBuffer[(int) ((write + i) & mMask)] = src.getShort(position + i * 2);
+        }
+        src.position(position + count * 2);
+        mWritePosition.lazySet(write + count);
+        return count;
+    }
+
+    /**
+     * Copy samples out of the buffer, called by the consumer.
+     *
+     * @return The number of samples read, less than length if the buffer does not hold enough.
+     */
+    public int read(short[] dst, int offset, int length) {
+        long read = mReadPosition.get();
+        int count = alignToFrame(Math.min(length, (int) (mWritePosition.get() - read)));
+        if (count <= 0) {
+            return 0;
+        }
+        int index = (int) (read & mMask);
+        int firstPart = Math.min(count, mBuffer.length - index);
+        System.arraycopy(mBuffer, index, dst, offset, firstPart);
+        System.arraycopy(mBuffer, 0, dst, offset + firstPart, count - firstPart);
+        // Free the space only after the samples have been copied.
+        mReadPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Discard the oldest samples, called by the consumer.
+     *
+     * @return The number of samples discarded.
+     */
+    public int skip(int length) {
+        long read = mReadPosition.get();
+        int count = alignToFrame(Math.min(length, (int) (mWritePosition.get() - read)));
+        if (count <= 0) {
+            return 0;
+        }
+        mReadPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Discard all samples, called by the consumer.
+     */
+    public void clear() {
+        skip(available());
+    }
+
+    private int alignToFrame(int sampleCount) {
+        return sampleCount - sampleCount % mChannelCount;
+    }
+}
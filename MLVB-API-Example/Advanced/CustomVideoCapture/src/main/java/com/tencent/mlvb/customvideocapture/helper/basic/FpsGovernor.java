@@ -0,0 +1,159 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import android.util.Log;
+
+/**
+ * Lowers the rate at which captured frames are processed while the pipeline cannot keep up, and raises it again once
+ * it can.
+ * <p>
+ * The owner asks {@link #shouldProcess} for every frame from the source, skips the frames it rejects, and reports the
+ * time spent on each processed frame with {@link #onFrameProcessed}, together with the number of frames still queued
+ * behind it. A frame is under pressure when frames are queued behind it, when the consumer holds every output buffer,
+ * or when its work takes most of the frame interval. The rate is lowered by one step after a few frames under pressure
+ * in a row, and only raised after a longer run of frames with plenty of headroom, so that it does not oscillate around
+ * the limit. Not thread safe, every method must be called on the capture thread.
+ */
+public class FpsGovernor {
+    private static final String TAG = "FpsGovernor";
+
+    // Frames in a row under pressure before lowering the rate.
+    private static final int   DOWN_FRAMES       = 5;
+    // Seconds in a row with headroom before raising the rate, counted in frames at the current rate.
+    private static final int   UP_SECONDS        = 3;
+    // Work above this fraction of the interval is pressure, below this other fraction is headroom at the next rate.
+    private static final float PRESSURE_LOAD     = 0.8f;
+    private static final float HEADROOM_LOAD     = 0.5f;
+    // Each step lowers the rate by a quarter.
+    private static final float DOWN_STEP         = 0.75f;
+    // Timestamps closer than this fraction of the interval to the next slot are still accepted.
+    private static final float ACCEPT_TOLERANCE  = 0.25f;
+    private static final long  NO_FRAME          = Long.MIN_VALUE;
+
+    private final int  mMaxFrameRate;
+    private final int  mMinFrameRate;
+    private       int  mFrameRate;
+    private       long mIntervalNs;
+    private       long mNextFrameNs = NO_FRAME;
+    private       int  mPressureFrames;
+    private       int  mHeadroomFrames;
+    private       long mSkippedFrames;
+    private       int  mRateChanges;
+
+    /**
+     * @param maxFrameRate The rate of the source, which is never exceeded.
+     * @param minFrameRate The lowest rate to go down to.
+     */
+    public FpsGovernor(int maxFrameRate, int minFrameRate) {
+        if (maxFrameRate <= 0 || minFrameRate <= 0 || minFrameRate > maxFrameRate) {
+            throw new IllegalArgumentException("invalid frame rates, max: " + maxFrameRate + ", min: " + minFrameRate);
+        }
+        mMaxFrameRate = maxFrameRate;
+        mMinFrameRate = minFrameRate;
+        setFrameRate(maxFrameRate);
+    }
+
+    /**
+     * Whether to process the frame with the given timestamp, false to skip it so that frames are processed at no more
+     * than the current rate.
+     *
+     * @param timestampNs The timestamp of the frame, in nanoseconds of any monotonic clock.
+     */
+    public boolean shouldProcess(long timestampNs) {
+        if (mFrameRate >= mMaxFrameRate) {
+            mNextFrameNs = NO_FRAME;
+            return true;
+        }
+        if (mNextFrameNs != NO_FRAME && timestampNs < mNextFrameNs - (long) (mIntervalNs * ACCEPT_TOLERANCE)) {
+            mSkippedFrames++;
+            return false;
+        }
+        // Keep the slots on a grid so that the tolerance does not accumulate, unless the source fell behind it.
+        if (mNextFrameNs == NO_FRAME || timestampNs - mNextFrameNs > mIntervalNs) {
+            mNextFrameNs = timestampNs + mIntervalNs;
+        } else {
+            mNextFrameNs += mIntervalNs;
+        }
+        return true;
+    }
+
+    /**
+     * Report a processed frame.
+     *
+     * @param workNs The time spent processing it on the capture thread.
+     * @param queuedFrames The number of frames from the source still waiting to be processed.
+     */
+    public void onFrameProcessed(long workNs, int queuedFrames) {
+        if (queuedFrames > 0 || workNs > mIntervalNs * PRESSURE_LOAD) {
+            onPressure();
+            return;
+        }
+        mPressureFrames = 0;
+        if (mFrameRate >= mMaxFrameRate) {
+            return;
+        }
+        // Only raise the rate if the work would still fit at the higher rate.
+        long nextIntervalNs = 1000000000L / getHigherFrameRate();
+        if (workNs < nextIntervalNs * HEADROOM_LOAD) {
+            if (++mHeadroomFrames >= UP_SECONDS * mFrameRate) {
+                setFrameRate(getHigherFrameRate());
+            }
+        } else {
+            mHeadroomFrames = 0;
+        }
+    }
+
+    /**
+     * Report a frame that could not be processed because the consumer still holds every output buffer.
+     */
+    public void onBackPressure() {
+        onPressure();
+    }
+
+    private void onPressure() {
+        mHeadroomFrames = 0;
+        if (++mPressureFrames >= DOWN_FRAMES && mFrameRate > mMinFrameRate) {
+            setFrameRate(Math.max(mMinFrameRate, (int) (mFrameRate * DOWN_STEP)));
+        }
+    }
+
+    private int getHigherFrameRate() {
+        return Math.min(mMaxFrameRate, Math.max(mFrameRate + 1, (int) Math.ceil(mFrameRate / DOWN_STEP)));
+    }
+
+    private void setFrameRate(int frameRate) {
+        if (mFrameRate != 0) {
+            mRateChanges++;
+            Log.i(TAG, "frame rate " + mFrameRate + " -> " + frameRate + ", skipped frames: " + mSkippedFrames);
+        }
+        mFrameRate = frameRate;
+        mIntervalNs = 1000000000L / frameRate;
+        mPressureFrames = 0;
+        mHeadroomFrames = 0;
+    }
+
+    /**
+     * The rate frames are currently processed at, at most the rate of the source.
+     */
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    public int getMaxFrameRate() {
+        return mMaxFrameRate;
+    }
+
+    public int getMinFrameRate() {
+        return mMinFrameRate;
+    }
+
+    /**
+     * The number of frames rejected by {@link #shouldProcess}.
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    public int getRateChanges() {
+        return mRateChanges;
+    }
+}
@@ -9,18 +9,27 @@ import com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils;
 public class FrameBuffer {
     private static final String TAG = "FrameBuffer";
 
-    private final int mWidth;
-    private final int mHeight;
-    private       int mTextureId;
-    private       int mFrameBufferId;
+    private final int             mWidth;
+    private final int             mHeight;
+    private final int             mFormat;
+    private final FrameBufferPool mPool;
+    private       int             mTextureId;
+    private       int             mFrameBufferId;
+    private       int             mRefCount;
 
     public FrameBuffer(int width, int height) {
+        this(width, height, GLES20.GL_RGBA, null);
+    }
+
+    FrameBuffer(int width, int height, int format, FrameBufferPool pool) {
         mWidth = width;
         mHeight = height;
+        mFormat = format;
+        mPool = pool;
     }
 
     public void initialize() {
-        mTextureId = OpenGlUtils.loadTexture(GLES20.GL_RGBA, null, mWidth, mHeight, OpenGlUtils.NO_TEXTURE);
+        mTextureId = OpenGlUtils.loadTexture(mFormat, null, mWidth, mHeight, OpenGlUtils.NO_TEXTURE);
         mFrameBufferId = OpenGlUtils.generateFrameBufferId();
         Log.i(TAG, String.format("create frameBufferId: %d, textureId: %d", mFrameBufferId, mTextureId));
 
@@ -32,6 +41,18 @@ public class FrameBuffer {
         GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
     }
 
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
     public int getTextureId() {
         return mTextureId;
     }
@@ -40,6 +61,57 @@ public class FrameBuffer {
         return mFrameBufferId;
     }
 
+    /**
+     * The memory taken by the texture.
+     */
+    public long getByteCount() {
+        int bytesPerPixel;
+        switch (mFormat) {
+            case GLES20.GL_LUMINANCE:
+            case GLES20.GL_ALPHA:
+                bytesPerPixel = 1;
+                break;
+            case GLES20.GL_LUMINANCE_ALPHA:
+                bytesPerPixel = 2;
+                break;
+            case GLES20.GL_RGB:
+                bytesPerPixel = 3;
+                break;
+            case GLES20.GL_RGBA:
+            default:
+                bytesPerPixel = 4;
+                break;
+        }
+        return (long) mWidth * mHeight * bytesPerPixel;
+    }
+
+    /**
+     * Add a reference to a frame buffer borrowed from a {@link FrameBufferPool}, must be called on the GL thread.
+     */
+    public FrameBuffer retain() {
+        mRefCount++;
+        return this;
+    }
+
+    /**
+     * Drop a reference, the frame buffer goes back to its pool when no reference is left, or is uninitialized if it
+     * has no pool. Must be called on the GL thread.
+     */
+    public void release() {
+        if (mRefCount <= 0) {
+            Log.w(TAG, "release a frame buffer that is not referenced, frameBufferId: " + mFrameBufferId);
+            return;
+        }
+        mRefCount--;
+        if (mRefCount == 0) {
+            if (mPool != null) {
+                mPool.recycle(this);
+            } else {
+                uninitialize();
+            }
+        }
+    }
+
     public void uninitialize() {
         Log.i(TAG, String.format("destroy frameBufferId: %d, textureId: %d", mFrameBufferId, mTextureId));
         OpenGlUtils.deleteTexture(mTextureId);
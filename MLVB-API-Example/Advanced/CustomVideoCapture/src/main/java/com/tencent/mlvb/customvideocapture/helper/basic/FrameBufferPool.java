@@ -0,0 +1,144 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import android.content.ComponentCallbacks2;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Frame buffers of one GL context, reused instead of being created and deleted on every size change or restart.
+ * <p>
+ * {@link #obtain} hands out a frame buffer of the requested width, height and texture format with one reference,
+ * {@link FrameBuffer#release()} gives it back when the last reference is dropped. Idle frame buffers are kept in least
+ * recently used order and deleted beyond the byte budget. Frame buffer objects are not shared between contexts, so
+ * each context owns its pool, and everything except {@link #onTrimMemory} must be called on its GL thread.
+ */
+public class FrameBufferPool {
+    private static final String TAG = "FrameBufferPool";
+
+    // Enough for a few idle 720p RGBA frames.
+    public static final long DEFAULT_MAX_IDLE_BYTES = 16L * 1024 * 1024;
+
+    private static final int NO_TRIM = -1;
+
+    private static final Set<FrameBufferPool> sPools =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<FrameBufferPool, Boolean>()));
+
+    // The least recently used first.
+    private final    List<FrameBuffer> mIdleBuffers = new ArrayList<>();
+    private final    long              mMaxIdleBytes;
+    private          long              mIdleBytes;
+    private          int               mInUseCount;
+    private          boolean           mCleared;
+    private volatile int               mPendingTrimLevel = NO_TRIM;
+
+    public FrameBufferPool() {
+        this(DEFAULT_MAX_IDLE_BYTES);
+    }
+
+    public FrameBufferPool(long maxIdleBytes) {
+        mMaxIdleBytes = maxIdleBytes;
+        sPools.add(this);
+    }
+
+    /**
+     * Forward {@link ComponentCallbacks2#onTrimMemory} to all pools. The idle frame buffers are deleted on the GL
+     * thread of each pool, the next time it is used. May be called on any thread.
+     */
+    public static void onTrimMemory(int level) {
+        synchronized (sPools) {
+            for (FrameBufferPool pool : sPools) {
+                pool.mPendingTrimLevel = Math.max(pool.mPendingTrimLevel, level);
+            }
+        }
+    }
+
+    public FrameBuffer obtain(int width, int height) {
+        return obtain(width, height, GLES20.GL_RGBA);
+    }
+
+    /**
+     * Get a frame buffer with one reference, reusing an idle one of the same width, height and format if possible.
+     */
+    public FrameBuffer obtain(int width, int height, int format) {
+        if (mCleared) {
+            throw new IllegalStateException("obtain from a cleared pool");
+        }
+        applyPendingTrim();
+        FrameBuffer frameBuffer = null;
+        for (int i = mIdleBuffers.size() - 1; i >= 0; i--) {
+            FrameBuffer idle = mIdleBuffers.get(i);
+            if (idle.getWidth() == width && idle.getHeight() == height && idle.getFormat() == format) {
+                frameBuffer = mIdleBuffers.remove(i);
+                mIdleBytes -= frameBuffer.getByteCount();
+                break;
+            }
+        }
+        if (frameBuffer == null) {
+            frameBuffer = new FrameBuffer(width, height, format, this);
+            frameBuffer.initialize();
+        }
+        mInUseCount++;
+        return frameBuffer.retain();
+    }
+
+    void recycle(FrameBuffer frameBuffer) {
+        mInUseCount--;
+        if (mCleared) {
+            frameBuffer.uninitialize();
+            return;
+        }
+        mIdleBuffers.add(frameBuffer);
+        mIdleBytes += frameBuffer.getByteCount();
+        applyPendingTrim();
+        trimToSize(mMaxIdleBytes);
+    }
+
+    /**
+     * Apply a trim requested by {@link #onTrimMemory}, for owners that want it done before the next obtain or release.
+     */
+    public void applyPendingTrim() {
+        if (mPendingTrimLevel == NO_TRIM) {
+            return;
+        }
+        int level = mPendingTrimLevel;
+        mPendingTrimLevel = NO_TRIM;
+        // Keep half of the budget while the app is only getting short of memory, to avoid reallocating right away.
+        trimToSize(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ? 0 : mMaxIdleBytes / 2);
+        Log.i(TAG, "trim memory level: " + level + ", idle bytes: " + mIdleBytes + ", in use: " + mInUseCount);
+    }
+
+    private void trimToSize(long maxIdleBytes) {
+        while (mIdleBytes > maxIdleBytes && !mIdleBuffers.isEmpty()) {
+            FrameBuffer frameBuffer = mIdleBuffers.remove(0);
+            mIdleBytes -= frameBuffer.getByteCount();
+            frameBuffer.uninitialize();
+        }
+    }
+
+    public long getIdleBytes() {
+        return mIdleBytes;
+    }
+
+    public int getInUseCount() {
+        return mInUseCount;
+    }
+
+    /**
+     * Delete the idle frame buffers and stop receiving trim requests, must be called before the context is destroyed.
+     * Frame buffers still in use are deleted when they are released.
+     */
+    public void clear() {
+        trimToSize(0);
+        mCleared = true;
+        sPools.remove(this);
+        if (mInUseCount > 0) {
+            Log.w(TAG, "clear with " + mInUseCount + " frame buffers in use");
+        }
+    }
+}
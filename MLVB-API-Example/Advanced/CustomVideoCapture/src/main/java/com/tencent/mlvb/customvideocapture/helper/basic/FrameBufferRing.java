@@ -0,0 +1,205 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import android.opengl.EGLContext;
+import android.util.Log;
+
+import com.tencent.mlvb.customvideocapture.helper.render.GlesSyncBackend;
+import com.tencent.mlvb.customvideocapture.helper.render.GpuFence;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ring of output frame buffers, so that the producer draws frame N + 1 while the consumer still reads frame N.
+ * <p>
+ * The producer takes a free slot with {@link #acquire()}, draws into it and hands it over with {@link #publish}. From
+ * then on the slot belongs to the consumer, which gives it back with {@link Slot#release()} from any thread; a consumer
+ * that keeps the frame while passing it on takes another reference with {@link Slot#retain()}. When every
+ * slot is still held by the consumer, {@link #acquire()} returns null and counts a stall instead of blocking, so the
+ * producer drops the frame rather than overwriting a texture that may still be read.
+ * <p>
+ * Everything but {@link Slot#release()} and the counters must be called on the GL thread of the producer.
+ */
+public class FrameBufferRing {
+    private static final String TAG = "FrameBufferRing";
+
+    public static final int DEFAULT_SIZE = 3;
+
+    private static final int STATE_FREE      = 0;
+    private static final int STATE_WRITING   = 1;
+    private static final int STATE_IN_FLIGHT = 2;
+
+    /**
+     * One output frame: a frame buffer, the fence of its last draw, and what the consumer needs to read it.
+     */
+    public static final class Slot {
+        private final FrameBufferRing mRing;
+        private final FrameBuffer     mFrameBuffer;
+        private final GpuFence        mFence;
+        private final AtomicInteger   mState    = new AtomicInteger(STATE_FREE);
+        private final AtomicInteger   mRefCount = new AtomicInteger();
+        private       EGLContext      mEglContext;
+        private       int             mWidth;
+        private       int             mHeight;
+        private       long            mTimestampNs;
+
+        private Slot(FrameBufferRing ring, FrameBuffer frameBuffer) {
+            mRing = ring;
+            mFrameBuffer = frameBuffer;
+            mFence = new GpuFence(new GlesSyncBackend());
+        }
+
+        public FrameBuffer getFrameBuffer() {
+            return mFrameBuffer;
+        }
+
+        public int getTextureId() {
+            return mFrameBuffer.getTextureId();
+        }
+
+        /**
+         * Signaled when the GPU has finished drawing the texture, a consumer on another context must wait on it before
+         * reading the texture.
+         */
+        public GpuFence getFence() {
+            return mFence;
+        }
+
+        public EGLContext getEglContext() {
+            return mEglContext;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public long getTimestampNs() {
+            return mTimestampNs;
+        }
+
+        /**
+         * Take another reference to a published slot, each reference is dropped with {@link #release()}.
+         */
+        public Slot retain() {
+            if (mState.get() != STATE_IN_FLIGHT) {
+                throw new IllegalStateException("retain a slot that is not in flight");
+            }
+            mRefCount.incrementAndGet();
+            return this;
+        }
+
+        /**
+         * Drop a reference, the slot goes back to the producer when the consumer no longer holds any.
+         */
+        public void release() {
+            int refCount = mRefCount.decrementAndGet();
+            if (refCount < 0) {
+                mRefCount.incrementAndGet();
+                Log.w(TAG, "release a slot that is not in flight");
+            } else if (refCount == 0 && mState.compareAndSet(STATE_IN_FLIGHT, STATE_FREE)) {
+                mRing.mInFlightCount.decrementAndGet();
+            }
+        }
+    }
+
+    private final    Slot[]        mSlots;
+    private final    AtomicInteger mInFlightCount = new AtomicInteger();
+    private          int           mNextIndex;
+    private volatile long          mStallCount;
+    private volatile int           mMaxInFlightCount;
+
+    /**
+     * Borrow the frame buffers of the ring from a pool.
+     *
+     * @param size The number of slots, 2 for double buffering, 3 for triple buffering.
+     */
+    public FrameBufferRing(FrameBufferPool pool, int width, int height, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        mSlots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new Slot(this, pool.obtain(width, height));
+        }
+    }
+
+    /**
+     * Take the next free slot to draw into, null if the consumer still holds all of them.
+     */
+    public Slot acquire() {
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = mSlots[(mNextIndex + i) % mSlots.length];
+            if (slot.mState.compareAndSet(STATE_FREE, STATE_WRITING)) {
+                mNextIndex = (mNextIndex + i + 1) % mSlots.length;
+                return slot;
+            }
+        }
+        mStallCount++;
+        return null;
+    }
+
+    /**
+     * Insert the fence of the slot after its draw commands and hand it to the consumer with one reference.
+     *
+     * @param width The width reported to the consumer.
+     * @param height The height reported to the consumer.
+     */
+    public void publish(Slot slot, EGLContext eglContext, int width, int height, long timestampNs) {
+        slot.mFence.insert();
+        slot.mEglContext = eglContext;
+        slot.mWidth = width;
+        slot.mHeight = height;
+        slot.mTimestampNs = timestampNs;
+        int inFlightCount = mInFlightCount.incrementAndGet();
+        if (inFlightCount > mMaxInFlightCount) {
+            mMaxInFlightCount = inFlightCount;
+        }
+        slot.mRefCount.set(1);
+        slot.mState.set(STATE_IN_FLIGHT);
+    }
+
+    /**
+     * Give back a slot from {@link #acquire()} without publishing it, e.g. when drawing failed.
+     */
+    public void cancel(Slot slot) {
+        slot.mState.compareAndSet(STATE_WRITING, STATE_FREE);
+    }
+
+    public int getSize() {
+        return mSlots.length;
+    }
+
+    /**
+     * The number of frames dropped because no slot was free.
+     */
+    public long getStallCount() {
+        return mStallCount;
+    }
+
+    /**
+     * The number of slots held by the consumer.
+     */
+    public int getInFlightCount() {
+        return mInFlightCount.get();
+    }
+
+    public int getMaxInFlightCount() {
+        return mMaxInFlightCount;
+    }
+
+    /**
+     * Return the frame buffers to their pool and delete the fences. Slots still held by the consumer must not be
+     * read anymore.
+     */
+    public void destroy() {
+        Log.i(TAG, "destroy, size: " + mSlots.length + ", stalls: " + mStallCount + ", max in flight: "
+                + mMaxInFlightCount + ", in flight: " + mInFlightCount.get());
+        for (Slot slot : mSlots) {
+            slot.mFrameBuffer.release();
+            slot.mFence.release();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+/**
+ * A bounded queue that hands video frames from a producer thread to a consumer thread.
+ * Unlike a Handler queue it never grows beyond its capacity, so the latency between the producer and the consumer
+ * is limited to {@code capacity} frames no matter how slow the consumer is.
+ *
+ * @param <T> type of the frame.
+ */
+public class FrameMailbox<T> {
+
+    /**
+     * What to do when a frame is offered while the mailbox is full.
+     */
+    public enum Policy {
+        /**
+         * Discard the oldest frame in the mailbox, so that the consumer always gets the latest frame.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the offered frame and keep the ones already in the mailbox.
+         */
+        DROP_NEWEST,
+        /**
+         * Block the producer until the consumer takes a frame, and discard the offered frame on timeout.
+         */
+        BLOCK_WITH_TIMEOUT
+    }
+
+    /**
+     * Told about every frame the mailbox discards, for example to recycle it.
+     */
+    public interface DropListener<T> {
+        /**
+         * Called with the lock of the mailbox held, so it must not call back into the mailbox.
+         */
+        void onFrameDropped(T frame);
+    }
+
+    private final Object[]        mSlots;
+    private final Policy          mPolicy;
+    private final long            mTimeoutMs;
+    private       DropListener<T> mDropListener;
+    private       int             mHead;
+    private       int             mCount;
+    private       long            mOfferedCount;
+    private       long            mDroppedCount;
+    private       long            mTakenCount;
+
+    /**
+     * Create a single-slot mailbox in which the latest frame wins.
+     */
+    public FrameMailbox() {
+        this(1, Policy.DROP_OLDEST, 0);
+    }
+
+    /**
+     * @param capacity The maximum number of frames waiting for the consumer.
+     * @param policy What to do when the mailbox is full.
+     * @param timeoutMs How long the producer waits for a free slot, only used by {@link Policy#BLOCK_WITH_TIMEOUT}.
+     */
+    public FrameMailbox(int capacity, Policy policy, long timeoutMs) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mSlots = new Object[capacity];
+        mPolicy = policy;
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Set the listener told about the frames discarded from now on, null to remove it.
+     */
+    public synchronized void setDropListener(DropListener<T> listener) {
+        mDropListener = listener;
+    }
+
+    /**
+     * Put a frame into the mailbox, called by the producer.
+     *
+     * @return true if the mailbox was empty before this call, which means that the consumer needs to be notified.
+     */
+    public synchronized boolean offer(T frame) {
+        mOfferedCount++;
+        boolean wasEmpty = mCount == 0;
+        if (mCount == mSlots.length) {
+            switch (mPolicy) {
+                case DROP_NEWEST:
+                    drop(frame);
+                    return false;
+                case BLOCK_WITH_TIMEOUT:
+                    if (!waitForFreeSlot()) {
+                        drop(frame);
+                        return false;
+                    }
+                    // The consumer may have drained the mailbox while we were waiting.
+                    wasEmpty = mCount == 0;
+                    break;
+                case DROP_OLDEST:
+                default:
+                    dropOldest();
+                    break;
+            }
+        }
+
+        mSlots[(mHead + mCount) % mSlots.length] = frame;
+        mCount++;
+        return wasEmpty;
+    }
+
+    private boolean waitForFreeSlot() {
+        long deadline = System.currentTimeMillis() + mTimeoutMs;
+        long remaining = mTimeoutMs;
+        while (mCount == mSlots.length && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return mCount < mSlots.length;
+    }
+
+    /**
+     * Take the oldest frame out of the mailbox, called by the consumer.
+     *
+     * @return null if the mailbox is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T poll() {
+        if (mCount == 0) {
+            return null;
+        }
+        T frame = (T) mSlots[mHead];
+        mSlots[mHead] = null;
+        mHead = (mHead + 1) % mSlots.length;
+        mCount--;
+        mTakenCount++;
+        if (mPolicy == Policy.BLOCK_WITH_TIMEOUT) {
+            notifyAll();
+        }
+        return frame;
+    }
+
+    public synchronized boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Discard all frames in the mailbox, they are counted as dropped.
+     */
+    public synchronized void clear() {
+        while (mCount > 0) {
+            dropOldest();
+        }
+        notifyAll();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dropOldest() {
+        T frame = (T) mSlots[mHead];
+        mSlots[mHead] = null;
+        mHead = (mHead + 1) % mSlots.length;
+        mCount--;
+        drop(frame);
+    }
+
+    private void drop(T frame) {
+        mDroppedCount++;
+        if (mDropListener != null) {
+            mDropListener.onFrameDropped(frame);
+        }
+    }
+
+    /**
+     * The number of frames passed to {@link #offer}.
+     */
+    public synchronized long getOfferedCount() {
+        return mOfferedCount;
+    }
+
+    /**
+     * The number of frames that were discarded without reaching the consumer.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * The number of frames returned by {@link #poll}.
+     */
+    public synchronized long getTakenCount() {
+        return mTakenCount;
+    }
+}
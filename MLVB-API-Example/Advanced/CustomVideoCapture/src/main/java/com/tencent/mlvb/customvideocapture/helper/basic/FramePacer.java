@@ -0,0 +1,142 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The schedule and statistics of sending frames at a steady cadence, whatever the timing of the source.
+ * <p>
+ * The owner sends at most one frame per tick, at {@link #getNextTickNs()}: the newest frame that arrived since the
+ * previous tick, or the previous frame again if none did. Frames replaced by a newer one before their tick are
+ * dropped. So a source faster than the target rate is thinned out, a slower one is filled up, and the jitter of the
+ * source does not reach the encoder. {@link #start}, {@link #onTick} and the counting methods must be called on one
+ * thread, the statistics can be pulled from any thread.
+ */
+public class FramePacer {
+    public static class Snapshot {
+        public long  sent;
+        public long  dropped;
+        public long  duplicated;
+        /**
+         * Ticks that came more than a whole interval late and were skipped.
+         */
+        public long  skippedTicks;
+        /**
+         * Frames per second between the first and the last frame sent.
+         */
+        public float fps;
+        /**
+         * Deviation of the interval between two frames sent from the target interval, in microseconds.
+         */
+        public long  meanDeviationUs;
+        public long  p50DeviationUs;
+        public long  p99DeviationUs;
+        public long  maxDeviationUs;
+
+        @Override
+        public String toString() {
+            return String.format("sent: %d, dropped: %d, duplicated: %d, skipped ticks: %d, fps: %.1f, deviation "
+                            + "mean: %dus, p50: %dus, p99: %dus, max: %dus", sent, dropped, duplicated, skippedTicks,
+                    fps, meanDeviationUs, p50DeviationUs, p99DeviationUs, maxDeviationUs);
+        }
+    }
+
+    private final    int              mFrameRate;
+    private final    long             mIntervalNs;
+    private final    LatencyHistogram mDeviation    = new LatencyHistogram();
+    private final    AtomicLong       mDropped      = new AtomicLong();
+    private final    AtomicLong       mDuplicated   = new AtomicLong();
+    private final    AtomicLong       mSkippedTicks = new AtomicLong();
+    private          long             mNextTickNs;
+    private volatile long             mFirstSentNs;
+    private volatile long             mLastSentNs;
+
+    /**
+     * @param frameRate The target number of frames per second, the rate the pusher encodes at.
+     */
+    public FramePacer(int frameRate) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("frameRate must be positive: " + frameRate);
+        }
+        mFrameRate = frameRate;
+        mIntervalNs = 1000000000L / frameRate;
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    public long getIntervalNs() {
+        return mIntervalNs;
+    }
+
+    /**
+     * Schedule the first tick one interval after nowNs.
+     *
+     * @param nowNs The current {@code System.nanoTime()}.
+     */
+    public void start(long nowNs) {
+        mNextTickNs = nowNs + mIntervalNs;
+    }
+
+    /**
+     * The {@code System.nanoTime()} of the next tick.
+     */
+    public long getNextTickNs() {
+        return mNextTickNs;
+    }
+
+    /**
+     * Schedule the tick after the one due now. Ticks are kept on the grid of the first one so that late ticks do not
+     * add up, unless a tick is more than a whole interval late, then the grid restarts from now.
+     *
+     * @return The {@code System.nanoTime()} of the next tick.
+     */
+    public long onTick(long nowNs) {
+        mNextTickNs += mIntervalNs;
+        if (mNextTickNs <= nowNs) {
+            mSkippedTicks.addAndGet((nowNs - mNextTickNs) / mIntervalNs + 1);
+            mNextTickNs = nowNs + mIntervalNs;
+        }
+        return mNextTickNs;
+    }
+
+    /**
+     * Count a frame sent on a tick.
+     *
+     * @param duplicate Whether it is the previous frame sent again.
+     */
+    public void onFrameSent(long nowNs, boolean duplicate) {
+        if (duplicate) {
+            mDuplicated.incrementAndGet();
+        }
+        long lastSentNs = mLastSentNs;
+        if (lastSentNs == 0) {
+            mFirstSentNs = nowNs;
+        } else {
+            mDeviation.record(Math.abs(nowNs - lastSentNs - mIntervalNs) / 1000);
+        }
+        mLastSentNs = nowNs;
+    }
+
+    /**
+     * Count a frame that was replaced by a newer one before its tick.
+     */
+    public void onFrameDropped() {
+        mDropped.incrementAndGet();
+    }
+
+    public void getSnapshot(Snapshot out) {
+        // Every frame but the first is counted in the histogram.
+        long intervals = mDeviation.getCount();
+        long elapsedNs = mLastSentNs - mFirstSentNs;
+        out.sent = mLastSentNs == 0 ? 0 : intervals + 1;
+        out.dropped = mDropped.get();
+        out.duplicated = mDuplicated.get();
+        out.skippedTicks = mSkippedTicks.get();
+        out.fps = elapsedNs <= 0 ? 0 : intervals * 1e9f / elapsedNs;
+        out.meanDeviationUs = mDeviation.getMean();
+        out.p50DeviationUs = mDeviation.getPercentile(50);
+        out.p99DeviationUs = mDeviation.getPercentile(99);
+        out.maxDeviationUs = mDeviation.getMax();
+    }
+}
@@ -0,0 +1,108 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in microseconds.
+ * Values are counted in log-linear buckets: every power of two is split into 16 buckets, so a percentile is accurate
+ * to about 6%. Recording only touches a few atomic counters and never allocates, so it can be called from any thread
+ * on the hot path; reading percentiles walks all buckets and is meant to be done occasionally.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS  = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Enough to cover more than one hour in microseconds.
+    private static final int BLOCK_COUNT      = 32;
+    private static final int BUCKET_COUNT     = BLOCK_COUNT * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong      mCount   = new AtomicLong();
+    private final AtomicLong      mSum     = new AtomicLong();
+    private final AtomicLong      mMax     = new AtomicLong();
+
+    public void record(long valueUs) {
+        if (valueUs < 0) {
+            valueUs = 0;
+        }
+        mBuckets.incrementAndGet(getBucketIndex(valueUs));
+        mCount.incrementAndGet();
+        mSum.addAndGet(valueUs);
+        long max = mMax.get();
+        while (valueUs > max && !mMax.compareAndSet(max, valueUs)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * Get the value below which the given fraction of the samples fall.
+     *
+     * @param percentile Between 0 and 100, for example 99 for p99.
+     * @return The upper bound of the bucket that contains the percentile, 0 if there are no samples.
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mBuckets.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+        target = Math.max(target, 1);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            accumulated += mBuckets.get(i);
+            if (accumulated >= target) {
+                return Math.min(getBucketUpperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int block = exponent - SUB_BUCKET_BITS + 1;
+        if (block >= BLOCK_COUNT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return block * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long getBucketUpperBound(int index) {
+        int block = index / SUB_BUCKET_COUNT;
+        if (block == 0) {
+            return index;
+        }
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + subBucket) << (block - 1);
+        return lowerBound + (1L << (block - 1)) - 1;
+    }
+}
@@ -0,0 +1,240 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage latency, frame rate and drop statistics of the custom capture/render pipeline.
+ * <p>
+ * A stage is timed either with {@link #record} when the duration is known on one thread, or with {@link #begin} and
+ * {@link #end} using a key that identifies the frame, such as the SurfaceTexture timestamp, when the stage spans
+ * threads. None of these methods lock or allocate, so the tracer can stay enabled in production builds.
+ * The statistics can be pulled with {@link #getSnapshot} or written to logcat periodically with
+ * {@link #startPeriodicDump}.
+ */
+public class PipelineTracer {
+    private static final String TAG = "PipelineTracer";
+
+    private static final int  PENDING_SLOT_BITS   = 4;
+    private static final int  PENDING_SLOT_COUNT  = 1 << PENDING_SLOT_BITS;
+    private static final long NO_KEY              = Long.MIN_VALUE;
+    // Timestamps further away than this are not in the System.nanoTime() time base and are ignored.
+    private static final long MAX_SENSOR_DELAY_NS = 1000000000L;
+
+    public enum Stage {
+        /**
+         * From the timestamp of the camera frame to the end of {@code SurfaceTexture.updateTexImage}.
+         */
+        SENSOR_TO_CAPTURE,
+        /**
+         * Drawing the captured frame through the filter group.
+         */
+        CAPTURE_DRAW,
+        /**
+         * The GPU time of the filter passes, where it can be measured. Recorded a frame or two late, as the GPU
+         * finishes.
+         */
+        FILTER_GPU,
+        /**
+         * Handing the processed frame to the SDK with {@code sendCustomVideoFrame}.
+         */
+        SEND,
+        /**
+         * From {@code onProcessVideoFrame} to the start of rendering on the render thread.
+         */
+        PROCESS_QUEUE,
+        /**
+         * Drawing the frame to the render view.
+         */
+        RENDER
+    }
+
+    /**
+     * Statistics of one stage. Latencies are in microseconds.
+     * <p>
+     * A snapshot also remembers when it was last filled, which is the baseline of its frame rate, so every consumer
+     * reusing its own snapshot gets the rate since its own previous pull.
+     */
+    public static class Snapshot {
+        public long  count;
+        public long  dropped;
+        public long  meanUs;
+        public long  p50Us;
+        public long  p95Us;
+        public long  p99Us;
+        public long  maxUs;
+        /**
+         * Frames per second since this snapshot was last filled for the same stage, 0 the first time.
+         */
+        public float fps;
+
+        private Stage mStage;
+        private long  mBaselineCount;
+        private long  mBaselineTimeNs;
+
+        @Override
+        public String toString() {
+            return String.format("count: %d, dropped: %d, fps: %.1f, mean: %dus, p50: %dus, p95: %dus, p99: %dus, "
+                    + "max: %dus", count, dropped, fps, meanUs, p50Us, p95Us, p99Us, maxUs);
+        }
+    }
+
+    private static class StageStats {
+        final LatencyHistogram histogram     = new LatencyHistogram();
+        final AtomicLong       dropped       = new AtomicLong();
+        final AtomicLongArray  pendingKeys   = new AtomicLongArray(PENDING_SLOT_COUNT);
+        final AtomicLongArray  pendingStarts = new AtomicLongArray(PENDING_SLOT_COUNT);
+
+        StageStats() {
+            for (int i = 0; i < PENDING_SLOT_COUNT; i++) {
+                pendingKeys.set(i, NO_KEY);
+            }
+        }
+    }
+
+    private final StageStats[] mStages;
+    private final Handler      mDumpHandler;
+    // One per stage, so that the rates logged do not depend on the snapshots pulled by others.
+    private final Snapshot[]   mDumpSnapshots;
+    private       long         mDumpIntervalMs;
+
+    private final Runnable mDumpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dump();
+            mDumpHandler.postDelayed(this, mDumpIntervalMs);
+        }
+    };
+
+    public PipelineTracer() {
+        Stage[] stages = Stage.values();
+        mStages = new StageStats[stages.length];
+        mDumpSnapshots = new Snapshot[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            mStages[i] = new StageStats();
+            mDumpSnapshots[i] = new Snapshot();
+        }
+        mDumpHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Record a stage whose duration was measured by the caller.
+     */
+    public void record(Stage stage, long durationNs) {
+        mStages[stage.ordinal()].histogram.record(durationNs / 1000);
+    }
+
+    /**
+     * Record the delay between the capture timestamp of a frame and now.
+     *
+     * @param timestampNs The timestamp from {@code SurfaceTexture.getTimestamp()}.
+     */
+    public void recordSince(Stage stage, long timestampNs) {
+        long delay = System.nanoTime() - timestampNs;
+        if (delay >= 0 && delay < MAX_SENSOR_DELAY_NS) {
+            record(stage, delay);
+        }
+    }
+
+    /**
+     * Mark the start of a stage for the frame identified by key.
+     */
+    public void begin(Stage stage, long key) {
+        StageStats stats = mStages[stage.ordinal()];
+        int slot = getSlot(key);
+        stats.pendingStarts.set(slot, System.nanoTime());
+        stats.pendingKeys.set(slot, key);
+    }
+
+    /**
+     * Mark the end of a stage started with {@link #begin} with the same key. Ignored if the start was overwritten by
+     * a later frame, which only happens when more than 16 frames are in the stage at the same time.
+     */
+    public void end(Stage stage, long key) {
+        StageStats stats = mStages[stage.ordinal()];
+        int slot = getSlot(key);
+        if (stats.pendingKeys.get(slot) != key) {
+            return;
+        }
+        long start = stats.pendingStarts.get(slot);
+        if (stats.pendingKeys.compareAndSet(slot, key, NO_KEY)) {
+            stats.histogram.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * Count frames that were discarded in a stage.
+     */
+    public void countDrop(Stage stage, long count) {
+        mStages[stage.ordinal()].dropped.addAndGet(count);
+    }
+
+    /**
+     * Pull the statistics of a stage.
+     *
+     * @param out Filled with the statistics, so that the caller can reuse it. Its frame rate is measured since it was
+     *            last filled for this stage, so a consumer should keep one snapshot per stage.
+     */
+    public void getSnapshot(Stage stage, Snapshot out) {
+        StageStats stats = mStages[stage.ordinal()];
+        LatencyHistogram histogram = stats.histogram;
+        out.count = histogram.getCount();
+        out.dropped = stats.dropped.get();
+        out.meanUs = histogram.getMean();
+        out.p50Us = histogram.getPercentile(50);
+        out.p95Us = histogram.getPercentile(95);
+        out.p99Us = histogram.getPercentile(99);
+        out.maxUs = histogram.getMax();
+
+        long now = System.nanoTime();
+        long elapsed = now - out.mBaselineTimeNs;
+        // No rate for a new snapshot, one last filled for another stage, or across a reset.
+        boolean hasBaseline = out.mStage == stage && out.mBaselineTimeNs != 0 && out.count >= out.mBaselineCount;
+        out.fps = !hasBaseline || elapsed <= 0 ? 0 : (out.count - out.mBaselineCount) * 1e9f / elapsed;
+        out.mStage = stage;
+        out.mBaselineCount = out.count;
+        out.mBaselineTimeNs = now;
+    }
+
+    /**
+     * Clear the statistics of all stages.
+     */
+    public void reset() {
+        for (StageStats stats : mStages) {
+            stats.histogram.reset();
+            stats.dropped.set(0);
+        }
+    }
+
+    /**
+     * Write the statistics of all stages to logcat every intervalMs, on the main thread.
+     */
+    public void startPeriodicDump(long intervalMs) {
+        mDumpIntervalMs = intervalMs;
+        mDumpHandler.removeCallbacks(mDumpRunnable);
+        mDumpHandler.postDelayed(mDumpRunnable, intervalMs);
+    }
+
+    public void stopPeriodicDump() {
+        mDumpHandler.removeCallbacks(mDumpRunnable);
+    }
+
+    private void dump() {
+        for (Stage stage : Stage.values()) {
+            Snapshot snapshot = mDumpSnapshots[stage.ordinal()];
+            getSnapshot(stage, snapshot);
+            if (snapshot.count > 0 || snapshot.dropped > 0) {
+                Log.i(TAG, stage + " " + snapshot);
+            }
+        }
+    }
+
+    private static int getSlot(long key) {
+        // Timestamps usually end with several zero bits, so mix all bits into the slot index.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - PENDING_SLOT_BITS));
+    }
+}
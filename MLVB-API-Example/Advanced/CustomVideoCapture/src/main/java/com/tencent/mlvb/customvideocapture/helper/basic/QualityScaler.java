@@ -0,0 +1,111 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import android.util.Log;
+
+/**
+ * Picks the scale the intermediate passes of a filter chain are drawn at, from the GPU time of each frame.
+ * <p>
+ * The owner reports the GPU time of every frame it can measure with {@link #onFrameTime}. Frames are averaged over
+ * windows of {@link #WINDOW_FRAMES}: a window over the budget lowers the scale by one step, and the scale is only
+ * raised again after a few windows in a row in which the frame would still fit well within the budget at the higher
+ * scale, estimating the cost by the number of pixels. So the scale does not oscillate around the limit.
+ * {@link #onFrameTime} must be called on the GL thread, the getters may be called on any thread.
+ */
+public class QualityScaler {
+    private static final String TAG = "QualityScaler";
+
+    /**
+     * The scales, from the highest to the lowest.
+     */
+    public static final float[] SCALES = {1.0f, 0.75f, 0.5f};
+
+    public static final  int   WINDOW_FRAMES = 30;
+    // Windows in a row with headroom before raising the scale.
+    private static final int   UP_WINDOWS    = 3;
+    // A window above this fraction of the budget lowers the scale, the next scale must fit below the other fraction.
+    private static final float DOWN_LOAD     = 0.9f;
+    private static final float UP_LOAD       = 0.6f;
+
+    private final    long mBudgetNs;
+    private volatile int  mScaleIndex;
+    private          long mWindowTotalNs;
+    private          int  mWindowFrames;
+    private volatile long mLastMeanNs;
+    private          int  mHeadroomWindows;
+    private volatile int  mScaleChanges;
+
+    /**
+     * @param budgetNs The GPU time a frame may take, a part of the frame interval so that other work on the GPU
+     *                 still fits.
+     */
+    public QualityScaler(long budgetNs) {
+        if (budgetNs <= 0) {
+            throw new IllegalArgumentException("budgetNs must be positive: " + budgetNs);
+        }
+        mBudgetNs = budgetNs;
+    }
+
+    /**
+     * Report the GPU time of a frame.
+     *
+     * @return Whether the scale changed, see {@link #getScale()}.
+     */
+    public boolean onFrameTime(long gpuNs) {
+        mWindowTotalNs += gpuNs;
+        if (++mWindowFrames < WINDOW_FRAMES) {
+            return false;
+        }
+        long meanNs = mWindowTotalNs / mWindowFrames;
+        mLastMeanNs = meanNs;
+        mWindowTotalNs = 0;
+        mWindowFrames = 0;
+
+        if (meanNs > mBudgetNs * DOWN_LOAD) {
+            mHeadroomWindows = 0;
+            return mScaleIndex < SCALES.length - 1 && setScaleIndex(mScaleIndex + 1, meanNs);
+        }
+        if (mScaleIndex == 0) {
+            return false;
+        }
+        float ratio = SCALES[mScaleIndex - 1] / SCALES[mScaleIndex];
+        if (meanNs * ratio * ratio < mBudgetNs * UP_LOAD) {
+            if (++mHeadroomWindows >= UP_WINDOWS) {
+                return setScaleIndex(mScaleIndex - 1, meanNs);
+            }
+        } else {
+            mHeadroomWindows = 0;
+        }
+        return false;
+    }
+
+    private boolean setScaleIndex(int scaleIndex, long meanNs) {
+        Log.i(TAG, "scale " + SCALES[mScaleIndex] + " -> " + SCALES[scaleIndex] + ", gpu time: " + meanNs / 1000
+                + "us of " + mBudgetNs / 1000 + "us");
+        mScaleIndex = scaleIndex;
+        mHeadroomWindows = 0;
+        mScaleChanges++;
+        return true;
+    }
+
+    /**
+     * The current scale, one of {@link #SCALES}.
+     */
+    public float getScale() {
+        return SCALES[mScaleIndex];
+    }
+
+    public long getBudgetNs() {
+        return mBudgetNs;
+    }
+
+    /**
+     * The mean GPU time of a frame over the last complete window, 0 before the first one.
+     */
+    public long getMeanFrameTimeNs() {
+        return mLastMeanNs;
+    }
+
+    public int getScaleChanges() {
+        return mScaleChanges;
+    }
+}
@@ -0,0 +1,67 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free queue of tasks posted by any number of threads and run by one thread, such as the GL thread.
+ * <p>
+ * Posting pushes a node onto a stack with a compare-and-set. Running takes the whole stack with one atomic swap and
+ * reverses it in place, so the tasks still run in the order they were posted. When nothing was posted, running is a
+ * single volatile read and allocates nothing, which makes it cheap enough to call before every draw.
+ */
+public class TaskQueue {
+    private static final class Node {
+        final Runnable task;
+        Node           next;
+
+        Node(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private final AtomicReference<Node> mHead = new AtomicReference<>();
+
+    /**
+     * Queue a task, may be called on any thread.
+     */
+    public void post(Runnable task) {
+        Node node = new Node(task);
+        Node head;
+        do {
+            head = mHead.get();
+            node.next = head;
+        } while (!mHead.compareAndSet(head, node));
+    }
+
+    /**
+     * Whether there is no task waiting, may be called on any thread.
+     */
+    public boolean isEmpty() {
+        return mHead.get() == null;
+    }
+
+    /**
+     * Run all tasks posted so far, in the order they were posted. Must always be called on the same thread.
+     * Tasks posted while running, including by the tasks themselves, are left for the next call.
+     */
+    public void runAll() {
+        if (mHead.get() == null) {
+            return;
+        }
+
+        // The stack holds the newest task first, reverse it to run the oldest first.
+        Node node = mHead.getAndSet(null);
+        Node reversed = null;
+        while (node != null) {
+            Node next = node.next;
+            node.next = reversed;
+            reversed = node;
+            node = next;
+        }
+
+        while (reversed != null) {
+            reversed.task.run();
+            reversed = reversed.next;
+        }
+    }
+}
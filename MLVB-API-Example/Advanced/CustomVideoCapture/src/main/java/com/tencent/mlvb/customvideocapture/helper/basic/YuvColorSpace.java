@@ -0,0 +1,69 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+/**
+ * YUV to RGB conversion parameters.
+ * RGB is calculated as {@code matrix * (yuv + offset)}, with all components normalized to [0, 1].
+ */
+public enum YuvColorSpace {
+    BT601_FULL_RANGE(
+            new float[]{0f, -0.501960814f, -0.501960814f},
+            new float[]{1f, 1f, 1f, 0f, -0.344136f, 1.772f, 1.402f, -0.714136f, 0f}),
+    BT601_LIMITED_RANGE(
+            new float[]{-0.0627451f, -0.501960814f, -0.501960814f},
+            new float[]{1.164384f, 1.164384f, 1.164384f, 0f, -0.391762f, 2.017232f, 1.596027f, -0.812968f, 0f}),
+    BT709_FULL_RANGE(
+            new float[]{0f, -0.501960814f, -0.501960814f},
+            new float[]{1f, 1f, 1f, 0f, -0.187324f, 1.8556f, 1.5748f, -0.468124f, 0f}),
+    BT709_LIMITED_RANGE(
+            new float[]{-0.0627451f, -0.501960814f, -0.501960814f},
+            new float[]{1.164384f, 1.164384f, 1.164384f, 0f, -0.213249f, 2.112402f, 1.792741f, -0.532909f, 0f});
+
+    private final float[] mOffset;
+    private final float[] mMatrix;
+    private final float[] mInverseMatrix;
+
+    YuvColorSpace(float[] offset, float[] matrix) {
+        mOffset = offset;
+        mMatrix = matrix;
+        mInverseMatrix = invert3x3(matrix);
+    }
+
+    /**
+     * The offset added to Y, U and V before the matrix is applied. Do not modify the returned array.
+     */
+    public float[] getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * The 3x3 conversion matrix in column-major order, as expected by {@code glUniformMatrix3fv}.
+     * Do not modify the returned array.
+     */
+    public float[] getMatrix() {
+        return mMatrix;
+    }
+
+    /**
+     * The inverse of {@link #getMatrix()}, for RGB to YUV: {@code yuv = inverse * rgb - offset}. Column-major, do not
+     * modify the returned array.
+     */
+    public float[] getInverseMatrix() {
+        return mInverseMatrix;
+    }
+
+    private static float[] invert3x3(float[] m) {
+        float a = m[0], b = m[3], c = m[6];
+        float d = m[1], e = m[4], f = m[7];
+        float g = m[2], h = m[5], i = m[8];
+        float ei = e * i - f * h;
+        float fg = f * g - d * i;
+        float dh = d * h - e * g;
+        float inverseDeterminant = 1f / (a * ei + b * fg + c * dh);
+        return new float[]{
+                ei * inverseDeterminant, fg * inverseDeterminant, dh * inverseDeterminant,
+                (c * h - b * i) * inverseDeterminant, (a * i - c * g) * inverseDeterminant,
+                (b * g - a * h) * inverseDeterminant,
+                (b * f - c * e) * inverseDeterminant, (c * d - a * f) * inverseDeterminant,
+                (a * e - b * d) * inverseDeterminant};
+    }
+}
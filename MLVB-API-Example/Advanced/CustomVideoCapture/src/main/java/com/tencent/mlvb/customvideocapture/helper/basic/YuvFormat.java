@@ -0,0 +1,32 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+/**
+ * Memory layouts of YUV 4:2:0 frames.
+ */
+public enum YuvFormat {
+    /**
+     * Three planes: Y, then U, then V.
+     */
+    I420(false),
+    /**
+     * Two planes: Y, then interleaved U/V.
+     */
+    NV12(true),
+    /**
+     * Two planes: Y, then interleaved V/U.
+     */
+    NV21(true);
+
+    private final boolean mSemiPlanar;
+
+    YuvFormat(boolean semiPlanar) {
+        mSemiPlanar = semiPlanar;
+    }
+
+    /**
+     * Whether the chroma samples are interleaved in one plane.
+     */
+    public boolean isSemiPlanar() {
+        return mSemiPlanar;
+    }
+}
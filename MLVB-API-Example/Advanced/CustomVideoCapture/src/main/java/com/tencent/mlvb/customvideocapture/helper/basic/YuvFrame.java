@@ -0,0 +1,81 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A YUV 4:2:0 frame in a direct buffer borrowed from a {@link YuvFramePool}. The holder gives it back with
+ * {@link #release()} once it no longer reads the buffer, which may be done on any thread.
+ */
+public class YuvFrame {
+    private static final String TAG = "YuvFrame";
+
+    private final YuvFramePool   mPool;
+    private final ByteBuffer     mBuffer;
+    private final YuvPlaneLayout mLayout = new YuvPlaneLayout();
+    private       long           mTimestampNs;
+    private       boolean        mReleased;
+
+    YuvFrame(YuvFramePool pool, int capacity) {
+        mPool = pool;
+        mBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Prepare the frame for a new holder, called by the pool.
+     */
+    void reset(YuvFormat format, int width, int height, long timestampNs) {
+        mLayout.update(format, width, height);
+        mBuffer.clear();
+        mBuffer.limit(mLayout.frameSize);
+        mTimestampNs = timestampNs;
+        mReleased = false;
+    }
+
+    int getCapacity() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * The bytes of the frame from position 0 to the limit, laid out as described by {@link #getLayout()}.
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public YuvPlaneLayout getLayout() {
+        return mLayout;
+    }
+
+    public YuvFormat getFormat() {
+        return mLayout.format;
+    }
+
+    public int getWidth() {
+        return mLayout.width;
+    }
+
+    public int getHeight() {
+        return mLayout.height;
+    }
+
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    /**
+     * Give the frame back to its pool, the buffer must not be read anymore.
+     */
+    public void release() {
+        synchronized (this) {
+            if (mReleased) {
+                Log.w(TAG, "release a frame twice");
+                return;
+            }
+            mReleased = true;
+        }
+        mPool.recycle(this);
+    }
+}
@@ -0,0 +1,74 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Direct buffers for {@link YuvFrame}, reused so that a stream of frames does not allocate one per frame.
+ * Frames may be obtained and released on any thread.
+ */
+public class YuvFramePool {
+    public static final int DEFAULT_MAX_IDLE_FRAMES = 3;
+
+    private final List<YuvFrame> mIdleFrames = new ArrayList<>();
+    private final int            mMaxIdleFrames;
+    private       int            mInUseCount;
+    private       long           mAllocatedCount;
+
+    public YuvFramePool() {
+        this(DEFAULT_MAX_IDLE_FRAMES);
+    }
+
+    /**
+     * @param maxIdleFrames The number of released frames kept for reuse, the others are left to the garbage collector.
+     */
+    public YuvFramePool(int maxIdleFrames) {
+        mMaxIdleFrames = maxIdleFrames;
+    }
+
+    /**
+     * Get a tightly packed frame of the given format and size, reusing an idle one that is large enough if possible.
+     */
+    public synchronized YuvFrame obtain(YuvFormat format, int width, int height, long timestampNs) {
+        int frameSize = width * height + ((width + 1) / 2) * ((height + 1) / 2) * 2;
+        YuvFrame frame = null;
+        for (int i = mIdleFrames.size() - 1; i >= 0; i--) {
+            if (mIdleFrames.get(i).getCapacity() >= frameSize) {
+                frame = mIdleFrames.remove(i);
+                break;
+            }
+        }
+        if (frame == null) {
+            frame = new YuvFrame(this, frameSize);
+            mAllocatedCount++;
+        }
+        frame.reset(format, width, height, timestampNs);
+        mInUseCount++;
+        return frame;
+    }
+
+    synchronized void recycle(YuvFrame frame) {
+        mInUseCount--;
+        if (mIdleFrames.size() < mMaxIdleFrames) {
+            mIdleFrames.add(frame);
+        }
+    }
+
+    public synchronized int getInUseCount() {
+        return mInUseCount;
+    }
+
+    /**
+     * The number of buffers allocated since the pool was created, which stops growing once the pool is warm.
+     */
+    public synchronized long getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    /**
+     * Drop the idle frames.
+     */
+    public synchronized void clear() {
+        mIdleFrames.clear();
+    }
+}
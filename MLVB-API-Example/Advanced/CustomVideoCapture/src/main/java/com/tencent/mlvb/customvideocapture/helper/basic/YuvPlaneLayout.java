@@ -0,0 +1,139 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+/**
+ * Describes where each plane of a YUV 4:2:0 frame ({@link YuvFormat}) lives inside one contiguous buffer.
+ * The instance is mutable so that the render thread can reuse it for every frame without allocation.
+ */
+public class YuvPlaneLayout {
+    public YuvFormat format            = YuvFormat.I420;
+    public int       width             = 0;
+    public int       height            = 0;
+    public int       chromaWidth       = 0;
+    public int       chromaHeight      = 0;
+    public int       chromaPixelStride = 1;
+    public int       yStride           = 0;
+    public int       uStride           = 0;
+    public int       vStride           = 0;
+    public int       yOffset           = 0;
+    public int       uOffset           = 0;
+    public int       vOffset           = 0;
+    public int       frameSize         = 0;
+
+    /**
+     * Calculate the layout of a tightly packed I420 frame.
+     *
+     * @return true if the layout differs from the previous one.
+     */
+    public boolean updateI420(int width, int height) {
+        return updateI420(width, height, width, (width + 1) / 2);
+    }
+
+    /**
+     * Calculate the layout of an I420 frame whose rows may be padded.
+     * The Y plane is followed by the U plane, which is followed by the V plane.
+     *
+     * @param width The width of the picture.
+     * @param height The height of the picture.
+     * @param yStride The number of bytes between two rows of the Y plane.
+     * @param uvStride The number of bytes between two rows of the U and V planes.
+     * @return true if the layout differs from the previous one.
+     */
+    public boolean updateI420(int width, int height, int yStride, int uvStride) {
+        return update(YuvFormat.I420, width, height, yStride, uvStride);
+    }
+
+    /**
+     * Calculate the layout of a tightly packed frame.
+     *
+     * @return true if the layout differs from the previous one.
+     */
+    public boolean update(YuvFormat format, int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        return update(format, width, height, width, format.isSemiPlanar() ? chromaWidth * 2 : chromaWidth);
+    }
+
+    /**
+     * Calculate the layout of a frame whose rows may be padded.
+     *
+     * @param format The memory layout of the frame.
+     * @param width The width of the picture.
+     * @param height The height of the picture.
+     * @param yStride The number of bytes between two rows of the Y plane.
+     * @param uvStride The number of bytes between two rows of the chroma plane(s).
+     *                 For NV12/NV21 this covers both interleaved components.
+     * @return true if the layout differs from the previous one.
+     */
+    public boolean update(YuvFormat format, int width, int height, int yStride, int uvStride) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        int chromaWidth = (width + 1) / 2;
+        int chromaPixelStride = format.isSemiPlanar() ? 2 : 1;
+        if (yStride < width || uvStride < chromaWidth * chromaPixelStride) {
+            throw new IllegalArgumentException("stride is smaller than width, yStride: " + yStride
+                    + ", uvStride: " + uvStride + ", width: " + width);
+        }
+        if (format.isSemiPlanar() && uvStride % 2 != 0) {
+            throw new IllegalArgumentException("stride of interleaved chroma must be even, uvStride: " + uvStride);
+        }
+        if (this.format == format && this.width == width && this.height == height && this.yStride == yStride
+                && this.uStride == uvStride) {
+            return false;
+        }
+
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.chromaWidth = chromaWidth;
+        this.chromaHeight = (height + 1) / 2;
+        this.chromaPixelStride = chromaPixelStride;
+        this.yStride = yStride;
+        this.uStride = uvStride;
+        this.vStride = uvStride;
+        this.yOffset = 0;
+        int chromaOffset = yStride * height;
+        switch (format) {
+            case NV12:
+                this.uOffset = chromaOffset;
+                this.vOffset = chromaOffset + 1;
+                this.frameSize = chromaOffset + uvStride * chromaHeight;
+                break;
+            case NV21:
+                this.vOffset = chromaOffset;
+                this.uOffset = chromaOffset + 1;
+                this.frameSize = chromaOffset + uvStride * chromaHeight;
+                break;
+            case I420:
+            default:
+                this.uOffset = chromaOffset;
+                this.vOffset = uOffset + uvStride * chromaHeight;
+                this.frameSize = vOffset + uvStride * chromaHeight;
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Whether there is no padding between rows, which means that each plane can be uploaded as a texture of
+     * exactly the picture size.
+     */
+    public boolean isTightlyPacked() {
+        return yStride == width && uStride == chromaWidth * chromaPixelStride;
+    }
+
+    /**
+     * The offset of the first byte of the chroma plane, which is the U plane for I420 and the interleaved plane
+     * for NV12/NV21.
+     */
+    public int getChromaOffset() {
+        return Math.min(uOffset, vOffset);
+    }
+
+    public int getYSize() {
+        return yStride * height;
+    }
+
+    public int getChromaSize() {
+        return frameSize - getChromaOffset();
+    }
+}
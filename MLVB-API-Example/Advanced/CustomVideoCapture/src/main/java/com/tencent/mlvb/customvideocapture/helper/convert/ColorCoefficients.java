@@ -0,0 +1,35 @@
+package com.tencent.mlvb.customvideocapture.helper.convert;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+
+/**
+ * The matrices of a {@link YuvColorSpace} in 16.16 fixed point and the offsets in 8-bit units, for the conversion
+ * loops of {@link ConversionKernels}.
+ */
+final class ColorCoefficients {
+    static final int SHIFT = 16;
+    static final int HALF  = 1 << (SHIFT - 1);
+
+    /**
+     * Column-major, {@code rgb = yuvToRgb * (yuv + offset)}.
+     */
+    final int[] yuvToRgb = new int[9];
+    /**
+     * Column-major, {@code yuv = rgbToYuv * rgb - offset}.
+     */
+    final int[] rgbToYuv = new int[9];
+    final int[] offset   = new int[3];
+
+    ColorCoefficients(YuvColorSpace colorSpace) {
+        float[] matrix = colorSpace.getMatrix();
+        float[] inverseMatrix = colorSpace.getInverseMatrix();
+        for (int i = 0; i < 9; i++) {
+            yuvToRgb[i] = Math.round(matrix[i] * (1 << SHIFT));
+            rgbToYuv[i] = Math.round(inverseMatrix[i] * (1 << SHIFT));
+        }
+        float[] colorOffset = colorSpace.getOffset();
+        for (int i = 0; i < 3; i++) {
+            offset[i] = Math.round(colorOffset[i] * 255);
+        }
+    }
+}
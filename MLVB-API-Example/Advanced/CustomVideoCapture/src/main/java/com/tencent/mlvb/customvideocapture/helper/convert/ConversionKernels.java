@@ -0,0 +1,131 @@
+package com.tencent.mlvb.customvideocapture.helper.convert;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvPlaneLayout;
+
+import java.nio.ByteBuffer;
+
+import static com.tencent.mlvb.customvideocapture.helper.convert.ColorCoefficients.HALF;
+import static com.tencent.mlvb.customvideocapture.helper.convert.ColorCoefficients.SHIFT;
+
+/**
+ * The conversion loops, each over a range of rows of the picture.
+ * <p>
+ * Buffers are only accessed with absolute gets and puts, so several threads can convert different rows of the same
+ * buffers at once. Row ranges must start on an even row, so that each chroma row is written by one range only.
+ */
+final class ConversionKernels {
+
+    private ConversionKernels() {
+    }
+
+    static void yuvToRgba(ByteBuffer src, int srcBase, YuvPlaneLayout layout, ByteBuffer dst, int dstBase,
+            int dstStride, ColorCoefficients coefficients, int rowStart, int rowEnd) {
+        int[] m = coefficients.yuvToRgb;
+        int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7], m8 = m[8];
+        int yOffset = coefficients.offset[0];
+        int uOffset = coefficients.offset[1];
+        int vOffset = coefficients.offset[2];
+        int width = layout.width;
+        int pixelStride = layout.chromaPixelStride;
+        for (int row = rowStart; row < rowEnd; row++) {
+            int yRow = srcBase + layout.yOffset + row * layout.yStride;
+            int uRow = srcBase + layout.uOffset + (row >> 1) * layout.uStride;
+            int vRow = srcBase + layout.vOffset + (row >> 1) * layout.vStride;
+            int out = dstBase + row * dstStride;
+            for (int x = 0; x < width; x++) {
+                int chroma = (x >> 1) * pixelStride;
+                int y = (src.get(yRow + x) & 0xff) + yOffset;
+                int u = (src.get(uRow + chroma) & 0xff) + uOffset;
+                int v = (src.get(vRow + chroma) & 0xff) + vOffset;
+                dst.put(out, clamp((m0 * y + m3 * u + m6 * v + HALF) >> SHIFT));
+                dst.put(out + 1, clamp((m1 * y + m4 * u + m7 * v + HALF) >> SHIFT));
+                dst.put(out + 2, clamp((m2 * y + m5 * u + m8 * v + HALF) >> SHIFT));
+                dst.put(out + 3, (byte) 0xff);
+                out += 4;
+            }
+        }
+    }
+
+    /**
+     * Chroma is the average of each 2x2 block, the last row and column are repeated for odd sizes.
+     */
+    static void rgbaToYuv(ByteBuffer src, int srcBase, int srcStride, ByteBuffer dst, int dstBase,
+            YuvPlaneLayout layout, ColorCoefficients coefficients, int rowStart, int rowEnd) {
+        int[] m = coefficients.rgbToYuv;
+        int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7], m8 = m[8];
+        int yOffset = coefficients.offset[0];
+        int uOffset = coefficients.offset[1];
+        int vOffset = coefficients.offset[2];
+        int width = layout.width;
+        int pixelStride = layout.chromaPixelStride;
+        for (int row = rowStart; row < rowEnd; row++) {
+            int in = srcBase + row * srcStride;
+            int yRow = dstBase + layout.yOffset + row * layout.yStride;
+            for (int x = 0; x < width; x++) {
+                int r = src.get(in) & 0xff;
+                int g = src.get(in + 1) & 0xff;
+                int b = src.get(in + 2) & 0xff;
+                dst.put(yRow + x, clamp(((m0 * r + m3 * g + m6 * b + HALF) >> SHIFT) - yOffset));
+                in += 4;
+            }
+
+            if ((row & 1) != 0) {
+                continue;
+            }
+            int in0 = srcBase + row * srcStride;
+            int in1 = srcBase + Math.min(row + 1, layout.height - 1) * srcStride;
+            int uRow = dstBase + layout.uOffset + (row >> 1) * layout.uStride;
+            int vRow = dstBase + layout.vOffset + (row >> 1) * layout.vStride;
+            for (int cx = 0; cx < layout.chromaWidth; cx++) {
+                int left = cx * 8;
+                int right = Math.min(cx * 2 + 1, width - 1) * 4;
+                int r = (src.get(in0 + left) & 0xff) + (src.get(in0 + right) & 0xff)
+                        + (src.get(in1 + left) & 0xff) + (src.get(in1 + right) & 0xff);
+                int g = (src.get(in0 + left + 1) & 0xff) + (src.get(in0 + right + 1) & 0xff)
+                        + (src.get(in1 + left + 1) & 0xff) + (src.get(in1 + right + 1) & 0xff);
+                int b = (src.get(in0 + left + 2) & 0xff) + (src.get(in0 + right + 2) & 0xff)
+                        + (src.get(in1 + left + 2) & 0xff) + (src.get(in1 + right + 2) & 0xff);
+                r = (r + 2) >> 2;
+                g = (g + 2) >> 2;
+                b = (b + 2) >> 2;
+                int chroma = cx * pixelStride;
+                dst.put(uRow + chroma, clamp(((m1 * r + m4 * g + m7 * b + HALF) >> SHIFT) - uOffset));
+                dst.put(vRow + chroma, clamp(((m2 * r + m5 * g + m8 * b + HALF) >> SHIFT) - vOffset));
+            }
+        }
+    }
+
+    /**
+     * Copy between two YUV 4:2:0 layouts of the same size, for example from a padded I420 frame to a packed NV21 one.
+     */
+    static void yuvToYuv(ByteBuffer src, int srcBase, YuvPlaneLayout srcLayout, ByteBuffer dst, int dstBase,
+            YuvPlaneLayout dstLayout, int rowStart, int rowEnd) {
+        int width = srcLayout.width;
+        int srcPixelStride = srcLayout.chromaPixelStride;
+        int dstPixelStride = dstLayout.chromaPixelStride;
+        for (int row = rowStart; row < rowEnd; row++) {
+            int srcRow = srcBase + srcLayout.yOffset + row * srcLayout.yStride;
+            int dstRow = dstBase + dstLayout.yOffset + row * dstLayout.yStride;
+            for (int x = 0; x < width; x++) {
+                dst.put(dstRow + x, src.get(srcRow + x));
+            }
+
+            if ((row & 1) != 0) {
+                continue;
+            }
+            int chromaRow = row >> 1;
+            int srcU = srcBase + srcLayout.uOffset + chromaRow * srcLayout.uStride;
+            int srcV = srcBase + srcLayout.vOffset + chromaRow * srcLayout.vStride;
+            int dstU = dstBase + dstLayout.uOffset + chromaRow * dstLayout.uStride;
+            int dstV = dstBase + dstLayout.vOffset + chromaRow * dstLayout.vStride;
+            for (int cx = 0; cx < srcLayout.chromaWidth; cx++) {
+                dst.put(dstU + cx * dstPixelStride, src.get(srcU + cx * srcPixelStride));
+                dst.put(dstV + cx * dstPixelStride, src.get(srcV + cx * srcPixelStride));
+            }
+        }
+    }
+
+    private static byte clamp(int value) {
+        return (byte) (value < 0 ? 0 : (value > 255 ? 255 : value));
+    }
+}
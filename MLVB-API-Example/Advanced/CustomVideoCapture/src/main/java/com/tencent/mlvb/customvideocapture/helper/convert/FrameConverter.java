@@ -0,0 +1,328 @@
+package com.tencent.mlvb.customvideocapture.helper.convert;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvPlaneLayout;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pixel format conversion on the CPU between RGBA and YUV 4:2:0 ({@link YuvPlaneLayout}: I420, NV12 or NV21, with
+ * any strides), and between YUV layouts.
+ * <p>
+ * Frames are read from and written to heap or direct buffers starting at their current position, which is not
+ * modified. RGBA is 4 bytes per pixel in R, G, B, A order, with rows {@code stride} bytes apart. Large frames are
+ * split into stripes of rows that are converted in parallel, one on the calling thread and each of the others on a
+ * worker thread of its own; small frames are converted on the calling thread only. The workers wait on a monitor
+ * between frames, so handing a frame to them does not allocate. Conversions with one converter run one at a time, the
+ * calling thread returns when the whole frame is converted.
+ */
+public class FrameConverter {
+    // Below this many pixels, handing the stripes to the workers costs more than it saves.
+    public static final int MIN_PARALLEL_PIXELS = 640 * 360;
+    public static final int MAX_THREADS         = 4;
+
+    private static final int OP_YUV_TO_RGBA = 0;
+    private static final int OP_RGBA_TO_YUV = 1;
+    private static final int OP_YUV_TO_YUV  = 2;
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+
+    private final ColorCoefficients mCoefficients;
+    // Stripe 0 is converted on the calling thread, each of the others by a worker. Also the lock of the fields below.
+    private final Stripe[]          mStripes;
+    private       int               mPendingStripes;
+    private       RuntimeException  mStripeError;
+    // Incremented for every frame handed to the workers.
+    private       int               mGeneration;
+    private       boolean           mReleased;
+
+    // The conversion in progress, read by the stripes.
+    private int            mOperation;
+    private ByteBuffer     mSrc;
+    private int            mSrcBase;
+    private int            mSrcStride;
+    private YuvPlaneLayout mSrcLayout;
+    private ByteBuffer     mDst;
+    private int            mDstBase;
+    private int            mDstStride;
+    private YuvPlaneLayout mDstLayout;
+
+    // Wrappers of the last two arrays passed in on either side, so that converting between the same arrays again
+    // does not allocate, even when they swap sides.
+    private final byte[][]     mWrappedArrays  = new byte[2][];
+    private final ByteBuffer[] mWrappedBuffers = new ByteBuffer[2];
+
+    /**
+     * Use up to {@link #MAX_THREADS} threads, depending on the number of processors.
+     */
+    public FrameConverter(YuvColorSpace colorSpace) {
+        this(colorSpace, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param threadCount The number of threads a frame is converted on, including the calling thread. 1 converts on
+     *                    the calling thread only.
+     */
+    public FrameConverter(YuvColorSpace colorSpace, int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        mCoefficients = new ColorCoefficients(colorSpace);
+        mStripes = new Stripe[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mStripes[i] = new Stripe();
+            if (i > 0) {
+                Thread thread = new Thread(mStripes[i], "FrameConverter-" + sThreadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Convert a YUV frame to RGBA, alpha is set to 255.
+     *
+     * @param dstStride The number of bytes between two rows of the RGBA frame, at least 4 times the width.
+     */
+    public synchronized void yuvToRgba(ByteBuffer src, YuvPlaneLayout srcLayout, ByteBuffer dst, int dstStride) {
+        checkSize(src, srcLayout.frameSize);
+        checkSize(dst, getRgbaSize(srcLayout.width, srcLayout.height, dstStride));
+        mOperation = OP_YUV_TO_RGBA;
+        mSrc = src;
+        mSrcBase = src.position();
+        mSrcLayout = srcLayout;
+        mDst = dst;
+        mDstBase = dst.position();
+        mDstStride = dstStride;
+        run(srcLayout.width, srcLayout.height);
+    }
+
+    /**
+     * @see #yuvToRgba(ByteBuffer, YuvPlaneLayout, ByteBuffer, int)
+     */
+    public synchronized void yuvToRgba(byte[] src, YuvPlaneLayout srcLayout, byte[] dst, int dstStride) {
+        yuvToRgba(wrap(src, dst), srcLayout, wrap(dst, src), dstStride);
+    }
+
+    /**
+     * Convert an RGBA frame to YUV, alpha is ignored. Chroma is the average of each 2x2 block of pixels.
+     *
+     * @param srcStride The number of bytes between two rows of the RGBA frame, at least 4 times the width.
+     * @param dstLayout The format, size and strides of the YUV frame.
+     */
+    public synchronized void rgbaToYuv(ByteBuffer src, int srcStride, ByteBuffer dst, YuvPlaneLayout dstLayout) {
+        checkSize(src, getRgbaSize(dstLayout.width, dstLayout.height, srcStride));
+        checkSize(dst, dstLayout.frameSize);
+        mOperation = OP_RGBA_TO_YUV;
+        mSrc = src;
+        mSrcBase = src.position();
+        mSrcStride = srcStride;
+        mDst = dst;
+        mDstBase = dst.position();
+        mDstLayout = dstLayout;
+        run(dstLayout.width, dstLayout.height);
+    }
+
+    /**
+     * @see #rgbaToYuv(ByteBuffer, int, ByteBuffer, YuvPlaneLayout)
+     */
+    public synchronized void rgbaToYuv(byte[] src, int srcStride, byte[] dst, YuvPlaneLayout dstLayout) {
+        rgbaToYuv(wrap(src, dst), srcStride, wrap(dst, src), dstLayout);
+    }
+
+    /**
+     * Copy a YUV frame into another layout of the same size, for example I420 to NV21 or a padded frame to a packed
+     * one.
+     */
+    public synchronized void convertYuv(ByteBuffer src, YuvPlaneLayout srcLayout, ByteBuffer dst,
+            YuvPlaneLayout dstLayout) {
+        if (srcLayout.width != dstLayout.width || srcLayout.height != dstLayout.height) {
+            throw new IllegalArgumentException("size mismatch, " + srcLayout.width + "x" + srcLayout.height + " to "
+                    + dstLayout.width + "x" + dstLayout.height);
+        }
+        checkSize(src, srcLayout.frameSize);
+        checkSize(dst, dstLayout.frameSize);
+        mOperation = OP_YUV_TO_YUV;
+        mSrc = src;
+        mSrcBase = src.position();
+        mSrcLayout = srcLayout;
+        mDst = dst;
+        mDstBase = dst.position();
+        mDstLayout = dstLayout;
+        run(srcLayout.width, srcLayout.height);
+    }
+
+    /**
+     * @see #convertYuv(ByteBuffer, YuvPlaneLayout, ByteBuffer, YuvPlaneLayout)
+     */
+    public synchronized void convertYuv(byte[] src, YuvPlaneLayout srcLayout, byte[] dst, YuvPlaneLayout dstLayout) {
+        convertYuv(wrap(src, dst), srcLayout, wrap(dst, src), dstLayout);
+    }
+
+    /**
+     * Stop the worker threads, the converter must not be used anymore.
+     */
+    public synchronized void release() {
+        synchronized (mStripes) {
+            mReleased = true;
+            mStripes.notifyAll();
+        }
+        for (int i = 0; i < mWrappedArrays.length; i++) {
+            mWrappedArrays[i] = null;
+            mWrappedBuffers[i] = null;
+        }
+    }
+
+    private void run(int width, int height) {
+        if (mReleased) {
+            throw new IllegalStateException("the converter is released");
+        }
+        int stripeCount = (long) width * height < MIN_PARALLEL_PIXELS ? 1 : mStripes.length;
+        // Stripes start on even rows, so that each chroma row belongs to one stripe.
+        int rowsPerStripe = ((height + stripeCount - 1) / stripeCount + 1) & ~1;
+        synchronized (mStripes) {
+            mPendingStripes = 0;
+            mStripeError = null;
+            if (stripeCount > 1) {
+                for (int i = 1; i < mStripes.length; i++) {
+                    int rowStart = i * rowsPerStripe;
+                    if (rowStart < height) {
+                        mStripes[i].set(rowStart, Math.min(height, rowStart + rowsPerStripe));
+                        mPendingStripes++;
+                    } else {
+                        mStripes[i].set(0, 0);
+                    }
+                }
+                mGeneration++;
+                mStripes.notifyAll();
+            }
+        }
+
+        RuntimeException error = null;
+        try {
+            convertRows(0, Math.min(height, rowsPerStripe));
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        synchronized (mStripes) {
+            boolean interrupted = false;
+            while (mPendingStripes > 0) {
+                try {
+                    mStripes.wait();
+                } catch (InterruptedException e) {
+                    // The stripes still write into the buffers, so they must be waited for anyway.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error == null) {
+                error = mStripeError;
+            }
+        }
+        mSrc = null;
+        mDst = null;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void convertRows(int rowStart, int rowEnd) {
+        switch (mOperation) {
+            case OP_YUV_TO_RGBA:
+                ConversionKernels.yuvToRgba(mSrc, mSrcBase, mSrcLayout, mDst, mDstBase, mDstStride, mCoefficients,
+                        rowStart, rowEnd);
+                break;
+            case OP_RGBA_TO_YUV:
+                ConversionKernels.rgbaToYuv(mSrc, mSrcBase, mSrcStride, mDst, mDstBase, mDstLayout, mCoefficients,
+                        rowStart, rowEnd);
+                break;
+            case OP_YUV_TO_YUV:
+            default:
+                ConversionKernels.yuvToYuv(mSrc, mSrcBase, mSrcLayout, mDst, mDstBase, mDstLayout, rowStart, rowEnd);
+                break;
+        }
+    }
+
+    /**
+     * Get the wrapper of an array, replacing the cached wrapper of any array but the other side of the conversion.
+     */
+    private ByteBuffer wrap(byte[] array, byte[] otherSide) {
+        for (int i = 0; i < mWrappedArrays.length; i++) {
+            if (mWrappedArrays[i] == array) {
+                return mWrappedBuffers[i];
+            }
+        }
+        int index = mWrappedArrays[0] == otherSide ? 1 : 0;
+        mWrappedArrays[index] = array;
+        mWrappedBuffers[index] = ByteBuffer.wrap(array);
+        return mWrappedBuffers[index];
+    }
+
+    private static int getRgbaSize(int width, int height, int stride) {
+        if (stride < width * 4) {
+            throw new IllegalArgumentException("stride is smaller than width, stride: " + stride + ", width: " + width);
+        }
+        return stride * (height - 1) + width * 4;
+    }
+
+    private static void checkSize(ByteBuffer buffer, int size) {
+        if (buffer.remaining() < size) {
+            throw new IllegalArgumentException("buffer is too small, remaining: " + buffer.remaining() + ", needed: "
+                    + size);
+        }
+    }
+
+    /**
+     * A range of rows, and the loop of the worker thread that converts it for every frame. The rows are set with the
+     * lock of the stripes held, empty when the frame has fewer stripes.
+     */
+    private class Stripe implements Runnable {
+        private int mRowStart;
+        private int mRowEnd;
+
+        void set(int rowStart, int rowEnd) {
+            mRowStart = rowStart;
+            mRowEnd = rowEnd;
+        }
+
+        @Override
+        public void run() {
+            int generation = 0;
+            while (true) {
+                synchronized (mStripes) {
+                    while (mGeneration == generation && !mReleased) {
+                        try {
+                            mStripes.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mReleased) {
+                        return;
+                    }
+                    generation = mGeneration;
+                    if (mRowStart >= mRowEnd) {
+                        continue;
+                    }
+                }
+
+                RuntimeException error = null;
+                try {
+                    convertRows(mRowStart, mRowEnd);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                synchronized (mStripes) {
+                    if (error != null && mStripeError == null) {
+                        mStripeError = error;
+                    }
+                    mPendingStripes--;
+                    mStripes.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.tencent.mlvb.customvideocapture.helper.record;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.Frame;
+
+import java.io.IOException;
+
+/**
+ * Writes the samples of one encoded track into an MP4 file on a thread of its own, so that the thread draining the
+ * encoder never waits for the disk.
+ * <p>
+ * Samples are not copied: each {@link Frame} points into an output buffer of the encoder, and is handed back through
+ * {@link SampleListener} once written, so that the buffer can be returned to the encoder. At most
+ * {@code maxQueuedSamples} samples wait to be written, {@link #write} blocks while the queue is full, which in turn
+ * holds the encoder back instead of queuing without bound.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class MuxerWriter implements Handler.Callback {
+    private static final String TAG = "MuxerWriter";
+
+    private static final int MSG_START = 1;
+    private static final int MSG_WRITE = 2;
+    private static final int MSG_STOP  = 3;
+
+    public interface SampleListener {
+        /**
+         * A sample was written, or dropped because the file could not be written. Called on the writer thread, the
+         * frame and its buffer can be reused.
+         */
+        void onSampleWritten(Frame frame);
+    }
+
+    private final    String                mPath;
+    private final    MediaMuxer            mMuxer;
+    private final    int                   mMaxQueuedSamples;
+    private final    SampleListener        mListener;
+    private final    HandlerThread         mWriterThread;
+    private final    Handler               mWriterHandler;
+    private final    MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private final    Object                mQueueLock  = new Object();
+    private          int                   mQueuedSamples;
+    private          int                   mMaxQueuedSeen;
+    private          int                   mTrackIndex = -1;
+    private          boolean               mFailed;
+    private volatile long                  mWrittenSamples;
+    private volatile long                  mWrittenBytes;
+
+    /**
+     * @param maxQueuedSamples The number of samples that may wait to be written.
+     * @throws IOException if the file cannot be created.
+     */
+    public MuxerWriter(String path, int maxQueuedSamples, SampleListener listener) throws IOException {
+        if (maxQueuedSamples <= 0) {
+            throw new IllegalArgumentException("maxQueuedSamples must be positive: " + maxQueuedSamples);
+        }
+        mPath = path;
+        mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMaxQueuedSamples = maxQueuedSamples;
+        mListener = listener;
+        mWriterThread = new HandlerThread("MuxerWriter");
+        mWriterThread.start();
+        mWriterHandler = new Handler(mWriterThread.getLooper(), this);
+    }
+
+    /**
+     * Add the track and start the file, must be called before the first sample, with the format the encoder reports
+     * once it has its codec specific data.
+     */
+    public void start(MediaFormat format) {
+        mWriterHandler.obtainMessage(MSG_START, format).sendToTarget();
+    }
+
+    /**
+     * Queue a sample, waiting while {@code maxQueuedSamples} samples are already queued.
+     *
+     * @param frame Points into a buffer that stays valid until the frame is handed to the listener.
+     */
+    public void write(Frame frame) {
+        synchronized (mQueueLock) {
+            boolean interrupted = false;
+            while (mQueuedSamples >= mMaxQueuedSamples) {
+                try {
+                    mQueueLock.wait();
+                } catch (InterruptedException e) {
+                    // The sample must be written or handed back anyway, keep waiting.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            mQueuedSamples++;
+            mMaxQueuedSeen = Math.max(mMaxQueuedSeen, mQueuedSamples);
+        }
+        mWriterHandler.obtainMessage(MSG_WRITE, frame).sendToTarget();
+    }
+
+    /**
+     * Write the queued samples, finish the file and stop the writer thread. Blocks until done.
+     */
+    public void stop() {
+        mWriterHandler.sendEmptyMessage(MSG_STOP);
+        mWriterThread.quitSafely();
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mQueueLock) {
+            Log.i(TAG, "stopped " + mPath + ", samples: " + mWrittenSamples + ", bytes: " + mWrittenBytes
+                    + ", max queued: " + mMaxQueuedSeen + " of " + mMaxQueuedSamples);
+        }
+    }
+
+    public long getWrittenSamples() {
+        return mWrittenSamples;
+    }
+
+    public long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    @Override
+    public boolean handleMessage(@NonNull Message msg) {
+        switch (msg.what) {
+            case MSG_START:
+                startInternal((MediaFormat) msg.obj);
+                break;
+            case MSG_WRITE:
+                writeInternal((Frame) msg.obj);
+                break;
+            case MSG_STOP:
+                stopInternal();
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    private void startInternal(MediaFormat format) {
+        if (mTrackIndex >= 0 || mFailed) {
+            Log.w(TAG, "format changed after start, ignored");
+            return;
+        }
+        try {
+            mTrackIndex = mMuxer.addTrack(format);
+            mMuxer.start();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "start " + mPath + " failed", e);
+            mFailed = true;
+        }
+    }
+
+    private void writeInternal(Frame frame) {
+        try {
+            if (mTrackIndex >= 0 && !mFailed) {
+                mBufferInfo.offset = frame.getOffset();
+                mBufferInfo.size = frame.getSize();
+                mBufferInfo.presentationTimeUs = frame.getPresentationTimeUs();
+                mBufferInfo.flags = frame.getFlags();
+                mMuxer.writeSampleData(mTrackIndex, frame.getBuffer(), mBufferInfo);
+                mWrittenSamples++;
+                mWrittenBytes += frame.getSize();
+            }
+        } catch (RuntimeException e) {
+            // Typically the disk is full, keep draining so that the encoder gets its buffers back.
+            Log.e(TAG, "write " + mPath + " failed", e);
+            mFailed = true;
+        } finally {
+            mListener.onSampleWritten(frame);
+            synchronized (mQueueLock) {
+                mQueuedSamples--;
+                mQueueLock.notifyAll();
+            }
+        }
+    }
+
+    private void stopInternal() {
+        try {
+            if (mTrackIndex >= 0) {
+                mMuxer.stop();
+            }
+        } catch (RuntimeException e) {
+            // Thrown when no sample was written, the file is unusable then anyway.
+            Log.e(TAG, "stop " + mPath + " failed", e);
+        }
+        mMuxer.release();
+    }
+}
@@ -0,0 +1,329 @@
+package com.tencent.mlvb.customvideocapture.helper.record;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.RequiresApi;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.Frame;
+import com.tencent.mlvb.customvideocapture.helper.render.EglCore;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.GPUImageFilter;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.QuadGeometry;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.Rotation;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.TextureRotationUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils.CUBE;
+
+/**
+ * Records the frames of a capture into an H.264 MP4 file.
+ * <p>
+ * The encoder reads from an input {@link Surface}, which is bound as one more window surface of the capture's
+ * EGLContext, so a frame is recorded by drawing its texture once more and swapping, without reading it back. The
+ * encoded samples are drained on a thread of their own and handed to a {@link MuxerWriter} in place: a {@link Frame}
+ * per output buffer index of the encoder points into the buffer, and the buffer is returned to the encoder once the
+ * sample is written. A frame is skipped rather than waited for when the encoder or the writer falls behind, so
+ * recording never holds the capture thread back. {@link #start}, {@link #encodeFrame} and {@link #stop} must be called
+ * on the thread the capture's EGLContext is current on, which is checked.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class VideoRecorder implements MuxerWriter.SampleListener {
+    private static final String TAG = "VideoRecorder";
+
+    public static final String MIME_TYPE               = MediaFormat.MIMETYPE_VIDEO_AVC;
+    public static final int    DEFAULT_I_FRAME_SECONDS = 2;
+
+    // Frames swapped to the encoder but not drained yet, beyond which frames are skipped so that swapping never waits.
+    private static final int  MAX_FRAMES_IN_ENCODER = 4;
+    // A frame still in the encoder after this long is taken as dropped by the encoder, which rate control may do.
+    private static final long ENCODER_TIMEOUT_NS    = 500000000L;
+    private static final int  MAX_QUEUED_SAMPLES    = 8;
+    private static final long DRAIN_TIMEOUT_US      = 10000;
+    private static final long STOP_TIMEOUT_MS       = 2000;
+
+    private final    String                mPath;
+    private final    int                   mWidth;
+    private final    int                   mHeight;
+    private final    int                   mFrameRate;
+    private final    int                   mBitRate;
+    private final    QuadGeometry          mGeometry;
+    private final    GPUImageFilter        mFilter              = new GPUImageFilter();
+    private final    AtomicLong            mEncodedFrames       = new AtomicLong();
+    private final    AtomicLong            mDrainedFrames       = new AtomicLong();
+    // The timestamps and swap times of the last frames swapped to the encoder, the ones after the newest sample
+    // drained are still in the encoder.
+    private final    long[]                mSwappedTimestampsUs = new long[MAX_FRAMES_IN_ENCODER];
+    private final    long[]                mSwapTimesNs         = new long[MAX_FRAMES_IN_ENCODER];
+    private          int                   mSwapIndex;
+    private volatile long                  mDrainedTimestampUs  = Long.MIN_VALUE;
+    private          Thread                mGlThread;
+    private          MediaCodec            mEncoder;
+    private          Surface               mInputSurface;
+    private          Object                mEglSurface;
+    private          MuxerWriter           mMuxerWriter;
+    private          Thread                mDrainThread;
+    // Indexed by output buffer index, an index is not handed out again before its buffer is released.
+    private          Frame[]               mFrames              = new Frame[0];
+    private          long                  mLastTimestampNs;
+    private          long                  mSkippedFrames;
+    private volatile boolean               mStopping;
+
+    /**
+     * @param path The MP4 file to write, replaced if it exists.
+     * @param width The width of the recorded frames, even.
+     * @param height The height of the recorded frames, even.
+     * @param frameRate The nominal frame rate, the actual timing comes from the frame timestamps.
+     * @param bitRate In bits per second.
+     */
+    public VideoRecorder(String path, int width, int height, int frameRate, int bitRate) {
+        mPath = path;
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+        mBitRate = bitRate;
+        // The textures are drawn as they are, the encoder reads the window bottom-up like a texture.
+        mGeometry = new QuadGeometry(CUBE, TextureRotationUtils.getRotation(Rotation.NORMAL, false, true));
+    }
+
+    /**
+     * Create the encoder and the file, and bind the encoder's input surface to the EGLContext of eglCore. The context
+     * is made current on its own surface again before returning.
+     *
+     * @throws IOException if the encoder or the file cannot be created.
+     */
+    public void start(EglCore eglCore) throws IOException {
+        mGlThread = Thread.currentThread();
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mFrameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, DEFAULT_I_FRAME_SECONDS);
+
+        mEncoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        try {
+            mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mInputSurface = mEncoder.createInputSurface();
+            mEglSurface = eglCore.createWindowSurface(mInputSurface);
+            if (mEglSurface == null) {
+                throw new IOException("cannot draw to the encoder surface");
+            }
+            mMuxerWriter = new MuxerWriter(mPath, MAX_QUEUED_SAMPLES, this);
+            mEncoder.start();
+        } catch (IOException | RuntimeException e) {
+            release(eglCore);
+            throw e;
+        }
+
+        eglCore.makeCurrent(mEglSurface);
+        mFilter.init();
+        mFilter.onOutputSizeChanged(mWidth, mHeight);
+        eglCore.makeCurrent();
+
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "VideoRecorderDrain");
+        mDrainThread.start();
+        Log.i(TAG, "start " + mPath + ", " + mWidth + "x" + mHeight + ", " + mFrameRate + " fps, " + mBitRate + " bps");
+    }
+
+    /**
+     * Record a frame by drawing it to the encoder's input surface. The context is made current on its own surface
+     * again before returning.
+     *
+     * @param textureId A 2D texture of the capture's context with the size passed to the constructor.
+     * @param timestampNs The timestamp of the frame, in nanoseconds of a monotonic clock.
+     * @return false if the frame was skipped because the encoder is behind or the timestamp did not increase.
+     */
+    public boolean encodeFrame(EglCore eglCore, int textureId, long timestampNs) {
+        if (mEncoder == null || mStopping) {
+            return false;
+        }
+        checkThread();
+        long nowNs = System.nanoTime();
+        if (getFramesInEncoder(nowNs) >= MAX_FRAMES_IN_ENCODER || timestampNs <= mLastTimestampNs) {
+            mSkippedFrames++;
+            return false;
+        }
+        mLastTimestampNs = timestampNs;
+        mSwappedTimestampsUs[mSwapIndex] = timestampNs / 1000;
+        mSwapTimesNs[mSwapIndex] = nowNs;
+        mSwapIndex = (mSwapIndex + 1) % MAX_FRAMES_IN_ENCODER;
+        eglCore.makeCurrent(mEglSurface);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+        mFilter.onDraw(textureId, mGeometry);
+        eglCore.setPresentationTime(mEglSurface, timestampNs);
+        eglCore.swapBuffer(mEglSurface);
+        mEncodedFrames.incrementAndGet();
+        eglCore.makeCurrent();
+        return true;
+    }
+
+    /**
+     * Finish the file: signal the end of the stream, wait for the encoder and the writer to finish, and release
+     * everything. Blocks for up to a few seconds.
+     */
+    public void stop(EglCore eglCore) {
+        if (mEncoder == null) {
+            return;
+        }
+        checkThread();
+        mStopping = true;
+        try {
+            mEncoder.signalEndOfInputStream();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "signal end of stream failed", e);
+        }
+        if (mDrainThread != null) {
+            try {
+                mDrainThread.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (mDrainThread.isAlive()) {
+                // The end of stream never came out, stop draining without it.
+                Log.w(TAG, "end of stream timed out");
+                mDrainThread.interrupt();
+                try {
+                    mDrainThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mDrainThread = null;
+        }
+        Log.i(TAG, "stop " + mPath + ", encoded: " + mEncodedFrames.get() + ", drained: " + mDrainedFrames.get()
+                + ", skipped: " + mSkippedFrames);
+        release(eglCore);
+    }
+
+    /**
+     * The frames swapped to the encoder that no sample has come out for yet. A frame is no longer counted once a later
+     * one came out, or after a timeout, so frames the encoder drops or merges do not hold recording back for good.
+     */
+    private int getFramesInEncoder(long nowNs) {
+        long drainedTimestampUs = mDrainedTimestampUs;
+        int count = 0;
+        for (int i = 0; i < MAX_FRAMES_IN_ENCODER; i++) {
+            if (mSwappedTimestampsUs[i] > drainedTimestampUs && nowNs - mSwapTimesNs[i] < ENCODER_TIMEOUT_NS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void checkThread() {
+        if (Thread.currentThread() != mGlThread) {
+            throw new IllegalStateException("must be called on the thread that started recording");
+        }
+    }
+
+    /**
+     * The number of frames not recorded because the encoder or the writer was behind.
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    private void release(EglCore eglCore) {
+        // The writer hands the last buffers back to the encoder, so it stops before the encoder.
+        if (mMuxerWriter != null) {
+            mMuxerWriter.stop();
+            mMuxerWriter = null;
+        }
+        if (mEncoder != null) {
+            try {
+                mEncoder.stop();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "stop encoder failed", e);
+            }
+            mEncoder.release();
+            mEncoder = null;
+        }
+        if (mEglSurface != null) {
+            if (mFilter.isInitialized()) {
+                eglCore.makeCurrent(mEglSurface);
+                mFilter.destroy();
+            }
+            eglCore.destroyWindowSurface(mEglSurface);
+            eglCore.makeCurrent();
+            mEglSurface = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        mGeometry.release();
+    }
+
+    private void drain() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                int index = mEncoder.dequeueOutputBuffer(info, DRAIN_TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    // Carries the codec specific data, which the muxer needs before the first sample.
+                    mMuxerWriter.start(mEncoder.getOutputFormat());
+                    continue;
+                }
+                if (index < 0) {
+                    continue;
+                }
+                boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || info.size == 0) {
+                    // Already part of the output format.
+                    mEncoder.releaseOutputBuffer(index, false);
+                } else {
+                    mDrainedFrames.incrementAndGet();
+                    // The newest, samples may come out of order when the encoder reorders frames.
+                    mDrainedTimestampUs = Math.max(mDrainedTimestampUs, info.presentationTimeUs);
+                    mMuxerWriter.write(obtainFrame(index, info));
+                }
+                if (endOfStream) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "drain " + mPath + " failed", e);
+        }
+    }
+
+    private Frame obtainFrame(int index, MediaCodec.BufferInfo info) {
+        if (index >= mFrames.length) {
+            mFrames = Arrays.copyOf(mFrames, index + 1);
+        }
+        Frame frame = mFrames[index];
+        if (frame == null) {
+            frame = new Frame();
+            mFrames[index] = frame;
+        }
+        frame.setBuffer(mEncoder.getOutputBuffer(index));
+        frame.setBufferIndex(index);
+        frame.setOffset(info.offset);
+        frame.setSize(info.size);
+        frame.setPresentationTimeUs(info.presentationTimeUs);
+        frame.setFlags(info.flags);
+        return frame;
+    }
+
+    @Override
+    public void onSampleWritten(Frame frame) {
+        frame.setBuffer(null);
+        try {
+            mEncoder.releaseOutputBuffer(frame.getBufferIndex(), false);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "release output buffer " + frame.getBufferIndex() + " failed", e);
+        }
+    }
+}
@@ -14,8 +14,9 @@ public class EGL10Helper implements EGLHelper<EGLContext> {
     private static final int        EGL_RECORDABLE_ANDROID           = 0x3142;
     private static final int        EGL_CONTEXT_CLIENT_VERSION       = 0x3098;
     private static final int        EGL_OPENGL_ES2_BIT               = 4;
+    // Also ask for EGL_WINDOW_BIT, so that an off-screen context can draw to windows with createWindowSurface.
     private static final int[]      ATTRIBUTES_FOR_OFFSCREEN_SURFACE = {
-            EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT, //Display Surface here EGL10.EGL_WINDOW_BIT in the foreground
+            EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT | EGL10.EGL_WINDOW_BIT,
             EGL10.EGL_RED_SIZE, 8, EGL10.EGL_GREEN_SIZE, 8, EGL10.EGL_BLUE_SIZE, 8, EGL10.EGL_ALPHA_SIZE, 8,
             EGL10.EGL_DEPTH_SIZE, 0, EGL10.EGL_STENCIL_SIZE, 0, EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
             EGL10.EGL_NONE};
@@ -60,6 +61,40 @@ public class EGL10Helper implements EGLHelper<EGLContext> {
         checkEglError();
     }
 
+    @Override
+    public Object createWindowSurface(Surface surface) {
+        EGLSurface eglSurface = mEGL.eglCreateWindowSurface(mEGLDisplay, mEGLConfig, surface, null);
+        if (eglSurface == null || eglSurface == EGL10.EGL_NO_SURFACE) {
+            checkEglError();
+            return null;
+        }
+        return eglSurface;
+    }
+
+    @Override
+    public void makeCurrent(Object windowSurface) {
+        EGLSurface eglSurface = (EGLSurface) windowSurface;
+        mEGL.eglMakeCurrent(mEGLDisplay, eglSurface, eglSurface, mEGLContext);
+        checkEglError();
+    }
+
+    @Override
+    public boolean swapBuffers(Object windowSurface) {
+        boolean ret = mEGL.eglSwapBuffers(mEGLDisplay, (EGLSurface) windowSurface);
+        checkEglError();
+        return ret;
+    }
+
+    @Override
+    public void destroyWindowSurface(Object windowSurface) {
+        EGLSurface eglSurface = (EGLSurface) windowSurface;
+        if (eglSurface.equals(mEGL.eglGetCurrentSurface(EGL10.EGL_DRAW))) {
+            // Keep the context current on its own surface, the surface being destroyed may be the only one in use.
+            mEGL.eglMakeCurrent(mEGLDisplay, mEGLSurface, mEGLSurface, mEGLContext);
+        }
+        mEGL.eglDestroySurface(mEGLDisplay, eglSurface);
+    }
+
     public void destroy() {
         if (mEGLDisplay != EGL10.EGL_NO_DISPLAY) {
             mEGL.eglMakeCurrent(mEGLDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
@@ -18,38 +18,15 @@ public class EGL14Helper implements EGLHelper<EGLContext> {
     private static final String TAG = "EGL14Helper";
 
     private static final int        EGL_RECORDABLE_ANDROID               = 0x3142;
-    private static final int        GLES_VERSION                         = 2;
-    private static final int[]      ATTRIBUTE_LIST_FOR_SURFACE           = {
-            EGL14.EGL_RED_SIZE, 8,
-            EGL14.EGL_GREEN_SIZE, 8,
-            EGL14.EGL_BLUE_SIZE, 8,
-            EGL14.EGL_ALPHA_SIZE, 8,
-            EGL14.EGL_DEPTH_SIZE, 0,
-            EGL14.EGL_STENCIL_SIZE, 0,
-            EGL14.EGL_RENDERABLE_TYPE,
-            GLES_VERSION == 2 ? EGL14.EGL_OPENGL_ES2_BIT : EGL14.EGL_OPENGL_ES2_BIT | EGLExt.EGL_OPENGL_ES3_BIT_KHR,
-            EGL_RECORDABLE_ANDROID, 1,
-            EGL14.EGL_NONE
-    };
-    private static final int[]      ATTRIBUTE_LIST_FOR_OFFSCREEN_SURFACE = {
-            EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,//The front desk displays Surface here EGL10.EGL_WINDOW_BIT
-            EGL14.EGL_RED_SIZE, 8,
-            EGL14.EGL_GREEN_SIZE, 8,
-            EGL14.EGL_BLUE_SIZE, 8,
-            EGL14.EGL_ALPHA_SIZE, 8,
-            EGL14.EGL_DEPTH_SIZE, 0,
-            EGL14.EGL_STENCIL_SIZE, 0,
-            EGL14.EGL_RENDERABLE_TYPE,
-            GLES_VERSION == 2 ? EGL14.EGL_OPENGL_ES2_BIT : EGL14.EGL_OPENGL_ES2_BIT | EGLExt.EGL_OPENGL_ES3_BIT_KHR,
-            EGL_RECORDABLE_ANDROID, 1,
-            EGL14.EGL_NONE
-    };
+    private static final int        GLES_VERSION_2                       = 2;
+    private static final int        GLES_VERSION_3                       = 3;
     private final        int        mWidth;
     private final        int        mHeight;
     private              EGLConfig  mEGLConfig                           = null;
     private              EGLDisplay mEGLDisplay                          = EGL14.EGL_NO_DISPLAY;
     private              EGLContext mEGLContext                          = EGL14.EGL_NO_CONTEXT;
     private              EGLSurface mEGLSurface;
+    private              int        mGlesVersion                         = GLES_VERSION_2;
 
     private EGL14Helper(int width, int height) {
         mWidth = width;
@@ -102,6 +79,40 @@ public class EGL14Helper implements EGLHelper<EGLContext> {
         return EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurface);
     }
 
+    @Override
+    public Object createWindowSurface(Surface surface) {
+        int[] surfaceAttribs = {EGL14.EGL_NONE};
+        EGLSurface eglSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, mEGLConfig, surface, surfaceAttribs, 0);
+        if (eglSurface == null || eglSurface == EGL14.EGL_NO_SURFACE) {
+            Log.e(TAG, "create window surface failed, EGL error: " + EGL14.eglGetError());
+            return null;
+        }
+        return eglSurface;
+    }
+
+    @Override
+    public void makeCurrent(Object windowSurface) {
+        EGLSurface eglSurface = (EGLSurface) windowSurface;
+        if (!EGL14.eglMakeCurrent(mEGLDisplay, eglSurface, eglSurface, mEGLContext)) {
+            throw new RuntimeException("eglMakeCurrent failed");
+        }
+    }
+
+    @Override
+    public boolean swapBuffers(Object windowSurface) {
+        return EGL14.eglSwapBuffers(mEGLDisplay, (EGLSurface) windowSurface);
+    }
+
+    @Override
+    public void destroyWindowSurface(Object windowSurface) {
+        EGLSurface eglSurface = (EGLSurface) windowSurface;
+        if (eglSurface.equals(EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW))) {
+            // Keep the context current on its own surface, the surface being destroyed may be the only one in use.
+            EGL14.eglMakeCurrent(mEGLDisplay, mEGLSurface, mEGLSurface, mEGLContext);
+        }
+        EGL14.eglDestroySurface(mEGLDisplay, eglSurface);
+    }
+
     private boolean initialize(EGLConfig config, EGLContext context, Surface surface) {
         mEGLDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
         if (mEGLDisplay == EGL14.EGL_NO_DISPLAY) {
@@ -114,32 +125,44 @@ public class EGL14Helper implements EGLHelper<EGLContext> {
             throw new RuntimeException("unable to initialize EGL14");
         }
 
-        if (config != null) {
-            mEGLConfig = config;
-        } else {
-            EGLConfig[] configs = new EGLConfig[1];
-            int[] numConfigs = new int[1];
-            int[] attribList = surface == null ? ATTRIBUTE_LIST_FOR_OFFSCREEN_SURFACE : ATTRIBUTE_LIST_FOR_SURFACE;
-            if (!EGL14.eglChooseConfig(mEGLDisplay, attribList, 0, configs, 0, configs.length, numConfigs, 0)) {
-                return false;
-            }
-            mEGLConfig = configs[0];
-        }
-
         if (context == null) {
             context = EGL14.EGL_NO_CONTEXT;
         }
-        int[] attribList = {
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, GLES_VERSION,
-                EGL14.EGL_NONE
-        };
 
-        mEGLContext = EGL14.eglCreateContext(mEGLDisplay, mEGLConfig, context, attribList, 0);
+        // Prefer an OpenGL ES 3 context, which provides fences, vertex array objects and pixel buffer objects.
+        // It is backward compatible with all the ES 2 shaders, so fall back to ES 2 only if the device has no ES 3.
+        for (int glesVersion = GLES_VERSION_3; glesVersion >= GLES_VERSION_2; glesVersion--) {
+            if (config != null) {
+                mEGLConfig = config;
+            } else {
+                EGLConfig[] configs = new EGLConfig[1];
+                int[] numConfigs = new int[1];
+                int[] attribList = getConfigAttributes(surface == null, glesVersion);
+                if (!EGL14.eglChooseConfig(mEGLDisplay, attribList, 0, configs, 0, configs.length, numConfigs, 0)
+                        || numConfigs[0] <= 0) {
+                    continue;
+                }
+                mEGLConfig = configs[0];
+            }
+
+            int[] attribList = {
+                    EGL14.EGL_CONTEXT_CLIENT_VERSION, glesVersion,
+                    EGL14.EGL_NONE
+            };
+            mEGLContext = EGL14.eglCreateContext(mEGLDisplay, mEGLConfig, context, attribList, 0);
+            if (mEGLContext != EGL14.EGL_NO_CONTEXT) {
+                mGlesVersion = glesVersion;
+                break;
+            }
+            // Clear the error of the failed attempt.
+            EGL14.eglGetError();
+        }
 
         if (mEGLContext == EGL14.EGL_NO_CONTEXT) {
             checkEGLError();
             return false;
         }
+        Log.i(TAG, "create EGLContext with OpenGL ES " + mGlesVersion);
 
         if (surface == null) {
             int[] attribListPbuffer = {
@@ -173,6 +196,52 @@ public class EGL14Helper implements EGLHelper<EGLContext> {
         EGLExt.eglPresentationTimeANDROID(mEGLDisplay, mEGLSurface, nsecs);
     }
 
+    /**
+     * Set the presentation time of the next frame swapped to a surface returned by {@link #createWindowSurface}.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public void setPresentationTime(Object windowSurface, long nsecs) {
+        EGLExt.eglPresentationTimeANDROID(mEGLDisplay, (EGLSurface) windowSurface, nsecs);
+    }
+
+    /**
+     * The major version of OpenGL ES supported by the created context, 2 or 3.
+     */
+    public int getGlesVersion() {
+        return mGlesVersion;
+    }
+
+    private static int[] getConfigAttributes(boolean offscreen, int glesVersion) {
+        int renderableType = glesVersion >= GLES_VERSION_3
+                ? EGL14.EGL_OPENGL_ES2_BIT | EGLExt.EGL_OPENGL_ES3_BIT_KHR : EGL14.EGL_OPENGL_ES2_BIT;
+        if (offscreen) {
+            // Also ask for EGL_WINDOW_BIT, so that an off-screen context can draw to windows with createWindowSurface.
+            return new int[]{
+                    EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT | EGL14.EGL_WINDOW_BIT,
+                    EGL14.EGL_RED_SIZE, 8,
+                    EGL14.EGL_GREEN_SIZE, 8,
+                    EGL14.EGL_BLUE_SIZE, 8,
+                    EGL14.EGL_ALPHA_SIZE, 8,
+                    EGL14.EGL_DEPTH_SIZE, 0,
+                    EGL14.EGL_STENCIL_SIZE, 0,
+                    EGL14.EGL_RENDERABLE_TYPE, renderableType,
+                    EGL_RECORDABLE_ANDROID, 1,
+                    EGL14.EGL_NONE
+            };
+        }
+        return new int[]{
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_DEPTH_SIZE, 0,
+                EGL14.EGL_STENCIL_SIZE, 0,
+                EGL14.EGL_RENDERABLE_TYPE, renderableType,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+    }
+
     @Override
     public EGLContext getContext() {
         return mEGLContext;
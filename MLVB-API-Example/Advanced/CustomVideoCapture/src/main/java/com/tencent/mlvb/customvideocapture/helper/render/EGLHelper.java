@@ -1,5 +1,7 @@
 package com.tencent.mlvb.customvideocapture.helper.render;
 
+import android.view.Surface;
+
 /**
  * Android has two sets of EGL classes.
  * For convenience of use, they are abstracted and only the following interfaces are provided.
@@ -31,4 +33,26 @@ public interface EGLHelper<T> {
      * Destroy the created EGLContext and related resources.
      */
     void destroy();
+
+    /**
+     * Create one more window surface for the EGLContext, so that the same context can draw to several windows.
+     *
+     * @return The EGLSurface of the window, null if it cannot be created.
+     */
+    Object createWindowSurface(Surface surface);
+
+    /**
+     * Bind EGLContext to the current thread with a surface returned by {@link #createWindowSurface}.
+     */
+    void makeCurrent(Object windowSurface);
+
+    /**
+     * Brush rendered content onto a surface returned by {@link #createWindowSurface}.
+     */
+    boolean swapBuffers(Object windowSurface);
+
+    /**
+     * Destroy a surface returned by {@link #createWindowSurface}.
+     */
+    void destroyWindowSurface(Object windowSurface);
 }
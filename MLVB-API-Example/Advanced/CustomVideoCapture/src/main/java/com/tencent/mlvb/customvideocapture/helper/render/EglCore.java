@@ -1,13 +1,19 @@
 package com.tencent.mlvb.customvideocapture.helper.render;
 
 import android.annotation.TargetApi;
+import android.util.Log;
 import android.view.Surface;
 
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.ProgramCache;
+
 /**
  * When eglMakeCurrent, you need to associate the Context and the window (or Surface), so combine the two.
  */
 public class EglCore {
-    private EGLHelper mEglHelper;
+    private static final String TAG = "EglCore";
+
+    private EGLHelper               mEglHelper;
+    private ProgramCache.ShareGroup mShareGroup;
 
     /**
      * Create an EglCore, in which the window is an off-screen Surface and does not share other EGLContext
@@ -37,6 +43,7 @@ public class EglCore {
      */
     public EglCore(android.opengl.EGLContext sharedContext, int width, int height) {
         mEglHelper = EGL14Helper.createEGLSurface(null, sharedContext, null, width, height);
+        registerContext(sharedContext);
     }
 
     /**
@@ -48,6 +55,7 @@ public class EglCore {
      */
     public EglCore(javax.microedition.khronos.egl.EGLContext sharedContext, int width, int height) {
         mEglHelper = EGL10Helper.createEGLSurface(null, sharedContext, null, width, height);
+        registerContext(sharedContext);
     }
 
     /**
@@ -58,6 +66,7 @@ public class EglCore {
      */
     public EglCore(android.opengl.EGLContext sharedContext, Surface surface) {
         mEglHelper = EGL14Helper.createEGLSurface(null, sharedContext, surface, 0, 0);
+        registerContext(sharedContext);
     }
 
     /**
@@ -68,25 +77,70 @@ public class EglCore {
      */
     public EglCore(javax.microedition.khronos.egl.EGLContext sharedContext, Surface surface) {
         mEglHelper = EGL10Helper.createEGLSurface(null, sharedContext, surface, 0, 0);
+        registerContext(sharedContext);
+    }
+
+    /**
+     * Register the new context to {@link ProgramCache}, so that the programs built on it are shared with the
+     * contexts it shares objects with.
+     */
+    private void registerContext(Object sharedContext) {
+        if (mEglHelper != null) {
+            mShareGroup = ProgramCache.getInstance().onContextCreated(mEglHelper.getContext(), sharedContext);
+        }
     }
 
     public void makeCurrent() {
         mEglHelper.makeCurrent();
+        ProgramCache.getInstance().setCurrentShareGroup(mShareGroup);
     }
 
     public void unmakeCurrent() {
         mEglHelper.unmakeCurrent();
+        ProgramCache.getInstance().setCurrentShareGroup(null);
     }
 
     public void swapBuffer() {
         mEglHelper.swapBuffers();
     }
 
+    /**
+     * Create one more window surface for this context, see {@link EGLHelper#createWindowSurface}.
+     *
+     * @return null if the surface cannot be created.
+     */
+    public Object createWindowSurface(Surface surface) {
+        return mEglHelper.createWindowSurface(surface);
+    }
+
+    public void makeCurrent(Object windowSurface) {
+        mEglHelper.makeCurrent(windowSurface);
+        ProgramCache.getInstance().setCurrentShareGroup(mShareGroup);
+    }
+
+    public void swapBuffer(Object windowSurface) {
+        mEglHelper.swapBuffers(windowSurface);
+    }
+
+    public void destroyWindowSurface(Object windowSurface) {
+        mEglHelper.destroyWindowSurface(windowSurface);
+    }
+
     public Object getEglContext() {
         return mEglHelper.getContext();
     }
 
     public void destroy() {
+        if (mShareGroup != null) {
+            // The cached programs are deleted with the last context of the group, which needs a current context.
+            try {
+                mEglHelper.makeCurrent();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "make current before destroy failed", e);
+            }
+            ProgramCache.getInstance().onContextDestroyed(mEglHelper.getContext(), mShareGroup);
+            mShareGroup = null;
+        }
         mEglHelper.destroy();
         mEglHelper = null;
     }
@@ -97,5 +151,16 @@ public class EglCore {
             ((EGL14Helper) mEglHelper).setPresentationTime(nsecs);
         }
     }
+
+    /**
+     * Set the presentation time of the next frame swapped to a window surface, which encoders use as the timestamp
+     * of the frame. Only supported by EGL14 contexts.
+     */
+    @TargetApi(18)
+    public void setPresentationTime(Object windowSurface, long nsecs) {
+        if (mEglHelper instanceof EGL14Helper) {
+            ((EGL14Helper) mEglHelper).setPresentationTime(windowSurface, nsecs);
+        }
+    }
 }
 
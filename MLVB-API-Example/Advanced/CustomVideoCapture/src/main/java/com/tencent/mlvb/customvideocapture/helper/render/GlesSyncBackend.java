@@ -0,0 +1,59 @@
+package com.tencent.mlvb.customvideocapture.helper.render;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils;
+
+/**
+ * {@link GpuSyncBackend} based on the fence sync objects of OpenGL ES 3.
+ * Fences are only reported as supported if the context current on the constructing thread is an ES 3 context.
+ */
+@TargetApi(18)
+public class GlesSyncBackend implements GpuSyncBackend {
+    private final boolean mFenceSupported;
+
+    /**
+     * Must be called on a thread with an EGLContext current.
+     */
+    public GlesSyncBackend() {
+        mFenceSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+                && OpenGlUtils.getGlesMajorVersion() >= 3;
+    }
+
+    @Override
+    public boolean isFenceSupported() {
+        return mFenceSupported;
+    }
+
+    @Override
+    public long createFence() {
+        long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // The fence is only seen by other contexts once it is flushed.
+        GLES20.glFlush();
+        return fence;
+    }
+
+    @Override
+    public void waitFence(long fence) {
+        GLES30.glWaitSync(fence, 0, GLES30.GL_TIMEOUT_IGNORED);
+    }
+
+    @Override
+    public boolean clientWaitFence(long fence, long timeoutNs) {
+        int result = GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, timeoutNs);
+        return result == GLES30.GL_ALREADY_SIGNALED || result == GLES30.GL_CONDITION_SATISFIED;
+    }
+
+    @Override
+    public void deleteFence(long fence) {
+        GLES30.glDeleteSync(fence);
+    }
+
+    @Override
+    public void finish() {
+        GLES20.glFinish();
+    }
+}
@@ -0,0 +1,86 @@
+package com.tencent.mlvb.customvideocapture.helper.render;
+
+/**
+ * Synchronizes a texture between the context that draws it and a context in the same share group that reads it,
+ * without stalling the producer the way {@code glFinish} does.
+ * <p>
+ * The producer calls {@link #insert()} after issuing the commands that write the texture. The consumer calls
+ * {@link #waitOnGpu(GpuSyncBackend)} before issuing the commands that read it, which only makes the consumer's GPU
+ * queue wait. The object is reused for every frame: a new fence replaces the previous one, and since it comes later
+ * in the producer's command stream, waiting on it also covers all earlier frames.
+ * <p>
+ * When fences are not supported, {@link #insert()} falls back to {@code glFinish}, and the waits return immediately.
+ * {@code glFlush} would not do: it only submits the commands, it does not guarantee that another context sees their
+ * results.
+ */
+public class GpuFence {
+    private final GpuSyncBackend mBackend;
+    private       long           mFence;
+
+    /**
+     * @param backend GL calls of the producer's context.
+     */
+    public GpuFence(GpuSyncBackend backend) {
+        mBackend = backend;
+    }
+
+    /**
+     * Mark the end of the commands issued so far on the producer's context.
+     */
+    public synchronized void insert() {
+        long fence = 0;
+        if (mBackend.isFenceSupported()) {
+            fence = mBackend.createFence();
+        }
+        if (fence == 0) {
+            mBackend.finish();
+        }
+
+        if (mFence != 0) {
+            mBackend.deleteFence(mFence);
+        }
+        mFence = fence;
+    }
+
+    /**
+     * Make the consumer's GPU wait until the producer's commands have completed. Must be called on the consumer's
+     * thread, the calling thread is not blocked.
+     *
+     * @param consumer GL calls of the consumer's context, which may not support fences even if the producer does.
+     */
+    public synchronized void waitOnGpu(GpuSyncBackend consumer) {
+        if (mFence != 0 && consumer.isFenceSupported()) {
+            consumer.waitFence(mFence);
+        }
+    }
+
+    /**
+     * Block the calling thread until the producer's commands have completed. Used when the consumer lives outside of
+     * our code and cannot be made to wait on the GPU.
+     *
+     * @return false if the fence is still not signaled after the timeout.
+     */
+    public synchronized boolean waitOnCpu(long timeoutNs) {
+        if (mFence == 0) {
+            return true;
+        }
+        return mBackend.clientWaitFence(mFence, timeoutNs);
+    }
+
+    /**
+     * Whether a real fence is pending, false if the last {@link #insert()} fell back to {@code glFinish}.
+     */
+    public synchronized boolean hasFence() {
+        return mFence != 0;
+    }
+
+    /**
+     * Delete the pending fence, must be called on the producer's thread before its context is destroyed.
+     */
+    public synchronized void release() {
+        if (mFence != 0) {
+            mBackend.deleteFence(mFence);
+            mFence = 0;
+        }
+    }
+}
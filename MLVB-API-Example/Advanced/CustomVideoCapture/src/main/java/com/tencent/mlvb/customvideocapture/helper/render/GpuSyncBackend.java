@@ -0,0 +1,40 @@
+package com.tencent.mlvb.customvideocapture.helper.render;
+
+/**
+ * The GL calls used by {@link GpuFence}, abstracted so that the synchronization logic does not depend on a real
+ * OpenGL context.
+ */
+public interface GpuSyncBackend {
+    /**
+     * Whether the current context supports fence sync objects.
+     */
+    boolean isFenceSupported();
+
+    /**
+     * Insert a fence after all commands issued so far on the current context.
+     *
+     * @return handle of the fence, 0 if it could not be created.
+     */
+    long createFence();
+
+    /**
+     * Make the GPU wait for the fence before executing later commands of the current context.
+     * The calling thread is not blocked.
+     */
+    void waitFence(long fence);
+
+    /**
+     * Block the calling thread until the fence is signaled.
+     *
+     * @return false if the fence is still not signaled after the timeout.
+     */
+    boolean clientWaitFence(long fence, long timeoutNs);
+
+    void deleteFence(long fence);
+
+    /**
+     * Block the calling thread until all commands issued so far on the current context have completed, so that their
+     * results are visible to every context of the share group.
+     */
+    void finish();
+}
@@ -0,0 +1,127 @@
+package com.tencent.mlvb.customvideocapture.helper.render;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils;
+
+/**
+ * Measures the GPU time of a block of GL commands with {@code GL_EXT_disjoint_timer_query}, without waiting for the
+ * GPU.
+ * <p>
+ * Each {@link #begin()}/{@link #end()} pair records into one of a ring of queries, and {@link #poll()} returns the
+ * newest result that is available, usually a frame or two later. Results of intervals during which the GPU was
+ * disjoint, for example because its clock changed, are dropped. Requires OpenGL ES 3 and the extension, check
+ * {@link #isSupported()}. Everything must be called on the GL thread.
+ */
+@TargetApi(18)
+public class GpuTimer {
+    public static final int DEFAULT_QUERY_COUNT = 3;
+
+    private static final String EXTENSION           = "GL_EXT_disjoint_timer_query";
+    private static final int    GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int    GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    private final int[]   mQueryIds;
+    private final int[]   mResult = new int[1];
+    // The slot of the oldest pending query, and the number of pending queries.
+    private       int     mReadIndex;
+    private       int     mPendingCount;
+    private       boolean mStarted;
+    private       boolean mRunning;
+
+    public GpuTimer() {
+        this(DEFAULT_QUERY_COUNT);
+    }
+
+    /**
+     * @param queryCount The number of intervals that can be pending, intervals begun while all are pending are not
+     *                   measured.
+     */
+    public GpuTimer(int queryCount) {
+        mQueryIds = new int[queryCount];
+    }
+
+    /**
+     * Whether the context current on this thread can measure GPU time.
+     */
+    public static boolean isSupported() {
+        if (OpenGlUtils.getGlesMajorVersion() < 3) {
+            return false;
+        }
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && extensions.contains(EXTENSION);
+    }
+
+    public void init() {
+        GLES30.glGenQueries(mQueryIds.length, mQueryIds, 0);
+        // Clear the disjoint flag, it is only meaningful for the queries issued after it was read.
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+        mStarted = true;
+    }
+
+    /**
+     * Start measuring the commands issued from now on, unless every query is still pending.
+     */
+    public void begin() {
+        if (!mStarted || mRunning || mPendingCount == mQueryIds.length) {
+            return;
+        }
+        int writeIndex = (mReadIndex + mPendingCount) % mQueryIds.length;
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueryIds[writeIndex]);
+        mRunning = true;
+    }
+
+    /**
+     * Stop measuring, the interval begun by the last {@link #begin()} if it started one.
+     */
+    public void end() {
+        if (!mRunning) {
+            return;
+        }
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        mRunning = false;
+        mPendingCount++;
+    }
+
+    /**
+     * The GPU time of the newest completed interval not returned yet, in nanoseconds, -1 if none.
+     */
+    public long poll() {
+        long elapsedNs = -1;
+        while (mPendingCount > 0) {
+            int queryId = mQueryIds[mReadIndex];
+            GLES30.glGetQueryObjectuiv(queryId, GLES30.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+            if (mResult[0] == 0) {
+                break;
+            }
+            GLES30.glGetQueryObjectuiv(queryId, GLES30.GL_QUERY_RESULT, mResult, 0);
+            elapsedNs = mResult[0] & 0xFFFFFFFFL;
+            mReadIndex = (mReadIndex + 1) % mQueryIds.length;
+            mPendingCount--;
+        }
+        if (elapsedNs >= 0) {
+            GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+            if (mResult[0] != 0) {
+                return -1;
+            }
+        }
+        return elapsedNs;
+    }
+
+    /**
+     * Delete the queries, must be called before the context is destroyed.
+     */
+    public void destroy() {
+        if (mStarted) {
+            if (mRunning) {
+                GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+                mRunning = false;
+            }
+            GLES30.glDeleteQueries(mQueryIds.length, mQueryIds, 0);
+            mStarted = false;
+        }
+        mPendingCount = 0;
+    }
+}
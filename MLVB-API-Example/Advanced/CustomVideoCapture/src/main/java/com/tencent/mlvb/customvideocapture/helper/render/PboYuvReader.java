@@ -0,0 +1,228 @@
+package com.tencent.mlvb.customvideocapture.helper.render;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBuffer;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferPool;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFrame;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFramePool;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.QuadGeometry;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.RgbaToYuvFilter;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.TextureRotationUtils;
+
+import java.nio.ByteBuffer;
+
+import static com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils.CUBE;
+
+/**
+ * Read textures back to the CPU as YUV 4:2:0 frames without stalling the GL thread.
+ * <p>
+ * Each texture is converted to YUV on the GPU with {@link RgbaToYuvFilter}, so only 1.5 bytes per pixel are read, and
+ * read into one of a ring of pixel buffer objects. {@code glReadPixels} into a pixel buffer object returns at once,
+ * the copy happens on the GPU. A buffer is mapped on a later frame, as soon as its fence is signaled, or when the
+ * ring is full and its slot is needed again. The mapped bytes are copied into a {@link YuvFrame} from a pool and
+ * handed to the listener on the GL thread. Requires OpenGL ES 3, check {@link #isSupported()} on the GL thread.
+ * Everything must be called on the GL thread.
+ */
+@TargetApi(18)
+public class PboYuvReader {
+    private static final String TAG = "PboYuvReader";
+
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    public interface Listener {
+        /**
+         * A frame was read back. The listener owns the frame and must call {@link YuvFrame#release()} when done,
+         * possibly later and on another thread.
+         */
+        void onYuvFrame(YuvFrame frame);
+    }
+
+    private final YuvFormat       mFormat;
+    private final int             mWidth;
+    private final int             mHeight;
+    private final int             mByteCount;
+    private final RgbaToYuvFilter mFilter;
+    private final QuadGeometry    mGeometry;
+    private final YuvFramePool    mFramePool;
+    private final int[]           mPixelBufferIds;
+    private final GpuFence[]      mFences;
+    private final long[]          mTimestamps;
+    private final int[]           mViewport     = new int[4];
+    private       FrameBuffer     mFrameBuffer;
+    // The slot of the oldest pending read, and the number of pending reads.
+    private       int             mReadIndex;
+    private       int             mPendingCount;
+    private       long            mBlockingMapCount;
+
+    /**
+     * @param width The width of the textures, a multiple of 8.
+     * @param height The height of the textures, a multiple of 4.
+     * @param bufferCount The number of pixel buffer objects, 2 or 3.
+     */
+    public PboYuvReader(YuvFormat format, int width, int height, int bufferCount, YuvFramePool framePool) {
+        if (!RgbaToYuvFilter.isSizeSupported(width, height)) {
+            throw new IllegalArgumentException("unsupported size " + width + "x" + height);
+        }
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("at least two buffers are needed: " + bufferCount);
+        }
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mByteCount = RgbaToYuvFilter.getOutputWidth(width) * RgbaToYuvFilter.getOutputHeight(height) * 4;
+        mFilter = new RgbaToYuvFilter(format, YuvColorSpace.BT601_LIMITED_RANGE);
+        mGeometry = new QuadGeometry(CUBE, TextureRotationUtils.TEXTURE_NO_ROTATION);
+        mFramePool = framePool;
+        mPixelBufferIds = new int[bufferCount];
+        mFences = new GpuFence[bufferCount];
+        mTimestamps = new long[bufferCount];
+    }
+
+    /**
+     * Whether the context current on this thread can read back asynchronously.
+     */
+    public static boolean isSupported() {
+        return OpenGlUtils.getGlesMajorVersion() >= 3;
+    }
+
+    /**
+     * Convert with the inverse of the given YUV to RGB conversion, BT.601 limited range by default.
+     */
+    public void setColorSpace(YuvColorSpace colorSpace) {
+        mFilter.setColorSpace(colorSpace);
+    }
+
+    /**
+     * @param frameBufferPool Where to borrow the frame buffer the conversion is drawn into.
+     */
+    public void init(FrameBufferPool frameBufferPool) {
+        mFilter.init();
+        mFilter.onOutputSizeChanged(mWidth, mHeight);
+        mFrameBuffer = frameBufferPool.obtain(RgbaToYuvFilter.getOutputWidth(mWidth),
+                RgbaToYuvFilter.getOutputHeight(mHeight));
+
+        GLES20.glGenBuffers(mPixelBufferIds.length, mPixelBufferIds, 0);
+        for (int i = 0; i < mPixelBufferIds.length; i++) {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBufferIds[i]);
+            GLES20.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, mByteCount, null, GLES30.GL_STREAM_READ);
+            mFences[i] = new GpuFence(new GlesSyncBackend());
+        }
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        Log.i(TAG, "init " + mFormat + " " + mWidth + "x" + mHeight + ", buffers: " + mPixelBufferIds.length);
+    }
+
+    /**
+     * Start reading a texture back, and deliver the frames read earlier that are ready.
+     *
+     * @param textureId An RGBA texture of the size passed to the constructor.
+     * @param timestampNs Passed on to the frame.
+     */
+    public void read(int textureId, long timestampNs, Listener listener) {
+        // Make room for this frame, waiting for the oldest read if it has not completed yet.
+        if (mPendingCount == mPixelBufferIds.length) {
+            deliver(listener, true);
+        }
+
+        int writeIndex = (mReadIndex + mPendingCount) % mPixelBufferIds.length;
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mViewport, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer.getFrameBufferId());
+        GLES20.glViewport(0, 0, mFrameBuffer.getWidth(), mFrameBuffer.getHeight());
+        mFilter.onDraw(textureId, mGeometry);
+
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBufferIds[writeIndex]);
+        GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 4);
+        GLES30.glReadPixels(0, 0, mFrameBuffer.getWidth(), mFrameBuffer.getHeight(), GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mFences[writeIndex].insert();
+        mTimestamps[writeIndex] = timestampNs;
+        mPendingCount++;
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(mViewport[0], mViewport[1], mViewport[2], mViewport[3]);
+
+        // The frame just read is never ready yet, the earlier ones usually are.
+        while (mPendingCount > 1) {
+            if (!deliver(listener, false)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Map the oldest pending read and hand it to the listener.
+     *
+     * @param wait Whether to wait for the read to complete.
+     * @return false if it has not completed and wait is false.
+     */
+    private boolean deliver(Listener listener, boolean wait) {
+        int index = mReadIndex;
+        if (!mFences[index].waitOnCpu(0)) {
+            if (!wait) {
+                return false;
+            }
+            mBlockingMapCount++;
+        }
+        mReadIndex = (mReadIndex + 1) % mPixelBufferIds.length;
+        mPendingCount--;
+
+        // Mapping waits for the read to complete if it has not yet.
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBufferIds[index]);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, mByteCount,
+                GLES30.GL_MAP_READ_BIT);
+        if (mapped == null) {
+            Log.e(TAG, "map pixel buffer failed: " + GLES20.glGetError());
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            return true;
+        }
+        YuvFrame frame = mFramePool.obtain(mFormat, mWidth, mHeight, mTimestamps[index]);
+        ByteBuffer buffer = frame.getBuffer();
+        mapped.limit(buffer.remaining());
+        buffer.put(mapped);
+        buffer.flip();
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+
+        if (listener != null) {
+            listener.onYuvFrame(frame);
+        } else {
+            frame.release();
+        }
+        return true;
+    }
+
+    /**
+     * The number of times a buffer was mapped before its read completed, which means the ring is too small.
+     */
+    public long getBlockingMapCount() {
+        return mBlockingMapCount;
+    }
+
+    /**
+     * Delete the pixel buffers and drop the pending reads, must be called before the context is destroyed.
+     */
+    public void destroy() {
+        Log.i(TAG, "destroy, blocking maps: " + mBlockingMapCount + ", pending: " + mPendingCount);
+        GLES20.glDeleteBuffers(mPixelBufferIds.length, mPixelBufferIds, 0);
+        for (int i = 0; i < mFences.length; i++) {
+            if (mFences[i] != null) {
+                mFences[i].release();
+                mFences[i] = null;
+            }
+        }
+        mPendingCount = 0;
+        if (mFrameBuffer != null) {
+            mFrameBuffer.release();
+            mFrameBuffer = null;
+        }
+        mFilter.destroy();
+        mGeometry.release();
+    }
+}
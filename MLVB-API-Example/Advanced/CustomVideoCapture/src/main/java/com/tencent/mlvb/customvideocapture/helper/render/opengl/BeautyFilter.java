@@ -0,0 +1,330 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.opengl.GLES20;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBuffer;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferPool;
+
+import java.nio.FloatBuffer;
+import java.util.Locale;
+
+import static com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils.CUBE;
+
+/**
+ * Skin smoothing: an edge preserving blur of the frame, mixed back into it by a strength from 0 to 1.
+ * <p>
+ * The blur runs at a half or a quarter of the resolution: the frame is box filtered down, blurred by a bilateral
+ * filter in a horizontal and a vertical pass, and mixed with the full resolution frame while it is upscaled by the
+ * texture filtering. Only the final mix touches every pixel of the frame, with two fetches, so the cost of the blur
+ * itself falls with the square of the downsample factor. The bilateral weights keep edges such as eyes and the mouth
+ * sharp while flat areas are smoothed.
+ * <p>
+ * The filter draws its own intermediate passes, so it can be added to a {@link GPUImageFilterGroup} like any other
+ * filter, where it takes one pass of the group.
+ */
+public class BeautyFilter extends GPUImageFilter {
+    public static final int DOWNSAMPLE_HALF    = 2;
+    public static final int DOWNSAMPLE_QUARTER = 4;
+
+    // Taps on each side of the center in each blur pass, in downsampled pixels, and the spatial sigma of the weights.
+    private static final int   BLUR_RADIUS  = 4;
+    private static final float BLUR_SIGMA   = 2.0f;
+    // A neighbour whose color differs from the center by 1 / RANGE_FACTOR or more does not contribute.
+    private static final float RANGE_FACTOR = 5.0f;
+
+    private static final String MIX_VERTEX_SHADER = ""
+            + "attribute vec4 position;\n"
+            + "attribute vec4 inputTextureCoordinate;\n"
+            + "\n"
+            + "varying highp vec2 textureCoordinate;\n"
+            + "varying highp vec2 blurredCoordinate;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    gl_Position = position;\n"
+            + "    textureCoordinate = inputTextureCoordinate.xy;\n"
+            // The blurred frame is already in output orientation.
+            + "    blurredCoordinate = position.xy * 0.5 + 0.5;\n"
+            + "}\n";
+
+    private static final String MIX_FRAGMENT_SHADER = ""
+            + "precision mediump float;\n"
+            + "varying highp vec2 textureCoordinate;\n"
+            + "varying highp vec2 blurredCoordinate;\n"
+            + "\n"
+            + "uniform sampler2D inputImageTexture;\n"
+            + "uniform sampler2D blurredTexture;\n"
+            + "uniform lowp float strength;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    vec4 color = texture2D(inputImageTexture, textureCoordinate);\n"
+            + "    vec3 blurred = texture2D(blurredTexture, blurredCoordinate).rgb;\n"
+            + "    gl_FragColor = vec4(mix(color.rgb, blurred, strength), color.a);\n"
+            + "}\n";
+
+    // Four bilinear fetches at the centers of the 2x2 blocks of the box, a quarter of an output pixel from its center.
+    private static final String DOWNSAMPLE_FRAGMENT_SHADER = ""
+            + "precision mediump float;\n"
+            + "varying highp vec2 textureCoordinate;\n"
+            + "\n"
+            + "uniform sampler2D inputImageTexture;\n"
+            + "uniform highp vec2 texelOffset;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    highp vec2 offset = texelOffset * 0.25;\n"
+            + "    gl_FragColor = 0.25 * (texture2D(inputImageTexture, textureCoordinate - offset)\n"
+            + "            + texture2D(inputImageTexture, textureCoordinate + vec2(offset.x, -offset.y))\n"
+            + "            + texture2D(inputImageTexture, textureCoordinate + vec2(-offset.x, offset.y))\n"
+            + "            + texture2D(inputImageTexture, textureCoordinate + offset));\n"
+            + "}\n";
+
+    private static final String BLUR_FRAGMENT_SHADER = buildBlurFragmentShader();
+
+    private final    int               mDownsample;
+    private final    TexelOffsetFilter mDownsampleFilter;
+    private final    TexelOffsetFilter mBlurFilter;
+    private final    QuadGeometry      mGeometry;
+    private final    FrameBuffer[]     mFrameBuffers = new FrameBuffer[2];
+    private final    int[]             mSavedState   = new int[5];
+    private          FrameBufferPool   mFrameBufferPool;
+    private          boolean           mOwnsFrameBufferPool;
+    private          int               mWidth;
+    private          int               mHeight;
+    private          int               mBlurredTextureUniform;
+    private          int               mStrengthUniform;
+    private volatile float             mStrength     = 0.5f;
+
+    public BeautyFilter() {
+        this(DOWNSAMPLE_HALF);
+    }
+
+    /**
+     * @param downsample {@link #DOWNSAMPLE_HALF} or {@link #DOWNSAMPLE_QUARTER}, the cheaper and the softer.
+     */
+    public BeautyFilter(int downsample) {
+        super(MIX_VERTEX_SHADER, MIX_FRAGMENT_SHADER);
+        if (downsample != DOWNSAMPLE_HALF && downsample != DOWNSAMPLE_QUARTER) {
+            throw new IllegalArgumentException("unsupported downsample factor: " + downsample);
+        }
+        mDownsample = downsample;
+        mDownsampleFilter = new TexelOffsetFilter(DOWNSAMPLE_FRAGMENT_SHADER);
+        mBlurFilter = new TexelOffsetFilter(BLUR_FRAGMENT_SHADER);
+        // The intermediate passes copy straight, without the flip of the frame buffer passes of a group.
+        mGeometry = new QuadGeometry(CUBE, OpenGlUtils.TEXTURE);
+    }
+
+    private static String buildBlurFragmentShader() {
+        StringBuilder taps = new StringBuilder();
+        float weightSum = 1.0f;
+        for (int i = 1; i <= BLUR_RADIUS; i++) {
+            weightSum += 2 * getSpatialWeight(i);
+        }
+        for (int i = -BLUR_RADIUS; i <= BLUR_RADIUS; i++) {
+            if (i == 0) {
+                continue;
+            }
+            taps.append(String.format(Locale.US, ""
+                    + "    tap = texture2D(inputImageTexture, textureCoordinate + texelOffset * %.1f).rgb;\n"
+                    + "    weight = %.6f * max(0.0, 1.0 - distance(tap, center.rgb) * %.1f);\n"
+                    + "    sum += tap * weight;\n"
+                    + "    weightSum += weight;\n", (float) i, getSpatialWeight(i) / weightSum, RANGE_FACTOR));
+        }
+
+        return ""
+                + "precision mediump float;\n"
+                + "varying highp vec2 textureCoordinate;\n"
+                + "\n"
+                + "uniform sampler2D inputImageTexture;\n"
+                + "uniform highp vec2 texelOffset;\n"
+                + "\n"
+                + "void main()\n"
+                + "{\n"
+                + "    vec4 center = texture2D(inputImageTexture, textureCoordinate);\n"
+                + String.format(Locale.US, "    float weightSum = %.6f;\n", 1.0f / weightSum)
+                + "    vec3 sum = center.rgb * weightSum;\n"
+                + "    vec3 tap;\n"
+                + "    float weight;\n"
+                + taps
+                + "    gl_FragColor = vec4(sum / weightSum, center.a);\n"
+                + "}\n";
+    }
+
+    private static float getSpatialWeight(int distance) {
+        return (float) Math.exp(-distance * distance / (2 * BLUR_SIGMA * BLUR_SIGMA));
+    }
+
+    /**
+     * Borrow the intermediate frame buffers from a pool of the same GL context, must be called before {@link #init()}.
+     * Without it the filter uses a pool of its own.
+     */
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        mFrameBufferPool = pool;
+        mOwnsFrameBufferPool = false;
+    }
+
+    /**
+     * How much of the blur to mix in, from 0 for the original frame to 1 for the blurred one. May be called on any
+     * thread. At 0 the blur passes are skipped.
+     */
+    public void setStrength(float strength) {
+        mStrength = Math.max(0.0f, Math.min(1.0f, strength));
+    }
+
+    public float getStrength() {
+        return mStrength;
+    }
+
+    public int getDownsample() {
+        return mDownsample;
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        if (mFrameBufferPool == null) {
+            mFrameBufferPool = new FrameBufferPool();
+            mOwnsFrameBufferPool = true;
+        }
+        mBlurredTextureUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "blurredTexture");
+        mStrengthUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "strength");
+        mDownsampleFilter.init();
+        mBlurFilter.init();
+    }
+
+    @Override
+    public void onOutputSizeChanged(int width, int height) {
+        super.onOutputSizeChanged(width, height);
+        if (width == mWidth && height == mHeight && mFrameBuffers[0] != null) {
+            return;
+        }
+        releaseFrameBuffers();
+        mWidth = width;
+        mHeight = height;
+        int blurWidth = Math.max(1, (width + mDownsample - 1) / mDownsample);
+        int blurHeight = Math.max(1, (height + mDownsample - 1) / mDownsample);
+        for (int i = 0; i < mFrameBuffers.length; i++) {
+            mFrameBuffers[i] = mFrameBufferPool.obtain(blurWidth, blurHeight);
+        }
+    }
+
+    @Override
+    protected void onUninit() {
+        releaseFrameBuffers();
+        if (mOwnsFrameBufferPool) {
+            mFrameBufferPool.clear();
+            mFrameBufferPool = null;
+            mOwnsFrameBufferPool = false;
+        }
+        mDownsampleFilter.destroy();
+        mBlurFilter.destroy();
+        mGeometry.release();
+        super.onUninit();
+    }
+
+    private void releaseFrameBuffers() {
+        for (int i = 0; i < mFrameBuffers.length; i++) {
+            if (mFrameBuffers[i] != null) {
+                mFrameBuffers[i].release();
+                mFrameBuffers[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public void onDraw(int textureId, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        if (blur(textureId, null, cubeBuffer, textureBuffer)) {
+            super.onDraw(textureId, cubeBuffer, textureBuffer);
+        }
+    }
+
+    @Override
+    public void onDraw(int textureId, QuadGeometry geometry) {
+        if (blur(textureId, geometry, null, null)) {
+            super.onDraw(textureId, geometry);
+        }
+    }
+
+    /**
+     * Draw the blurred frame into the first frame buffer, and restore the frame buffer and viewport to draw the
+     * mix into.
+     *
+     * @return false if the filter cannot draw.
+     */
+    private boolean blur(int textureId, QuadGeometry geometry, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        if (!isInitialized() || mFrameBuffers[0] == null || textureId == OpenGlUtils.NO_TEXTURE) {
+            return false;
+        }
+        if (mStrength <= 0) {
+            return true;
+        }
+        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mSavedState, 0);
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mSavedState, 1);
+
+        FrameBuffer small = mFrameBuffers[0];
+        FrameBuffer other = mFrameBuffers[1];
+        GLES20.glViewport(0, 0, small.getWidth(), small.getHeight());
+
+        // The downsample reads the input with the geometry of this pass, so the blurred frame is in output orientation.
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, small.getFrameBufferId());
+        mDownsampleFilter.setTexelOffset(1.0f / small.getWidth(), 1.0f / small.getHeight());
+        if (geometry != null) {
+            mDownsampleFilter.onDraw(textureId, geometry);
+        } else {
+            mDownsampleFilter.onDraw(textureId, cubeBuffer, textureBuffer);
+        }
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, other.getFrameBufferId());
+        mBlurFilter.setTexelOffset(1.0f / small.getWidth(), 0);
+        mBlurFilter.onDraw(small.getTextureId(), mGeometry);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, small.getFrameBufferId());
+        mBlurFilter.setTexelOffset(0, 1.0f / small.getHeight());
+        mBlurFilter.onDraw(other.getTextureId(), mGeometry);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mSavedState[0]);
+        GLES20.glViewport(mSavedState[1], mSavedState[2], mSavedState[3], mSavedState[4]);
+        return true;
+    }
+
+    @Override
+    protected void beforeDrawArrays(int textureId) {
+        super.beforeDrawArrays(textureId);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFrameBuffers[0].getTextureId());
+        GLES20.glUniform1i(mBlurredTextureUniform, 1);
+        GLES20.glUniform1f(mStrengthUniform, mStrength);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    }
+
+    /**
+     * A pass that samples around each pixel, a texel apart in the direction set before each draw.
+     */
+    private static class TexelOffsetFilter extends GPUImageFilter {
+        private int   mTexelOffsetUniform;
+        private float mTexelOffsetX;
+        private float mTexelOffsetY;
+
+        TexelOffsetFilter(String fragmentShader) {
+            super(NO_FILTER_VERTEX_SHADER, fragmentShader);
+        }
+
+        void setTexelOffset(float x, float y) {
+            mTexelOffsetX = x;
+            mTexelOffsetY = y;
+        }
+
+        @Override
+        protected void onInit() {
+            super.onInit();
+            mTexelOffsetUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "texelOffset");
+        }
+
+        @Override
+        protected void beforeDrawArrays(int textureId) {
+            super.beforeDrawArrays(textureId);
+            GLES20.glUniform2f(mTexelOffsetUniform, mTexelOffsetX, mTexelOffsetY);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws a chain of pointwise filters in one pass, see {@link GPUImageFilter#isPointwise()}.
+ * <p>
+ * The first filter samples the input, so its coordinate remap goes to the vertex shader as usual. The remaps of the
+ * following filters are applied to the output positions, and their color transforms run one after another in the
+ * fragment shader. The result is the same as drawing the filters one by one through intermediate frame buffers,
+ * without the full-screen write and read of each intermediate frame.
+ * <p>
+ * The filters of the chain do not build their own program, they are destroyed with this filter.
+ * <p>
+ * The pass can also mirror its output vertically, which is the same as drawing it with flipped texture coordinates,
+ * for a group whose last filter would flip its input.
+ */
+public class FusedFilter extends GPUImageFilter {
+    private final List<GPUImageFilter> mFilters;
+
+    public FusedFilter(List<GPUImageFilter> filters) {
+        this(filters, false);
+    }
+
+    /**
+     * @param flipVertical Whether to mirror the output vertically.
+     */
+    public FusedFilter(List<GPUImageFilter> filters, boolean flipVertical) {
+        super(buildVertexShader(filters, flipVertical), buildFragmentShader(filters));
+        mFilters = new ArrayList<>(filters);
+    }
+
+    public List<GPUImageFilter> getFilters() {
+        return mFilters;
+    }
+
+    @Override
+    public int getTarget() {
+        return mFilters.get(0).getTarget();
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        int programId = mProgram.getProgramId();
+        for (int i = 0; i < mFilters.size(); i++) {
+            mFilters.get(i).onFusedInit(programId, getPrefix(i));
+        }
+    }
+
+    @Override
+    public void onOutputSizeChanged(int width, int height) {
+        super.onOutputSizeChanged(width, height);
+        for (GPUImageFilter filter : mFilters) {
+            filter.onOutputSizeChanged(width, height);
+        }
+    }
+
+    @Override
+    protected void onUninit() {
+        for (GPUImageFilter filter : mFilters) {
+            filter.destroy();
+        }
+        super.onUninit();
+    }
+
+    @Override
+    protected void beforeDrawArrays(int textureId) {
+        super.beforeDrawArrays(textureId);
+        // Indexed, so that drawing a frame does not allocate an iterator.
+        int textureUnit = 1;
+        for (int i = 0; i < mFilters.size(); i++) {
+            GPUImageFilter filter = mFilters.get(i);
+            filter.runPendingOnDrawTasks();
+            filter.onFusedDraw();
+            textureUnit += filter.onFusedBindTextures(textureUnit);
+        }
+        // The input is unbound from the active unit after the draw.
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    }
+
+    private static String getPrefix(int index) {
+        return "f" + index + "_";
+    }
+
+    private static String buildVertexShader(List<GPUImageFilter> filters, boolean flipVertical) {
+        StringBuilder uniforms = new StringBuilder();
+        StringBuilder positionCode = new StringBuilder();
+        for (int i = 0; i < filters.size(); i++) {
+            uniforms.append(filters.get(i).getFusedVertexUniforms(getPrefix(i)));
+            if (i > 0) {
+                positionCode.append(filters.get(i).getFusedPositionCode(getPrefix(i)));
+            }
+        }
+
+        return ""
+                + "attribute vec4 position;\n"
+                + "attribute vec4 inputTextureCoordinate;\n"
+                + uniforms
+                + "\n"
+                + "varying highp vec2 textureCoordinate;\n"
+                + "\n"
+                + "void main()\n"
+                + "{\n"
+                + "    vec4 outputPosition = position;\n"
+                + positionCode
+                + (flipVertical ? "    outputPosition.y = -outputPosition.y;\n" : "")
+                + "    gl_Position = outputPosition;\n"
+                + "    highp vec2 coordinate = inputTextureCoordinate.xy;\n"
+                + filters.get(0).getFusedCoordinateCode(getPrefix(0))
+                + "    textureCoordinate = coordinate;\n"
+                + "}\n";
+    }
+
+    private static String buildFragmentShader(List<GPUImageFilter> filters) {
+        boolean externalInput = filters.get(0).getTarget() == GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
+        StringBuilder uniforms = new StringBuilder();
+        StringBuilder colorCode = new StringBuilder();
+        for (int i = 0; i < filters.size(); i++) {
+            uniforms.append(filters.get(i).getFusedFragmentUniforms(getPrefix(i)));
+            colorCode.append(filters.get(i).getFusedColorCode(getPrefix(i)));
+        }
+
+        return ""
+                + (externalInput ? "#extension GL_OES_EGL_image_external : require\n" : "")
+                + "precision mediump float;\n"
+                + "varying highp vec2 textureCoordinate;\n"
+                + "\n"
+                + (externalInput ? "uniform samplerExternalOES inputImageTexture;\n"
+                                 : "uniform sampler2D inputImageTexture;\n")
+                + uniforms
+                + "\n"
+                + "void main()\n"
+                + "{\n"
+                + "    vec4 color = texture2D(inputImageTexture, textureCoordinate);\n"
+                + colorCode
+                + "    gl_FragColor = color;\n"
+                + "}\n";
+    }
+}
@@ -1,9 +1,12 @@
 package com.tencent.mlvb.customvideocapture.helper.render.opengl;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.TaskQueue;
 
 import java.nio.FloatBuffer;
-import java.util.LinkedList;
 
 public class GPUImageFilter {
     public static final String NO_FILTER_VERTEX_SHADER = ""
@@ -35,12 +38,19 @@ public class GPUImageFilter {
                     + "textureCoordinate.y));\n"
                     + "}";
     protected final     Program              mProgram;
-    private final       LinkedList<Runnable> mRunOnDraw;
+    // Whether the filter was built with the shaders above, which only copy or flip their input.
+    private final       boolean              mDefaultShaders;
+    private final       boolean              mFlip;
+    private final       TaskQueue            mRunOnDraw;
     protected           float[]              mTextureMatrix;
     private             int                  mGLAttribPosition;
     private             int                  mGLUniformTexture;
     private             int                  mGLAttribTextureCoordinate;
     private             boolean              mIsInitialized;
+    private             boolean              mVertexArraySupported;
+    private             int                  mVertexArrayId;
+    private             QuadGeometry         mVertexArrayGeometry;
+    private             int                  mVertexArrayGeneration;
 
     public GPUImageFilter() {
         this(false);
@@ -51,8 +61,11 @@ public class GPUImageFilter {
     }
 
     public GPUImageFilter(final String vertexShader, final String fragmentShader) {
-        mRunOnDraw = new LinkedList<>();
+        mRunOnDraw = new TaskQueue();
         mProgram = new Program(vertexShader, fragmentShader);
+        mFlip = NO_FILTER_FRAGMENT_SHADER_FLIP.equals(fragmentShader);
+        mDefaultShaders = NO_FILTER_VERTEX_SHADER.equals(vertexShader)
+                && (mFlip || NO_FILTER_FRAGMENT_SHADER.equals(fragmentShader));
     }
 
     public final void init() {
@@ -65,6 +78,8 @@ public class GPUImageFilter {
         mGLAttribPosition = GLES20.glGetAttribLocation(mProgram.getProgramId(), "position");
         mGLUniformTexture = GLES20.glGetUniformLocation(mProgram.getProgramId(), "inputImageTexture");
         mGLAttribTextureCoordinate = GLES20.glGetAttribLocation(mProgram.getProgramId(), "inputTextureCoordinate");
+        mVertexArraySupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+                && OpenGlUtils.getGlesMajorVersion() >= 3;
         mIsInitialized = true;
     }
 
@@ -77,6 +92,7 @@ public class GPUImageFilter {
     public final void destroy() {
         runPendingOnDrawTasks();
         onUninit();
+        deleteVertexArray();
         mIsInitialized = false;
         mProgram.destroy();
     }
@@ -125,20 +141,162 @@ public class GPUImageFilter {
         OpenGlUtils.bindTexture(getTarget(), 0);
     }
 
-    protected void beforeDrawArrays(int textureId) {
+    /**
+     * Use OpenGL to render the screen, reading the vertices from the vertex buffer object of the geometry instead of
+     * client memory. With OpenGL ES 3 the attribute setup is recorded once in a vertex array object, so a draw only
+     * binds the program, the vertex array and the texture.
+     */
+    public void onDraw(final int textureId, final QuadGeometry geometry) {
+        GLES20.glUseProgram(mProgram.getProgramId());
+        runPendingOnDrawTasks();
+        if (!mIsInitialized) {
+            return;
+        }
+
+        int bufferId = geometry.getVertexBufferId();
+        if (mVertexArraySupported) {
+            bindVertexArray(geometry, bufferId, geometry.getGeneration());
+        } else {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferId);
+            setVertexAttributes();
+        }
+
+        if (textureId != OpenGlUtils.NO_TEXTURE) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            OpenGlUtils.bindTexture(getTarget(), textureId);
+            GLES20.glUniform1i(mGLUniformTexture, 0);
+        }
+
+        beforeDrawArrays(textureId);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, QuadGeometry.VERTEX_COUNT);
+
+        if (mVertexArraySupported) {
+            GLES30.glBindVertexArray(0);
+        } else {
+            GLES20.glDisableVertexAttribArray(mGLAttribPosition);
+            GLES20.glDisableVertexAttribArray(mGLAttribTextureCoordinate);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        }
+        OpenGlUtils.bindTexture(getTarget(), 0);
     }
 
-    protected void runPendingOnDrawTasks() {
-        //Copy the current one to be run to a new array,
-        // and then start execution to prevent the execution from being added again.
-        LinkedList<Runnable> runList;
-        synchronized (mRunOnDraw) {
-            runList = new LinkedList<>(mRunOnDraw);
-            mRunOnDraw.clear();
+    private void bindVertexArray(QuadGeometry geometry, int bufferId, int generation) {
+        if (mVertexArrayId == 0) {
+            int[] vertexArrays = new int[1];
+            GLES30.glGenVertexArrays(1, vertexArrays, 0);
+            mVertexArrayId = vertexArrays[0];
+        }
+        GLES30.glBindVertexArray(mVertexArrayId);
+        // The vertex array remembers the buffer it reads from, only record it again when the geometry changes or its
+        // buffer was deleted, for example by GeometryCache evicting it, since then.
+        if (mVertexArrayGeometry != geometry || mVertexArrayGeneration != generation) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferId);
+            setVertexAttributes();
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            mVertexArrayGeometry = geometry;
+            mVertexArrayGeneration = generation;
         }
+    }
+
+    private void setVertexAttributes() {
+        GLES20.glVertexAttribPointer(mGLAttribPosition, QuadGeometry.COMPONENT_COUNT, GLES20.GL_FLOAT, false, 0,
+                QuadGeometry.POSITION_OFFSET);
+        GLES20.glEnableVertexAttribArray(mGLAttribPosition);
+        GLES20.glVertexAttribPointer(mGLAttribTextureCoordinate, QuadGeometry.COMPONENT_COUNT, GLES20.GL_FLOAT,
+                false, 0, QuadGeometry.TEXTURE_OFFSET);
+        GLES20.glEnableVertexAttribArray(mGLAttribTextureCoordinate);
+    }
 
-        while (!runList.isEmpty()) {
-            runList.removeFirst().run();
+    private void deleteVertexArray() {
+        if (mVertexArrayId != 0) {
+            GLES30.glDeleteVertexArrays(1, new int[]{mVertexArrayId}, 0);
+            mVertexArrayId = 0;
+            mVertexArrayGeometry = null;
+            mVertexArrayGeneration = 0;
         }
     }
+
+    protected void beforeDrawArrays(int textureId) {
+    }
+
+    /**
+     * Whether each output pixel only depends on one input pixel, found through an affine remap of the coordinates.
+     * {@link GPUImageFilterGroup} draws consecutive pointwise filters in a single pass, with a {@link FusedFilter}
+     * assembled from the getFused*() snippets below instead of the filter's own program.
+     */
+    public boolean isPointwise() {
+        return mDefaultShaders && getClass() == GPUImageFilter.class;
+    }
+
+    /**
+     * Uniforms of the vertex shader snippets, their names must start with the prefix.
+     */
+    protected String getFusedVertexUniforms(String prefix) {
+        return "";
+    }
+
+    /**
+     * Vertex shader statements that remap the {@code highp vec2 coordinate} the input texture is sampled at.
+     * Only used when the filter is the first of a fused pass, the remap must be affine.
+     */
+    protected String getFusedCoordinateCode(String prefix) {
+        return mFlip ? "coordinate.y = 1.0 - coordinate.y;\n" : "";
+    }
+
+    /**
+     * Vertex shader statements that move the {@code vec4 outputPosition} of the quad. Used instead of
+     * {@link #getFusedCoordinateCode} when the filter follows another one in a fused pass: reading the previous
+     * result at a remapped place is the same as drawing it at the inverse place.
+     */
+    protected String getFusedPositionCode(String prefix) {
+        return mFlip ? "outputPosition.y = -outputPosition.y;\n" : "";
+    }
+
+    /**
+     * Uniforms of the fragment shader snippets, their names must start with the prefix.
+     */
+    protected String getFusedFragmentUniforms(String prefix) {
+        return "";
+    }
+
+    /**
+     * Fragment shader statements that transform the {@code vec4 color} in place.
+     */
+    protected String getFusedColorCode(String prefix) {
+        return "";
+    }
+
+    /**
+     * Look up the uniforms of the snippets in the fused program.
+     */
+    protected void onFusedInit(int programId, String prefix) {
+    }
+
+    /**
+     * Set the uniforms of the snippets, called on the GL thread before each fused draw.
+     */
+    protected void onFusedDraw() {
+    }
+
+    /**
+     * Bind the textures the snippets sample besides the input, to the texture units from firstUnit on, and set their
+     * sampler uniforms. Called on the GL thread before each fused draw, after {@link #onFusedDraw()}.
+     *
+     * @return The number of texture units used.
+     */
+    protected int onFusedBindTextures(int firstUnit) {
+        return 0;
+    }
+
+    /**
+     * Run a task on the GL thread before the next draw, for example to update a uniform from another thread.
+     */
+    protected void runOnDraw(final Runnable runnable) {
+        mRunOnDraw.post(runnable);
+    }
+
+    protected void runPendingOnDrawTasks() {
+        // Tasks added while running are left for the next draw, so a task that re-adds itself does not loop forever.
+        mRunOnDraw.runAll();
+    }
 }
@@ -1,11 +1,11 @@
 package com.tencent.mlvb.customvideocapture.helper.render.opengl;
 
 import android.opengl.GLES20;
+import android.util.Log;
 
 import com.tencent.mlvb.customvideocapture.helper.basic.FrameBuffer;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferPool;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -14,35 +14,37 @@ import static com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUti
 
 
 public class GPUImageFilterGroup extends GPUImageFilter {
+    private static final String TAG = "GPUImageFilterGroup";
+
     protected final List<GPUImageFilter> mFilters;
     protected final List<GPUImageFilter> mMergedFilters;
-    private final   FrameBuffer[]        mFrameBuffers = new FrameBuffer[2];
-    private final   FloatBuffer          mGLCubeBuffer;
-    private final   FloatBuffer          mGLTextureBuffer;
-    private final   FloatBuffer          mGLTextureFlipBuffer;
+    // The passes actually drawn, runs of pointwise filters are fused into one pass at init.
+    private final   List<GPUImageFilter> mRenderFilters;
+    private final   FrameBuffer[]        mFrameBuffers  = new FrameBuffer[2];
+    private         FrameBufferPool      mFrameBufferPool;
+    private         boolean              mOwnsFrameBufferPool;
+    // The geometries of the passes between frame buffers.
+    private final   QuadGeometry         mGeometry;
+    private final   QuadGeometry         mFlipGeometry;
+    // Whether the last pass flips its input, decided by the number of filters rather than passes, see
+    // updateRenderFilters.
+    private         boolean              mFlipLastPass;
+    private         boolean              mFusionEnabled = true;
+    private         int                  mOutputWidth;
+    private         int                  mOutputHeight;
+    // The scale of the passes before the last one, which upscales to the output size.
+    private         float                mRenderScale   = 1.0f;
 
     /**
      * Constructor of GPUImageFilterGroup.
      */
     public GPUImageFilterGroup() {
-        mGLCubeBuffer = ByteBuffer.allocateDirect(CUBE.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        mGLCubeBuffer.put(CUBE).position(0);
-
-        mGLTextureBuffer = ByteBuffer.allocateDirect(TextureRotationUtils.TEXTURE_NO_ROTATION.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        mGLTextureBuffer.put(TextureRotationUtils.TEXTURE_NO_ROTATION).position(0);
-
-        float[] flipTexture = TextureRotationUtils.getRotation(Rotation.NORMAL, false, true);
-        mGLTextureFlipBuffer = ByteBuffer.allocateDirect(flipTexture.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        mGLTextureFlipBuffer.put(flipTexture).position(0);
+        mGeometry = new QuadGeometry(CUBE, TextureRotationUtils.TEXTURE_NO_ROTATION);
+        mFlipGeometry = new QuadGeometry(CUBE, TextureRotationUtils.getRotation(Rotation.NORMAL, false, true));
 
         mFilters = new ArrayList<>();
         mMergedFilters = new ArrayList<>();
+        mRenderFilters = new ArrayList<>();
     }
 
     public void addFilter(GPUImageFilter filter) {
@@ -53,6 +55,23 @@ public class GPUImageFilterGroup extends GPUImageFilter {
         updateMergedFilters();
     }
 
+    /**
+     * Borrow the intermediate frame buffers from a pool of the same GL context, must be called before {@link #init()}.
+     * Without it the group uses a pool of its own.
+     */
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        mFrameBufferPool = pool;
+        mOwnsFrameBufferPool = false;
+    }
+
+    /**
+     * Whether runs of pointwise filters are fused into one pass, true by default. Turning it off draws every filter
+     * in a pass of its own, to compare the cost of both. Must be called before {@link #init()}.
+     */
+    public void setFusionEnabled(boolean enabled) {
+        mFusionEnabled = enabled;
+    }
+
     public List<GPUImageFilter> getMergedFilters() {
         return mMergedFilters;
     }
@@ -84,24 +103,82 @@ public class GPUImageFilterGroup extends GPUImageFilter {
     @Override
     protected void onInit() {
         super.onInit();
-        for (int i = 0; i < mMergedFilters.size(); ++i) {
-            mMergedFilters.get(i).init();
+        if (mFrameBufferPool == null) {
+            mFrameBufferPool = new FrameBufferPool();
+            mOwnsFrameBufferPool = true;
+        }
+        updateRenderFilters();
+        for (int i = 0; i < mRenderFilters.size(); ++i) {
+            mRenderFilters.get(i).init();
+        }
+    }
+
+    /**
+     * Split the merged filters into passes. A pass is either a filter that reads neighbouring pixels, or a run of
+     * pointwise filters that is drawn by one {@link FusedFilter}. A filter that samples an external texture can only
+     * start a run, the filters after the first one of a run must read a 2D texture.
+     * <p>
+     * Drawn one by one, the last filter flips its input when the number of filters is even. Fusing must not change
+     * the orientation, so the flip follows the number of filters: the last pass draws with the flipped geometry, or
+     * flips its output when it is the only pass and has no geometry of its own.
+     */
+    private void updateRenderFilters() {
+        mRenderFilters.clear();
+        List<GPUImageFilter> run = new ArrayList<>();
+        for (GPUImageFilter filter : mMergedFilters) {
+            boolean canJoinRun = mFusionEnabled && filter.isPointwise() && filter.getTarget() == GLES20.GL_TEXTURE_2D;
+            if (!run.isEmpty() && !canJoinRun) {
+                addRenderFilter(run);
+                run.clear();
+            }
+            if (mFusionEnabled && filter.isPointwise()) {
+                run.add(filter);
+            } else {
+                mRenderFilters.add(filter);
+            }
         }
+        boolean flip = mMergedFilters.size() % 2 == 0;
+        if (!run.isEmpty()) {
+            if (flip && mRenderFilters.isEmpty()) {
+                // Drawn from the caller's geometry, the flip goes into the shader.
+                mRenderFilters.add(new FusedFilter(run, true));
+                flip = false;
+            } else {
+                addRenderFilter(run);
+            }
+        }
+        mFlipLastPass = flip && mRenderFilters.size() > 1;
+        if (mRenderFilters.size() != mMergedFilters.size()) {
+            Log.i(TAG, "fused " + mMergedFilters.size() + " filters into " + mRenderFilters.size() + " passes");
+        }
+    }
+
+    private void addRenderFilter(List<GPUImageFilter> run) {
+        mRenderFilters.add(run.size() == 1 ? run.get(0) : new FusedFilter(run));
     }
 
     @Override
     protected void onUninit() {
         destroyFramebuffers();
-        for (GPUImageFilter filter : mMergedFilters) {
+        if (mOwnsFrameBufferPool) {
+            mFrameBufferPool.clear();
+            mFrameBufferPool = null;
+            mOwnsFrameBufferPool = false;
+        }
+        mGeometry.release();
+        mFlipGeometry.release();
+        // Destroying a fused pass also destroys the filters it was built from.
+        for (GPUImageFilter filter : mRenderFilters) {
             filter.destroy();
         }
+        mRenderFilters.clear();
         super.onUninit();
     }
 
     private void destroyFramebuffers() {
         for (int i = 0; i < mFrameBuffers.length; ++i) {
             if (mFrameBuffers[i] != null) {
-                mFrameBuffers[i].uninitialize();
+                mFrameBuffers[i].release();
                 mFrameBuffers[i] = null;
             }
         }
@@ -110,24 +187,102 @@ public class GPUImageFilterGroup extends GPUImageFilter {
     @Override
     public void onOutputSizeChanged(final int width, final int height) {
         super.onOutputSizeChanged(width, height);
-        destroyFramebuffers();
+        mOutputWidth = width;
+        mOutputHeight = height;
+        resizePasses();
+    }
 
+    /**
+     * Draw the passes before the last one at a fraction of the output size, the last pass upscales to the output.
+     * Filters that cost the same at any size are cheaper by the square of the scale. May be called on any thread,
+     * applied on the next draw.
+     *
+     * @param scale From 0 to 1, 1 draws every pass at the output size.
+     */
+    public void setRenderScale(final float scale) {
+        if (scale <= 0 || scale > 1) {
+            throw new IllegalArgumentException("scale must be in (0, 1]: " + scale);
+        }
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                if (scale != mRenderScale) {
+                    mRenderScale = scale;
+                    resizePasses();
+                }
+            }
+        });
+    }
+
+    public float getRenderScale() {
+        return mRenderScale;
+    }
+
+    /**
+     * Create the frame buffers of the given scales in the pool and leave them idle there, so that switching to one of
+     * these scales later does not allocate, as long as the pool keeps enough idle bytes. Must be called on the GL
+     * thread after {@link #onOutputSizeChanged}.
+     */
+    public void warmUpRenderScales(float... scales) {
+        int count = getFrameBufferCount();
+        FrameBuffer[] frameBuffers = new FrameBuffer[count];
+        for (float scale : scales) {
+            if (scale == mRenderScale) {
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                frameBuffers[i] = mFrameBufferPool.obtain(getScaledSize(mOutputWidth, scale),
+                        getScaledSize(mOutputHeight, scale));
+            }
+            for (int i = 0; i < count; i++) {
+                frameBuffers[i].release();
+            }
+        }
+    }
+
+    private void resizePasses() {
         List<GPUImageFilter> renderFilters = getRenderFilters();
         int                  size          = renderFilters.size();
+        int                  width         = getScaledSize(mOutputWidth, mRenderScale);
+        int                  height        = getScaledSize(mOutputHeight, mRenderScale);
         for (int i = 0; i < size; i++) {
-            renderFilters.get(i).onOutputSizeChanged(width, height);
+            if (i < size - 1) {
+                renderFilters.get(i).onOutputSizeChanged(width, height);
+            } else {
+                renderFilters.get(i).onOutputSizeChanged(mOutputWidth, mOutputHeight);
+            }
         }
 
-        if (size > 0) {
-            for (int i = 0; i < mFrameBuffers.length; i++) {
-                mFrameBuffers[i] = new FrameBuffer(width, height);
-                mFrameBuffers[i].initialize();
+        // Obtain the new frame buffers before releasing the old ones, so that trimming the pool cannot delete them.
+        int count = getFrameBufferCount();
+        for (int i = 0; i < mFrameBuffers.length; i++) {
+            FrameBuffer old = mFrameBuffers[i];
+            mFrameBuffers[i] = i < count ? mFrameBufferPool.obtain(width, height) : null;
+            if (old != null) {
+                old.release();
             }
         }
     }
 
+    /**
+     * The number of intermediate frame buffers, only the passes before the last one draw into them.
+     */
+    private int getFrameBufferCount() {
+        return Math.max(0, Math.min(mFrameBuffers.length, getRenderFilters().size() - 1));
+    }
+
+    /**
+     * The size of the intermediate passes drawn at the given scale, at least 1.
+     */
+    public static int getScaledSize(int size, float scale) {
+        return Math.max(1, Math.round(size * scale));
+    }
+
+    /**
+     * The passes drawn by {@link #draw}, available after {@link #init()}.
+     */
     public List<GPUImageFilter> getRenderFilters() {
-        return mMergedFilters;
+        return mRenderFilters;
     }
 
     @Override
@@ -147,6 +302,26 @@ public class GPUImageFilterGroup extends GPUImageFilter {
                      final int outFrameBufferId,
                      final FloatBuffer cubeBuffer,
                      final FloatBuffer textureBuffer) {
+        drawFilters(textureId, outFrameBufferId, null, cubeBuffer, textureBuffer);
+    }
+
+    /**
+     * Draw the current special effect, with every pass reading its vertices from a vertex buffer object.
+     *
+     * @param textureId image input
+     * @param outFrameBufferId Where to draw, if it is -1, it means it needs to be drawn to the screen
+     * @param geometry The geometry of the first pass
+     * @see GPUImageFilter#onDraw(int, QuadGeometry)
+     */
+    public void draw(final int textureId, final int outFrameBufferId, final QuadGeometry geometry) {
+        drawFilters(textureId, outFrameBufferId, geometry, null, null);
+    }
+
+    private void drawFilters(final int textureId,
+                             final int outFrameBufferId,
+                             final QuadGeometry inputGeometry,
+                             final FloatBuffer cubeBuffer,
+                             final FloatBuffer textureBuffer) {
         runPendingOnDrawTasks();
         if (!isInitialized() || null == getRenderFilters()) {
             return;
@@ -163,20 +338,33 @@ public class GPUImageFilterGroup extends GPUImageFilter {
             GPUImageFilter filter    = filters.get(i);
             boolean        isNotLast = i < size - 1;
             if (isNotLast) {
-                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[i % 2].getFrameBufferId());
-                GLES20.glClearColor(0, 0, 0, 0);
-            } else if (OpenGlUtils.NO_TEXTURE != outFrameBufferId) {
-                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, outFrameBufferId);
+                FrameBuffer frameBuffer = mFrameBuffers[i % 2];
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer.getFrameBufferId());
+                GLES20.glViewport(0, 0, frameBuffer.getWidth(), frameBuffer.getHeight());
                 GLES20.glClearColor(0, 0, 0, 0);
+            } else {
+                if (OpenGlUtils.NO_TEXTURE != outFrameBufferId) {
+                    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, outFrameBufferId);
+                    GLES20.glClearColor(0, 0, 0, 0);
+                }
+                if (size > 1) {
+                    GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
+                }
             }
 
             if (i == 0) {
-                filter.onDraw(previousTexture, cubeBuffer, textureBuffer);
-            } else if (i == size - 1) {
-                filter.onDraw(previousTexture, mGLCubeBuffer,
-                        (size % 2 == 0) ? mGLTextureFlipBuffer : mGLTextureBuffer);
+                if (inputGeometry != null) {
+                    filter.onDraw(previousTexture, inputGeometry);
+                } else {
+                    filter.onDraw(previousTexture, cubeBuffer, textureBuffer);
+                }
             } else {
-                filter.onDraw(previousTexture, mGLCubeBuffer, mGLTextureBuffer);
+                QuadGeometry geometry = (i == size - 1 && mFlipLastPass) ? mFlipGeometry : mGeometry;
+                if (inputGeometry != null) {
+                    filter.onDraw(previousTexture, geometry);
+                } else {
+                    filter.onDraw(previousTexture, geometry.getCubeBuffer(), geometry.getTextureBuffer());
+                }
             }
 
             if (isNotLast) {
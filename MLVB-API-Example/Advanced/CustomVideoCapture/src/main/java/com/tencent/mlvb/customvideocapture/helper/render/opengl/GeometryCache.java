@@ -0,0 +1,150 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.widget.ImageView.ScaleType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of {@link QuadGeometry}, keyed by everything {@link OpenGlUtils#calcCubeAndTextureBuffer}
+ * depends on. Looking up a cached geometry neither computes nor allocates anything, so it can be done for every frame.
+ * Holders should look the geometry up for every frame rather than keep it: an evicted geometry that is drawn again
+ * gets a new vertex buffer object, which is only deleted by {@link #clear}.
+ * Not thread safe, must be used on the GL thread that draws with the geometries.
+ */
+public class GeometryCache {
+    private static final int DEFAULT_MAX_SIZE = 16;
+
+    private static final class Key {
+        ScaleType scaleType;
+        Rotation  rotation;
+        boolean   flipHorizontal;
+        boolean   flipVertical;
+        int       inputWidth;
+        int       inputHeight;
+        int       outputWidth;
+        int       outputHeight;
+
+        void set(ScaleType scaleType, Rotation rotation, boolean flipHorizontal, boolean flipVertical,
+                int inputWidth, int inputHeight, int outputWidth, int outputHeight) {
+            this.scaleType = scaleType;
+            this.rotation = rotation;
+            this.flipHorizontal = flipHorizontal;
+            this.flipVertical = flipVertical;
+            this.inputWidth = inputWidth;
+            this.inputHeight = inputHeight;
+            this.outputWidth = outputWidth;
+            this.outputHeight = outputHeight;
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.set(scaleType, rotation, flipHorizontal, flipVertical, inputWidth, inputHeight, outputWidth,
+                    outputHeight);
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return scaleType == key.scaleType && rotation == key.rotation && flipHorizontal == key.flipHorizontal
+                    && flipVertical == key.flipVertical && inputWidth == key.inputWidth
+                    && inputHeight == key.inputHeight && outputWidth == key.outputWidth
+                    && outputHeight == key.outputHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = scaleType.ordinal();
+            result = 31 * result + rotation.ordinal();
+            result = 31 * result + (flipHorizontal ? 1 : 0);
+            result = 31 * result + (flipVertical ? 1 : 0);
+            result = 31 * result + inputWidth;
+            result = 31 * result + inputHeight;
+            result = 31 * result + outputWidth;
+            result = 31 * result + outputHeight;
+            return result;
+        }
+    }
+
+    // Only used to look up, a copy is stored in the map on a miss.
+    private final Key                              mProbeKey     = new Key();
+    private final LinkedHashMap<Key, QuadGeometry> mCache;
+    // Evicted geometries that were drawn again after their eviction, and hold a buffer again.
+    private final List<QuadGeometry>               mEvictedInUse = new ArrayList<>();
+
+    public GeometryCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize The number of geometries kept, the least recently used one is released beyond it.
+     */
+    public GeometryCache(final int maxSize) {
+        mCache = new LinkedHashMap<Key, QuadGeometry>(maxSize * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, QuadGeometry> eldest) {
+                if (size() > maxSize) {
+                    eldest.getValue().evict(GeometryCache.this);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the geometry to draw an input of the given size into an output of the given size.
+     *
+     * @see OpenGlUtils#calcCubeAndTextureBuffer(ScaleType, Rotation, boolean, boolean, int, int, int, int)
+     */
+    public QuadGeometry get(ScaleType scaleType, Rotation rotation, boolean flipHorizontal, boolean flipVertical,
+            int inputWidth, int inputHeight, int outputWidth, int outputHeight) {
+        mProbeKey.set(scaleType, rotation, flipHorizontal, flipVertical, inputWidth, inputHeight, outputWidth,
+                outputHeight);
+        QuadGeometry geometry = mCache.get(mProbeKey);
+        if (geometry == null) {
+            float[] cube = new float[OpenGlUtils.CUBE.length];
+            float[] textureCoordinates = new float[OpenGlUtils.CUBE.length];
+            OpenGlUtils.calcCubeAndTextureBuffer(scaleType, rotation, flipHorizontal, flipVertical, inputWidth,
+                    inputHeight, outputWidth, outputHeight, cube, textureCoordinates);
+            geometry = new QuadGeometry(cube, textureCoordinates);
+            mCache.put(mProbeKey.copy(), geometry);
+        }
+        return geometry;
+    }
+
+    /**
+     * Release all geometries, including evicted ones still drawn by a holder, must be called on the GL thread before
+     * its context is destroyed.
+     */
+    public void clear() {
+        for (QuadGeometry geometry : mCache.values()) {
+            geometry.release();
+        }
+        mCache.clear();
+        for (QuadGeometry geometry : mEvictedInUse) {
+            geometry.release();
+        }
+        mEvictedInUse.clear();
+    }
+
+    /**
+     * The number of evicted geometries holding a buffer, which {@link #clear} deletes.
+     */
+    int getEvictedInUseCount() {
+        return mEvictedInUse.size();
+    }
+
+    void onEvictedBufferCreated(QuadGeometry geometry) {
+        mEvictedInUse.add(geometry);
+    }
+}
@@ -1,81 +1,183 @@
 package com.tencent.mlvb.customvideocapture.helper.render.opengl;
 
 import android.opengl.GLES20;
+import android.util.Log;
 
-import com.tencent.mlvb.customvideocapture.helper.basic.Size;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvPlaneLayout;
 
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 
+/**
+ * Render YUV 4:2:0 data, supports I420 (three planes) and NV12/NV21 (two planes).
+ * Each plane is uploaded to its own texture at its own resolution, so the chroma textures are a quarter of the
+ * luminance texture.
+ */
 public class GpuImageI420Filter extends GPUImageFilter {
-    private static final String I420_RENDER_SHADE =
-            "" + "precision highp float;\n" + "varying vec2 textureCoordinate;\n"
-                    + "uniform sampler2D inputImageTexture;\n" + "uniform sampler2D uTexture;\n"
-                    + "uniform mat3 convertMatrix;\n" + "uniform vec3 offset;\n" + "\n" + "void main()\n" + "{\n"
-                    + "    highp vec3 yuvColor;\n" + "    highp vec3 rgbColor;\n" + "\n" + "    // Get the YUV values\n"
-                    + "    yuvColor.x = texture2D(inputImageTexture, textureCoordinate).r;\n"
-                    + "    yuvColor.y = texture2D(uTexture, vec2(textureCoordinate.x * 0.5, textureCoordinate.y * 0"
-                    + ".5)).r;\n"
-                    + "    yuvColor.z = texture2D(uTexture, vec2(textureCoordinate.x * 0.5, textureCoordinate.y * 0.5"
-                    + " + 0.5)).r;\n"
-                    + "\n" + "    // Do the color transform   \n" + "    yuvColor += offset;\n"
-                    + "    rgbColor = convertMatrix * yuvColor; \n" + "\n" + "    gl_FragColor = vec4(rgbColor, 1.0);\n"
-                    + "}\n";
-
-    // YUV offset
-    private static final float[] BT601_FULLRANGE_FFMPEG_OFFSET = {
-            0f, -0.501960814f, -0.501960814f};
-
-    // RGB coefficients
-    private static final float[] BT601_FULLRAGE_FFMPEG_MATRIX = {
-            1f, 1f, 1f, 0f, -0.3441f, 1.772f, 1.402f, -0.7141f, 0f};
-
-    private int mGLUniformTextureUv;
+    private static final String TAG = "GpuImageI420Filter";
+
+    private static final String YUV_RENDER_SHADER_HEADER = ""
+            + "precision highp float;\n"
+            + "varying vec2 textureCoordinate;\n"
+            + "uniform sampler2D inputImageTexture;\n"
+            + "uniform sampler2D uTexture;\n"
+            + "uniform sampler2D vTexture;\n"
+            + "uniform mat3 convertMatrix;\n"
+            + "uniform vec3 offset;\n"
+            // x: the visible part of the luminance texture, y: the visible part of the chroma texture.
+            // They are less than 1.0 when the rows are padded.
+            + "uniform vec2 textureScale;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    highp vec3 yuvColor;\n"
+            + "    vec2 chromaCoordinate = vec2(textureCoordinate.x * textureScale.y, textureCoordinate.y);\n"
+            + "    yuvColor.x = texture2D(inputImageTexture, vec2(textureCoordinate.x * textureScale.x, "
+            + "textureCoordinate.y)).r;\n";
+
+    private static final String YUV_RENDER_SHADER_FOOTER = ""
+            + "    yuvColor += offset;\n"
+            + "    gl_FragColor = vec4(convertMatrix * yuvColor, 1.0);\n"
+            + "}\n";
+
+    private static final String I420_RENDER_SHADER = YUV_RENDER_SHADER_HEADER
+            + "    yuvColor.y = texture2D(uTexture, chromaCoordinate).r;\n"
+            + "    yuvColor.z = texture2D(vTexture, chromaCoordinate).r;\n"
+            + YUV_RENDER_SHADER_FOOTER;
+
+    // The interleaved chroma plane is uploaded as GL_LUMINANCE_ALPHA, the first byte ends up in r and the second in a.
+    private static final String NV12_RENDER_SHADER = YUV_RENDER_SHADER_HEADER
+            + "    yuvColor.yz = texture2D(uTexture, chromaCoordinate).ra;\n"
+            + YUV_RENDER_SHADER_FOOTER;
+
+    private static final String NV21_RENDER_SHADER = YUV_RENDER_SHADER_HEADER
+            + "    yuvColor.yz = texture2D(uTexture, chromaCoordinate).ar;\n"
+            + YUV_RENDER_SHADER_FOOTER;
+
+    private final YuvFormat      mFormat;
+    private final YuvPlaneLayout mLayout = new YuvPlaneLayout();
+    private       YuvColorSpace  mColorSpace;
+
+    private int mGLUniformTextureU;
+    private int mGLUniformTextureV;
     private int mConvertMatrixUniform;
     private int mConvertOffsetUniform;
+    private int mTextureScaleUniform;
 
-    private int    mYTextureId  = OpenGlUtils.NO_TEXTURE;
-    private int    mUvTextureId = OpenGlUtils.NO_TEXTURE;
-    private Size   mTextureSize = null;
-    private byte[] mYData;
-    private byte[] mUvData;
+    private int mYTextureId = OpenGlUtils.NO_TEXTURE;
+    private int mUTextureId = OpenGlUtils.NO_TEXTURE;
+    private int mVTextureId = OpenGlUtils.NO_TEXTURE;
 
     public GpuImageI420Filter() {
-        super(NO_FILTER_VERTEX_SHADER, I420_RENDER_SHADE);
+        this(YuvFormat.I420, YuvColorSpace.BT601_FULL_RANGE);
+    }
+
+    /**
+     * @param format The memory layout of the frames that will be uploaded.
+     * @param colorSpace The matrix used to convert YUV to RGB, can be changed with {@link #setColorSpace}.
+     */
+    public GpuImageI420Filter(YuvFormat format, YuvColorSpace colorSpace) {
+        super(NO_FILTER_VERTEX_SHADER, getFragmentShader(format));
+        mFormat = format;
+        mColorSpace = colorSpace;
+    }
+
+    private static String getFragmentShader(YuvFormat format) {
+        switch (format) {
+            case NV12:
+                return NV12_RENDER_SHADER;
+            case NV21:
+                return NV21_RENDER_SHADER;
+            case I420:
+            default:
+                return I420_RENDER_SHADER;
+        }
     }
 
     @Override
     public void onInit() {
         super.onInit();
-        mGLUniformTextureUv = GLES20.glGetUniformLocation(mProgram.getProgramId(), "uTexture");
+        mGLUniformTextureU = GLES20.glGetUniformLocation(mProgram.getProgramId(), "uTexture");
+        mGLUniformTextureV = GLES20.glGetUniformLocation(mProgram.getProgramId(), "vTexture");
         mConvertMatrixUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "convertMatrix");
         mConvertOffsetUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "offset");
+        mTextureScaleUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "textureScale");
+    }
+
+    public YuvFormat getFormat() {
+        return mFormat;
+    }
+
+    public void setColorSpace(YuvColorSpace colorSpace) {
+        mColorSpace = colorSpace;
     }
 
     /**
-     * Copy data in YUV data format to Texture.
-     * @param yuvData Data in YUV data format.
+     * Upload tightly packed YUV data to Texture.
+     * The planes are read directly from the array, no intermediate copy is made.
+     *
+     * @param yuvData Data in the format passed to the constructor.
      * @param width The width of the screen.
      * @param height The height of the screen.
      */
     public void loadYuvDataToTexture(byte[] yuvData, int width, int height) {
+        loadYuvDataToTexture(ByteBuffer.wrap(yuvData), width, height);
+    }
+
+    /**
+     * Upload tightly packed YUV data to Texture.
+     *
+     * @see #loadYuvDataToTexture(ByteBuffer, int, int, int, int)
+     */
+    public void loadYuvDataToTexture(ByteBuffer yuvBuffer, int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        loadYuvDataToTexture(yuvBuffer, width, height, width,
+                mFormat.isSemiPlanar() ? chromaWidth * 2 : chromaWidth);
+    }
+
+    /**
+     * Upload YUV data to Texture.
+     * The planes are read starting at the current position of the buffer, which is restored afterwards.
+     *
+     * @param yuvBuffer Data in the format passed to the constructor, for example {@code V2TXLiveVideoFrame.buffer}.
+     * @param width The width of the screen.
+     * @param height The height of the screen.
+     * @param yStride The number of bytes between two rows of the Y plane.
+     * @param uvStride The number of bytes between two rows of the chroma plane(s).
+     */
+    public void loadYuvDataToTexture(ByteBuffer yuvBuffer, int width, int height, int yStride, int uvStride) {
         // The texture size changes and the texture needs to be re-created
-        if (mTextureSize == null || mTextureSize.width != width || mTextureSize.height != height) {
-            mYData = new byte[width * height];
-            OpenGlUtils.deleteTexture(mYTextureId);
-            mYTextureId = OpenGlUtils.NO_TEXTURE;
-
-            mUvData = new byte[width * height / 2];
-            OpenGlUtils.deleteTexture(mUvTextureId);
-            mUvTextureId = OpenGlUtils.NO_TEXTURE;
+        if (mLayout.update(mFormat, width, height, yStride, uvStride)) {
+            deleteTextures();
+        }
+
+        int basePosition = yuvBuffer.position();
+        if (yuvBuffer.remaining() < mLayout.frameSize) {
+            Log.w(TAG, "yuv buffer is too small, remaining: " + yuvBuffer.remaining());
+            return;
         }
 
-        // You can use other methods to remove the copies of these two sentences. For example: loading data in JNI.
-        System.arraycopy(yuvData, 0, mYData, 0, mYData.length);
-        System.arraycopy(yuvData, mYData.length, mUvData, 0, mUvData.length);
-        mYTextureId = OpenGlUtils.loadTexture(GLES20.GL_LUMINANCE, ByteBuffer.wrap(mYData), width, height, mYTextureId);
-        mUvTextureId =
-                OpenGlUtils.loadTexture(GLES20.GL_LUMINANCE, ByteBuffer.wrap(mUvData), width, height / 2, mUvTextureId);
+        // Rows of the planes are not aligned to 4 bytes when the width is not a multiple of 8.
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        yuvBuffer.position(basePosition + mLayout.yOffset);
+        mYTextureId = OpenGlUtils.loadTexture(GLES20.GL_LUMINANCE, yuvBuffer, mLayout.yStride, mLayout.height,
+                mYTextureId);
+        if (mFormat.isSemiPlanar()) {
+            yuvBuffer.position(basePosition + mLayout.getChromaOffset());
+            mUTextureId = OpenGlUtils.loadTexture(GLES20.GL_LUMINANCE_ALPHA, yuvBuffer,
+                    mLayout.uStride / mLayout.chromaPixelStride, mLayout.chromaHeight, mUTextureId);
+        } else {
+            yuvBuffer.position(basePosition + mLayout.uOffset);
+            mUTextureId = OpenGlUtils.loadTexture(GLES20.GL_LUMINANCE, yuvBuffer, mLayout.uStride,
+                    mLayout.chromaHeight, mUTextureId);
+            yuvBuffer.position(basePosition + mLayout.vOffset);
+            mVTextureId = OpenGlUtils.loadTexture(GLES20.GL_LUMINANCE, yuvBuffer, mLayout.vStride,
+                    mLayout.chromaHeight, mVTextureId);
+        }
+        yuvBuffer.position(basePosition);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
     }
 
     @Override
@@ -83,21 +185,42 @@ public class GpuImageI420Filter extends GPUImageFilter {
         super.onDraw(mYTextureId, cubeBuffer, textureBuffer);
     }
 
+    @Override
+    public void onDraw(int textureId, QuadGeometry geometry) {
+        super.onDraw(mYTextureId, geometry);
+    }
+
     @Override
     protected void beforeDrawArrays(int textureId) {
         super.beforeDrawArrays(textureId);
         GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        OpenGlUtils.bindTexture(getTarget(), mUvTextureId);
-        GLES20.glUniform1i(mGLUniformTextureUv, 1);
+        OpenGlUtils.bindTexture(getTarget(), mUTextureId);
+        GLES20.glUniform1i(mGLUniformTextureU, 1);
+        if (!mFormat.isSemiPlanar()) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE2);
+            OpenGlUtils.bindTexture(getTarget(), mVTextureId);
+            GLES20.glUniform1i(mGLUniformTextureV, 2);
+        }
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
 
-        GLES20.glUniform3fv(mConvertOffsetUniform, 1, FloatBuffer.wrap(BT601_FULLRANGE_FFMPEG_OFFSET));
-        GLES20.glUniformMatrix3fv(mConvertMatrixUniform, 1, false, BT601_FULLRAGE_FFMPEG_MATRIX, 0);
+        GLES20.glUniform2f(mTextureScaleUniform, (float) mLayout.width / mLayout.yStride,
+                (float) mLayout.chromaWidth * mLayout.chromaPixelStride / mLayout.uStride);
+        GLES20.glUniform3fv(mConvertOffsetUniform, 1, mColorSpace.getOffset(), 0);
+        GLES20.glUniformMatrix3fv(mConvertMatrixUniform, 1, false, mColorSpace.getMatrix(), 0);
     }
 
     @Override
     protected void onUninit() {
-        OpenGlUtils.deleteTexture(mYTextureId);
-        OpenGlUtils.deleteTexture(mUvTextureId);
+        deleteTextures();
         super.onUninit();
     }
+
+    private void deleteTextures() {
+        OpenGlUtils.deleteTexture(mYTextureId);
+        mYTextureId = OpenGlUtils.NO_TEXTURE;
+        OpenGlUtils.deleteTexture(mUTextureId);
+        mUTextureId = OpenGlUtils.NO_TEXTURE;
+        OpenGlUtils.deleteTexture(mVTextureId);
+        mVTextureId = OpenGlUtils.NO_TEXTURE;
+    }
 }
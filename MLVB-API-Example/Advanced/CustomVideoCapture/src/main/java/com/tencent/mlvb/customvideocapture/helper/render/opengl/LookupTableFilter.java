@@ -0,0 +1,211 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Color grading with a 3D lookup table, in the common 512x512 PNG layout: 64 blue slices of 64x64 red/green cells,
+ * laid out 8 by 8, as exported by most color grading tools.
+ * <p>
+ * Red and green are interpolated by the linear filtering of the table texture, blue between the two nearest slices,
+ * so a pixel costs two fetches from the table. Each pixel only depends on itself, so the filter is drawn in the same
+ * pass as its pointwise neighbours in a {@link GPUImageFilterGroup}. The intensity mixes the graded color with the
+ * original one.
+ */
+public class LookupTableFilter extends GPUImageFilter {
+    public static final int TABLE_SIZE = 512;
+
+    private static final String FRAGMENT_SHADER_HEADER = ""
+            + "precision mediump float;\n"
+            + "varying highp vec2 textureCoordinate;\n"
+            + "\n"
+            + "uniform sampler2D inputImageTexture;\n";
+
+    private          int    mLookupTextureId = OpenGlUtils.NO_TEXTURE;
+    private          Bitmap mPendingTable;
+    private volatile float  mIntensity       = 1.0f;
+    private          int    mLookupTextureUniform;
+    private          int    mIntensityUniform;
+    private          int    mFusedLookupTextureUniform;
+    private          int    mFusedIntensityUniform;
+
+    /**
+     * @param table A 512x512 lookup table, see {@link #setLookupTable}.
+     */
+    public LookupTableFilter(Bitmap table) {
+        super(NO_FILTER_VERTEX_SHADER, buildFragmentShader());
+        setLookupTable(table);
+    }
+
+    private static String buildFragmentShader() {
+        return FRAGMENT_SHADER_HEADER
+                + getUniforms("")
+                + "\n"
+                + "void main()\n"
+                + "{\n"
+                + "    vec4 color = texture2D(inputImageTexture, textureCoordinate);\n"
+                + getColorCode("")
+                + "    gl_FragColor = color;\n"
+                + "}\n";
+    }
+
+    private static String getUniforms(String prefix) {
+        return "uniform sampler2D " + prefix + "lookupTexture;\n"
+                + "uniform lowp float " + prefix + "intensity;\n";
+    }
+
+    private static String getColorCode(String prefix) {
+        // The two slices around the blue value, their cells inset by half a texel so that filtering stays inside.
+        return "{\n"
+                + "    highp float blue = color.b * 63.0;\n"
+                + "    highp float slice0 = floor(blue);\n"
+                + "    highp float slice1 = min(slice0 + 1.0, 63.0);\n"
+                + "    highp vec2 cell0 = vec2(mod(slice0, 8.0), floor(slice0 / 8.0)) * 0.125;\n"
+                + "    highp vec2 cell1 = vec2(mod(slice1, 8.0), floor(slice1 / 8.0)) * 0.125;\n"
+                + "    highp vec2 inCell = 0.5 / 512.0 + (0.125 - 1.0 / 512.0) * color.rg;\n"
+                + "    lowp vec4 graded = mix(texture2D(" + prefix + "lookupTexture, cell0 + inCell),\n"
+                + "            texture2D(" + prefix + "lookupTexture, cell1 + inCell), blue - slice0);\n"
+                + "    color.rgb = mix(color.rgb, graded.rgb, " + prefix + "intensity);\n"
+                + "}\n";
+    }
+
+    /**
+     * Decode a lookup table from a PNG, without the density scaling of resources.
+     *
+     * @throws IOException if the image cannot be decoded or is not 512x512.
+     */
+    public static Bitmap decodeLookupTable(InputStream input) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        Bitmap table = BitmapFactory.decodeStream(input, null, options);
+        if (table == null) {
+            throw new IOException("cannot decode the lookup table");
+        }
+        if (table.getWidth() != TABLE_SIZE || table.getHeight() != TABLE_SIZE) {
+            table.recycle();
+            throw new IOException("the lookup table must be " + TABLE_SIZE + "x" + TABLE_SIZE + ", not "
+                    + table.getWidth() + "x" + table.getHeight());
+        }
+        return table;
+    }
+
+    /**
+     * Replace the lookup table, may be called on any thread. The filter takes the bitmap over and recycles it once
+     * uploaded.
+     *
+     * @param table A 512x512 lookup table, see {@link #decodeLookupTable}.
+     */
+    public void setLookupTable(final Bitmap table) {
+        if (table.getWidth() != TABLE_SIZE || table.getHeight() != TABLE_SIZE) {
+            throw new IllegalArgumentException("the lookup table must be " + TABLE_SIZE + "x" + TABLE_SIZE);
+        }
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                if (mPendingTable != null) {
+                    mPendingTable.recycle();
+                }
+                // Uploaded when bound, so that the upload does not disturb the texture units already bound.
+                mPendingTable = table;
+            }
+        });
+    }
+
+    /**
+     * How much of the grading to apply, from 0 for the original colors to 1 for the table's colors. May be called on
+     * any thread.
+     */
+    public void setIntensity(float intensity) {
+        mIntensity = Math.max(0.0f, Math.min(1.0f, intensity));
+    }
+
+    public float getIntensity() {
+        return mIntensity;
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        mLookupTextureUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "lookupTexture");
+        mIntensityUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "intensity");
+    }
+
+    @Override
+    protected void onUninit() {
+        super.onUninit();
+        OpenGlUtils.deleteTexture(mLookupTextureId);
+        mLookupTextureId = OpenGlUtils.NO_TEXTURE;
+        if (mPendingTable != null) {
+            mPendingTable.recycle();
+            mPendingTable = null;
+        }
+    }
+
+    @Override
+    protected void beforeDrawArrays(int textureId) {
+        super.beforeDrawArrays(textureId);
+        bindLookupTable(1, mLookupTextureUniform, mIntensityUniform);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    }
+
+    @Override
+    public boolean isPointwise() {
+        return getClass() == LookupTableFilter.class;
+    }
+
+    @Override
+    protected String getFusedFragmentUniforms(String prefix) {
+        return getUniforms(prefix);
+    }
+
+    @Override
+    protected String getFusedColorCode(String prefix) {
+        return getColorCode(prefix);
+    }
+
+    @Override
+    protected void onFusedInit(int programId, String prefix) {
+        mFusedLookupTextureUniform = GLES20.glGetUniformLocation(programId, prefix + "lookupTexture");
+        mFusedIntensityUniform = GLES20.glGetUniformLocation(programId, prefix + "intensity");
+    }
+
+    @Override
+    protected int onFusedBindTextures(int firstUnit) {
+        bindLookupTable(firstUnit, mFusedLookupTextureUniform, mFusedIntensityUniform);
+        return 1;
+    }
+
+    private void bindLookupTable(int unit, int textureUniform, int intensityUniform) {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        if (mPendingTable != null) {
+            uploadLookupTable(mPendingTable);
+            mPendingTable.recycle();
+            mPendingTable = null;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mLookupTextureId != OpenGlUtils.NO_TEXTURE ? mLookupTextureId : 0);
+        GLES20.glUniform1i(textureUniform, unit);
+        // Without a table the texture reads black, draw the original colors.
+        GLES20.glUniform1f(intensityUniform, mLookupTextureId != OpenGlUtils.NO_TEXTURE ? mIntensity : 0.0f);
+    }
+
+    private void uploadLookupTable(Bitmap table) {
+        if (mLookupTextureId == OpenGlUtils.NO_TEXTURE) {
+            int[] textures = new int[1];
+            GLES20.glGenTextures(1, textures, 0);
+            mLookupTextureId = textures[0];
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mLookupTextureId);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mLookupTextureId);
+        }
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, table, 0);
+    }
+}
@@ -28,14 +28,18 @@ public class OesInputFilter extends GPUImageFilter {
             + "   gl_FragColor = texture2D(inputImageTexture, textureCoordinate);\n"
             + "}";
 
-    protected int mTextureTransform;
+    protected     int     mTextureTransform;
+    private final boolean mDefaultShaders;
+    private       int     mFusedTextureTransform;
 
     public OesInputFilter() {
         super(OES_INPUT_VERTEX_SHADER, OES_INPUT_FRAGMENT_SHADER);
+        mDefaultShaders = true;
     }
 
     public OesInputFilter(final String vertexShader, final String fragmentShader) {
         super(vertexShader, fragmentShader);
+        mDefaultShaders = false;
     }
 
     @Override
@@ -54,4 +58,29 @@ public class OesInputFilter extends GPUImageFilter {
         super.beforeDrawArrays(textureId);
         GLES20.glUniformMatrix4fv(mTextureTransform, 1, false, mTextureMatrix, 0);
     }
+
+    @Override
+    public boolean isPointwise() {
+        return mDefaultShaders && getClass() == OesInputFilter.class;
+    }
+
+    @Override
+    protected String getFusedVertexUniforms(String prefix) {
+        return "uniform mat4 " + prefix + "textureTransform;\n";
+    }
+
+    @Override
+    protected String getFusedCoordinateCode(String prefix) {
+        return "coordinate = (" + prefix + "textureTransform * vec4(coordinate, 0.0, 1.0)).xy;\n";
+    }
+
+    @Override
+    protected void onFusedInit(int programId, String prefix) {
+        mFusedTextureTransform = GLES20.glGetUniformLocation(programId, prefix + "textureTransform");
+    }
+
+    @Override
+    protected void onFusedDraw() {
+        GLES20.glUniformMatrix4fv(mFusedTextureTransform, 1, false, mTextureMatrix, 0);
+    }
 }
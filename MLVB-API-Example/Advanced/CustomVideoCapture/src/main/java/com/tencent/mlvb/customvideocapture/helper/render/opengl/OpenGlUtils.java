@@ -91,6 +91,19 @@ public class OpenGlUtils {
         Log.d(TAG, "delete frame buffer id: " + frameBufferId);
     }
 
+    /**
+     * The major version of OpenGL ES of the context current on the calling thread, 2 if it cannot be determined.
+     */
+    public static int getGlesMajorVersion() {
+        // The format is "OpenGL ES <major>.<minor> <vendor-specific information>".
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String prefix = "OpenGL ES ";
+        if (version == null || !version.startsWith(prefix) || version.length() <= prefix.length()) {
+            return 2;
+        }
+        return Character.digit(version.charAt(prefix.length()), 10);
+    }
+
     public static void bindTexture(int target, int texture) {
         GLES20.glBindTexture(target, texture);
         checkGlError("bindTexture");
@@ -124,6 +137,50 @@ public class OpenGlUtils {
         int outputWidth,
         int outputHeight
     ) {
+        return calcCubeAndTextureBuffer(scaleType, inputRotation, needFlipHorizontal, true, inputWidth, inputHeight,
+            outputWidth, outputHeight);
+    }
+
+    /**
+     * Calculate the vertex array and texture array through the width and height of the input and output
+     *
+     * @param needFlipVertical Whether to flip the texture upside down, which the other overload always does
+     * @see #calcCubeAndTextureBuffer(ScaleType, Rotation, boolean, int, int, int, int)
+     */
+    public static Pair<float[], float[]> calcCubeAndTextureBuffer(
+        ScaleType scaleType,
+        Rotation inputRotation,
+        boolean needFlipHorizontal,
+        boolean needFlipVertical,
+        int inputWidth,
+        int inputHeight,
+        int outputWidth,
+        int outputHeight
+    ) {
+        float[] cube = new float[CUBE.length];
+        float[] textureCords = new float[CUBE.length];
+        calcCubeAndTextureBuffer(scaleType, inputRotation, needFlipHorizontal, needFlipVertical, inputWidth,
+            inputHeight, outputWidth, outputHeight, cube, textureCords);
+        return new Pair<>(cube, textureCords);
+    }
+
+    /**
+     * Calculate the vertex array and texture array into arrays of the caller, each of the length of {@link #CUBE}
+     *
+     * @see #calcCubeAndTextureBuffer(ScaleType, Rotation, boolean, boolean, int, int, int, int)
+     */
+    public static void calcCubeAndTextureBuffer(
+        ScaleType scaleType,
+        Rotation inputRotation,
+        boolean needFlipHorizontal,
+        boolean needFlipVertical,
+        int inputWidth,
+        int inputHeight,
+        int outputWidth,
+        int outputHeight,
+        float[] cube,
+        float[] textureCords
+    ) {
 
         boolean needRotate = (inputRotation == Rotation.ROTATION_90 || inputRotation == Rotation.ROTATION_270);
         int rotatedWidth = needRotate ? inputHeight : inputWidth;
@@ -132,25 +189,23 @@ public class OpenGlUtils {
         float ratioWidth = 1.0f * Math.round(rotatedWidth * maxRatio) / outputWidth;
         float ratioHeight = 1.0f * Math.round(rotatedHeight * maxRatio) / outputHeight;
 
-        float[] cube = CUBE.clone();
-        float[] textureCords = TextureRotationUtils.getRotation(inputRotation, needFlipHorizontal, true);
+        float[] rotation = TextureRotationUtils.getRotation(inputRotation, needFlipHorizontal, needFlipVertical);
 
         if (scaleType == ScaleType.CENTER_CROP) {
             float distHorizontal = needRotate ? ((1 - 1 / ratioHeight) / 2) : ((1 - 1 / ratioWidth) / 2);
             float distVertical = needRotate ? ((1 - 1 / ratioWidth) / 2) : ((1 - 1 / ratioHeight) / 2);
-            textureCords = new float[]{
-                addDistance(textureCords[0], distHorizontal), addDistance(textureCords[1], distVertical),
-                addDistance(textureCords[2], distHorizontal), addDistance(textureCords[3], distVertical),
-                addDistance(textureCords[4], distHorizontal), addDistance(textureCords[5], distVertical),
-                addDistance(textureCords[6], distHorizontal), addDistance(textureCords[7], distVertical)
-            };
+            System.arraycopy(CUBE, 0, cube, 0, CUBE.length);
+            for (int i = 0; i < CUBE.length; i += 2) {
+                textureCords[i] = addDistance(rotation[i], distHorizontal);
+                textureCords[i + 1] = addDistance(rotation[i + 1], distVertical);
+            }
         } else {
-            cube = new float[]{
-                cube[0] / ratioHeight, cube[1] / ratioWidth, cube[2] / ratioHeight, cube[3] / ratioWidth,
-                cube[4] / ratioHeight, cube[5] / ratioWidth, cube[6] / ratioHeight, cube[7] / ratioWidth
-            };
+            for (int i = 0; i < CUBE.length; i += 2) {
+                cube[i] = CUBE[i] / ratioHeight;
+                cube[i + 1] = CUBE[i + 1] / ratioWidth;
+            }
+            System.arraycopy(rotation, 0, textureCords, 0, CUBE.length);
         }
-        return new Pair<>(cube, textureCords);
     }
 
     private static float addDistance(float coordinate, float distance) {
@@ -1,15 +1,17 @@
 package com.tencent.mlvb.customvideocapture.helper.render.opengl;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.util.Log;
 
 public class Program {
     private static final String TAG                = "Program";
     private static final int    INVALID_PROGRAM_ID = -1;
 
-    private final String mVertexShader;
-    private final String mFragmentShader;
-    private       int    mProgramId;
+    private final String             mVertexShader;
+    private final String             mFragmentShader;
+    private       int                mProgramId;
+    private       ProgramCache.Entry mCacheEntry;
 
     public Program(String vertexShader, String fragmentShader) {
         mVertexShader = vertexShader;
@@ -18,48 +20,67 @@ public class Program {
     }
 
     /**
-     * create programId 。
+     * create programId 。 The linked program comes from {@link ProgramCache}, so building the same sources again in
+     * the same share group does not compile anything.
      */
     public void build() {
-        int vertexShaderId = loadShader(mVertexShader, GLES20.GL_VERTEX_SHADER);
+        mCacheEntry = ProgramCache.getInstance().acquire(mVertexShader, mFragmentShader);
+        mProgramId = mCacheEntry != null ? mCacheEntry.getProgramId() : INVALID_PROGRAM_ID;
+    }
+
+    public int getProgramId() {
+        return mProgramId;
+    }
+
+    public void destroy() {
+        if (mCacheEntry != null) {
+            ProgramCache.getInstance().release(mCacheEntry);
+            mCacheEntry = null;
+        }
+        mProgramId = INVALID_PROGRAM_ID;
+    }
+
+    /**
+     * Compile and link a program from source.
+     *
+     * @param retrievableBinary Whether the binary of the program will be read back, OpenGL ES 3 only.
+     * @return The program id, -1 on failure.
+     */
+    static int link(String vertexShader, String fragmentShader, boolean retrievableBinary) {
+        int vertexShaderId = loadShader(vertexShader, GLES20.GL_VERTEX_SHADER);
         if (vertexShaderId == 0) {
             Log.e(TAG, "load vertex shader failed.");
-            return;
+            return INVALID_PROGRAM_ID;
         }
 
-        int fragmentShaderId = loadShader(mFragmentShader, GLES20.GL_FRAGMENT_SHADER);
+        int fragmentShaderId = loadShader(fragmentShader, GLES20.GL_FRAGMENT_SHADER);
         if (fragmentShaderId == 0) {
             Log.e(TAG, "load fragment shader failed.");
-            return;
+            GLES20.glDeleteShader(vertexShaderId);
+            return INVALID_PROGRAM_ID;
         }
 
         int programId = GLES20.glCreateProgram();
         GLES20.glAttachShader(programId, vertexShaderId);
         GLES20.glAttachShader(programId, fragmentShaderId);
+        if (retrievableBinary) {
+            GLES30.glProgramParameteri(programId, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
         GLES20.glLinkProgram(programId);
+        GLES20.glDeleteShader(vertexShaderId);
+        GLES20.glDeleteShader(fragmentShaderId);
 
         int[] link = new int[1];
         GLES20.glGetProgramiv(programId, GLES20.GL_LINK_STATUS, link, 0);
         if (link[0] <= 0) {
             Log.e(TAG, "link program failed. status: " + link[0]);
-            return;
+            GLES20.glDeleteProgram(programId);
+            return INVALID_PROGRAM_ID;
         }
-
-        GLES20.glDeleteShader(vertexShaderId);
-        GLES20.glDeleteShader(fragmentShaderId);
-        mProgramId = programId;
-    }
-
-    public int getProgramId() {
-        return mProgramId;
-    }
-
-    public void destroy() {
-        GLES20.glDeleteProgram(mProgramId);
-        mProgramId = INVALID_PROGRAM_ID;
+        return programId;
     }
 
-    private int loadShader(final String strSource, final int iType) {
+    private static int loadShader(final String strSource, final int iType) {
         int[] compiled = new int[1];
         int iShader = GLES20.glCreateShader(iType);
         GLES20.glShaderSource(iShader, strSource);
@@ -67,6 +88,7 @@ public class Program {
         GLES20.glGetShaderiv(iShader, GLES20.GL_COMPILE_STATUS, compiled, 0);
         if (compiled[0] == 0) {
             OpenGlUtils.checkGlError("glCompileShader");
+            GLES20.glDeleteShader(iShader);
             return 0;
         }
         return iShader;
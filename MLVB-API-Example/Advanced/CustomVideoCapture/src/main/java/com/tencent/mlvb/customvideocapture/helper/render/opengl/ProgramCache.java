@@ -0,0 +1,486 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A process-wide cache of linked shader programs, keyed by a hash of their sources.
+ * <p>
+ * Program objects are shared by all EGLContexts of a share group, so the cache keeps the programs per source and share
+ * group. The share groups are tracked by {@link com.tencent.mlvb.customvideocapture.helper.render.EglCore}, which
+ * registers its context when it is created and made current. A program stays linked while its share group is alive,
+ * so re-initializing a filter does not compile anything.
+ * <p>
+ * The uniforms are state of the program, so a program is handed to one user at a time: users of the same sources at
+ * the same time each get a program of their own. An idle program keeps the uniforms its last user left, so a filter
+ * must set every uniform it uses when it is initialized or drawn, rather than rely on the defaults of a new program.
+ * <p>
+ * When the context is OpenGL ES 3 and the driver supports program binaries, the binary of each newly linked program
+ * is also written to {@link #setDiskCacheDirectory the disk cache}, so that a cold start loads it instead of compiling.
+ * Whether binaries are supported is checked once per share group. The binaries are dropped when the driver or the
+ * system build changes.
+ * <p>
+ * Programs are compiled and the disk cache is read and written outside the lock of the cache, so that a slow compile
+ * on one thread does not hold up a cache hit on another.
+ */
+public class ProgramCache {
+    private static final String TAG = "ProgramCache";
+
+    private static final String  BINARY_SUFFIX   = ".bin";
+    private static final String  TEMP_SUFFIX     = ".tmp";
+    private static final String  DRIVER_FILE     = "driver";
+    private static final int     BINARY_MAGIC    = 0x50524742;
+    private static final Charset UTF_8           = Charset.forName("UTF-8");
+    private static final int     INVALID_PROGRAM = -1;
+
+    private static final ProgramCache sInstance = new ProgramCache(new Linker() {
+        @Override
+        public int link(String vertexShader, String fragmentShader, boolean retrievableBinary) {
+            return Program.link(vertexShader, fragmentShader, retrievableBinary);
+        }
+    });
+
+    /**
+     * Compiles and links a program, see {@link Program#link}. Replaced by the tests, which have no GL.
+     */
+    interface Linker {
+        int link(String vertexShader, String fragmentShader, boolean retrievableBinary);
+    }
+
+    /**
+     * The contexts that share their objects with each other. Only the contexts created by this process are counted,
+     * the programs are deleted when the last of them is destroyed.
+     */
+    public static final class ShareGroup {
+        private final List<Object>             mContexts = new ArrayList<>();
+        private final Map<String, List<Entry>> mEntries  = new HashMap<>();
+        // Checked on the first program built in the group, all its contexts have the same version.
+        private       Boolean                  mBinarySupported;
+    }
+
+    /**
+     * A linked program handed out by {@link #acquire}, to be given back with {@link #release}.
+     */
+    public static final class Entry {
+        private final String     mKey;
+        private final ShareGroup mShareGroup;
+        private final int        mProgramId;
+        private       int        mUsers;
+
+        private Entry(String key, ShareGroup shareGroup, int programId) {
+            mKey = key;
+            mShareGroup = shareGroup;
+            mProgramId = programId;
+        }
+
+        public int getProgramId() {
+            return mProgramId;
+        }
+    }
+
+    private final Linker                  mLinker;
+    private final ThreadLocal<ShareGroup> mCurrentShareGroup = new ThreadLocal<>();
+    private final Map<Object, ShareGroup> mShareGroups       = new HashMap<>();
+    // Guards the disk cache fields, so that checking the directory never holds the lock of the cache.
+    private final Object                  mDiskCacheLock     = new Object();
+    private       File                    mDiskCacheDir;
+    private       boolean                 mDiskCacheChecked;
+
+    public static ProgramCache getInstance() {
+        return sInstance;
+    }
+
+    ProgramCache(Linker linker) {
+        mLinker = linker;
+    }
+
+    /**
+     * Set where program binaries are stored, null to disable it. Should be a directory private to the app, such as
+     * {@code Context.getCodeCacheDir()}.
+     */
+    public void setDiskCacheDirectory(File directory) {
+        synchronized (mDiskCacheLock) {
+            mDiskCacheDir = directory;
+            mDiskCacheChecked = false;
+        }
+    }
+
+    /**
+     * Register a newly created context.
+     *
+     * @param sharedContext The context it was created to share with, null if none.
+     * @return The share group of the context.
+     */
+    public synchronized ShareGroup onContextCreated(Object context, Object sharedContext) {
+        ShareGroup shareGroup = sharedContext != null ? mShareGroups.get(sharedContext) : null;
+        if (shareGroup == null) {
+            shareGroup = new ShareGroup();
+            if (sharedContext != null) {
+                // Created elsewhere, e.g. by the SDK, so it is only used to find the group.
+                mShareGroups.put(sharedContext, shareGroup);
+            }
+        }
+        shareGroup.mContexts.add(context);
+        mShareGroups.put(context, shareGroup);
+        return shareGroup;
+    }
+
+    /**
+     * Unregister a context that is about to be destroyed. If it is the last context of its group, the programs of
+     * the group are deleted, so the context must be current.
+     */
+    public synchronized void onContextDestroyed(Object context, ShareGroup shareGroup) {
+        shareGroup.mContexts.remove(context);
+        if (!shareGroup.mContexts.isEmpty()) {
+            mShareGroups.remove(context);
+            return;
+        }
+
+        for (List<Entry> entries : shareGroup.mEntries.values()) {
+            for (Entry entry : entries) {
+                if (entry.mUsers > 0) {
+                    Log.w(TAG, "program " + entry.mProgramId + " is still used");
+                }
+                GLES20.glDeleteProgram(entry.mProgramId);
+            }
+        }
+        shareGroup.mEntries.clear();
+        Iterator<ShareGroup> iterator = mShareGroups.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == shareGroup) {
+                iterator.remove();
+            }
+        }
+        if (mCurrentShareGroup.get() == shareGroup) {
+            mCurrentShareGroup.remove();
+        }
+    }
+
+    /**
+     * Set the share group of the context current on the calling thread, null when no context is current.
+     */
+    public void setCurrentShareGroup(ShareGroup shareGroup) {
+        mCurrentShareGroup.set(shareGroup);
+    }
+
+    /**
+     * Get a program linked from the sources, in the share group of the current context. The program is not handed to
+     * anyone else until it is given back.
+     *
+     * @return null if the program cannot be built.
+     */
+    public Entry acquire(String vertexShader, String fragmentShader) {
+        String key = hash(vertexShader, fragmentShader);
+        ShareGroup shareGroup = mCurrentShareGroup.get();
+
+        boolean binarySupported;
+        synchronized (this) {
+            if (shareGroup != null) {
+                List<Entry> entries = shareGroup.mEntries.get(key);
+                for (int i = 0; entries != null && i < entries.size(); i++) {
+                    Entry entry = entries.get(i);
+                    if (entry.mUsers == 0) {
+                        entry.mUsers = 1;
+                        return entry;
+                    }
+                }
+            }
+            binarySupported = isBinarySupported(shareGroup);
+        }
+
+        // Threads building the same sources at the same time each get a program, as if one came after the other.
+        File diskCacheDir = binarySupported ? getDiskCacheDirectory() : null;
+        int programId = buildProgram(key, diskCacheDir, vertexShader, fragmentShader);
+        if (programId == INVALID_PROGRAM) {
+            return null;
+        }
+        // Without a known share group the program is private.
+        Entry entry = new Entry(key, shareGroup, programId);
+        entry.mUsers = 1;
+        if (shareGroup != null) {
+            // The group is alive, the context current on this thread is one of its contexts.
+            synchronized (this) {
+                List<Entry> entries = shareGroup.mEntries.get(key);
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    shareGroup.mEntries.put(key, entries);
+                }
+                entries.add(entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Give back a program from {@link #acquire}. A shared program stays linked for the next user until its share group
+     * is destroyed, a private one is deleted, so the context must be current.
+     */
+    public void release(Entry entry) {
+        synchronized (this) {
+            entry.mUsers = 0;
+        }
+        if (entry.mShareGroup == null) {
+            GLES20.glDeleteProgram(entry.mProgramId);
+        }
+        // Otherwise idle for the next user, or already deleted with its share group.
+    }
+
+    /**
+     * @param diskCacheDir Where the binary is loaded from and saved to, null to only compile.
+     */
+    private int buildProgram(String key, File diskCacheDir, String vertexShader, String fragmentShader) {
+        if (diskCacheDir != null) {
+            int programId = loadBinary(diskCacheDir, key);
+            if (programId != INVALID_PROGRAM) {
+                return programId;
+            }
+        }
+
+        long startMs = SystemClock.elapsedRealtime();
+        int programId = mLinker.link(vertexShader, fragmentShader, diskCacheDir != null);
+        if (programId == INVALID_PROGRAM) {
+            return INVALID_PROGRAM;
+        }
+        Log.i(TAG, "compile program " + key + " cost: " + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        if (diskCacheDir != null) {
+            saveBinary(diskCacheDir, key, programId);
+        }
+        return programId;
+    }
+
+    /**
+     * Whether the current context can load and retrieve program binaries. Contexts of one process may have different
+     * versions, e.g. an OpenGL ES 2 fallback, so it is remembered per share group, and checked every time for a
+     * context of unknown group.
+     */
+    private boolean isBinarySupported(ShareGroup shareGroup) {
+        if (shareGroup != null && shareGroup.mBinarySupported != null) {
+            return shareGroup.mBinarySupported;
+        }
+        boolean supported = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && OpenGlUtils.getGlesMajorVersion() >= 3) {
+            int[] formats = new int[1];
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+            supported = formats[0] > 0;
+        }
+        if (shareGroup != null) {
+            shareGroup.mBinarySupported = supported;
+            Log.i(TAG, "program binary supported: " + supported);
+        }
+        return supported;
+    }
+
+    /**
+     * The disk cache, once it exists and was checked against the current driver, null if there is none. Only the first
+     * call after {@link #setDiskCacheDirectory} touches the disk.
+     */
+    private File getDiskCacheDirectory() {
+        synchronized (mDiskCacheLock) {
+            if (mDiskCacheDir == null || mDiskCacheChecked) {
+                return mDiskCacheDir;
+            }
+            if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+                Log.w(TAG, "create disk cache failed: " + mDiskCacheDir);
+                mDiskCacheDir = null;
+                return null;
+            }
+
+            String driver = GLES20.glGetString(GLES20.GL_VENDOR) + "\n" + GLES20.glGetString(GLES20.GL_RENDERER)
+                    + "\n" + GLES20.glGetString(GLES20.GL_VERSION) + "\n" + Build.FINGERPRINT;
+            if (clearIfDriverChanged(mDiskCacheDir, driver)) {
+                Log.i(TAG, "driver changed, disk cache cleared");
+            }
+            mDiskCacheChecked = true;
+            return mDiskCacheDir;
+        }
+    }
+
+    /**
+     * Delete the binaries in the directory, and the temporary files a crash left, unless they were written by the driver, which is recorded for next time.
+     *
+     * @return Whether the binaries were deleted.
+     */
+    static boolean clearIfDriverChanged(File directory, String driver) {
+        File driverFile = new File(directory, DRIVER_FILE);
+        if (driver.equals(readString(driverFile))) {
+            return false;
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if ((name.endsWith(BINARY_SUFFIX) || name.endsWith(TEMP_SUFFIX)) && !file.delete()) {
+                    Log.w(TAG, "delete " + file + " failed");
+                }
+            }
+        }
+        writeString(driverFile, driver);
+        return true;
+    }
+
+    private int loadBinary(File directory, String key) {
+        File file = new File(directory, key + BINARY_SUFFIX);
+        if (!file.exists()) {
+            return INVALID_PROGRAM;
+        }
+
+        long startMs = SystemClock.elapsedRealtime();
+        int format;
+        ByteBuffer binary;
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+            if (input.readInt() != BINARY_MAGIC) {
+                throw new IOException("bad magic");
+            }
+            format = input.readInt();
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+            binary.put(bytes).position(0);
+        } catch (IOException e) {
+            Log.w(TAG, "read " + file + " failed", e);
+            deleteFile(file);
+            return INVALID_PROGRAM;
+        } finally {
+            close(input);
+        }
+
+        int programId = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(programId, format, binary, binary.capacity());
+        int[] link = new int[1];
+        GLES20.glGetProgramiv(programId, GLES20.GL_LINK_STATUS, link, 0);
+        if (link[0] <= 0) {
+            // The driver may reject binaries of an older version even if the version string did not change.
+            Log.w(TAG, "load program binary " + key + " failed");
+            GLES20.glDeleteProgram(programId);
+            deleteFile(file);
+            return INVALID_PROGRAM;
+        }
+        Log.i(TAG, "load program " + key + " cost: " + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        return programId;
+    }
+
+    private void saveBinary(File directory, String key, int programId) {
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(programId, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(programId, length[0], length, 0, format, 0, binary);
+        byte[] bytes = new byte[length[0]];
+        binary.position(0);
+        binary.get(bytes);
+
+        // Written to a temporary file first, so that a crash never leaves a truncated binary behind. The file is unique,
+        // another thread may be saving the same sources.
+        File file = new File(directory, key + BINARY_SUFFIX);
+        File tempFile = null;
+        DataOutputStream output = null;
+        try {
+            tempFile = File.createTempFile(key, TEMP_SUFFIX, directory);
+            output = new DataOutputStream(new FileOutputStream(tempFile));
+            output.writeInt(BINARY_MAGIC);
+            output.writeInt(format[0]);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+            output.close();
+            output = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "write " + file + " failed", e);
+            if (tempFile != null) {
+                deleteFile(tempFile);
+            }
+        } finally {
+            close(output);
+        }
+    }
+
+    /**
+     * The key of the sources, the hex SHA-1 of both of them, which also names their binary in the disk cache.
+     */
+    static String hash(String vertexShader, String fragmentShader) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexShader.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(fragmentShader.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(vertexShader.hashCode()) + Integer.toHexString(fragmentShader.hashCode());
+        }
+    }
+
+    private static String readString(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+            return input.readUTF();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    private static void writeString(File file, String value) {
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new FileOutputStream(file));
+            output.writeUTF(value);
+        } catch (IOException e) {
+            Log.w(TAG, "write " + file + " failed", e);
+        } finally {
+            close(output);
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "delete " + file + " failed");
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "close failed", e);
+            }
+        }
+    }
+}
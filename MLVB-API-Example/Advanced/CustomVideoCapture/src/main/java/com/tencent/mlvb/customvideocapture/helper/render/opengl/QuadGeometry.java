@@ -0,0 +1,102 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The vertex and texture coordinates of a full-screen quad, as returned by
+ * {@link OpenGlUtils#calcCubeAndTextureBuffer}, stored once in direct buffers and optionally in a vertex buffer object.
+ * Instances are shared through {@link GeometryCache}, so the buffers must not be modified.
+ */
+public class QuadGeometry {
+    public static final  int VERTEX_COUNT    = 4;
+    public static final  int COMPONENT_COUNT = 2;
+    // In the vertex buffer object, the positions come first and are followed by the texture coordinates.
+    public static final  int POSITION_OFFSET = 0;
+    public static final  int TEXTURE_OFFSET  = VERTEX_COUNT * COMPONENT_COUNT * 4;
+    private static final int NO_BUFFER       = 0;
+
+    private final FloatBuffer   mCubeBuffer;
+    private final FloatBuffer   mTextureBuffer;
+    private       int           mVertexBufferId = NO_BUFFER;
+    // Incremented when the vertex buffer object is deleted, GL may hand its name out again for another buffer.
+    private       int           mGeneration;
+    // The cache that evicted the geometry, told if a holder draws it again so that the new buffer is still deleted.
+    private       GeometryCache mEvictedFrom;
+
+    public QuadGeometry(float[] cube, float[] textureCoordinates) {
+        mCubeBuffer = createFloatBuffer(cube);
+        mTextureBuffer = createFloatBuffer(textureCoordinates);
+    }
+
+    public FloatBuffer getCubeBuffer() {
+        return mCubeBuffer;
+    }
+
+    public FloatBuffer getTextureBuffer() {
+        return mTextureBuffer;
+    }
+
+    /**
+     * Get the vertex buffer object holding both arrays, uploaded on the first call. Must be called on the GL thread.
+     */
+    public int getVertexBufferId() {
+        if (mVertexBufferId == NO_BUFFER) {
+            int[] buffers = new int[1];
+            GLES20.glGenBuffers(1, buffers, 0);
+            mVertexBufferId = buffers[0];
+
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, TEXTURE_OFFSET * 2, null, GLES20.GL_STATIC_DRAW);
+            mCubeBuffer.position(0);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, POSITION_OFFSET, TEXTURE_OFFSET, mCubeBuffer);
+            mTextureBuffer.position(0);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, TEXTURE_OFFSET, TEXTURE_OFFSET, mTextureBuffer);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+            if (mEvictedFrom != null) {
+                mEvictedFrom.onEvictedBufferCreated(this);
+                mEvictedFrom = null;
+            }
+        }
+        return mVertexBufferId;
+    }
+
+    /**
+     * Changes whenever the vertex buffer object is deleted, so that a vertex array object recorded with the buffer
+     * can tell it must be recorded again, even when the buffer created next gets the same name.
+     */
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Delete the vertex buffer object if it was created, must be called on the GL thread. The geometry can still be
+     * drawn afterwards, the buffer is then created again.
+     */
+    public void release() {
+        if (mVertexBufferId != NO_BUFFER) {
+            GLES20.glDeleteBuffers(1, new int[]{mVertexBufferId}, 0);
+            mVertexBufferId = NO_BUFFER;
+            mGeneration++;
+        }
+    }
+
+    /**
+     * Release the buffer on eviction from a cache, if a holder still draws the geometry afterwards the cache keeps
+     * track of the buffer created again.
+     */
+    void evict(GeometryCache cache) {
+        release();
+        mEvictedFrom = cache;
+    }
+
+    private static FloatBuffer createFloatBuffer(float[] data) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(data.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(data).position(0);
+        return buffer;
+    }
+}
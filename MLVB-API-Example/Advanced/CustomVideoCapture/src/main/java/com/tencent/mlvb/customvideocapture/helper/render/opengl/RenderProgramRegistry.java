@@ -0,0 +1,123 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.opengl.GLES20;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The filters used to draw a frame to the screen, one per kind of input frame.
+ * <p>
+ * All of them are built and drawn once by {@link #prewarm()} when the GL context is created, so that switching the
+ * input between texture and YUV frames in the middle of a stream is a lookup instead of a shader compile.
+ * Drivers often defer part of the compilation until the first draw call, which is why prewarming also draws each
+ * program once into a 1x1 viewport. Must be used on the thread that owns the GL context.
+ */
+public class RenderProgramRegistry {
+    private static final String TAG = "RenderProgramRegistry";
+
+    // The smallest frame that has all the planes of a 4:2:0 format.
+    private static final int WARM_UP_SIZE = 2;
+
+    public enum ProgramType {
+        TEXTURE_2D(null),
+        YUV_I420(YuvFormat.I420),
+        YUV_NV12(YuvFormat.NV12),
+        YUV_NV21(YuvFormat.NV21);
+
+        private final YuvFormat mYuvFormat;
+
+        ProgramType(YuvFormat yuvFormat) {
+            mYuvFormat = yuvFormat;
+        }
+
+        /**
+         * The layout of the uploaded frames, null for {@link #TEXTURE_2D}.
+         */
+        public YuvFormat getYuvFormat() {
+            return mYuvFormat;
+        }
+
+        public static ProgramType fromYuvFormat(YuvFormat format) {
+            switch (format) {
+                case NV12:
+                    return YUV_NV12;
+                case NV21:
+                    return YUV_NV21;
+                case I420:
+                default:
+                    return YUV_I420;
+            }
+        }
+    }
+
+    private final GPUImageFilter[] mFilters = new GPUImageFilter[ProgramType.values().length];
+    private final YuvColorSpace    mColorSpace;
+
+    public RenderProgramRegistry(YuvColorSpace colorSpace) {
+        mColorSpace = colorSpace;
+    }
+
+    /**
+     * Build all programs and draw each of them once. The draws go to the current framebuffer, which should be cleared
+     * before the first real frame is drawn.
+     */
+    public void prewarm() {
+        QuadGeometry geometry = new QuadGeometry(OpenGlUtils.CUBE, OpenGlUtils.TEXTURE);
+        ByteBuffer pixels = ByteBuffer.allocateDirect(WARM_UP_SIZE * WARM_UP_SIZE * 4).order(ByteOrder.nativeOrder());
+        int warmUpTextureId = OpenGlUtils.loadTexture(GLES20.GL_RGBA, pixels, WARM_UP_SIZE, WARM_UP_SIZE,
+                OpenGlUtils.NO_TEXTURE);
+
+        GLES20.glViewport(0, 0, 1, 1);
+        for (ProgramType type : ProgramType.values()) {
+            long startMs = SystemClock.elapsedRealtime();
+            GPUImageFilter filter = get(type);
+            if (filter instanceof GpuImageI420Filter) {
+                pixels.position(0);
+                ((GpuImageI420Filter) filter).loadYuvDataToTexture(pixels, WARM_UP_SIZE, WARM_UP_SIZE);
+            }
+            filter.onDraw(warmUpTextureId, geometry);
+            Log.i(TAG, "prewarm " + type + " cost: " + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        }
+        OpenGlUtils.deleteTexture(warmUpTextureId);
+        geometry.release();
+    }
+
+    /**
+     * Get the filter for a kind of input frame. It is built on the spot if {@link #prewarm()} was not called.
+     */
+    public GPUImageFilter get(ProgramType type) {
+        GPUImageFilter filter = mFilters[type.ordinal()];
+        if (filter == null) {
+            if (type == ProgramType.TEXTURE_2D) {
+                filter = new GPUImageFilter();
+            } else {
+                filter = new GpuImageI420Filter(type.getYuvFormat(), mColorSpace);
+            }
+            filter.init();
+            mFilters[type.ordinal()] = filter;
+        }
+        return filter;
+    }
+
+    public GpuImageI420Filter getYuvFilter(YuvFormat format) {
+        return (GpuImageI420Filter) get(ProgramType.fromYuvFormat(format));
+    }
+
+    /**
+     * Delete all programs, must be called before the GL context is destroyed.
+     */
+    public void destroy() {
+        for (int i = 0; i < mFilters.length; i++) {
+            if (mFilters[i] != null) {
+                mFilters[i].destroy();
+                mFilters[i] = null;
+            }
+        }
+    }
+}
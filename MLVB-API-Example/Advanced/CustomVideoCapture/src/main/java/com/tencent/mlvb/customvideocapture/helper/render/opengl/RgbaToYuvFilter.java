@@ -0,0 +1,180 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.opengl.GLES20;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
+
+/**
+ * Convert an RGBA texture to YUV 4:2:0 packed into an RGBA frame buffer, so that reading the frame buffer back
+ * gives the bytes of a tightly packed I420, NV12 or NV21 frame.
+ * <p>
+ * Each output pixel holds four bytes of the frame, so the frame buffer is a quarter of the picture width wide and one
+ * and a half of its height high, the Y plane in the first rows and the chroma plane(s) in the rest. Row 0 of the frame
+ * is read from row 0 of the texture, the same order {@code glReadPixels} of the picture would give. Chroma is sampled
+ * between four pixels, which averages them with linear filtering. The picture width must be a multiple of 8 and its
+ * height a multiple of 4, so that the chroma rows fill whole output pixels and rows.
+ */
+public class RgbaToYuvFilter extends GPUImageFilter {
+
+    private static final String SHADER_HEADER = ""
+            + "precision highp float;\n"
+            + "uniform sampler2D inputImageTexture;\n"
+            // The picture size in pixels.
+            + "uniform vec2 inputSize;\n"
+            + "uniform mat3 convertMatrix;\n"
+            + "uniform vec3 offset;\n"
+            + "\n"
+            + "vec3 yuvAt(float x, float y)\n"
+            + "{\n"
+            + "    return convertMatrix * texture2D(inputImageTexture, vec2(x, y) / inputSize).rgb + offset;\n"
+            + "}\n"
+            + "\n"
+            // The chroma of the 2x2 block at chroma sample (x, y), sampled at the center of the block.
+            + "vec3 chromaAt(float x, float y)\n"
+            + "{\n"
+            + "    return yuvAt(x * 2.0 + 1.0, y * 2.0 + 1.0);\n"
+            + "}\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    vec2 pos = floor(gl_FragCoord.xy);\n"
+            + "    if (pos.y < inputSize.y) {\n"
+            + "        float x = pos.x * 4.0;\n"
+            + "        float y = pos.y + 0.5;\n"
+            + "        gl_FragColor = vec4(yuvAt(x + 0.5, y).x, yuvAt(x + 1.5, y).x, yuvAt(x + 2.5, y).x,\n"
+            + "                yuvAt(x + 3.5, y).x);\n"
+            + "        return;\n"
+            + "    }\n"
+            + "    float row = pos.y - inputSize.y;\n";
+
+    // Each U and V plane takes a quarter of the picture height: an output row holds two chroma rows side by side.
+    private static final String I420_SHADER = SHADER_HEADER
+            + "    float quarterHeight = inputSize.y / 4.0;\n"
+            + "    float isV = step(quarterHeight, row);\n"
+            + "    row -= isV * quarterHeight;\n"
+            + "    float chromaRowWidth = inputSize.x / 8.0;\n"
+            + "    float isOddRow = step(chromaRowWidth, pos.x);\n"
+            + "    float cx = (pos.x - isOddRow * chromaRowWidth) * 4.0;\n"
+            + "    float cy = row * 2.0 + isOddRow;\n"
+            + "    vec3 c0 = chromaAt(cx, cy);\n"
+            + "    vec3 c1 = chromaAt(cx + 1.0, cy);\n"
+            + "    vec3 c2 = chromaAt(cx + 2.0, cy);\n"
+            + "    vec3 c3 = chromaAt(cx + 3.0, cy);\n"
+            + "    gl_FragColor = mix(vec4(c0.y, c1.y, c2.y, c3.y), vec4(c0.z, c1.z, c2.z, c3.z), isV);\n"
+            + "}\n";
+
+    private static final String NV12_SHADER = SHADER_HEADER
+            + "    vec3 c0 = chromaAt(pos.x * 2.0, row);\n"
+            + "    vec3 c1 = chromaAt(pos.x * 2.0 + 1.0, row);\n"
+            + "    gl_FragColor = vec4(c0.yz, c1.yz);\n"
+            + "}\n";
+
+    private static final String NV21_SHADER = SHADER_HEADER
+            + "    vec3 c0 = chromaAt(pos.x * 2.0, row);\n"
+            + "    vec3 c1 = chromaAt(pos.x * 2.0 + 1.0, row);\n"
+            + "    gl_FragColor = vec4(c0.zy, c1.zy);\n"
+            + "}\n";
+
+    private final YuvFormat mFormat;
+    private final float[]   mConvertMatrix = new float[9];
+    private final float[]   mConvertOffset = new float[3];
+    private       int       mWidth;
+    private       int       mHeight;
+
+    private int mInputSizeUniform;
+    private int mConvertMatrixUniform;
+    private int mConvertOffsetUniform;
+
+    /**
+     * @param colorSpace The YUV to RGB conversion to invert, can be changed with {@link #setColorSpace}.
+     */
+    public RgbaToYuvFilter(YuvFormat format, YuvColorSpace colorSpace) {
+        super(NO_FILTER_VERTEX_SHADER, getFragmentShader(format));
+        mFormat = format;
+        setColorSpace(colorSpace);
+    }
+
+    private static String getFragmentShader(YuvFormat format) {
+        switch (format) {
+            case NV12:
+                return NV12_SHADER;
+            case NV21:
+                return NV21_SHADER;
+            case I420:
+            default:
+                return I420_SHADER;
+        }
+    }
+
+    /**
+     * Whether a picture of this size can be converted.
+     */
+    public static boolean isSizeSupported(int width, int height) {
+        return width > 0 && height > 0 && width % 8 == 0 && height % 4 == 0;
+    }
+
+    /**
+     * The width of the frame buffer to draw into.
+     */
+    public static int getOutputWidth(int width) {
+        return width / 4;
+    }
+
+    /**
+     * The height of the frame buffer to draw into.
+     */
+    public static int getOutputHeight(int height) {
+        return height * 3 / 2;
+    }
+
+    public YuvFormat getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Convert with the inverse of the given YUV to RGB conversion, may be called on any thread.
+     */
+    public void setColorSpace(final YuvColorSpace colorSpace) {
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                System.arraycopy(colorSpace.getInverseMatrix(), 0, mConvertMatrix, 0, mConvertMatrix.length);
+                float[] offset = colorSpace.getOffset();
+                for (int i = 0; i < 3; i++) {
+                    mConvertOffset[i] = -offset[i];
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        mInputSizeUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "inputSize");
+        mConvertMatrixUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "convertMatrix");
+        mConvertOffsetUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "offset");
+    }
+
+    /**
+     * @param width The width of the picture, not of the frame buffer.
+     * @param height The height of the picture, not of the frame buffer.
+     */
+    @Override
+    public void onOutputSizeChanged(int width, int height) {
+        super.onOutputSizeChanged(width, height);
+        if (!isSizeSupported(width, height)) {
+            throw new IllegalArgumentException("unsupported size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+    }
+
+    @Override
+    protected void beforeDrawArrays(int textureId) {
+        super.beforeDrawArrays(textureId);
+        GLES20.glUniform2f(mInputSizeUniform, mWidth, mHeight);
+        GLES20.glUniformMatrix3fv(mConvertMatrixUniform, 1, false, mConvertMatrix, 0);
+        GLES20.glUniform3fv(mConvertOffsetUniform, 1, mConvertOffset, 0);
+    }
+}
@@ -0,0 +1,58 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.opengl.GLES20;
+
+/**
+ * Draws a test pattern that only depends on the frame index: eight color bars, a bar moving across them, and the
+ * index in binary along one edge, so that a dropped or repeated frame can be spotted in the output.
+ */
+public class TestPatternFilter extends GPUImageFilter {
+    private static final String TEST_PATTERN_FRAGMENT_SHADER = ""
+            + "precision highp float;\n"
+            + "varying highp vec2 textureCoordinate;\n"
+            + "uniform float frameIndex;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    vec2 uv = textureCoordinate;\n"
+            + "    // White, yellow, cyan, green, magenta, red, blue and black bars.\n"
+            + "    float bar = floor(uv.x * 8.0);\n"
+            + "    vec3 color = vec3(1.0 - mod(floor(bar / 2.0), 2.0), 1.0 - step(4.0, bar), 1.0 - mod(bar, 2.0));\n"
+            + "    float position = fract(frameIndex / 120.0);\n"
+            + "    color = mix(color, vec3(0.5), step(abs(uv.x - position), 0.01));\n"
+            + "    if (uv.y > 0.95) {\n"
+            + "        float bit = 15.0 - floor(uv.x * 16.0);\n"
+            + "        color = vec3(mod(floor(frameIndex / exp2(bit)), 2.0));\n"
+            + "    }\n"
+            + "    gl_FragColor = vec4(color, 1.0);\n"
+            + "}\n";
+
+    // The index is drawn with 16 bits, and a float holds it exactly.
+    private static final int INDEX_MODULO = 1 << 16;
+
+    private int mFrameIndexUniform;
+    private int mFrameIndex;
+
+    public TestPatternFilter() {
+        super(NO_FILTER_VERTEX_SHADER, TEST_PATTERN_FRAGMENT_SHADER);
+    }
+
+    @Override
+    protected void onInit() {
+        super.onInit();
+        mFrameIndexUniform = GLES20.glGetUniformLocation(mProgram.getProgramId(), "frameIndex");
+    }
+
+    /**
+     * Set the index of the next frame drawn, must be called on the GL thread.
+     */
+    public void setFrameIndex(long frameIndex) {
+        mFrameIndex = (int) (frameIndex % INDEX_MODULO);
+    }
+
+    @Override
+    protected void beforeDrawArrays(int textureId) {
+        super.beforeDrawArrays(textureId);
+        GLES20.glUniform1f(mFrameIndexUniform, mFrameIndex);
+    }
+}
@@ -0,0 +1,86 @@
+package com.tencent.mlvb.customvideocapture.helper.source;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * The front camera through the legacy {@link Camera} API, opened on the main looper. Works on every API level.
+ */
+public class Camera1FrameSource implements VideoFrameSource {
+    private static final String TAG = "Camera1FrameSource";
+
+    private final int     mWidth;
+    private final int     mHeight;
+    private final int     mFrameRate;
+    private       Camera  mCamera;
+    private       boolean mStopped;
+
+    public Camera1FrameSource(int width, int height, int frameRate) {
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    @Override
+    public void start(final SurfaceTexture surfaceTexture) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                openCamera(surfaceTexture);
+            }
+        });
+    }
+
+    private synchronized void openCamera(SurfaceTexture surfaceTexture) {
+        if (mStopped) {
+            return;
+        }
+        try {
+            mCamera = Camera.open(Camera.CameraInfo.CAMERA_FACING_FRONT);
+            mCamera.setPreviewTexture(surfaceTexture);
+            mCamera.setDisplayOrientation(90);
+            Camera.Parameters parameters = mCamera.getParameters();
+            parameters.setPreviewSize(mWidth, mHeight);
+            parameters.setPreviewFrameRate(mFrameRate);
+            mCamera.setParameters(parameters);
+            mCamera.startPreview();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "open camera failed", e);
+            releaseCamera();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        mStopped = true;
+        releaseCamera();
+    }
+
+    private void releaseCamera() {
+        if (mCamera != null) {
+            mCamera.stopPreview();
+            mCamera.release();
+            mCamera = null;
+        }
+    }
+}
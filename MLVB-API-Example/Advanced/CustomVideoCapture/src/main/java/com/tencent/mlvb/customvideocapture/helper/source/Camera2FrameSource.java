@@ -0,0 +1,258 @@
+package com.tencent.mlvb.customvideocapture.helper.source;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.util.Collections;
+
+/**
+ * A camera through the Camera2 API, the front one if there is one. The output size is the supported size closest to
+ * the requested one, and the auto-exposure frame rate range is the one that best holds the requested rate.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class Camera2FrameSource implements VideoFrameSource {
+    private static final String TAG = "Camera2FrameSource";
+
+    private final CameraManager        mCameraManager;
+    private final String               mCameraId;
+    private final int                  mWidth;
+    private final int                  mHeight;
+    private final int                  mFrameRate;
+    private final Range<Integer>       mFpsRange;
+    private       HandlerThread        mCameraThread;
+    private       Handler              mCameraHandler;
+    private       Surface              mSurface;
+    private       CameraDevice         mCameraDevice;
+    private       CameraCaptureSession mCaptureSession;
+    private       boolean              mStopped;
+
+    public Camera2FrameSource(Context context, int width, int height, int frameRate) {
+        mCameraManager = (CameraManager) context.getApplicationContext().getSystemService(Context.CAMERA_SERVICE);
+        mFrameRate = frameRate;
+
+        String cameraId = null;
+        Size size = new Size(width, height);
+        Range<Integer> fpsRange = null;
+        try {
+            cameraId = chooseCamera(mCameraManager);
+            if (cameraId != null) {
+                CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(cameraId);
+                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+                if (map != null) {
+                    size = chooseSize(map.getOutputSizes(SurfaceTexture.class), width, height);
+                }
+                fpsRange = chooseFpsRange(
+                        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES), frameRate);
+            }
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, "query camera failed", e);
+        }
+        mCameraId = cameraId;
+        mWidth = size.getWidth();
+        mHeight = size.getHeight();
+        mFpsRange = fpsRange;
+        Log.i(TAG, "camera: " + mCameraId + ", size: " + mWidth + "x" + mHeight + ", fps range: " + mFpsRange);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public synchronized void start(SurfaceTexture surfaceTexture) {
+        if (mCameraId == null) {
+            Log.e(TAG, "no camera available");
+            return;
+        }
+        surfaceTexture.setDefaultBufferSize(mWidth, mHeight);
+        mSurface = new Surface(surfaceTexture);
+        mCameraThread = new HandlerThread("Camera2Thread");
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+        try {
+            mCameraManager.openCamera(mCameraId, mStateCallback, mCameraHandler);
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, "open camera failed", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            mStopped = true;
+            closeCamera();
+        }
+        if (mCameraThread != null) {
+            mCameraThread.quitSafely();
+            mCameraThread = null;
+        }
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+    }
+
+    private void closeCamera() {
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+        }
+    }
+
+    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            synchronized (Camera2FrameSource.this) {
+                if (mStopped) {
+                    camera.close();
+                    return;
+                }
+                mCameraDevice = camera;
+                try {
+                    camera.createCaptureSession(Collections.singletonList(mSurface), mSessionCallback,
+                            mCameraHandler);
+                } catch (CameraAccessException | RuntimeException e) {
+                    Log.e(TAG, "create capture session failed", e);
+                }
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            Log.w(TAG, "camera disconnected");
+            synchronized (Camera2FrameSource.this) {
+                camera.close();
+                if (mCameraDevice == camera) {
+                    mCameraDevice = null;
+                }
+            }
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            Log.e(TAG, "camera error: " + error);
+            onDisconnected(camera);
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback mSessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession session) {
+            synchronized (Camera2FrameSource.this) {
+                if (mStopped || mCameraDevice == null) {
+                    session.close();
+                    return;
+                }
+                mCaptureSession = session;
+                try {
+                    CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+                    builder.addTarget(mSurface);
+                    if (mFpsRange != null) {
+                        builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+                    }
+                    session.setRepeatingRequest(builder.build(), null, mCameraHandler);
+                } catch (CameraAccessException | RuntimeException e) {
+                    Log.e(TAG, "start repeating request failed", e);
+                }
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            Log.e(TAG, "configure capture session failed");
+        }
+    };
+
+    private static String chooseCamera(CameraManager cameraManager) throws CameraAccessException {
+        String[] cameraIds = cameraManager.getCameraIdList();
+        for (String cameraId : cameraIds) {
+            Integer facing = cameraManager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
+                return cameraId;
+            }
+        }
+        return cameraIds.length > 0 ? cameraIds[0] : null;
+    }
+
+    /**
+     * The supported size closest to the requested one.
+     */
+    private static Size chooseSize(Size[] sizes, int width, int height) {
+        Size best = new Size(width, height);
+        if (sizes == null || sizes.length == 0) {
+            return best;
+        }
+        long bestDistance = Long.MAX_VALUE;
+        for (Size size : sizes) {
+            long distance = Math.abs(size.getWidth() - width) + Math.abs(size.getHeight() - height);
+            if (distance < bestDistance) {
+                best = size;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * A fixed range at the frame rate if there is one, the range whose upper bound is closest above it otherwise, so
+     * that auto exposure does not drop below the rate more than it has to.
+     */
+    private static Range<Integer> chooseFpsRange(Range<Integer>[] ranges, int frameRate) {
+        if (ranges == null || ranges.length == 0) {
+            return null;
+        }
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() < frameRate) {
+                continue;
+            }
+            if (best == null || range.getUpper() < best.getUpper()
+                    || (range.getUpper().equals(best.getUpper()) && range.getLower() > best.getLower())) {
+                best = range;
+            }
+        }
+        if (best == null) {
+            best = ranges[0];
+            for (Range<Integer> range : ranges) {
+                if (range.getUpper() > best.getUpper()) {
+                    best = range;
+                }
+            }
+        }
+        return best;
+    }
+}
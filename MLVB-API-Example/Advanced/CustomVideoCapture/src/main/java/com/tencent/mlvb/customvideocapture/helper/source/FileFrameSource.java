@@ -0,0 +1,181 @@
+package com.tencent.mlvb.customvideocapture.helper.source;
+
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The video track of a media file, decoded by {@link MediaCodec} straight into the SurfaceTexture and played in real
+ * time according to its timestamps. The file is played in a loop.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class FileFrameSource implements VideoFrameSource {
+    private static final String TAG = "FileFrameSource";
+
+    private static final int  DEFAULT_FRAME_RATE = 30;
+    private static final long TIMEOUT_US         = 10000;
+
+    private final    String         mPath;
+    private final    MediaExtractor mExtractor;
+    private final    MediaFormat    mFormat;
+    private final    int            mWidth;
+    private final    int            mHeight;
+    private final    int            mFrameRate;
+    private          Surface        mSurface;
+    private          Thread         mDecodeThread;
+    private volatile boolean        mStopped;
+
+    /**
+     * @throws IOException if the file cannot be read or has no video track.
+     */
+    public FileFrameSource(String path) throws IOException {
+        mPath = path;
+        mExtractor = new MediaExtractor();
+        mExtractor.setDataSource(path);
+
+        MediaFormat format = null;
+        for (int i = 0; i < mExtractor.getTrackCount(); i++) {
+            MediaFormat trackFormat = mExtractor.getTrackFormat(i);
+            String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("video/")) {
+                mExtractor.selectTrack(i);
+                format = trackFormat;
+                break;
+            }
+        }
+        if (format == null) {
+            mExtractor.release();
+            throw new IOException("no video track in " + path);
+        }
+        mFormat = format;
+        mWidth = format.getInteger(MediaFormat.KEY_WIDTH);
+        mHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
+        mFrameRate = format.containsKey(MediaFormat.KEY_FRAME_RATE) ? format.getInteger(MediaFormat.KEY_FRAME_RATE)
+                                                                    : DEFAULT_FRAME_RATE;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    @Override
+    public void start(SurfaceTexture surfaceTexture) {
+        surfaceTexture.setDefaultBufferSize(mWidth, mHeight);
+        mSurface = new Surface(surfaceTexture);
+        mDecodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decode();
+            }
+        }, "FileDecodeThread");
+        mDecodeThread.start();
+    }
+
+    @Override
+    public void stop() {
+        mStopped = true;
+        if (mDecodeThread != null) {
+            try {
+                mDecodeThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mDecodeThread = null;
+        } else {
+            mExtractor.release();
+        }
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+    }
+
+    private void decode() {
+        MediaCodec decoder = null;
+        try {
+            decoder = MediaCodec.createDecoderByType(mFormat.getString(MediaFormat.KEY_MIME));
+            decoder.configure(mFormat, mSurface, null, 0);
+            decoder.start();
+            decodeLoop(decoder);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "decode " + mPath + " failed", e);
+        } finally {
+            if (decoder != null) {
+                decoder.release();
+            }
+            mExtractor.release();
+        }
+    }
+
+    private void decodeLoop(MediaCodec decoder) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        // The wall clock time of timestamp 0 of the current loop.
+        long loopStartNs = System.nanoTime();
+        while (!mStopped) {
+            if (!inputDone) {
+                int inputIndex = decoder.dequeueInputBuffer(TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    ByteBuffer inputBuffer = decoder.getInputBuffer(inputIndex);
+                    int size = inputBuffer != null ? mExtractor.readSampleData(inputBuffer, 0) : -1;
+                    if (size < 0) {
+                        decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        decoder.queueInputBuffer(inputIndex, 0, size, mExtractor.getSampleTime(), 0);
+                        mExtractor.advance();
+                    }
+                }
+            }
+
+            int outputIndex = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (outputIndex < 0) {
+                continue;
+            }
+            boolean render = info.size > 0;
+            if (render) {
+                long delayNs = loopStartNs + info.presentationTimeUs * 1000 - System.nanoTime();
+                if (delayNs > 0) {
+                    sleepNs(delayNs);
+                }
+            }
+            decoder.releaseOutputBuffer(outputIndex, render && !mStopped);
+
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                // Start over, the decoder keeps its configuration across a flush.
+                mExtractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                decoder.flush();
+                inputDone = false;
+                loopStartNs = System.nanoTime();
+            }
+        }
+    }
+
+    private static void sleepNs(long ns) {
+        try {
+            Thread.sleep(ns / 1000000, (int) (ns % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.tencent.mlvb.customvideocapture.helper.source;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import com.tencent.mlvb.customvideocapture.helper.CustomFrameRender;
+import com.tencent.mlvb.customvideocapture.helper.render.EglCore;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.OpenGlUtils;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.QuadGeometry;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.TestPatternFilter;
+
+/**
+ * A synthetic source that draws {@link TestPatternFilter} on its own GL thread, for measuring the pipeline without a
+ * camera. Frame n is always the same image and is scheduled at start + n / frameRate, with that time as its
+ * timestamp, so runs are reproducible. A frame that is drawn late does not move the following ones.
+ */
+public class TestPatternFrameSource implements VideoFrameSource {
+    private static final String TAG = "TestPatternFrameSource";
+
+    private static final int MSG_DRAW = 1;
+
+    private final int                         mWidth;
+    private final int                         mHeight;
+    private final int                         mFrameRate;
+    private       HandlerThread               mThread;
+    private       CustomFrameRender.GLHandler mHandler;
+    private       Surface                     mSurface;
+    private       EglCore                     mEglCore;
+    private       TestPatternFilter           mFilter;
+    private       QuadGeometry                mGeometry;
+    private       long                        mStartTimeMs;
+    private       long                        mStartTimeNs;
+    private       long                        mFrameIndex;
+    private       long                        mLateFrameCount;
+
+    public TestPatternFrameSource(int width, int height, int frameRate) {
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    @Override
+    public void start(final SurfaceTexture surfaceTexture) {
+        surfaceTexture.setDefaultBufferSize(mWidth, mHeight);
+        mThread = new HandlerThread("TestPatternThread");
+        mThread.start();
+        mHandler = new CustomFrameRender.GLHandler(mThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what == MSG_DRAW) {
+                    drawFrame();
+                }
+                return false;
+            }
+        });
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSurface = new Surface(surfaceTexture);
+                mEglCore = new EglCore(mSurface);
+                mEglCore.makeCurrent();
+                mFilter = new TestPatternFilter();
+                mFilter.init();
+                mGeometry = new QuadGeometry(OpenGlUtils.CUBE, OpenGlUtils.TEXTURE);
+                mStartTimeMs = SystemClock.uptimeMillis();
+                mStartTimeNs = System.nanoTime();
+                mFrameIndex = 0;
+                mHandler.sendEmptyMessage(MSG_DRAW);
+            }
+        });
+    }
+
+    private void drawFrame() {
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+        mFilter.setFrameIndex(mFrameIndex);
+        mFilter.onDraw(OpenGlUtils.NO_TEXTURE, mGeometry);
+        mEglCore.setPresentationTime(mStartTimeNs + mFrameIndex * 1000000000L / mFrameRate);
+        mEglCore.swapBuffer();
+
+        mFrameIndex++;
+        long nextTimeMs = mStartTimeMs + mFrameIndex * 1000L / mFrameRate;
+        if (nextTimeMs < SystemClock.uptimeMillis()) {
+            mLateFrameCount++;
+        }
+        mHandler.sendEmptyMessageAtTime(MSG_DRAW, nextTimeMs);
+    }
+
+    @Override
+    public void stop() {
+        if (mHandler == null) {
+            return;
+        }
+        mHandler.runAndWaitDone(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeMessages(MSG_DRAW);
+                if (mFilter != null) {
+                    mFilter.destroy();
+                    mFilter = null;
+                }
+                if (mGeometry != null) {
+                    mGeometry.release();
+                    mGeometry = null;
+                }
+                if (mEglCore != null) {
+                    mEglCore.unmakeCurrent();
+                    mEglCore.destroy();
+                    mEglCore = null;
+                }
+                if (mSurface != null) {
+                    mSurface.release();
+                    mSurface = null;
+                }
+                Log.i(TAG, "stop, frames: " + mFrameIndex + ", late: " + mLateFrameCount);
+            }
+        });
+        mThread.quitSafely();
+        mHandler = null;
+        mThread = null;
+    }
+}
@@ -0,0 +1,38 @@
+package com.tencent.mlvb.customvideocapture.helper.source;
+
+import android.graphics.SurfaceTexture;
+
+/**
+ * Where {@link com.tencent.mlvb.customvideocapture.helper.CustomCameraCapture} gets its frames from.
+ * <p>
+ * A source writes its frames into the SurfaceTexture of the capture, which filters them and hands them to the SDK,
+ * so every source goes through the same pipeline and only differs in how the frames are produced.
+ */
+public interface VideoFrameSource {
+    /**
+     * The width of the frames, known before {@link #start}.
+     */
+    int getWidth();
+
+    /**
+     * The height of the frames, known before {@link #start}.
+     */
+    int getHeight();
+
+    /**
+     * The frame rate the source aims for.
+     */
+    int getFrameRate();
+
+    /**
+     * Start writing frames into the SurfaceTexture, called on the GL thread of the capture. The source sets the buffer
+     * size of the SurfaceTexture itself.
+     */
+    void start(SurfaceTexture surfaceTexture);
+
+    /**
+     * Stop writing frames and release the resources of the source. Must be called before the SurfaceTexture is
+     * released, and at most once.
+     */
+    void stop();
+}
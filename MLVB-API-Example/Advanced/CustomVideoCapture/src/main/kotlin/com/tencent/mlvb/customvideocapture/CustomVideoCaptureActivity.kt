@@ -1,7 +1,6 @@
 package com.tencent.mlvb.customvideocapture
 
-import android.annotation.SuppressLint
-import android.opengl.EGLContext
+import android.os.Build
 import android.os.Bundle
 import android.text.TextUtils
 import android.util.Log
@@ -20,7 +19,18 @@ import com.tencent.mlvb.common.MLVBBaseActivity
 import com.tencent.mlvb.common.URLUtils
 import com.tencent.mlvb.customvideocapture.helper.CustomCameraCapture
 import com.tencent.mlvb.customvideocapture.helper.CustomFrameRender
+import com.tencent.mlvb.customvideocapture.helper.CustomFrameSender
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferPool
+import com.tencent.mlvb.customvideocapture.helper.basic.PipelineTracer
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.ProgramCache
+import com.tencent.mlvb.customvideocapture.helper.source.Camera1FrameSource
+import com.tencent.mlvb.customvideocapture.helper.source.Camera2FrameSource
+import com.tencent.mlvb.customvideocapture.helper.source.FileFrameSource
+import com.tencent.mlvb.customvideocapture.helper.source.TestPatternFrameSource
+import com.tencent.mlvb.customvideocapture.helper.source.VideoFrameSource
 import com.tencent.rtmp.ui.TXCloudVideoView
+import java.io.File
+import java.io.IOException
 import java.util.*
 
 /**
@@ -41,6 +51,24 @@ class CustomVideoCaptureActivity : MLVBBaseActivity(), View.OnClickListener {
 
     companion object {
         private val TAG = CustomVideoCaptureActivity::class.java.simpleName
+        private const val PIPELINE_DUMP_INTERVAL_MS = 5000L
+        private const val PROGRAM_CACHE_DIR = "gl_programs"
+
+        /**
+         * Where to capture from: [VIDEO_SOURCE_CAMERA] (default), [VIDEO_SOURCE_CAMERA2], [VIDEO_SOURCE_FILE] with
+         * [EXTRA_VIDEO_FILE], or [VIDEO_SOURCE_PATTERN] to measure the pipeline without a camera, e.g.
+         * `adb shell am start -n <package>/com.tencent.mlvb.customvideocapture.CustomVideoCaptureActivity
+         * --es video_source pattern --ei video_fps 60`.
+         */
+        const val EXTRA_VIDEO_SOURCE = "video_source"
+        const val EXTRA_VIDEO_FILE = "video_file"
+        const val EXTRA_VIDEO_WIDTH = "video_width"
+        const val EXTRA_VIDEO_HEIGHT = "video_height"
+        const val EXTRA_VIDEO_FPS = "video_fps"
+        const val VIDEO_SOURCE_CAMERA = "camera"
+        const val VIDEO_SOURCE_CAMERA2 = "camera2"
+        const val VIDEO_SOURCE_FILE = "file"
+        const val VIDEO_SOURCE_PATTERN = "pattern"
     }
 
     private var mLivePusher: V2TXLivePusher? = null
@@ -48,36 +76,15 @@ class CustomVideoCaptureActivity : MLVBBaseActivity(), View.OnClickListener {
     private lateinit var mButtonPush: Button
     private var mCustomCameraCapture: CustomCameraCapture? = null
     private var mCustomFrameRender: CustomFrameRender? = null
+    private val mPipelineTracer = PipelineTracer()
     private lateinit var mPushRenderView: TXCloudVideoView
     private lateinit var mTextTitle: TextView
 
-    private val mVideoFrameReadListener = object : CustomCameraCapture.VideoFrameReadListener {
-        @SuppressLint("NewApi")
-        override fun onFrameAvailable(eglContext: EGLContext?, textureId: Int, width: Int, height: Int) {
-            val videoFrame = V2TXLiveDef.V2TXLiveVideoFrame().apply {
-                pixelFormat = V2TXLivePixelFormat.V2TXLivePixelFormatTexture2D
-                bufferType = V2TXLiveBufferType.V2TXLiveBufferTypeTexture
-
-                texture = V2TXLiveDef.V2TXLiveTexture().apply {
-                    this.textureId = textureId
-                    eglContext14 = eglContext
-                }
-
-                this.width = width
-                this.height = height
-            }
-
-            mLivePusher?.let { pusher ->
-                if (pusher.isPushing == 1) {
-                    val ret = pusher.sendCustomVideoFrame(videoFrame)
-                    Log.d(TAG, "sendCustomVideoFrame : $ret")
-                }
-            }
-        }
-    }
-
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
+        ProgramCache.getInstance().setDiskCacheDirectory(
+            File(if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) codeCacheDir else cacheDir, PROGRAM_CACHE_DIR)
+        )
         setContentView(R.layout.customvideocaptureactivity_activity_custom_video_capture)
         if (checkPermission()) {
             initView()
@@ -115,13 +122,17 @@ class CustomVideoCaptureActivity : MLVBBaseActivity(), View.OnClickListener {
         }
         mTextTitle.text = streamId
 
-        mCustomCameraCapture = CustomCameraCapture()
+        mCustomCameraCapture = CustomCameraCapture(createVideoFrameSource())
         mCustomFrameRender = CustomFrameRender()
+        mPipelineTracer.reset()
+        mCustomCameraCapture?.setPipelineTracer(mPipelineTracer)
+        mCustomFrameRender?.setPipelineTracer(mPipelineTracer)
 
-        mLivePusher = V2TXLivePusherImpl(this, V2TXLiveDef.V2TXLiveMode.TXLiveMode_RTMP).apply {
+        val livePusher = V2TXLivePusherImpl(this, V2TXLiveDef.V2TXLiveMode.TXLiveMode_RTMP).apply {
             setObserver(mCustomFrameRender)
             enableCustomVideoCapture(true)
         }
+        mLivePusher = livePusher
 
         val userId = Random().nextInt(10000).toString()
         val pushUrl = URLUtils.generatePushUrl(streamId, userId, 1)
@@ -130,7 +141,12 @@ class CustomVideoCaptureActivity : MLVBBaseActivity(), View.OnClickListener {
         mLivePusher?.startMicrophone()
 
         if (ret == 0) {
-            mCustomCameraCapture?.start(mVideoFrameReadListener)
+            mCustomCameraCapture?.start(CustomFrameSender(object : CustomFrameSender.FrameSink {
+                override fun isReady() = livePusher.isPushing == 1
+
+                override fun sendCustomVideoFrame(frame: V2TXLiveDef.V2TXLiveVideoFrame) =
+                    livePusher.sendCustomVideoFrame(frame)
+            }))
 
             mLivePusher?.enableCustomVideoProcess(
                 true,
@@ -140,15 +156,41 @@ class CustomVideoCaptureActivity : MLVBBaseActivity(), View.OnClickListener {
             val textureView = TextureView(this)
             mPushRenderView.addVideoView(textureView)
             mCustomFrameRender?.start(textureView)
+            mPipelineTracer.startPeriodicDump(PIPELINE_DUMP_INTERVAL_MS)
             mButtonPush.setText(R.string.customvideocapture_stop_push)
         }
     }
 
+    private fun createVideoFrameSource(): VideoFrameSource {
+        val width = intent.getIntExtra(EXTRA_VIDEO_WIDTH, CustomCameraCapture.DEFAULT_WIDTH)
+        val height = intent.getIntExtra(EXTRA_VIDEO_HEIGHT, CustomCameraCapture.DEFAULT_HEIGHT)
+        val fps = intent.getIntExtra(EXTRA_VIDEO_FPS, CustomCameraCapture.VIDEO_FPS)
+        val source = intent.getStringExtra(EXTRA_VIDEO_SOURCE) ?: VIDEO_SOURCE_CAMERA
+        Log.i(TAG, "video source: $source, ${width}x$height, $fps fps")
+        val isLollipop = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+        return when {
+            source == VIDEO_SOURCE_PATTERN -> TestPatternFrameSource(width, height, fps)
+            source == VIDEO_SOURCE_CAMERA2 && isLollipop -> Camera2FrameSource(this, width, height, fps)
+            source == VIDEO_SOURCE_FILE && isLollipop -> try {
+                FileFrameSource(intent.getStringExtra(EXTRA_VIDEO_FILE) ?: "")
+            } catch (e: IOException) {
+                Log.e(TAG, "open video file failed, use the camera instead", e)
+                Camera1FrameSource(width, height, fps)
+            }
+            else -> Camera1FrameSource(width, height, fps)
+        }
+    }
+
     override fun onDestroy() {
         super.onDestroy()
         stopPush()
     }
 
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        FrameBufferPool.onTrimMemory(level)
+    }
+
     override fun onBackPressed() {
         finish()
     }
@@ -171,6 +213,7 @@ class CustomVideoCaptureActivity : MLVBBaseActivity(), View.OnClickListener {
     }
 
     private fun stopPush() {
+        mPipelineTracer.stopPeriodicDump()
         mCustomCameraCapture?.stop()
         mCustomFrameRender?.stop()
 
@@ -0,0 +1,54 @@
+package com.tencent.mlvb.customvideocapture.helper;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts the bytes allocated by the calling thread, with the allocation counter of HotSpot. Tests using it are skipped
+ * on JVMs without the counter.
+ */
+public final class AllocationMeter {
+    // Runs before measuring, so that the code is compiled and its lazy allocations are done.
+    private static final int WARM_UP_ITERATIONS = 20000;
+
+    private AllocationMeter() {
+    }
+
+    /**
+     * The bytes allocated by the calling thread while running the task the given number of times, after warming it
+     * up. The cost of reading the counter itself is subtracted.
+     */
+    public static long measure(Runnable task, int iterations) {
+        return measure(task, WARM_UP_ITERATIONS, iterations);
+    }
+
+    /**
+     * @see #measure(Runnable, int)
+     */
+    public static long measure(Runnable task, int warmUpIterations, int iterations) {
+        com.sun.management.ThreadMXBean bean = getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < warmUpIterations; i++) {
+            task.run();
+        }
+
+        long overhead = bean.getThreadAllocatedBytes(threadId);
+        overhead = bean.getThreadAllocatedBytes(threadId) - overhead;
+        long start = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        return bean.getThreadAllocatedBytes(threadId) - start - overhead;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("no allocation counter", bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue("no allocation counter", sunBean.isThreadAllocatedMemorySupported());
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+}
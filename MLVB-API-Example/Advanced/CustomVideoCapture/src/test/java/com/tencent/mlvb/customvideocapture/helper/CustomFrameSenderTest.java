@@ -0,0 +1,163 @@
+package com.tencent.mlvb.customvideocapture.helper;
+
+import com.tencent.live2.V2TXLiveCode;
+import com.tencent.live2.V2TXLiveDef.V2TXLiveBufferType;
+import com.tencent.live2.V2TXLiveDef.V2TXLivePixelFormat;
+import com.tencent.live2.V2TXLiveDef.V2TXLiveVideoFrame;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferPool;
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferRing;
+import com.tencent.mlvb.customvideocapture.helper.render.GpuFence;
+import com.tencent.mlvb.customvideocapture.helper.render.GpuSyncBackend;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs against the stubbed GL of the unit tests, where the fences of the ring fall back to glFinish and are always
+ * signaled.
+ */
+public class CustomFrameSenderTest {
+
+    /**
+     * Records what the pusher would be given.
+     */
+    private static final class FakeSink implements CustomFrameSender.FrameSink {
+        boolean            ready  = true;
+        int                result = V2TXLiveCode.V2TXLIVE_OK;
+        int                sentCount;
+        V2TXLiveVideoFrame lastFrame;
+        int                lastTextureId;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public int sendCustomVideoFrame(V2TXLiveVideoFrame frame) {
+            sentCount++;
+            lastFrame = frame;
+            lastTextureId = frame.texture.textureId;
+            return result;
+        }
+    }
+
+    @Test
+    public void slotIsSentAsATextureAndReleased() {
+        FakeSink sink = new FakeSink();
+        FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 64, 64, 1);
+        FrameBufferRing.Slot slot = publish(ring, 720, 1280);
+
+        new CustomFrameSender(sink).onFrameAvailable(slot);
+
+        assertEquals(1, sink.sentCount);
+        assertEquals(V2TXLivePixelFormat.V2TXLivePixelFormatTexture2D, sink.lastFrame.pixelFormat);
+        assertEquals(V2TXLiveBufferType.V2TXLiveBufferTypeTexture, sink.lastFrame.bufferType);
+        assertEquals(slot.getTextureId(), sink.lastTextureId);
+        assertEquals(720, sink.lastFrame.width);
+        assertEquals(1280, sink.lastFrame.height);
+        assertSame(slot, ring.acquire());
+    }
+
+    @Test
+    public void everyFrameRefillsTheSameObjects() {
+        FakeSink sink = new FakeSink();
+        FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 64, 64, 2);
+        CustomFrameSender sender = new CustomFrameSender(sink);
+
+        sender.onFrameAvailable(publish(ring, 720, 1280));
+        V2TXLiveVideoFrame first = sink.lastFrame;
+        sender.onFrameAvailable(publish(ring, 1280, 720));
+
+        assertSame(first, sink.lastFrame);
+        assertSame(first.texture, sink.lastFrame.texture);
+        assertEquals(1280, sink.lastFrame.width);
+    }
+
+    @Test
+    public void slotIsReleasedWhenNothingIsSent() {
+        FakeSink sink = new FakeSink();
+        FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 64, 64, 1);
+        CustomFrameSender sender = new CustomFrameSender(sink);
+
+        sink.ready = false;
+        sender.onFrameAvailable(publish(ring, 64, 64));
+        assertEquals(0, sink.sentCount);
+
+        sink.ready = true;
+        sink.result = V2TXLiveCode.V2TXLIVE_ERROR_FAILED;
+        sender.onFrameAvailable(publish(ring, 64, 64));
+        assertEquals(1, sink.sentCount);
+        assertEquals(0, ring.getInFlightCount());
+    }
+
+    @Test
+    public void frameNotDrawnInTimeIsDropped() {
+        FakeSink sink = new FakeSink();
+        GpuFence fence = new GpuFence(new GpuSyncBackend() {
+            @Override
+            public boolean isFenceSupported() {
+                return true;
+            }
+
+            @Override
+            public long createFence() {
+                return 1;
+            }
+
+            @Override
+            public void waitFence(long fence) {
+            }
+
+            @Override
+            public boolean clientWaitFence(long fence, long timeoutNs) {
+                return false;
+            }
+
+            @Override
+            public void deleteFence(long fence) {
+            }
+
+            @Override
+            public void finish() {
+            }
+        });
+        fence.insert();
+
+        assertFalse(new CustomFrameSender(sink).send(fence, 1, null, 64, 64));
+        assertEquals(0, sink.sentCount);
+    }
+
+    @Test
+    public void steadyStateSendDoesNotAllocate() {
+        final FakeSink sink = new FakeSink();
+        final FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 1280, 720,
+                FrameBufferRing.DEFAULT_SIZE);
+        final CustomFrameSender sender = new CustomFrameSender(sink);
+        final long[] timestampNs = new long[1];
+
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                FrameBufferRing.Slot slot = ring.acquire();
+                ring.publish(slot, null, 720, 1280, timestampNs[0]++);
+                sender.onFrameAvailable(slot);
+            }
+        }, 10000);
+
+        assertEquals(0, allocated);
+        assertEquals(0, ring.getStallCount());
+        assertEquals(0, ring.getInFlightCount());
+    }
+
+    private static FrameBufferRing.Slot publish(FrameBufferRing ring, int width, int height) {
+        FrameBufferRing.Slot slot = ring.acquire();
+        assertNotNull(slot);
+        ring.publish(slot, null, width, height, 0);
+        return slot;
+    }
+}
@@ -0,0 +1,56 @@
+package com.tencent.mlvb.customvideocapture.helper.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+
+public class PcmPlayerTest {
+    private static final int SAMPLE_RATE = 8000;
+
+    @Test
+    public void overrunLeavesOnlyTheSamplesThatDidNotFit() {
+        PcmPlayer player = new PcmPlayer(SAMPLE_RATE, 2, PcmPlayer.DEFAULT_TARGET_LATENCY_MS);
+        int capacity = 0;
+        short[] chunk = new short[256];
+        while (true) {
+            int written = player.write(chunk, 0, chunk.length);
+            capacity += written;
+            if (written < chunk.length) {
+                break;
+            }
+        }
+        long overrun = player.getOverrunSampleCount();
+        assertEquals(0, capacity % 2);
+
+        ByteBuffer pcm = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+        assertEquals(0, player.write(pcm));
+        assertEquals(0, pcm.position());
+        assertEquals(overrun + 32, player.getOverrunSampleCount());
+    }
+
+    @Test
+    public void partialOverrunOnlySkipsTheQueuedSamples() {
+        int capacity = new PcmPlayer(SAMPLE_RATE, 1, PcmPlayer.DEFAULT_TARGET_LATENCY_MS).write(new short[SAMPLE_RATE],
+                0, SAMPLE_RATE);
+        PcmPlayer player = new PcmPlayer(SAMPLE_RATE, 1, PcmPlayer.DEFAULT_TARGET_LATENCY_MS);
+        player.write(new short[capacity - 3], 0, capacity - 3);
+        ByteBuffer pcm = ByteBuffer.allocate(20).order(ByteOrder.nativeOrder());
+
+        assertEquals(3, player.write(pcm));
+        assertEquals(6, pcm.position());
+        assertEquals(7, player.getOverrunSampleCount());
+    }
+
+    @Test
+    public void writeAdvancesPastTheQueuedSamples() {
+        PcmPlayer player = new PcmPlayer(SAMPLE_RATE, 1, PcmPlayer.DEFAULT_TARGET_LATENCY_MS);
+        ByteBuffer pcm = ByteBuffer.allocate(10).order(ByteOrder.nativeOrder());
+
+        assertEquals(5, player.write(pcm));
+        assertEquals(10, pcm.position());
+        assertEquals(0, player.getOverrunSampleCount());
+    }
+}
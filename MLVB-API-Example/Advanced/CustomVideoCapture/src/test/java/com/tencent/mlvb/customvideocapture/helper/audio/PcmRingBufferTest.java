@@ -0,0 +1,100 @@
+package com.tencent.mlvb.customvideocapture.helper.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new PcmRingBuffer(5, 1).capacity());
+        assertEquals(8, new PcmRingBuffer(8, 1).capacity());
+        assertEquals(1024, new PcmRingBuffer(1000, 2).capacity());
+    }
+
+    @Test
+    public void samplesWrapAroundTheEnd() {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 1);
+        short[] out = new short[8];
+        ring.write(new short[]{1, 2, 3, 4, 5, 6}, 0, 6);
+        assertEquals(6, ring.read(out, 0, 6));
+
+        assertEquals(5, ring.write(new short[]{7, 8, 9, 10, 11}, 0, 5));
+        assertEquals(5, ring.available());
+        assertEquals(5, ring.read(out, 1, 8));
+        assertArrayEquals(new short[]{1, 7, 8, 9, 10, 11, 0, 0}, out);
+        assertEquals(0, ring.available());
+    }
+
+    @Test
+    public void fullBufferWritesWholeFramesOnly() {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 2);
+        assertEquals(6, ring.write(new short[6], 0, 6));
+
+        assertEquals(2, ring.write(new short[]{1, 2, 3, 4}, 0, 4));
+        assertEquals(0, ring.write(new short[]{5, 6}, 0, 2));
+        assertEquals(8, ring.available());
+
+        // Room for one sample of the next frame is not enough.
+        PcmRingBuffer odd = new PcmRingBuffer(8, 3);
+        assertEquals(6, odd.write(new short[8], 0, 8));
+        assertEquals(0, odd.write(new short[3], 0, 3));
+    }
+
+    @Test
+    public void partialFramesAreNotWrittenOrRead() {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 2);
+        assertEquals(2, ring.write(new short[]{1, 2, 3}, 0, 3));
+
+        short[] out = new short[3];
+        assertEquals(0, ring.read(out, 0, 1));
+        assertEquals(2, ring.read(out, 0, 3));
+        assertArrayEquals(new short[]{1, 2, 0}, out);
+    }
+
+    @Test
+    public void skipAndClearDiscardTheOldestSamples() {
+        PcmRingBuffer ring = new PcmRingBuffer(8, 2);
+        ring.write(new short[]{1, 2, 3, 4, 5, 6}, 0, 6);
+
+        assertEquals(2, ring.skip(3));
+        short[] out = new short[2];
+        ring.read(out, 0, 2);
+        assertArrayEquals(new short[]{3, 4}, out);
+
+        ring.clear();
+        assertEquals(0, ring.available());
+        assertEquals(0, ring.skip(2));
+    }
+
+    @Test
+    public void byteBufferWriteAdvancesThePosition() {
+        PcmRingBuffer ring = new PcmRingBuffer(4, 2);
+        ByteBuffer src = ByteBuffer.allocateDirect(12).order(ByteOrder.LITTLE_ENDIAN);
+        for (short i = 1; i <= 6; i++) {
+            src.putShort(i);
+        }
+        src.flip();
+
+        assertEquals(4, ring.write(src));
+        assertEquals(8, src.position());
+        assertEquals(0, ring.write(src));
+        assertEquals(8, src.position());
+
+        short[] out = new short[4];
+        ring.read(out, 0, 4);
+        assertArrayEquals(new short[]{1, 2, 3, 4}, out);
+        assertEquals(2, ring.write(src));
+        assertEquals(12, src.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroChannels() {
+        new PcmRingBuffer(8, 0);
+    }
+}
@@ -0,0 +1,122 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FpsGovernorTest {
+    private static final int  SOURCE_FPS  = 30;
+    private static final long INTERVAL_NS = 1000000000L / SOURCE_FPS;
+    private static final long MS          = 1000000L;
+
+    /**
+     * A source at {@link #SOURCE_FPS} feeding a consumer that takes a fixed time per frame. Frames arriving while the
+     * consumer is busy wait in the queue, as in the SurfaceTexture of the capture.
+     */
+    private static class Simulation {
+        final FpsGovernor governor = new FpsGovernor(SOURCE_FPS, SOURCE_FPS / 2);
+        long              busyUntilNs;
+        int               frame;
+        int               processed;
+
+        /**
+         * Run the given number of source frames, and return how many were processed.
+         */
+        int run(int frames, long workNs) {
+            int processedBefore = processed;
+            for (int end = frame + frames; frame < end; frame++) {
+                long timestampNs = frame * INTERVAL_NS;
+                if (!governor.shouldProcess(timestampNs)) {
+                    continue;
+                }
+                long startNs = Math.max(timestampNs, busyUntilNs);
+                busyUntilNs = startNs + workNs;
+                int queuedFrames = (int) ((busyUntilNs - timestampNs) / INTERVAL_NS);
+                governor.onFrameProcessed(workNs, queuedFrames);
+                processed++;
+            }
+            return processed - processedBefore;
+        }
+    }
+
+    @Test
+    public void fastConsumerKeepsTheSourceRate() {
+        Simulation simulation = new Simulation();
+
+        assertEquals(300, simulation.run(300, 10 * MS));
+
+        assertEquals(SOURCE_FPS, simulation.governor.getFrameRate());
+        assertEquals(0, simulation.governor.getRateChanges());
+        assertEquals(0, simulation.governor.getSkippedFrames());
+    }
+
+    @Test
+    public void slowConsumerLowersTheRateToTheMinimum() {
+        Simulation simulation = new Simulation();
+
+        simulation.run(300, 50 * MS);
+
+        assertEquals(SOURCE_FPS / 2, simulation.governor.getFrameRate());
+        // At the minimum, about every other frame of the source is skipped.
+        int processed = simulation.run(300, 50 * MS);
+        assertTrue("processed " + processed, processed >= 145 && processed <= 155);
+    }
+
+    @Test
+    public void rateRecoversOnlyAfterASustainedRunOfHeadroom() {
+        Simulation simulation = new Simulation();
+        simulation.run(300, 50 * MS);
+        int lowered = simulation.governor.getFrameRate();
+
+        // One second of light work is not enough to raise the rate.
+        simulation.run(SOURCE_FPS, 5 * MS);
+        assertEquals(lowered, simulation.governor.getFrameRate());
+
+        simulation.run(20 * SOURCE_FPS, 5 * MS);
+        assertEquals(SOURCE_FPS, simulation.governor.getFrameRate());
+    }
+
+    @Test
+    public void shortSpikeDoesNotLowerTheRate() {
+        Simulation simulation = new Simulation();
+        simulation.run(60, 10 * MS);
+
+        // Two slow frames in a row are fewer than it takes to lower the rate.
+        simulation.run(2, 40 * MS);
+        simulation.run(60, 10 * MS);
+
+        assertEquals(SOURCE_FPS, simulation.governor.getFrameRate());
+        assertEquals(0, simulation.governor.getRateChanges());
+    }
+
+    @Test
+    public void rateDoesNotOscillateUnderSteadyLoad() {
+        Simulation simulation = new Simulation();
+        // Too slow for the source rate, fast enough for the steps below it.
+        simulation.run(300, 30 * MS);
+        int rateChanges = simulation.governor.getRateChanges();
+        int frameRate = simulation.governor.getFrameRate();
+        assertTrue(frameRate < SOURCE_FPS);
+
+        simulation.run(3000, 30 * MS);
+
+        assertEquals(frameRate, simulation.governor.getFrameRate());
+        assertEquals(rateChanges, simulation.governor.getRateChanges());
+    }
+
+    @Test
+    public void backPressureLowersTheRate() {
+        FpsGovernor governor = new FpsGovernor(SOURCE_FPS, 10);
+        for (int i = 0; i < 5; i++) {
+            governor.onBackPressure();
+        }
+
+        assertTrue(governor.getFrameRate() < SOURCE_FPS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void minimumAboveMaximumIsRejected() {
+        new FpsGovernor(15, 30);
+    }
+}
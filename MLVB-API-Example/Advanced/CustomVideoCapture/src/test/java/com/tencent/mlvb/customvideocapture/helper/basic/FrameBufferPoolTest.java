@@ -0,0 +1,136 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import android.content.ComponentCallbacks2;
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs against the stubbed GL of the unit tests, so it checks which frame buffers are reused and kept, by identity.
+ */
+public class FrameBufferPoolTest {
+    // A 64x64 RGBA frame buffer.
+    private static final long FRAME_BYTES = 64 * 64 * 4;
+
+    @Test
+    public void releasedFrameBufferIsReusedForTheSameSizeAndFormat() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBuffer frameBuffer = pool.obtain(64, 64);
+        frameBuffer.release();
+        assertEquals(FRAME_BYTES, pool.getIdleBytes());
+
+        assertNotSame(frameBuffer, pool.obtain(32, 64));
+        assertNotSame(frameBuffer, pool.obtain(64, 64, GLES20.GL_LUMINANCE));
+        assertSame(frameBuffer, pool.obtain(64, 64, GLES20.GL_RGBA));
+        assertEquals(0, pool.getIdleBytes());
+        assertEquals(3, pool.getInUseCount());
+    }
+
+    @Test
+    public void frameBufferStaysInUseUntilTheLastReference() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBuffer frameBuffer = pool.obtain(64, 64).retain();
+
+        frameBuffer.release();
+        assertEquals(1, pool.getInUseCount());
+        assertEquals(0, pool.getIdleBytes());
+        frameBuffer.release();
+        assertEquals(0, pool.getInUseCount());
+        assertEquals(FRAME_BYTES, pool.getIdleBytes());
+    }
+
+    @Test
+    public void leastRecentlyReleasedIsDeletedBeyondTheBudget() {
+        FrameBufferPool pool = new FrameBufferPool(2 * FRAME_BYTES);
+        FrameBuffer first = pool.obtain(64, 64);
+        FrameBuffer second = pool.obtain(64, 64);
+        FrameBuffer third = pool.obtain(64, 64);
+        first.release();
+        second.release();
+        third.release();
+
+        assertEquals(2 * FRAME_BYTES, pool.getIdleBytes());
+        // The most recently released first, the first one is gone.
+        assertSame(third, pool.obtain(64, 64));
+        assertSame(second, pool.obtain(64, 64));
+        assertNotSame(first, pool.obtain(64, 64));
+    }
+
+    @Test
+    public void moderateTrimKeepsHalfOfTheBudget() {
+        FrameBufferPool pool = new FrameBufferPool(4 * FRAME_BYTES);
+        releaseAll(pool, 4);
+
+        FrameBufferPool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(4 * FRAME_BYTES, pool.getIdleBytes());
+        pool.applyPendingTrim();
+
+        assertEquals(2 * FRAME_BYTES, pool.getIdleBytes());
+    }
+
+    @Test
+    public void lowMemoryTrimDeletesEveryIdleFrameBuffer() {
+        FrameBufferPool pool = new FrameBufferPool(4 * FRAME_BYTES);
+        releaseAll(pool, 4);
+        FrameBuffer inUse = pool.obtain(64, 64);
+
+        FrameBufferPool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        FrameBufferPool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        // Applied on the next use of the pool, the frame buffer in use is not affected.
+        inUse.release();
+
+        assertEquals(0, pool.getIdleBytes());
+        assertEquals(0, pool.getInUseCount());
+    }
+
+    @Test
+    public void clearedPoolDeletesFrameBuffersOnRelease() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBuffer frameBuffer = pool.obtain(64, 64);
+        pool.obtain(64, 64).release();
+
+        pool.clear();
+        assertEquals(0, pool.getIdleBytes());
+        frameBuffer.release();
+
+        assertEquals(0, pool.getIdleBytes());
+        assertEquals(0, pool.getInUseCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void obtainFromAClearedPoolFails() {
+        FrameBufferPool pool = new FrameBufferPool();
+        pool.clear();
+        pool.obtain(64, 64);
+    }
+
+    @Test
+    public void releasingAnUnreferencedFrameBufferDoesNothing() {
+        FrameBufferPool pool = new FrameBufferPool();
+        FrameBuffer pooled = pool.obtain(64, 64);
+        pooled.release();
+        FrameBuffer unpooled = new FrameBuffer(64, 64);
+        unpooled.initialize();
+
+        unpooled.release();
+        pooled.release();
+
+        assertEquals(FRAME_BYTES, pool.getIdleBytes());
+        assertEquals(0, pool.getInUseCount());
+        assertSame(pooled, pool.obtain(64, 64));
+    }
+
+    private static void releaseAll(FrameBufferPool pool, int count) {
+        FrameBuffer[] frameBuffers = new FrameBuffer[count];
+        for (int i = 0; i < count; i++) {
+            frameBuffers[i] = pool.obtain(64, 64);
+        }
+        for (FrameBuffer frameBuffer : frameBuffers) {
+            frameBuffer.release();
+        }
+    }
+}
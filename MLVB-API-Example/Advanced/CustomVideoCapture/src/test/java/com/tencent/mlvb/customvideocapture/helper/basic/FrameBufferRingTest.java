@@ -0,0 +1,98 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import com.tencent.mlvb.customvideocapture.helper.AllocationMeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs against the stubbed GL of the unit tests, so it checks the ownership of the slots, not their contents.
+ */
+public class FrameBufferRingTest {
+
+    @Test
+    public void acquireReturnsNullWhileTheConsumerHoldsEverySlot() {
+        FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 64, 64, 2);
+        FrameBufferRing.Slot first = publish(ring, 1);
+        FrameBufferRing.Slot second = publish(ring, 2);
+        assertNotSame(first, second);
+
+        assertNull(ring.acquire());
+        assertEquals(1, ring.getStallCount());
+        assertEquals(2, ring.getInFlightCount());
+
+        first.release();
+        assertSame(first, ring.acquire());
+    }
+
+    @Test
+    public void slotIsFreeOnlyAfterTheLastReference() {
+        FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 64, 64, 1);
+        FrameBufferRing.Slot slot = publish(ring, 1);
+        slot.retain();
+
+        slot.release();
+        assertNull(ring.acquire());
+        slot.release();
+        assertEquals(0, ring.getInFlightCount());
+        assertSame(slot, ring.acquire());
+    }
+
+    @Test
+    public void cancelledSlotCanBeAcquiredAgain() {
+        FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 64, 64, 1);
+        FrameBufferRing.Slot slot = ring.acquire();
+        assertNotNull(slot);
+
+        ring.cancel(slot);
+
+        assertSame(slot, ring.acquire());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void retainingAFreeSlotFails() {
+        FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 64, 64, 1);
+        FrameBufferRing.Slot slot = publish(ring, 1);
+        slot.release();
+
+        slot.retain();
+    }
+
+    /**
+     * The cycle of every captured frame: draw into a slot, publish it, and have the consumer, which sends it to the
+     * pusher, release it.
+     */
+    @Test
+    public void steadyStateFrameCycleDoesNotAllocate() {
+        final FrameBufferRing ring = new FrameBufferRing(new FrameBufferPool(), 1280, 720,
+                FrameBufferRing.DEFAULT_SIZE);
+        final long[] timestampNs = new long[1];
+
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                FrameBufferRing.Slot slot = ring.acquire();
+                ring.publish(slot, null, 720, 1280, timestampNs[0]++);
+                // Passed on with a reference of its own, as when the pacer sends a frame again.
+                slot.retain().release();
+                slot.release();
+            }
+        }, 10000);
+
+        assertEquals(0, allocated);
+        assertEquals(0, ring.getStallCount());
+    }
+
+    private static FrameBufferRing.Slot publish(FrameBufferRing ring, long timestampNs) {
+        FrameBufferRing.Slot slot = ring.acquire();
+        assertNotNull(slot);
+        ring.publish(slot, null, 64, 64, timestampNs);
+        assertEquals(timestampNs, slot.getTimestampNs());
+        return slot;
+    }
+}
@@ -0,0 +1,117 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameMailboxTest {
+
+    private static class RecordingListener implements FrameMailbox.DropListener<Integer> {
+        final List<Integer> dropped = new ArrayList<>();
+
+        @Override
+        public void onFrameDropped(Integer frame) {
+            dropped.add(frame);
+        }
+    }
+
+    @Test
+    public void latestFrameWinsByDefault() {
+        FrameMailbox<Integer> mailbox = new FrameMailbox<>();
+        RecordingListener listener = new RecordingListener();
+        mailbox.setDropListener(listener);
+
+        assertTrue(mailbox.offer(1));
+        assertFalse(mailbox.offer(2));
+        assertFalse(mailbox.offer(3));
+
+        assertEquals(3, (int) mailbox.poll());
+        assertNull(mailbox.poll());
+        assertEquals(2, listener.dropped.size());
+        assertEquals(1, (int) listener.dropped.get(0));
+        assertEquals(2, (int) listener.dropped.get(1));
+        assertEquals(3, mailbox.getOfferedCount());
+        assertEquals(2, mailbox.getDroppedCount());
+        assertEquals(1, mailbox.getTakenCount());
+    }
+
+    @Test
+    public void dropNewestKeepsTheQueuedFrames() {
+        FrameMailbox<Integer> mailbox = new FrameMailbox<>(2, FrameMailbox.Policy.DROP_NEWEST, 0);
+        RecordingListener listener = new RecordingListener();
+        mailbox.setDropListener(listener);
+
+        mailbox.offer(1);
+        mailbox.offer(2);
+        mailbox.offer(3);
+
+        assertEquals(1, (int) mailbox.poll());
+        assertEquals(2, (int) mailbox.poll());
+        assertEquals(1, listener.dropped.size());
+        assertEquals(3, (int) listener.dropped.get(0));
+    }
+
+    @Test
+    public void blockedProducerDropsTheFrameOnTimeout() {
+        FrameMailbox<Integer> mailbox = new FrameMailbox<>(1, FrameMailbox.Policy.BLOCK_WITH_TIMEOUT, 10);
+        RecordingListener listener = new RecordingListener();
+        mailbox.setDropListener(listener);
+        mailbox.offer(1);
+
+        assertFalse(mailbox.offer(2));
+
+        assertEquals(1, mailbox.size());
+        assertEquals(2, (int) listener.dropped.get(0));
+    }
+
+    @Test
+    public void blockedProducerResumesWhenTheConsumerTakesAFrame() throws InterruptedException {
+        final FrameMailbox<Integer> mailbox = new FrameMailbox<>(1, FrameMailbox.Policy.BLOCK_WITH_TIMEOUT, 5000);
+        mailbox.offer(1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mailbox.poll();
+            }
+        });
+        consumer.start();
+
+        // The consumer emptied the mailbox while the producer waited, so it must be notified again.
+        assertTrue(mailbox.offer(2));
+        consumer.join();
+
+        assertEquals(2, (int) mailbox.poll());
+        assertEquals(0, mailbox.getDroppedCount());
+    }
+
+    @Test
+    public void clearDropsEveryQueuedFrame() {
+        FrameMailbox<Integer> mailbox = new FrameMailbox<>(3, FrameMailbox.Policy.DROP_OLDEST, 0);
+        RecordingListener listener = new RecordingListener();
+        mailbox.setDropListener(listener);
+        mailbox.offer(1);
+        mailbox.offer(2);
+
+        mailbox.clear();
+
+        assertTrue(mailbox.isEmpty());
+        assertEquals(2, listener.dropped.size());
+        assertEquals(2, mailbox.getDroppedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new FrameMailbox<Integer>(0, FrameMailbox.Policy.DROP_OLDEST, 0);
+    }
+}
@@ -0,0 +1,115 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FramePacerTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void lateTicksStayOnTheGrid() {
+        FramePacer pacer = new FramePacer(25);
+        pacer.start(0);
+        assertEquals(40 * MS, pacer.getNextTickNs());
+
+        // 10ms late, the next tick is still on the grid.
+        assertEquals(80 * MS, pacer.onTick(50 * MS));
+        assertEquals(120 * MS, pacer.onTick(80 * MS));
+    }
+
+    @Test
+    public void veryLateTicksRestartTheGrid() {
+        FramePacer pacer = new FramePacer(25);
+        pacer.start(0);
+
+        // Due at 40ms, the ticks at 80ms and 120ms are missed.
+        assertEquals(170 * MS, pacer.onTick(130 * MS));
+
+        FramePacer.Snapshot snapshot = new FramePacer.Snapshot();
+        pacer.getSnapshot(snapshot);
+        assertEquals(2, snapshot.skippedTicks);
+    }
+
+    @Test
+    public void jitteredSourceIsSentAtTheTargetRate() {
+        FramePacer pacer = new FramePacer(30);
+        Random random = new Random(7);
+        long interval = pacer.getIntervalNs();
+        pacer.start(0);
+
+        // A source at about 30fps whose frames arrive up to 12ms early or late, and ticks that fire up to 1ms late.
+        long nextSourceNs = interval + (random.nextInt(24) - 12) * MS;
+        int sourceIndex = 1;
+        boolean hasFrame = false;
+        boolean newFrame = false;
+        for (int tick = 0; tick < 3000; tick++) {
+            long tickNs = pacer.getNextTickNs();
+            while (nextSourceNs <= tickNs) {
+                if (newFrame) {
+                    pacer.onFrameDropped();
+                }
+                hasFrame = true;
+                newFrame = true;
+                sourceIndex++;
+                nextSourceNs = sourceIndex * interval + (random.nextInt(24) - 12) * MS;
+            }
+            long nowNs = tickNs + random.nextInt(1000) * 1000L;
+            if (hasFrame) {
+                pacer.onFrameSent(nowNs, !newFrame);
+                newFrame = false;
+            }
+            pacer.onTick(nowNs);
+        }
+
+        FramePacer.Snapshot snapshot = new FramePacer.Snapshot();
+        pacer.getSnapshot(snapshot);
+        assertEquals(3000, snapshot.sent);
+        assertEquals(0, snapshot.skippedTicks);
+        assertEquals(30, snapshot.fps, 0.1f);
+        assertTrue("max deviation " + snapshot.maxDeviationUs, snapshot.maxDeviationUs <= 1100);
+        // The jitter is absorbed by dropping and duplicating, about as many of each.
+        assertTrue(snapshot.dropped > 0);
+        assertTrue(snapshot.duplicated > 0);
+        assertEquals(snapshot.dropped, snapshot.duplicated, 2);
+    }
+
+    @Test
+    public void slowSourceIsFilledUp() {
+        FramePacer pacer = new FramePacer(30);
+        pacer.start(0);
+
+        // A 15fps source, every other tick sends the previous frame again.
+        for (int tick = 0; tick < 60; tick++) {
+            long nowNs = pacer.getNextTickNs();
+            pacer.onFrameSent(nowNs, tick % 2 == 1);
+            pacer.onTick(nowNs);
+        }
+
+        FramePacer.Snapshot snapshot = new FramePacer.Snapshot();
+        pacer.getSnapshot(snapshot);
+        assertEquals(60, snapshot.sent);
+        assertEquals(30, snapshot.duplicated);
+        assertEquals(0, snapshot.dropped);
+        assertEquals(30, snapshot.fps, 0.1f);
+        assertEquals(0, snapshot.maxDeviationUs);
+    }
+
+    @Test
+    public void emptySnapshot() {
+        FramePacer pacer = new FramePacer(30);
+        FramePacer.Snapshot snapshot = new FramePacer.Snapshot();
+        pacer.getSnapshot(snapshot);
+
+        assertEquals(0, snapshot.sent);
+        assertEquals(0, snapshot.fps, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroFrameRate() {
+        new FramePacer(0);
+    }
+}
@@ -0,0 +1,62 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.PipelineTracer.Snapshot;
+import com.tencent.mlvb.customvideocapture.helper.basic.PipelineTracer.Stage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineTracerTest {
+
+    @Test
+    public void snapshotsKeepTheirOwnRateBaseline() throws InterruptedException {
+        PipelineTracer tracer = new PipelineTracer();
+        Snapshot first = new Snapshot();
+        Snapshot second = new Snapshot();
+        tracer.getSnapshot(Stage.SEND, first);
+        tracer.getSnapshot(Stage.SEND, second);
+        assertEquals(0, first.fps, 0);
+
+        for (int i = 0; i < 10; i++) {
+            tracer.record(Stage.SEND, 1000000);
+        }
+        Thread.sleep(5);
+        tracer.getSnapshot(Stage.SEND, first);
+        tracer.getSnapshot(Stage.SEND, second);
+
+        assertEquals(10, first.count);
+        assertTrue(first.fps > 0);
+        assertTrue(second.fps > 0);
+    }
+
+    @Test
+    public void snapshotOfAnotherStageHasNoRate() throws InterruptedException {
+        PipelineTracer tracer = new PipelineTracer();
+        Snapshot snapshot = new Snapshot();
+        tracer.getSnapshot(Stage.SEND, snapshot);
+        tracer.record(Stage.CAPTURE_DRAW, 1000000);
+        Thread.sleep(5);
+
+        tracer.getSnapshot(Stage.CAPTURE_DRAW, snapshot);
+
+        assertEquals(1, snapshot.count);
+        assertEquals(0, snapshot.fps, 0);
+    }
+
+    @Test
+    public void resetDoesNotReportNegativeRates() throws InterruptedException {
+        PipelineTracer tracer = new PipelineTracer();
+        Snapshot snapshot = new Snapshot();
+        tracer.record(Stage.SEND, 1000000);
+        tracer.getSnapshot(Stage.SEND, snapshot);
+
+        tracer.reset();
+        Thread.sleep(5);
+        tracer.getSnapshot(Stage.SEND, snapshot);
+
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.fps, 0);
+    }
+}
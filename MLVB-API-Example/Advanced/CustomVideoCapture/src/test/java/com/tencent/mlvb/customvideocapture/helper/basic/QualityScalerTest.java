@@ -0,0 +1,90 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QualityScalerTest {
+    private static final long BUDGET_NS = 16000000L;
+
+    /**
+     * Report a number of windows of frames whose GPU time is a fixed part plus a part proportional to the pixels of
+     * the current scale.
+     *
+     * @return The number of scale changes.
+     */
+    private static int run(QualityScaler scaler, int windows, long fixedNs, long fullScaleNs) {
+        int changes = 0;
+        for (int i = 0; i < windows * QualityScaler.WINDOW_FRAMES; i++) {
+            float scale = scaler.getScale();
+            if (scaler.onFrameTime(fixedNs + (long) (fullScaleNs * scale * scale))) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    @Test
+    public void lightChainStaysAtFullScale() {
+        QualityScaler scaler = new QualityScaler(BUDGET_NS);
+
+        assertEquals(0, run(scaler, 20, 1000000L, 8000000L));
+
+        assertEquals(1.0f, scaler.getScale(), 0);
+        assertEquals(9000000L, scaler.getMeanFrameTimeNs());
+    }
+
+    @Test
+    public void heavyChainStepsDownUntilItFits() {
+        QualityScaler scaler = new QualityScaler(BUDGET_NS);
+
+        // 28ms at full scale, 16.6ms at 0.75 and 8.5ms at 0.5.
+        run(scaler, 20, 2000000L, 26000000L);
+
+        assertEquals(0.5f, scaler.getScale(), 0);
+        assertEquals(2, scaler.getScaleChanges());
+    }
+
+    @Test
+    public void scaleDoesNotOscillateNearTheBudget() {
+        QualityScaler scaler = new QualityScaler(BUDGET_NS);
+
+        // Just over the budget at full scale, comfortably within it at 0.75, but not enough to go back up.
+        run(scaler, 5, 0, 15000000L);
+        assertEquals(0.75f, scaler.getScale(), 0);
+
+        assertEquals(0, run(scaler, 100, 0, 15000000L));
+        assertEquals(0.75f, scaler.getScale(), 0);
+    }
+
+    @Test
+    public void scaleRecoversAfterSeveralWindowsOfHeadroom() {
+        QualityScaler scaler = new QualityScaler(BUDGET_NS);
+        run(scaler, 5, 2000000L, 26000000L);
+        assertEquals(0.5f, scaler.getScale(), 0);
+
+        // Two windows of headroom are not enough to raise the scale.
+        run(scaler, 2, 1000000L, 4000000L);
+        assertEquals(0.5f, scaler.getScale(), 0);
+
+        run(scaler, 10, 1000000L, 4000000L);
+        assertEquals(1.0f, scaler.getScale(), 0);
+    }
+
+    @Test
+    public void scaleChangesOnlyAtTheEndOfAWindow() {
+        QualityScaler scaler = new QualityScaler(BUDGET_NS);
+        for (int i = 0; i < QualityScaler.WINDOW_FRAMES - 1; i++) {
+            assertFalse(scaler.onFrameTime(BUDGET_NS * 2));
+        }
+        assertTrue(scaler.onFrameTime(BUDGET_NS * 2));
+        assertEquals(0.75f, scaler.getScale(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void budgetMustBePositive() {
+        new QualityScaler(0);
+    }
+}
@@ -0,0 +1,111 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import com.tencent.mlvb.customvideocapture.helper.AllocationMeter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskQueueTest {
+
+    @Test
+    public void tasksRunInTheOrderTheyWerePosted() {
+        TaskQueue queue = new TaskQueue();
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final int index = i;
+            queue.post(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                }
+            });
+        }
+        assertFalse(queue.isEmpty());
+
+        queue.runAll();
+
+        assertEquals(5, order.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void taskPostedWhileRunningWaitsForTheNextRun() {
+        final TaskQueue queue = new TaskQueue();
+        final int[] runs = new int[1];
+        queue.post(new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+                queue.post(this);
+            }
+        });
+
+        queue.runAll();
+        assertEquals(1, runs[0]);
+        assertFalse(queue.isEmpty());
+        queue.runAll();
+        assertEquals(2, runs[0]);
+    }
+
+    @Test
+    public void everyTaskOfConcurrentProducersRunsOnce() throws InterruptedException {
+        final TaskQueue queue = new TaskQueue();
+        final int producerCount = 4;
+        final int tasksPerProducer = 10000;
+        final AtomicIntegerArray runs = new AtomicIntegerArray(producerCount * tasksPerProducer);
+        final CountDownLatch done = new CountDownLatch(producerCount);
+        for (int p = 0; p < producerCount; p++) {
+            final int producer = p;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < tasksPerProducer; i++) {
+                        final int index = producer * tasksPerProducer + i;
+                        queue.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                runs.incrementAndGet(index);
+                            }
+                        });
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        // Drain while the producers post, as the GL thread would.
+        while (done.getCount() > 0) {
+            queue.runAll();
+        }
+        done.await();
+        queue.runAll();
+
+        for (int i = 0; i < runs.length(); i++) {
+            assertEquals("task " + i, 1, runs.get(i));
+        }
+    }
+
+    @Test
+    public void runningAnEmptyQueueDoesNotAllocate() {
+        final TaskQueue queue = new TaskQueue();
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                queue.runAll();
+            }
+        }, 100000);
+
+        assertEquals(0, allocated);
+    }
+}
@@ -0,0 +1,99 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class YuvPlaneLayoutTest {
+
+    @Test
+    public void packedI420() {
+        YuvPlaneLayout layout = new YuvPlaneLayout();
+        assertTrue(layout.updateI420(640, 360));
+
+        assertEquals(320, layout.chromaWidth);
+        assertEquals(180, layout.chromaHeight);
+        assertEquals(1, layout.chromaPixelStride);
+        assertEquals(0, layout.yOffset);
+        assertEquals(640 * 360, layout.uOffset);
+        assertEquals(640 * 360 + 320 * 180, layout.vOffset);
+        assertEquals(640 * 360 * 3 / 2, layout.frameSize);
+        assertEquals(640 * 360, layout.getYSize());
+        assertEquals(320 * 180 * 2, layout.getChromaSize());
+        assertTrue(layout.isTightlyPacked());
+    }
+
+    @Test
+    public void oddSizeRoundsChromaUp() {
+        YuvPlaneLayout layout = new YuvPlaneLayout();
+        layout.updateI420(5, 3);
+
+        assertEquals(3, layout.chromaWidth);
+        assertEquals(2, layout.chromaHeight);
+        assertEquals(15, layout.uOffset);
+        assertEquals(21, layout.vOffset);
+        assertEquals(27, layout.frameSize);
+    }
+
+    @Test
+    public void paddedI420() {
+        YuvPlaneLayout layout = new YuvPlaneLayout();
+        layout.updateI420(100, 50, 128, 64);
+
+        assertEquals(128, layout.yStride);
+        assertEquals(64, layout.uStride);
+        assertEquals(64, layout.vStride);
+        assertEquals(128 * 50, layout.uOffset);
+        assertEquals(128 * 50 + 64 * 25, layout.vOffset);
+        assertEquals(128 * 50 + 64 * 25 * 2, layout.frameSize);
+        assertFalse(layout.isTightlyPacked());
+    }
+
+    @Test
+    public void semiPlanarInterleavesChroma() {
+        YuvPlaneLayout nv12 = new YuvPlaneLayout();
+        nv12.update(YuvFormat.NV12, 6, 4);
+        assertEquals(2, nv12.chromaPixelStride);
+        assertEquals(6, nv12.uStride);
+        assertEquals(24, nv12.uOffset);
+        assertEquals(25, nv12.vOffset);
+        assertEquals(24, nv12.getChromaOffset());
+        assertEquals(36, nv12.frameSize);
+        assertTrue(nv12.isTightlyPacked());
+
+        YuvPlaneLayout nv21 = new YuvPlaneLayout();
+        nv21.update(YuvFormat.NV21, 6, 4, 8, 8);
+        assertEquals(33, nv21.uOffset);
+        assertEquals(32, nv21.vOffset);
+        assertEquals(32, nv21.getChromaOffset());
+        assertEquals(48, nv21.frameSize);
+        assertEquals(16, nv21.getChromaSize());
+        assertFalse(nv21.isTightlyPacked());
+    }
+
+    @Test
+    public void unchangedLayoutIsNotRecalculated() {
+        YuvPlaneLayout layout = new YuvPlaneLayout();
+        assertTrue(layout.updateI420(320, 240));
+        assertFalse(layout.updateI420(320, 240));
+        assertTrue(layout.update(YuvFormat.NV21, 320, 240));
+        assertTrue(layout.updateI420(320, 240, 384, 192));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void strideSmallerThanWidthIsRejected() {
+        new YuvPlaneLayout().updateI420(100, 50, 99, 50);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddInterleavedStrideIsRejected() {
+        new YuvPlaneLayout().update(YuvFormat.NV12, 6, 4, 6, 7);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptySizeIsRejected() {
+        new YuvPlaneLayout().updateI420(0, 4);
+    }
+}
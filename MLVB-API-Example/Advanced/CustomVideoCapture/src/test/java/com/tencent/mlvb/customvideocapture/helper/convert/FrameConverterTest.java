@@ -0,0 +1,269 @@
+package com.tencent.mlvb.customvideocapture.helper.convert;
+
+import com.tencent.mlvb.customvideocapture.helper.AllocationMeter;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvPlaneLayout;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameConverterTest {
+    // Frames are 5x3, so that the last chroma column and row cover a single pixel column and row.
+    private static final int  WIDTH       = 5;
+    private static final int  HEIGHT      = 3;
+    // Odd strides, with padding after each row.
+    private static final int  RGBA_STRIDE = WIDTH * 4 + 3;
+    private static final int  Y_STRIDE    = 7;
+    private static final int  I420_STRIDE = 5;
+    private static final int  NV_STRIDE   = 8;
+    private static final byte PADDING     = 0x5a;
+
+    // The colors of the 2x2 blocks, in the order of the chroma samples: 3 columns by 2 rows.
+    private static final int[][] COLORS = {
+            {255, 0, 0}, {0, 255, 0}, {0, 0, 255},
+            {255, 255, 255}, {0, 0, 0}, {128, 128, 128}};
+
+    // Y, U and V of the colors above, computed from the definitions of the standards.
+    private static final int[][] BT601_LIMITED = {
+            {81, 90, 240}, {145, 54, 34}, {41, 240, 110},
+            {235, 128, 128}, {16, 128, 128}, {126, 128, 128}};
+    private static final int[][] BT709_LIMITED = {
+            {63, 102, 240}, {173, 42, 26}, {32, 240, 118},
+            {235, 128, 128}, {16, 128, 128}, {126, 128, 128}};
+    private static final int[][] BT601_FULL    = {
+            {76, 85, 255}, {150, 44, 21}, {29, 255, 107},
+            {255, 128, 128}, {0, 128, 128}, {128, 128, 128}};
+    private static final int[][] BT709_FULL    = {
+            {54, 99, 255}, {182, 30, 12}, {18, 255, 116},
+            {255, 128, 128}, {0, 128, 128}, {128, 128, 128}};
+
+    @Test
+    public void rgbaToYuvMatchesTheGoldenValues() {
+        for (YuvFormat format : YuvFormat.values()) {
+            checkRgbaToYuv(YuvColorSpace.BT601_LIMITED_RANGE, BT601_LIMITED, format);
+            checkRgbaToYuv(YuvColorSpace.BT709_LIMITED_RANGE, BT709_LIMITED, format);
+            checkRgbaToYuv(YuvColorSpace.BT601_FULL_RANGE, BT601_FULL, format);
+            checkRgbaToYuv(YuvColorSpace.BT709_FULL_RANGE, BT709_FULL, format);
+        }
+    }
+
+    @Test
+    public void yuvToRgbaMatchesTheGoldenValues() {
+        for (YuvFormat format : YuvFormat.values()) {
+            checkYuvToRgba(YuvColorSpace.BT601_LIMITED_RANGE, BT601_LIMITED, format);
+            checkYuvToRgba(YuvColorSpace.BT709_LIMITED_RANGE, BT709_LIMITED, format);
+            checkYuvToRgba(YuvColorSpace.BT601_FULL_RANGE, BT601_FULL, format);
+            checkYuvToRgba(YuvColorSpace.BT709_FULL_RANGE, BT709_FULL, format);
+        }
+    }
+
+    @Test
+    public void convertYuvBetweenLayoutsIsLossless() {
+        YuvPlaneLayout i420 = layout(YuvFormat.I420);
+        YuvPlaneLayout nv21 = new YuvPlaneLayout();
+        nv21.update(YuvFormat.NV21, WIDTH, HEIGHT);
+        YuvPlaneLayout nv12 = layout(YuvFormat.NV12);
+        byte[] source = createYuv(YuvColorSpace.BT601_LIMITED_RANGE, BT601_LIMITED, i420);
+        byte[] packed = new byte[nv21.frameSize];
+        byte[] padded = filled(nv12.frameSize);
+        byte[] back = filled(i420.frameSize);
+
+        FrameConverter converter = new FrameConverter(YuvColorSpace.BT601_LIMITED_RANGE, 1);
+        converter.convertYuv(source, i420, packed, nv21);
+        converter.convertYuv(packed, nv21, padded, nv12);
+        converter.convertYuv(padded, nv12, back, i420);
+        converter.release();
+
+        assertArrayEquals(source, back);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            assertEquals(source[(i / WIDTH) * Y_STRIDE + i % WIDTH], packed[i]);
+        }
+    }
+
+    @Test
+    public void stripedConversionMatchesTheCallingThread() {
+        // Large enough to be split into stripes, with odd sizes and strides.
+        int width = 801;
+        int height = 451;
+        int rgbaStride = width * 4 + 1;
+        Random random = new Random(1);
+        byte[] rgba = new byte[rgbaStride * height];
+        random.nextBytes(rgba);
+
+        for (YuvFormat format : YuvFormat.values()) {
+            YuvPlaneLayout layout = new YuvPlaneLayout();
+            int uvStride = format.isSemiPlanar() ? width + 5 : width / 2 + 3;
+            layout.update(format, width, height, width + 2, uvStride);
+            FrameConverter single = new FrameConverter(YuvColorSpace.BT709_LIMITED_RANGE, 1);
+            FrameConverter striped = new FrameConverter(YuvColorSpace.BT709_LIMITED_RANGE, 4);
+
+            byte[] expectedYuv = filled(layout.frameSize);
+            byte[] actualYuv = filled(layout.frameSize);
+            single.rgbaToYuv(rgba, rgbaStride, expectedYuv, layout);
+            striped.rgbaToYuv(rgba, rgbaStride, actualYuv, layout);
+            assertArrayEquals(expectedYuv, actualYuv);
+
+            byte[] expectedRgba = filled(rgba.length);
+            byte[] actualRgba = filled(rgba.length);
+            single.yuvToRgba(expectedYuv, layout, expectedRgba, rgbaStride);
+            striped.yuvToRgba(expectedYuv, layout, actualRgba, rgbaStride);
+            assertArrayEquals(expectedRgba, actualRgba);
+
+            single.release();
+            striped.release();
+        }
+    }
+
+    @Test
+    public void directBuffersAreReadFromTheirPosition() {
+        YuvPlaneLayout layout = layout(YuvFormat.NV12);
+        byte[] rgba = createRgba();
+        byte[] expected = filled(layout.frameSize);
+        FrameConverter converter = new FrameConverter(YuvColorSpace.BT601_LIMITED_RANGE, 1);
+        converter.rgbaToYuv(rgba, RGBA_STRIDE, expected, layout);
+
+        ByteBuffer src = ByteBuffer.allocateDirect(rgba.length + 3);
+        src.position(3);
+        src.put(rgba).position(3);
+        ByteBuffer dst = ByteBuffer.allocateDirect(layout.frameSize + 2);
+        dst.put(filled(layout.frameSize + 2)).position(2);
+        converter.rgbaToYuv(src, RGBA_STRIDE, dst, layout);
+        converter.release();
+
+        assertEquals(3, src.position());
+        assertEquals(2, dst.position());
+        byte[] actual = new byte[layout.frameSize];
+        dst.get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void repeatedConversionsDoNotAllocate() {
+        final int width = 640;
+        final int height = 368;
+        final YuvPlaneLayout layout = new YuvPlaneLayout();
+        layout.updateI420(width, height);
+        final byte[] rgba = new byte[width * height * 4];
+        final byte[] yuv = new byte[layout.frameSize];
+        final FrameConverter converter = new FrameConverter(YuvColorSpace.BT601_LIMITED_RANGE, 4);
+
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                converter.rgbaToYuv(rgba, width * 4, yuv, layout);
+                converter.yuvToRgba(yuv, layout, rgba, width * 4);
+            }
+        }, 200, 50);
+        converter.release();
+
+        assertEquals(0, allocated);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmallBufferIsRejected() {
+        YuvPlaneLayout layout = layout(YuvFormat.I420);
+        new FrameConverter(YuvColorSpace.BT601_LIMITED_RANGE, 1).yuvToRgba(new byte[layout.frameSize], layout,
+                new byte[RGBA_STRIDE * (HEIGHT - 1)], RGBA_STRIDE);
+    }
+
+    private static void checkRgbaToYuv(YuvColorSpace colorSpace, int[][] golden, YuvFormat format) {
+        YuvPlaneLayout layout = layout(format);
+        byte[] yuv = filled(layout.frameSize);
+        FrameConverter converter = new FrameConverter(colorSpace, 1);
+        converter.rgbaToYuv(createRgba(), RGBA_STRIDE, yuv, layout);
+        converter.release();
+
+        String name = colorSpace + " " + format;
+        byte[] expected = createYuv(colorSpace, golden, layout);
+        for (int i = 0; i < yuv.length; i++) {
+            assertNear(name + " byte " + i, expected[i] & 0xff, yuv[i] & 0xff, 1);
+        }
+    }
+
+    private static void checkYuvToRgba(YuvColorSpace colorSpace, int[][] golden, YuvFormat format) {
+        YuvPlaneLayout layout = layout(format);
+        byte[] rgba = filled(RGBA_STRIDE * HEIGHT);
+        FrameConverter converter = new FrameConverter(colorSpace, 1);
+        converter.yuvToRgba(createYuv(colorSpace, golden, layout), layout, rgba, RGBA_STRIDE);
+        converter.release();
+
+        String name = colorSpace + " " + format;
+        byte[] expected = createRgba();
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < RGBA_STRIDE; x++) {
+                int i = row * RGBA_STRIDE + x;
+                if (x >= WIDTH * 4) {
+                    assertEquals(name + " padding " + i, PADDING, rgba[i]);
+                } else if (x % 4 == 3) {
+                    assertEquals(name + " alpha " + i, (byte) 0xff, rgba[i]);
+                } else {
+                    // The golden values are rounded to 8 bits, which costs up to 2 levels on the way back.
+                    assertNear(name + " byte " + i, expected[i] & 0xff, rgba[i] & 0xff, 3);
+                }
+            }
+        }
+    }
+
+    private static YuvPlaneLayout layout(YuvFormat format) {
+        YuvPlaneLayout layout = new YuvPlaneLayout();
+        layout.update(format, WIDTH, HEIGHT, Y_STRIDE, format.isSemiPlanar() ? NV_STRIDE : I420_STRIDE);
+        return layout;
+    }
+
+    /**
+     * The RGBA frame made of the colors, each filling a 2x2 block, with padding bytes after each row.
+     */
+    private static byte[] createRgba() {
+        byte[] rgba = filled(RGBA_STRIDE * HEIGHT);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int[] color = COLORS[(row / 2) * 3 + x / 2];
+                int i = row * RGBA_STRIDE + x * 4;
+                rgba[i] = (byte) color[0];
+                rgba[i + 1] = (byte) color[1];
+                rgba[i + 2] = (byte) color[2];
+                rgba[i + 3] = (byte) 0xff;
+            }
+        }
+        return rgba;
+    }
+
+    /**
+     * The YUV frame of {@link #createRgba()} in the given layout, with padding bytes where the layout has no sample.
+     */
+    private static byte[] createYuv(YuvColorSpace colorSpace, int[][] golden, YuvPlaneLayout layout) {
+        byte[] yuv = filled(layout.frameSize);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < WIDTH; x++) {
+                yuv[layout.yOffset + row * layout.yStride + x] = (byte) golden[(row / 2) * 3 + x / 2][0];
+            }
+        }
+        for (int row = 0; row < layout.chromaHeight; row++) {
+            for (int x = 0; x < layout.chromaWidth; x++) {
+                int[] sample = golden[row * 3 + x];
+                yuv[layout.uOffset + row * layout.uStride + x * layout.chromaPixelStride] = (byte) sample[1];
+                yuv[layout.vOffset + row * layout.vStride + x * layout.chromaPixelStride] = (byte) sample[2];
+            }
+        }
+        return yuv;
+    }
+
+    private static byte[] filled(int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, PADDING);
+        return bytes;
+    }
+
+    private static void assertNear(String message, int expected, int actual, int tolerance) {
+        assertTrue(message + ", expected " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= tolerance);
+    }
+}
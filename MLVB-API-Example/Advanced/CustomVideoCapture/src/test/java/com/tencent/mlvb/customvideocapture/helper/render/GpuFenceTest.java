@@ -0,0 +1,157 @@
+package com.tencent.mlvb.customvideocapture.helper.render;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GpuFenceTest {
+
+    /**
+     * Records the calls instead of making them, fences are numbered from 1.
+     */
+    private static class FakeBackend implements GpuSyncBackend {
+        final List<Long> waited    = new ArrayList<>();
+        final List<Long> deleted   = new ArrayList<>();
+        boolean          fenceSupported;
+        boolean          signaled  = true;
+        long             nextFence = 1;
+        long             clientWaitedFence;
+        int              finishCount;
+
+        FakeBackend(boolean fenceSupported) {
+            this.fenceSupported = fenceSupported;
+        }
+
+        @Override
+        public boolean isFenceSupported() {
+            return fenceSupported;
+        }
+
+        @Override
+        public long createFence() {
+            return nextFence++;
+        }
+
+        @Override
+        public void waitFence(long fence) {
+            waited.add(fence);
+        }
+
+        @Override
+        public boolean clientWaitFence(long fence, long timeoutNs) {
+            clientWaitedFence = fence;
+            return signaled;
+        }
+
+        @Override
+        public void deleteFence(long fence) {
+            deleted.add(fence);
+        }
+
+        @Override
+        public void finish() {
+            finishCount++;
+        }
+    }
+
+    @Test
+    public void insertReplacesThePreviousFence() {
+        FakeBackend backend = new FakeBackend(true);
+        GpuFence fence = new GpuFence(backend);
+
+        fence.insert();
+        fence.insert();
+
+        assertTrue(fence.hasFence());
+        assertEquals(1, backend.deleted.size());
+        assertEquals(1L, (long) backend.deleted.get(0));
+        assertEquals(0, backend.finishCount);
+    }
+
+    @Test
+    public void consumerWaitsOnTheNewestFence() {
+        FakeBackend producer = new FakeBackend(true);
+        FakeBackend consumer = new FakeBackend(true);
+        GpuFence fence = new GpuFence(producer);
+
+        fence.insert();
+        fence.insert();
+        fence.waitOnGpu(consumer);
+
+        assertEquals(1, consumer.waited.size());
+        assertEquals(2L, (long) consumer.waited.get(0));
+    }
+
+    @Test
+    public void consumerWithoutFencesDoesNotWait() {
+        GpuFence fence = new GpuFence(new FakeBackend(true));
+        FakeBackend consumer = new FakeBackend(false);
+
+        fence.insert();
+        fence.waitOnGpu(consumer);
+
+        assertTrue(consumer.waited.isEmpty());
+    }
+
+    @Test
+    public void producerWithoutFencesFinishes() {
+        FakeBackend backend = new FakeBackend(false);
+        GpuFence fence = new GpuFence(backend);
+        FakeBackend consumer = new FakeBackend(true);
+
+        fence.insert();
+        fence.waitOnGpu(consumer);
+
+        assertEquals(1, backend.finishCount);
+        assertFalse(fence.hasFence());
+        assertTrue(consumer.waited.isEmpty());
+        assertTrue(fence.waitOnCpu(0));
+    }
+
+    @Test
+    public void failedFenceCreationFinishes() {
+        FakeBackend backend = new FakeBackend(true) {
+            @Override
+            public long createFence() {
+                return 0;
+            }
+        };
+        GpuFence fence = new GpuFence(backend);
+
+        fence.insert();
+
+        assertEquals(1, backend.finishCount);
+        assertFalse(fence.hasFence());
+    }
+
+    @Test
+    public void waitOnCpuReportsTimeout() {
+        FakeBackend backend = new FakeBackend(true);
+        GpuFence fence = new GpuFence(backend);
+        fence.insert();
+
+        backend.signaled = false;
+        assertFalse(fence.waitOnCpu(1000));
+        backend.signaled = true;
+        assertTrue(fence.waitOnCpu(1000));
+        assertEquals(1L, backend.clientWaitedFence);
+    }
+
+    @Test
+    public void releaseDeletesThePendingFence() {
+        FakeBackend backend = new FakeBackend(true);
+        GpuFence fence = new GpuFence(backend);
+        fence.insert();
+
+        fence.release();
+        fence.release();
+
+        assertFalse(fence.hasFence());
+        assertEquals(1, backend.deleted.size());
+    }
+}
@@ -0,0 +1,72 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.FrameBufferPool;
+import com.tencent.mlvb.customvideocapture.helper.basic.QualityScaler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs against the stubbed GL of the unit tests, so it checks the passes and frame buffers, not what is drawn.
+ */
+public class GPUImageFilterGroupTest {
+    private static final int WIDTH  = 1280;
+    private static final int HEIGHT = 720;
+
+    /**
+     * A filter that reads neighbouring pixels, so that it is drawn in a pass of its own.
+     */
+    private static class NeighbourFilter extends GPUImageFilter {
+    }
+
+    @Test
+    public void switchingBetweenWarmScalesReusesThePooledFrameBuffers() {
+        FrameBufferPool pool = new FrameBufferPool(64L * 1024 * 1024);
+        GPUImageFilterGroup group = createGroup(pool);
+        group.warmUpRenderScales(QualityScaler.SCALES);
+        long idleBytes = pool.getIdleBytes();
+        int inUseCount = pool.getInUseCount();
+
+        for (float scale : new float[]{0.5f, 0.75f, 1.0f, 0.5f, 1.0f}) {
+            group.setRenderScale(scale);
+            group.draw(1, OpenGlUtils.NO_TEXTURE, new QuadGeometry(OpenGlUtils.CUBE, OpenGlUtils.TEXTURE));
+            assertEquals(scale, group.getRenderScale(), 0);
+            assertEquals(inUseCount, pool.getInUseCount());
+        }
+
+        // Back at the first scale, a frame buffer created on the way would show up as more idle bytes.
+        assertEquals(idleBytes, pool.getIdleBytes());
+        group.destroy();
+        pool.clear();
+    }
+
+    @Test
+    public void passesBeforeTheLastOneAreScaled() {
+        GPUImageFilterGroup group = createGroup(new FrameBufferPool());
+        group.setRenderScale(0.5f);
+        group.draw(1, OpenGlUtils.NO_TEXTURE, new QuadGeometry(OpenGlUtils.CUBE, OpenGlUtils.TEXTURE));
+
+        assertEquals(3, group.getRenderFilters().size());
+        assertEquals(640, GPUImageFilterGroup.getScaledSize(WIDTH, group.getRenderScale()));
+        assertEquals(360, GPUImageFilterGroup.getScaledSize(HEIGHT, group.getRenderScale()));
+        assertEquals(1, GPUImageFilterGroup.getScaledSize(1, 0.5f));
+        group.destroy();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scaleAboveOneIsRejected() {
+        new GPUImageFilterGroup().setRenderScale(1.5f);
+    }
+
+    private static GPUImageFilterGroup createGroup(FrameBufferPool pool) {
+        GPUImageFilterGroup group = new GPUImageFilterGroup();
+        group.setFrameBufferPool(pool);
+        for (int i = 0; i < 3; i++) {
+            group.addFilter(new NeighbourFilter());
+        }
+        group.init();
+        group.onOutputSizeChanged(WIDTH, HEIGHT);
+        return group;
+    }
+}
@@ -0,0 +1,48 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import com.tencent.mlvb.customvideocapture.helper.AllocationMeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs against the stubbed GL of the unit tests, so it checks the Java side of drawing only.
+ */
+public class GPUImageFilterTest {
+
+    @Test
+    public void drawWithoutPendingTasksDoesNotAllocate() {
+        final GPUImageFilter filter = new GPUImageFilter();
+        filter.init();
+        final QuadGeometry geometry = new QuadGeometry(OpenGlUtils.CUBE, OpenGlUtils.TEXTURE);
+
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                filter.onDraw(1, geometry.getCubeBuffer(), geometry.getTextureBuffer());
+            }
+        }, 10000);
+
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void pendingTaskRunsOnTheNextDraw() {
+        GPUImageFilter filter = new GPUImageFilter();
+        filter.init();
+        QuadGeometry geometry = new QuadGeometry(OpenGlUtils.CUBE, OpenGlUtils.TEXTURE);
+        final int[] runs = new int[1];
+        filter.runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        });
+
+        filter.onDraw(1, geometry.getCubeBuffer(), geometry.getTextureBuffer());
+        filter.onDraw(1, geometry.getCubeBuffer(), geometry.getTextureBuffer());
+
+        assertEquals(1, runs[0]);
+    }
+}
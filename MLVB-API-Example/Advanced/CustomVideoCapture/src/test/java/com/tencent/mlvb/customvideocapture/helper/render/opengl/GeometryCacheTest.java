@@ -0,0 +1,105 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.widget.ImageView.ScaleType;
+
+import com.tencent.mlvb.customvideocapture.helper.AllocationMeter;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class GeometryCacheTest {
+
+    @Test
+    public void sameKeyReturnsTheSameGeometry() {
+        GeometryCache cache = new GeometryCache();
+        QuadGeometry geometry = cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, true, 1280, 720, 720, 1280);
+
+        assertSame(geometry, cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, true, 1280, 720, 720, 1280));
+        assertNotSame(geometry, cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 1280, 720, 720, 1280));
+        assertNotSame(geometry, cache.get(ScaleType.CENTER_CROP, Rotation.ROTATION_90, false, true, 1280, 720, 720,
+                1280));
+        assertNotSame(geometry, cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, true, 1280, 720, 1080, 1920));
+    }
+
+    @Test
+    public void geometryMatchesTheComputedBuffers() {
+        GeometryCache cache = new GeometryCache();
+        QuadGeometry geometry = cache.get(ScaleType.CENTER_CROP, Rotation.ROTATION_90, true, false, 640, 480, 480,
+                640);
+        float[] cube = new float[OpenGlUtils.CUBE.length];
+        float[] textureCoordinates = new float[OpenGlUtils.CUBE.length];
+        OpenGlUtils.calcCubeAndTextureBuffer(ScaleType.CENTER_CROP, Rotation.ROTATION_90, true, false, 640, 480, 480,
+                640, cube, textureCoordinates);
+
+        assertBufferEquals(cube, geometry.getCubeBuffer());
+        assertBufferEquals(textureCoordinates, geometry.getTextureBuffer());
+    }
+
+    @Test
+    public void sameAspectRatioIsNotCropped() {
+        QuadGeometry geometry = new GeometryCache().get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 640,
+                480, 1280, 960);
+
+        assertBufferEquals(OpenGlUtils.CUBE, geometry.getCubeBuffer());
+        assertBufferEquals(TextureRotationUtils.TEXTURE_NO_ROTATION, geometry.getTextureBuffer());
+    }
+
+    @Test
+    public void leastRecentlyUsedGeometryIsEvicted() {
+        GeometryCache cache = new GeometryCache(2);
+        QuadGeometry first = cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 100, 100, 100, 100);
+        QuadGeometry second = cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 200, 200, 200, 200);
+        // Touch the first one, so that the second one is the eldest when a third one comes in.
+        cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 100, 100, 100, 100);
+        cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 300, 300, 300, 300);
+
+        assertSame(first, cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 100, 100, 100, 100));
+        assertNotSame(second, cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 200, 200, 200, 200));
+    }
+
+    @Test
+    public void evictedGeometryDrawnAgainIsReleasedByClear() {
+        GeometryCache cache = new GeometryCache(1);
+        QuadGeometry held = cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 100, 100, 100, 100);
+        held.getVertexBufferId();
+        cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, false, 200, 200, 200, 200);
+        assertEquals(0, cache.getEvictedInUseCount());
+
+        // A holder that kept the evicted geometry draws it again, twice.
+        held.getVertexBufferId();
+        held.getVertexBufferId();
+        assertEquals(1, cache.getEvictedInUseCount());
+
+        cache.clear();
+        assertEquals(0, cache.getEvictedInUseCount());
+    }
+
+    @Test
+    public void hitDoesNotAllocate() {
+        final GeometryCache cache = new GeometryCache();
+        cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, true, 1280, 720, 720, 1280);
+        cache.get(ScaleType.FIT_CENTER, Rotation.ROTATION_270, true, false, 1920, 1080, 1080, 1920);
+
+        long allocated = AllocationMeter.measure(new Runnable() {
+            @Override
+            public void run() {
+                cache.get(ScaleType.CENTER_CROP, Rotation.NORMAL, false, true, 1280, 720, 720, 1280);
+                cache.get(ScaleType.FIT_CENTER, Rotation.ROTATION_270, true, false, 1920, 1080, 1080, 1920);
+            }
+        }, 10000);
+
+        assertEquals(0, allocated);
+    }
+
+    private static void assertBufferEquals(float[] expected, FloatBuffer buffer) {
+        assertEquals(expected.length, buffer.capacity());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], buffer.get(i), 0);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs against the stubbed GL of the unit tests, so the programs come from a counting linker and binaries are never
+ * supported.
+ */
+public class ProgramCacheTest {
+    private static final String VERTEX   = "vertex";
+    private static final String FRAGMENT = "fragment";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final class CountingLinker implements ProgramCache.Linker {
+        private int mLinks;
+
+        @Override
+        public int link(String vertexShader, String fragmentShader, boolean retrievableBinary) {
+            return ++mLinks;
+        }
+    }
+
+    @Test
+    public void keyIsTheSha1OfTheSources() {
+        // sha1("vertex\0fragment")
+        assertEquals("204ae97f6f33d3ffc78a269b8ab8c5c52ffdb1a6", ProgramCache.hash(VERTEX, FRAGMENT));
+        // The separator keeps the sources apart.
+        assertNotEquals(ProgramCache.hash("ab", "c"), ProgramCache.hash("a", "bc"));
+    }
+
+    @Test
+    public void idleProgramIsHandedToTheNextUser() {
+        CountingLinker linker = new CountingLinker();
+        ProgramCache cache = new ProgramCache(linker);
+        cache.setCurrentShareGroup(cache.onContextCreated(new Object(), null));
+
+        ProgramCache.Entry entry = cache.acquire(VERTEX, FRAGMENT);
+        cache.release(entry);
+
+        assertSame(entry, cache.acquire(VERTEX, FRAGMENT));
+        assertEquals(1, linker.mLinks);
+    }
+
+    @Test
+    public void usersAtTheSameTimeGetProgramsOfTheirOwn() {
+        CountingLinker linker = new CountingLinker();
+        ProgramCache cache = new ProgramCache(linker);
+        cache.setCurrentShareGroup(cache.onContextCreated(new Object(), null));
+
+        ProgramCache.Entry first = cache.acquire(VERTEX, FRAGMENT);
+        ProgramCache.Entry second = cache.acquire(VERTEX, FRAGMENT);
+        assertNotEquals(first.getProgramId(), second.getProgramId());
+
+        // Both are kept, so two more users at the same time compile nothing.
+        cache.release(first);
+        cache.release(second);
+        cache.acquire(VERTEX, FRAGMENT);
+        cache.acquire(VERTEX, FRAGMENT);
+        assertEquals(2, linker.mLinks);
+    }
+
+    @Test
+    public void programsAreSharedWithinAShareGroupOnly() {
+        CountingLinker linker = new CountingLinker();
+        ProgramCache cache = new ProgramCache(linker);
+        Object context = new Object();
+        ProgramCache.ShareGroup group = cache.onContextCreated(context, null);
+        ProgramCache.ShareGroup sharing = cache.onContextCreated(new Object(), context);
+        ProgramCache.ShareGroup other = cache.onContextCreated(new Object(), null);
+        assertSame(group, sharing);
+
+        cache.setCurrentShareGroup(group);
+        cache.release(cache.acquire(VERTEX, FRAGMENT));
+        cache.setCurrentShareGroup(sharing);
+        cache.release(cache.acquire(VERTEX, FRAGMENT));
+        assertEquals(1, linker.mLinks);
+
+        cache.setCurrentShareGroup(other);
+        cache.acquire(VERTEX, FRAGMENT);
+        assertEquals(2, linker.mLinks);
+    }
+
+    @Test
+    public void programsAreDroppedWithTheLastContextOfTheGroup() {
+        CountingLinker linker = new CountingLinker();
+        ProgramCache cache = new ProgramCache(linker);
+        Object context = new Object();
+        Object sharing = new Object();
+        ProgramCache.ShareGroup group = cache.onContextCreated(context, null);
+        cache.onContextCreated(sharing, context);
+        cache.setCurrentShareGroup(group);
+        cache.release(cache.acquire(VERTEX, FRAGMENT));
+
+        cache.onContextDestroyed(sharing, group);
+        cache.release(cache.acquire(VERTEX, FRAGMENT));
+        assertEquals(1, linker.mLinks);
+
+        cache.onContextDestroyed(context, group);
+        cache.setCurrentShareGroup(cache.onContextCreated(new Object(), null));
+        cache.acquire(VERTEX, FRAGMENT);
+        assertEquals(2, linker.mLinks);
+    }
+
+    @Test
+    public void programWithoutShareGroupIsPrivate() {
+        CountingLinker linker = new CountingLinker();
+        ProgramCache cache = new ProgramCache(linker);
+
+        cache.release(cache.acquire(VERTEX, FRAGMENT));
+        cache.acquire(VERTEX, FRAGMENT);
+        assertEquals(2, linker.mLinks);
+    }
+
+    @Test
+    public void failedLinkIsNotCached() {
+        ProgramCache cache = new ProgramCache(new ProgramCache.Linker() {
+            @Override
+            public int link(String vertexShader, String fragmentShader, boolean retrievableBinary) {
+                return -1;
+            }
+        });
+        cache.setCurrentShareGroup(cache.onContextCreated(new Object(), null));
+
+        assertNull(cache.acquire(VERTEX, FRAGMENT));
+        assertNull(cache.acquire(VERTEX, FRAGMENT));
+    }
+
+    @Test
+    public void driverChangeClearsTheBinaries() throws IOException {
+        File directory = mFolder.getRoot();
+        assertTrue(ProgramCache.clearIfDriverChanged(directory, "vendor\nrenderer\n3.2"));
+
+        File binary = mFolder.newFile(ProgramCache.hash(VERTEX, FRAGMENT) + ".bin");
+        File tempFile = mFolder.newFile("abc123.tmp");
+        File other = mFolder.newFile("other");
+        assertFalse(ProgramCache.clearIfDriverChanged(directory, "vendor\nrenderer\n3.2"));
+        assertTrue(binary.exists());
+
+        assertTrue(ProgramCache.clearIfDriverChanged(directory, "vendor\nrenderer\n3.2 updated"));
+        assertFalse(binary.exists());
+        assertFalse(tempFile.exists());
+        assertTrue(other.exists());
+        assertFalse(ProgramCache.clearIfDriverChanged(directory, "vendor\nrenderer\n3.2 updated"));
+    }
+}
@@ -0,0 +1,74 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
+import com.tencent.mlvb.customvideocapture.helper.render.opengl.RenderProgramRegistry.ProgramType;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs against the stubbed GL of the unit tests, so it checks what is built and when, not what is drawn.
+ */
+public class RenderProgramRegistryTest {
+
+    @Test
+    public void everyYuvFormatHasItsProgram() {
+        for (YuvFormat format : YuvFormat.values()) {
+            ProgramType type = ProgramType.fromYuvFormat(format);
+            assertEquals(format, type.getYuvFormat());
+        }
+        assertNull(ProgramType.TEXTURE_2D.getYuvFormat());
+    }
+
+    @Test
+    public void prewarmBuildsEveryProgram() {
+        RenderProgramRegistry registry = new RenderProgramRegistry(YuvColorSpace.BT601_LIMITED_RANGE);
+        registry.prewarm();
+
+        for (ProgramType type : ProgramType.values()) {
+            GPUImageFilter filter = registry.get(type);
+            assertTrue(filter.isInitialized());
+            if (type == ProgramType.TEXTURE_2D) {
+                assertFalse(filter instanceof GpuImageI420Filter);
+            } else {
+                assertEquals(type.getYuvFormat(), ((GpuImageI420Filter) filter).getFormat());
+            }
+        }
+        registry.destroy();
+    }
+
+    @Test
+    public void switchingFormatsReusesThePrewarmedFilters() {
+        RenderProgramRegistry registry = new RenderProgramRegistry(YuvColorSpace.BT709_LIMITED_RANGE);
+        registry.prewarm();
+        GPUImageFilter[] prewarmed = new GPUImageFilter[ProgramType.values().length];
+        for (ProgramType type : ProgramType.values()) {
+            prewarmed[type.ordinal()] = registry.get(type);
+        }
+
+        // Alternate between texture and YUV frames as a stream switching formats would.
+        for (int i = 0; i < 100; i++) {
+            ProgramType type = ProgramType.values()[i % prewarmed.length];
+            assertSame(prewarmed[type.ordinal()], registry.get(type));
+        }
+        assertSame(prewarmed[ProgramType.YUV_NV21.ordinal()], registry.getYuvFilter(YuvFormat.NV21));
+        registry.destroy();
+    }
+
+    @Test
+    public void destroyReleasesEveryFilter() {
+        RenderProgramRegistry registry = new RenderProgramRegistry(YuvColorSpace.BT601_FULL_RANGE);
+        registry.prewarm();
+        GPUImageFilter filter = registry.get(ProgramType.YUV_I420);
+
+        registry.destroy();
+
+        assertFalse(filter.isInitialized());
+    }
+}
@@ -0,0 +1,47 @@
+// JMH benchmarks of the CPU-side helpers of CustomVideoCapture, run on the JVM of the build machine with
+// ./gradlew :Advanced:CustomVideoCaptureBenchmark:jmh
+// The helpers are compiled from the sources of CustomVideoCapture. The few Android classes they touch come from the
+// Robolectric build of the framework, the benchmarked paths do not call into GL or native code.
+plugins {
+    id("java-library")
+    id("me.champeau.jmh") version "0.6.8"
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+val helperSources = project(":Advanced:CustomVideoCapture").file("src/main/java")
+val helperPackage = "com/tencent/mlvb/customvideocapture/helper"
+
+sourceSets {
+    main {
+        java {
+            srcDir(helperSources)
+            include(
+                "$helperPackage/basic/TaskQueue.java",
+                "$helperPackage/basic/YuvColorSpace.java",
+                "$helperPackage/basic/YuvFormat.java",
+                "$helperPackage/basic/YuvPlaneLayout.java",
+                "$helperPackage/convert/*.java",
+                "$helperPackage/render/opengl/GeometryCache.java",
+                "$helperPackage/render/opengl/OpenGlUtils.java",
+                "$helperPackage/render/opengl/QuadGeometry.java",
+                "$helperPackage/render/opengl/Rotation.java",
+                "$helperPackage/render/opengl/TextureRotationUtils.java"
+            )
+        }
+    }
+}
+
+dependencies {
+    implementation("org.robolectric:android-all:13-robolectric-9030017")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
@@ -0,0 +1,81 @@
+package com.tencent.mlvb.customvideocapture.helper.basic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pending tasks of a filter, run before every draw: {@link TaskQueue} against the locked {@link LinkedList} copy
+ * that GPUImageFilter used before. Usually nothing is pending, sometimes a uniform update is.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TaskQueueBenchmark {
+
+    /**
+     * The previous runPendingOnDrawTasks of GPUImageFilter.
+     */
+    private static final class LinkedListQueue {
+        private final LinkedList<Runnable> mRunOnDraw = new LinkedList<>();
+
+        void post(Runnable task) {
+            synchronized (mRunOnDraw) {
+                mRunOnDraw.addLast(task);
+            }
+        }
+
+        void runAll() {
+            LinkedList<Runnable> runList;
+            synchronized (mRunOnDraw) {
+                runList = new LinkedList<>(mRunOnDraw);
+                mRunOnDraw.clear();
+            }
+            while (!runList.isEmpty()) {
+                runList.removeFirst().run();
+            }
+        }
+    }
+
+    private final TaskQueue       mTaskQueue       = new TaskQueue();
+    private final LinkedListQueue mLinkedListQueue = new LinkedListQueue();
+    private       int             mUniform;
+
+    private final Runnable mSetUniform = new Runnable() {
+        @Override
+        public void run() {
+            mUniform++;
+        }
+    };
+
+    @Benchmark
+    public void taskQueueEmpty() {
+        mTaskQueue.runAll();
+    }
+
+    @Benchmark
+    public void linkedListEmpty() {
+        mLinkedListQueue.runAll();
+    }
+
+    @Benchmark
+    public void taskQueueOneTask(Blackhole blackhole) {
+        mTaskQueue.post(mSetUniform);
+        mTaskQueue.runAll();
+        blackhole.consume(mUniform);
+    }
+
+    @Benchmark
+    public void linkedListOneTask(Blackhole blackhole) {
+        mLinkedListQueue.post(mSetUniform);
+        mLinkedListQueue.runAll();
+        blackhole.consume(mUniform);
+    }
+}
@@ -0,0 +1,74 @@
+package com.tencent.mlvb.customvideocapture.helper.convert;
+
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvColorSpace;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvFormat;
+import com.tencent.mlvb.customvideocapture.helper.basic.YuvPlaneLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting one frame between NV21 and RGBA, on the calling thread only and striped over the workers.
+ * Direct buffers, as the SDK and the readback hand them over.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameConverterBenchmark {
+    @Param({"1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"1", "4"})
+    public int threadCount;
+
+    private final YuvPlaneLayout mLayout = new YuvPlaneLayout();
+    private       FrameConverter mConverter;
+    private       ByteBuffer     mYuv;
+    private       ByteBuffer     mRgba;
+    private       int            mRgbaStride;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        mLayout.update(YuvFormat.NV21, width, height);
+        mRgbaStride = width * 4;
+        mConverter = new FrameConverter(YuvColorSpace.BT601_FULL_RANGE, threadCount);
+
+        byte[] pixels = new byte[Math.max(mLayout.frameSize, mRgbaStride * height)];
+        new Random(1).nextBytes(pixels);
+        mYuv = ByteBuffer.allocateDirect(mLayout.frameSize);
+        mYuv.put(pixels, 0, mLayout.frameSize).clear();
+        mRgba = ByteBuffer.allocateDirect(mRgbaStride * height);
+        mRgba.put(pixels, 0, mRgbaStride * height).clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mConverter.release();
+    }
+
+    @Benchmark
+    public ByteBuffer yuvToRgba() {
+        mConverter.yuvToRgba(mYuv, mLayout, mRgba, mRgbaStride);
+        return mRgba;
+    }
+
+    @Benchmark
+    public ByteBuffer rgbaToYuv() {
+        mConverter.rgbaToYuv(mRgba, mRgbaStride, mYuv, mLayout);
+        return mYuv;
+    }
+}
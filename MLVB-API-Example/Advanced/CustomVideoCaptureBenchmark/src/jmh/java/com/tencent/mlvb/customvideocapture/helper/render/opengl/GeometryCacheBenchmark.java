@@ -0,0 +1,58 @@
+package com.tencent.mlvb.customvideocapture.helper.render.opengl;
+
+import android.util.Pair;
+import android.widget.ImageView.ScaleType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The geometry of a render target for every frame: a {@link GeometryCache} hit, against computing it again with
+ * {@link OpenGlUtils#calcCubeAndTextureBuffer} and copying it into the client-side buffers, as the renderer used to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeometryCacheBenchmark {
+    private GeometryCache mCache;
+    private FloatBuffer   mCubeBuffer;
+    private FloatBuffer   mTextureBuffer;
+
+    @Setup
+    public void setUp() {
+        mCache = new GeometryCache();
+        mCache.get(ScaleType.CENTER_CROP, Rotation.ROTATION_90, false, true, 1280, 720, 1080, 1920);
+        mCubeBuffer = createFloatBuffer();
+        mTextureBuffer = createFloatBuffer();
+    }
+
+    @Benchmark
+    public QuadGeometry cacheHit() {
+        return mCache.get(ScaleType.CENTER_CROP, Rotation.ROTATION_90, false, true, 1280, 720, 1080, 1920);
+    }
+
+    @Benchmark
+    public FloatBuffer recompute() {
+        Pair<float[], float[]> cubeAndTextureBuffer = OpenGlUtils.calcCubeAndTextureBuffer(ScaleType.CENTER_CROP,
+                Rotation.ROTATION_90, false, true, 1280, 720, 1080, 1920);
+        mCubeBuffer.clear();
+        mCubeBuffer.put(cubeAndTextureBuffer.first).position(0);
+        mTextureBuffer.clear();
+        mTextureBuffer.put(cubeAndTextureBuffer.second).position(0);
+        return mTextureBuffer;
+    }
+
+    private static FloatBuffer createFloatBuffer() {
+        return ByteBuffer.allocateDirect(OpenGlUtils.CUBE.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
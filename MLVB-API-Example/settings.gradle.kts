@@ -9,6 +9,7 @@ include(":Basic:LiveLink")
 include(":Basic:LivePK")
 include(":Advanced:SwitchRenderView")
 include(":Advanced:CustomVideoCapture")
+include(":Advanced:CustomVideoCaptureBenchmark")
 include(":Advanced:ThirdBeauty")
 include(":Advanced:RTCPushAndPlay")
 include(":Advanced:LebAutoBitrate")